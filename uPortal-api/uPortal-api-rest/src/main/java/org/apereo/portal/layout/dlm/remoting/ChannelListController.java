@@ -296,12 +296,11 @@ public class ChannelListController {
         uncategorizedPortletsBean.setDescription(
                 messageSource.getMessage(UNCATEGORIZED_DESC, new Object[] {}, locale));
 
-        for (IPortletDefinition portlet : portletsNotYetCategorized) {
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
-                // construct a new channel bean from this channel
-                ChannelBean channel = getChannel(portlet, request, locale);
-                uncategorizedPortletsBean.addChannel(channel);
-            }
+        for (IPortletDefinition portlet :
+                authorizationService.filterBrowsablePortlets(ap, portletsNotYetCategorized)) {
+            // construct a new channel bean from this channel
+            ChannelBean channel = getChannel(portlet, request, locale);
+            uncategorizedPortletsBean.addChannel(channel);
         }
         // Add even if no portlets in category
         categories.add(uncategorizedPortletsBean);
@@ -327,22 +326,20 @@ public class ChannelListController {
         IAuthorizationPrincipal ap =
                 AuthorizationServiceFacade.instance().newPrincipal(ei.getKey(), ei.getType());
 
-        for (IPortletDefinition portlet : portlets) {
-
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
-                // construct a new channel bean from this channel
-                ChannelBean channel = getChannel(portlet, request, locale);
-                categoryBean.addChannel(channel);
-            }
-
-            /*
-             * Remove the portlet from the uncategorized collection;
-             * note -- this approach will not prevent portlets from
-             * appearing in multiple categories (as appropriate).
-             */
-            portletsNotYetCategorized.remove(portlet);
+        for (IPortletDefinition portlet :
+                authorizationService.filterBrowsablePortlets(ap, portlets)) {
+            // construct a new channel bean from this channel
+            ChannelBean channel = getChannel(portlet, request, locale);
+            categoryBean.addChannel(channel);
         }
 
+        /*
+         * Remove the portlets from the uncategorized collection;
+         * note -- this approach will not prevent portlets from
+         * appearing in multiple categories (as appropriate).
+         */
+        portletsNotYetCategorized.removeAll(portlets);
+
         /* Now add child categories. */
         for (PortletCategory childCategory :
                 this.portletCategoryRegistry.getChildCategories(category)) {
@@ -429,13 +426,12 @@ public class ChannelListController {
                     AuthorizationServiceFacade.instance().newPrincipal(ei.getKey(), ei.getType());
 
             Set<PortletDefinitionBean> marketplacePortlets = new HashSet<>();
-            for (IPortletDefinition portlet : portletsNotYetCategorized) {
-                if (authorizationService.canPrincipalBrowse(ap, portlet)) {
-                    PortletDefinitionBean pdb =
-                            preparePortletDefinitionBean(
-                                    request, portlet, locale, favorites.contains(portlet));
-                    marketplacePortlets.add(pdb);
-                }
+            for (IPortletDefinition portlet :
+                    authorizationService.filterBrowsablePortlets(ap, portletsNotYetCategorized)) {
+                PortletDefinitionBean pdb =
+                        preparePortletDefinitionBean(
+                                request, portlet, locale, favorites.contains(portlet));
+                marketplacePortlets.add(pdb);
             }
 
             // construct a new channel category bean for this category
@@ -483,23 +479,20 @@ public class ChannelListController {
                 AuthorizationServiceFacade.instance().newPrincipal(ei.getKey(), ei.getType());
 
         Set<PortletDefinitionBean> marketplacePortlets = new HashSet<>();
-        for (IPortletDefinition portlet : portlets) {
-
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
-                PortletDefinitionBean pdb =
-                        preparePortletDefinitionBean(
-                                req, portlet, locale, favorites.contains(portlet));
-                marketplacePortlets.add(pdb);
-            }
-
-            /*
-             * Remove the portlet from the uncategorized collection;
-             * note -- this approach will not prevent portlets from
-             * appearing in multiple categories (as appropriate).
-             */
-            portletsNotYetCategorized.remove(portlet);
+        for (IPortletDefinition portlet :
+                authorizationService.filterBrowsablePortlets(ap, portlets)) {
+            PortletDefinitionBean pdb =
+                    preparePortletDefinitionBean(req, portlet, locale, favorites.contains(portlet));
+            marketplacePortlets.add(pdb);
         }
 
+        /*
+         * Remove the portlets from the uncategorized collection;
+         * note -- this approach will not prevent portlets from
+         * appearing in multiple categories (as appropriate).
+         */
+        portletsNotYetCategorized.removeAll(portlets);
+
         // construct a new portlet category bean for this category
         PortletCategoryBean categoryBean =
                 PortletCategoryBean.fromPortletCategory(
@@ -0,0 +1,220 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm.remoting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.stream.Collectors;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.i18n.ILocaleStore;
+import org.apereo.portal.i18n.LocaleManager;
+import org.apereo.portal.i18n.LocaleManagerFactory;
+import org.apereo.portal.layout.dlm.remoting.registry.ChannelBean;
+import org.apereo.portal.layout.dlm.remoting.registry.ChannelCategoryBean;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.apereo.portal.portlet.om.PortletCategory;
+import org.apereo.portal.portlet.om.PortletLifecycleState;
+import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.IPersonManager;
+import org.apereo.portal.spring.locator.AuthorizationServiceLocator;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.context.MessageSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.ModelAndView;
+
+/** Tests how ChannelListController filters the portlet registry with the bulk browse check. */
+public class ChannelListControllerTest {
+
+    private static AuthorizationServiceLocator authorizationServiceLocator;
+
+    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPortletCategoryRegistry portletCategoryRegistry;
+    @Mock private IPersonManager personManager;
+    @Mock private ILocaleStore localeStore;
+    @Mock private LocaleManagerFactory localeManagerFactory;
+    @Mock private LocaleManager localeManager;
+    @Mock private MessageSource messageSource;
+    @Mock private IAuthorizationService authorizationService;
+    @Mock private IPerson user;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private ChannelListController channelListController;
+
+    /** Principals are created through AuthorizationServiceFacade */
+    @BeforeClass
+    public static void setupLocator() throws Exception {
+        final IAuthorizationService principalFactory = mock(IAuthorizationService.class);
+        when(principalFactory.newPrincipal(any(String.class), any(Class.class)))
+                .thenReturn(mock(IAuthorizationPrincipal.class));
+        authorizationServiceLocator = new AuthorizationServiceLocator(principalFactory);
+        authorizationServiceLocator.afterPropertiesSet();
+    }
+
+    @AfterClass
+    public static void teardownLocator() throws Exception {
+        authorizationServiceLocator.destroy();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        initMocks(this);
+
+        when(personManager.getPerson(request)).thenReturn(user);
+        when(user.getUserName()).thenReturn("jdoe");
+        when(user.getEntityIdentifier()).thenReturn(new EntityIdentifier("jdoe", IPerson.class));
+        when(localeStore.getUserLocales(user)).thenReturn(new Locale[] {Locale.US});
+        when(localeManagerFactory.createLocaleManager(any(), any())).thenReturn(localeManager);
+        when(localeManager.getLocales()).thenReturn(Collections.singletonList(Locale.US));
+        when(messageSource.getMessage(anyString(), any(Object[].class), any(Locale.class)))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        channelListController = new ChannelListController();
+        channelListController.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        channelListController.setPortletCategoryRegistry(portletCategoryRegistry);
+        channelListController.setPersonManager(personManager);
+        channelListController.setLocaleStore(localeStore);
+        channelListController.setLocaleManagerFactory(localeManagerFactory);
+        channelListController.setMessageSource(messageSource);
+        channelListController.setAuthorizationService(authorizationService);
+    }
+
+    /**
+     * Portlets in a category are left out of Uncategorized whether or not the user may browse
+     * them, only browsable portlets are listed.
+     */
+    @Test
+    public void testListChannelsFiltersCategoriesAndUncategorized() {
+        final IPortletDefinition browsableInRoot = mockPortlet("1");
+        final IPortletDefinition hiddenInRoot = mockPortlet("2");
+        final IPortletDefinition browsableInChild = mockPortlet("3");
+        final IPortletDefinition browsableUncategorized = mockPortlet("4");
+        final IPortletDefinition hiddenUncategorized = mockPortlet("5");
+        when(portletDefinitionRegistry.getAllPortletDefinitions())
+                .thenReturn(
+                        Arrays.asList(
+                                browsableInRoot,
+                                hiddenInRoot,
+                                browsableInChild,
+                                browsableUncategorized,
+                                hiddenUncategorized));
+
+        final PortletCategory root = newCategory("local.0", "All");
+        final PortletCategory child = newCategory("local.1", "Child");
+        when(portletCategoryRegistry.getTopLevelPortletCategory()).thenReturn(root);
+        when(portletCategoryRegistry.getChildCategories(root))
+                .thenReturn(Collections.singleton(child));
+        when(portletCategoryRegistry.getChildPortlets(root))
+                .thenReturn(new HashSet<>(Arrays.asList(browsableInRoot, hiddenInRoot)));
+        when(portletCategoryRegistry.getChildCategories(child))
+                .thenReturn(Collections.<PortletCategory>emptySet());
+        when(portletCategoryRegistry.getChildPortlets(child))
+                .thenReturn(Collections.singleton(browsableInChild));
+
+        final Set<IPortletDefinition> browsable =
+                new HashSet<>(
+                        Arrays.asList(browsableInRoot, browsableInChild, browsableUncategorized));
+        when(authorizationService.filterBrowsablePortlets(any(), anyCollection()))
+                .thenAnswer(
+                        invocation -> {
+                            final Collection<IPortletDefinition> portlets =
+                                    invocation.getArgument(1);
+                            return portlets.stream()
+                                    .filter(browsable::contains)
+                                    .collect(Collectors.toList());
+                        });
+
+        final ModelAndView modelAndView =
+                channelListController.listChannels(new ServletWebRequest(request), request, null);
+
+        final Map<String, SortedSet<?>> registry =
+                (Map<String, SortedSet<?>>) modelAndView.getModel().get("registry");
+        ChannelCategoryBean rootBean = null;
+        ChannelCategoryBean uncategorizedBean = null;
+        for (final Object category : registry.get("categories")) {
+            final ChannelCategoryBean categoryBean = (ChannelCategoryBean) category;
+            if ("local.0".equals(categoryBean.getId())) {
+                rootBean = categoryBean;
+            } else if ("uncategorized".equals(categoryBean.getName())) {
+                uncategorizedBean = categoryBean;
+            }
+        }
+        assertNotNull(rootBean);
+        assertNotNull(uncategorizedBean);
+
+        assertEquals(Collections.singletonList("1"), channelIds(rootBean));
+        assertEquals(1, rootBean.getCategories().size());
+        assertEquals(Collections.singletonList("3"), channelIds(rootBean.getCategories().first()));
+        assertEquals(Collections.singletonList("4"), channelIds(uncategorizedBean));
+
+        // One bulk check per category and one for the uncategorized portlets
+        verify(authorizationService, times(3)).filterBrowsablePortlets(any(), anyCollection());
+        verify(authorizationService, never())
+                .canPrincipalBrowse(any(), any(IPortletDefinition.class));
+    }
+
+    private static List<String> channelIds(ChannelCategoryBean categoryBean) {
+        return categoryBean.getChannels().stream()
+                .map(ChannelBean::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static PortletCategory newCategory(String id, String name) {
+        final PortletCategory category = new PortletCategory(id);
+        category.setName(name);
+        return category;
+    }
+
+    private static IPortletDefinition mockPortlet(String id) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(id);
+        final IPortletType portletType = mock(IPortletType.class);
+        final IPortletDefinition portlet = mock(IPortletDefinition.class);
+        when(portlet.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portlet.getFName()).thenReturn("portlet" + id);
+        when(portlet.getType()).thenReturn(portletType);
+        when(portlet.getLifecycleState()).thenReturn(PortletLifecycleState.PUBLISHED);
+        return portlet;
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog cardinality estimation over a plain byte array so the sketch can be stored as a
+ * single binary column. The first byte holds the precision <code>p</code>, it is followed by the
+ * <code>2^p</code> registers. The relative standard error of the estimate is about <code>
+ * 1.04 / sqrt(2^p)</code>, independent of the number of strings added.
+ */
+public final class HyperLogLogSketch {
+    /** Smallest precision, 16 registers and an error of about 26% */
+    public static final int MIN_PRECISION = 4;
+    /** Largest precision, 64k registers and an error of about 0.4% */
+    public static final int MAX_PRECISION = 16;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private HyperLogLogSketch() {}
+
+    /** @return A new empty sketch with the specified precision */
+    public static byte[] create(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException(
+                    "precision must be between "
+                            + MIN_PRECISION
+                            + " and "
+                            + MAX_PRECISION
+                            + ": "
+                            + precision);
+        }
+        final byte[] sketch = new byte[(1 << precision) + 1];
+        sketch[0] = (byte) precision;
+        return sketch;
+    }
+
+    /** @return The smallest precision with a relative standard error no larger than specified */
+    public static int getPrecision(double standardError) {
+        if (standardError <= 0) {
+            throw new IllegalArgumentException("standardError must be greater than 0");
+        }
+        final double registers = Math.pow(1.04 / standardError, 2);
+        final int precision = (int) Math.ceil(Math.log(registers) / Math.log(2));
+        return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+    }
+
+    /** @return true if adding the string changed the sketch, false if it was probably seen */
+    public static boolean add(byte[] sketch, String value) {
+        final long hash = hash(value);
+        final int index = getIndex(sketch, hash);
+        final int rank = getRank(sketch, hash);
+        if (rank > sketch[index]) {
+            sketch[index] = (byte) rank;
+            return true;
+        }
+        return false;
+    }
+
+    /** @return The estimated number of distinct strings added to the sketch */
+    public static long estimate(byte[] sketch) {
+        double sum = 0;
+        int emptyRegisters = 0;
+        for (int i = 1; i < sketch.length; i++) {
+            sum += Math.scalb(1.0, -sketch[i]);
+            if (sketch[i] == 0) {
+                emptyRegisters++;
+            }
+        }
+        return estimate(sketch.length - 1, sum, emptyRegisters);
+    }
+
+    private static long estimate(int registers, double sum, int emptyRegisters) {
+        final double estimate = getAlpha(registers) * registers * registers / sum;
+        if (estimate <= 2.5 * registers && emptyRegisters > 0) {
+            // Linear counting is more accurate for small cardinalities
+            return Math.round(registers * Math.log((double) registers / emptyRegisters));
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Merge the source sketch into the target, afterwards the target estimates the union of the
+     * strings added to both. Both sketches must have the same precision.
+     */
+    public static void merge(byte[] target, byte[] source) {
+        if (target[0] != source[0]) {
+            throw new IllegalArgumentException(
+                    "Cannot merge sketches with precision " + target[0] + " and " + source[0]);
+        }
+        for (int i = 1; i < target.length; i++) {
+            if (source[i] > target[i]) {
+                target[i] = source[i];
+            }
+        }
+    }
+
+    private static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    /** @return The index of the register the hash maps to, the bits after the precision byte */
+    private static int getIndex(byte[] sketch, long hash) {
+        return (int) (hash >>> (Long.SIZE - sketch[0])) + 1;
+    }
+
+    /** @return The position of the first 1 bit after the index bits, capped to fit a register */
+    private static int getRank(byte[] sketch, long hash) {
+        final int precision = sketch[0];
+        final long remaining = (hash << precision) | (1L << (precision - 1));
+        return Long.numberOfLeadingZeros(remaining) + 1;
+    }
+
+    private static double getAlpha(int registers) {
+        switch (registers) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / registers);
+        }
+    }
+
+    /**
+     * Adds strings to a sketch while keeping the harmonic sum of its registers and the number of
+     * empty registers, so reading the estimate after an add does not scan the registers. Only
+     * changes made through the estimator are tracked.
+     */
+    public static final class Estimator {
+        private final byte[] sketch;
+        private double sum;
+        private int emptyRegisters;
+
+        public Estimator(byte[] sketch) {
+            this.sketch = sketch;
+            for (int i = 1; i < sketch.length; i++) {
+                this.sum += Math.scalb(1.0, -sketch[i]);
+                if (sketch[i] == 0) {
+                    this.emptyRegisters++;
+                }
+            }
+        }
+
+        /** @return true if this estimator tracks the specified sketch */
+        public boolean isFor(byte[] sketch) {
+            return this.sketch == sketch;
+        }
+
+        /** @see HyperLogLogSketch#add(byte[], String) */
+        public boolean add(String value) {
+            final long hash = hash(value);
+            final int index = getIndex(this.sketch, hash);
+            final int rank = getRank(this.sketch, hash);
+            final int previous = this.sketch[index];
+            if (rank <= previous) {
+                return false;
+            }
+
+            this.sketch[index] = (byte) rank;
+            this.sum += Math.scalb(1.0, -rank) - Math.scalb(1.0, -previous);
+            if (previous == 0) {
+                this.emptyRegisters--;
+            }
+            return true;
+        }
+
+        /** @see HyperLogLogSketch#estimate(byte[]) */
+        public long estimate() {
+            return HyperLogLogSketch.estimate(
+                    this.sketch.length - 1, this.sum, this.emptyRegisters);
+        }
+    }
+}
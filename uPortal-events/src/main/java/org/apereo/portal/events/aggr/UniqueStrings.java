@@ -27,6 +27,7 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.OneToMany;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
@@ -44,6 +45,10 @@ import org.slf4j.LoggerFactory;
  * that needs to maintain a set of unique strings over time can add a new {@link UniqueStrings} in
  * each jpa session. This will result in the set of UniqueStringsSegments being reloaded for the
  * parent entity but the contents of each UniqueStringsSegment will not need to be modified.
+ *
+ * <p>When created with a standard error the strings are not kept, they are counted in a fixed size
+ * {@link HyperLogLogSketch} instead and the number of unique strings is an estimate. The estimate
+ * is kept up to date as strings are added so reading it does not scan the sketch.
  */
 @Entity
 @Table(name = "UP_UNIQUE_STR")
@@ -78,13 +83,51 @@ public final class UniqueStrings {
     @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<UniqueStringsSegment> uniqueStringSegments = new HashSet<UniqueStringsSegment>(0);
 
+    @Lob
+    @Column(name = "SKETCH")
+    private byte[] sketch;
+
+    @Transient private HyperLogLogSketch.Estimator estimator;
+
     @Transient private UniqueStringsSegment currentUniqueUsernamesSegment;
 
     public UniqueStrings() {
         this.id = -1;
     }
 
+    /**
+     * @param standardError Relative standard error of the estimated number of unique strings, 0 to
+     *     keep every string and count exactly
+     */
+    public UniqueStrings(double standardError) {
+        this.id = -1;
+        if (standardError > 0) {
+            this.sketch = HyperLogLogSketch.create(HyperLogLogSketch.getPrecision(standardError));
+        }
+    }
+
+    /** @return true if the number of unique strings is estimated by a sketch */
+    public boolean isEstimated() {
+        return this.sketch != null;
+    }
+
+    /** @return The estimated number of unique strings, only available if {@link #isEstimated()} */
+    public int getEstimatedSize() {
+        if (this.sketch == null) {
+            throw new IllegalStateException("UniqueStrings is not estimated: " + this);
+        }
+        return (int) getEstimator().estimate();
+    }
+
+    /**
+     * @return true if the string was not added before. If {@link #isEstimated()} true means the
+     *     estimate may have changed.
+     */
     public boolean add(String e) {
+        if (this.sketch != null) {
+            return getEstimator().add(e);
+        }
+
         int stringCount = 0;
         int smallSegments = 0;
         // Check if the username exists in any segment
@@ -154,6 +197,14 @@ public final class UniqueStrings {
         return this.currentUniqueUsernamesSegment.add(e);
     }
 
+    /** Creates the estimator on first use, or again if the sketch was replaced by a reload */
+    private HyperLogLogSketch.Estimator getEstimator() {
+        if (this.estimator == null || !this.estimator.isFor(this.sketch)) {
+            this.estimator = new HyperLogLogSketch.Estimator(this.sketch);
+        }
+        return this.estimator;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -176,6 +227,12 @@ public final class UniqueStrings {
 
     @Override
     public String toString() {
-        return "UniqueStrings [id=" + id + ", size=" + uniqueStringSegments.size() + "]";
+        return "UniqueStrings [id="
+                + id
+                + ", size="
+                + uniqueStringSegments.size()
+                + ", estimated="
+                + (sketch != null)
+                + "]";
     }
 }
@@ -151,7 +151,7 @@ public final class ConcurrentUserAggregationImpl
         this.uniqueStrings = null;
     }
 
-    void countSession(String eventSessionId) {
+    void countSession(String eventSessionId, double uniqueCountError) {
         if (isComplete()) {
             this.getLogger()
                     .warn(
@@ -163,11 +163,15 @@ public final class ConcurrentUserAggregationImpl
         }
 
         if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+            this.uniqueStrings = new UniqueStrings(uniqueCountError);
         }
 
         if (this.uniqueStrings.add(eventSessionId)) {
-            this.concurrentUsers++;
+            if (this.uniqueStrings.isEstimated()) {
+                this.concurrentUsers = this.uniqueStrings.getEstimatedSize();
+            } else {
+                this.concurrentUsers++;
+            }
         }
     }
 
@@ -24,6 +24,7 @@ import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 /**
@@ -35,6 +36,7 @@ public class ConcurrentUserAggregator
         extends BaseIntervalAwarePortalEventAggregator<
                 PortalEvent, ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey> {
     private ConcurrentUserAggregationPrivateDao concurrentUserAggregationDao;
+    private double uniqueCountError = 0;
 
     @Autowired
     public void setConcurrentUserAggregationDao(
@@ -42,6 +44,16 @@ public class ConcurrentUserAggregator
         this.concurrentUserAggregationDao = concurrentUserAggregationDao;
     }
 
+    /**
+     * Relative standard error of the estimated concurrent user count of new aggregations, defaults
+     * to 0 which counts exactly by storing every event session id.
+     */
+    @Value(
+            "${org.apereo.portal.events.aggr.concuser.ConcurrentUserAggregator.uniqueCountError:0}")
+    public void setUniqueCountError(double uniqueCountError) {
+        this.uniqueCountError = uniqueCountError;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<ConcurrentUserAggregationImpl, ConcurrentUserAggregationKey>
             getAggregationDao() {
@@ -62,7 +74,7 @@ public class ConcurrentUserAggregator
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        aggregation.countSession(eventSessionId, this.uniqueCountError);
     }
 
     @Override
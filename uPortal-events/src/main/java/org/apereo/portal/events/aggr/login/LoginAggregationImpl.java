@@ -155,7 +155,7 @@ public final class LoginAggregationImpl
         this.uniqueStrings = null;
     }
 
-    void countUser(String userName) {
+    void countUser(String userName, double uniqueCountError) {
         if (isComplete()) {
             this.getLogger()
                     .warn(
@@ -167,11 +167,15 @@ public final class LoginAggregationImpl
         }
 
         if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+            this.uniqueStrings = new UniqueStrings(uniqueCountError);
         }
 
         if (this.uniqueStrings.add(userName)) {
-            this.uniqueLoginCount++;
+            if (this.uniqueStrings.isEstimated()) {
+                this.uniqueLoginCount = this.uniqueStrings.getEstimatedSize();
+            } else {
+                this.uniqueLoginCount++;
+            }
         }
         this.loginCount++;
     }
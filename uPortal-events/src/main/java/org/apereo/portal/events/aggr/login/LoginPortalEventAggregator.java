@@ -25,6 +25,7 @@ import org.apereo.portal.events.aggr.EventAggregationContext;
 import org.apereo.portal.events.aggr.TimeDimension;
 import org.apereo.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 /** Event aggregator that uses {@link LoginAggregationPrivateDao} to aggregate login events */
@@ -33,12 +34,22 @@ public class LoginPortalEventAggregator
         extends BaseIntervalAwarePortalEventAggregator<
                 LoginEvent, LoginAggregationImpl, LoginAggregationKey> {
     private LoginAggregationPrivateDao loginAggregationDao;
+    private double uniqueCountError = 0;
 
     @Autowired
     public void setLoginAggregationDao(LoginAggregationPrivateDao loginAggregationDao) {
         this.loginAggregationDao = loginAggregationDao;
     }
 
+    /**
+     * Relative standard error of the estimated unique login count of new aggregations, defaults to
+     * 0 which counts exactly by storing every user name.
+     */
+    @Value("${org.apereo.portal.events.aggr.login.LoginPortalEventAggregator.uniqueCountError:0}")
+    public void setUniqueCountError(double uniqueCountError) {
+        this.uniqueCountError = uniqueCountError;
+    }
+
     @Override
     protected BaseAggregationPrivateDao<LoginAggregationImpl, LoginAggregationKey>
             getAggregationDao() {
@@ -72,6 +83,6 @@ public class LoginPortalEventAggregator
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        aggregation.countUser(userName, this.uniqueCountError);
     }
 }
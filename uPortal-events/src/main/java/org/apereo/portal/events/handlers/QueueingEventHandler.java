@@ -15,9 +15,15 @@
 package org.apereo.portal.events.handlers;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apereo.portal.spring.context.FilteringApplicationListener;
@@ -25,15 +31,30 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationEvent;
 
 /**
- * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the
- * configured {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used
- * with some external timer that will call {@link #flush()} at regular intervals
+ * Queues PortalEvents in a local {@link BlockingQueue} and flushes the events to the configured
+ * {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used with some
+ * external timer that will call {@link #flush()} at regular intervals
+ *
+ * <p>The queue can be bounded so a slow or unavailable event store cannot exhaust the heap. Once
+ * the queue holds <code>sheddingThreshold</code> events only a sample of the sheddable event types
+ * is queued, once it holds <code>capacity</code> events all new events are dropped.
  */
 public abstract class QueueingEventHandler<E extends ApplicationEvent>
-        extends FilteringApplicationListener<E> implements DisposableBean {
+        extends FilteringApplicationListener<E>
+        implements DisposableBean, QueueingEventHandlerMXBean {
 
-    private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
     private final Lock flushLock = new ReentrantLock();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong shedCount = new AtomicLong();
+    private final AtomicLong sheddableCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private BlockingQueue<E> eventQueue = new LinkedBlockingQueue<E>();
+    private int capacity = Integer.MAX_VALUE;
+    private int sheddingThreshold = Integer.MAX_VALUE;
+    private int sheddingSampleRate = 0;
+    private Set<Class<? extends ApplicationEvent>> sheddableEventTypes = Collections.emptySet();
+    private volatile long lastFlushDuration = 0;
+    private volatile long maxFlushDuration = 0;
     private int batchSize = 25;
 
     // Used to hold events to flush, MUST only be read/written from within the flushLock
@@ -45,6 +66,77 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
         eventBuffer = new ArrayList<E>(this.batchSize);
     }
 
+    /**
+     * The maximum number of events held in the queue, unbounded by default. Must be set before
+     * events are handled.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+        this.eventQueue = new LinkedBlockingQueue<E>(capacity);
+    }
+
+    /**
+     * Queue depth at which sheddable event types start being sampled. Unset, nothing is sampled
+     * and sheddable events are only dropped with all others once the queue is at capacity.
+     */
+    public void setSheddingThreshold(int sheddingThreshold) {
+        this.sheddingThreshold = sheddingThreshold;
+    }
+
+    /**
+     * Keep one of every <code>sheddingSampleRate</code> sheddable events while the queue is over
+     * the shedding threshold, 0 (the default) drops all of them.
+     */
+    public void setSheddingSampleRate(int sheddingSampleRate) {
+        this.sheddingSampleRate = sheddingSampleRate;
+    }
+
+    /** Event types, matched using an instanceof check, that are sampled over the threshold */
+    public void setSheddableEventTypes(
+            Collection<Class<? extends ApplicationEvent>> sheddableEventTypes) {
+        if (sheddableEventTypes == null) {
+            this.sheddableEventTypes = Collections.emptySet();
+        } else {
+            this.sheddableEventTypes =
+                    new LinkedHashSet<Class<? extends ApplicationEvent>>(sheddableEventTypes);
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return this.eventQueue.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    @Override
+    public long getShedCount() {
+        return this.shedCount.get();
+    }
+
+    @Override
+    public long getFlushedCount() {
+        return this.flushedCount.get();
+    }
+
+    @Override
+    public long getLastFlushDuration() {
+        return this.lastFlushDuration;
+    }
+
+    @Override
+    public long getMaxFlushDuration() {
+        return this.maxFlushDuration;
+    }
+
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
@@ -58,7 +150,33 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
-        this.eventQueue.offer(event);
+        if (this.eventQueue.size() >= this.sheddingThreshold && this.isSheddable(event)) {
+            final int sampleRate = this.sheddingSampleRate;
+            if (sampleRate <= 0 || this.sheddableCount.incrementAndGet() % sampleRate != 0) {
+                this.shedCount.incrementAndGet();
+                return;
+            }
+        }
+
+        if (!this.eventQueue.offer(event)) {
+            // Only log the first of every 1000 drops, the queue is full because flushing is slow
+            if (this.droppedCount.getAndIncrement() % 1000 == 0) {
+                this.logger.warn(
+                        "Event queue is full at {} events, {} events dropped so far, dropped {}",
+                        this.capacity,
+                        this.droppedCount.get(),
+                        event);
+            }
+        }
+    }
+
+    private boolean isSheddable(E event) {
+        for (final Class<? extends ApplicationEvent> eventType : this.sheddableEventTypes) {
+            if (eventType.isInstance(event)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -92,6 +210,7 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             logger.trace("FlushLock already held, returning.");
             return;
         }
+        final long start = System.nanoTime();
         try {
             while (!this.eventQueue.isEmpty()) {
                 // Clear the buffer for re-use
@@ -110,6 +229,7 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
                 // Write events out to batching listener
                 try {
                     this.onApplicationEvents(eventBuffer);
+                    this.flushedCount.addAndGet(eventBuffer.size());
                 } catch (Throwable t) {
                     this.logger.error(
                             "An exception was thrown while trying to flush "
@@ -142,6 +262,12 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             // Clear the buffer to avoid memory leaks
             eventBuffer.clear();
 
+            final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            this.lastFlushDuration = duration;
+            if (duration > this.maxFlushDuration) {
+                this.maxFlushDuration = duration;
+            }
+
             this.flushLock.unlock();
         }
     }
@@ -0,0 +1,40 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+/** JMX stats for QueueingEventHandler */
+public interface QueueingEventHandlerMXBean {
+
+    /** @return Number of events waiting to be flushed */
+    int getQueueSize();
+
+    /** @return Maximum number of events the queue holds */
+    int getCapacity();
+
+    /** @return Number of events dropped because the queue was full */
+    long getDroppedCount();
+
+    /** @return Number of sheddable events dropped because the queue was over the threshold */
+    long getShedCount();
+
+    /** @return Number of events handed to the handler by flushes */
+    long getFlushedCount();
+
+    /** @return Duration in milliseconds of the last flush */
+    long getLastFlushDuration();
+
+    /** @return Duration in milliseconds of the longest flush */
+    long getMaxFlushDuration();
+}
@@ -14,12 +14,13 @@
  */
 package org.apereo.portal.events.handlers.db;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -42,18 +43,21 @@ import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
 
 /**
- * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
- * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message
- * is logged at the WARN level and the event is ignored.
+ * Stores portal events using JPA/Hibenate. Lists of {@link PortalEvent}s are flushed to the
+ * database every <code>storeBatchSize</code> events so each flush is sent as a single JDBC batch.
+ * If a {@link PortalEvent} is not mapped as a persistent entity a message is logged at the WARN
+ * level and the event is ignored.
  */
 @Repository
 public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
 
-    private ObjectMapper mapper;
+    private PortalEventDataCodec eventDataCodec;
+    private boolean compactEventData = false;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
+    private int storeBatchSize = 100;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
@@ -63,7 +67,17 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     @Autowired
     public void setMapper(ObjectMapper mapper) {
-        this.mapper = mapper;
+        this.eventDataCodec = new PortalEventDataCodec(mapper);
+    }
+
+    /**
+     * If event data is stored in the compact format, defaults to false so events are stored as
+     * full JSON that older versions can read. Only turn it on once every node sharing the database
+     * runs a version that reads the compact format.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.compactEventData:false}")
+    public void setCompactEventData(boolean compactEventData) {
+        this.compactEventData = compactEventData;
     }
 
     /**
@@ -76,6 +90,17 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         this.flushPeriod = flushPeriod;
     }
 
+    /**
+     * Number of events written per flush during a call to storePortalEvents, defaults to 100.
+     * Should match <code>hibernate.jdbc.batch_size</code> of the RawEventsDb so each flush is one
+     * JDBC batch, and the batchSize of the PortalEventDaoQueuingEventHandler so each queue flush is
+     * one transaction.
+     */
+    @Value("${org.apereo.portal.events.handlers.db.JpaPortalEventStore.storeBatchSize:100}")
+    public void setStoreBatchSize(int storeBatchSize) {
+        this.storeBatchSize = storeBatchSize;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         this.startTimeParameter = this.createParameterExpression(DateTime.class, "startTime");
@@ -186,26 +211,21 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
-        for (final PortalEvent portalEvent : portalEvents) {
-            try {
-                storePortalEvent(portalEvent);
-            } catch (IllegalArgumentException iae) {
-                this.logger.warn(
-                        portalEvent.getClass().getName()
-                                + " is not mapped as a persistent entity and will not be stored. "
-                                + portalEvent
-                                + " Exception="
-                                + iae.getMessage());
-            }
-        }
+        this.storePortalEvents(Arrays.asList(portalEvents));
     }
 
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        final EntityManager entityManager = this.getEntityManager();
+        final Session session = entityManager.unwrap(Session.class);
+        final List<PersistentPortalEvent> batch = new ArrayList<>(this.storeBatchSize);
         for (final PortalEvent portalEvent : portalEvents) {
             try {
-                storePortalEvent(portalEvent);
+                final PersistentPortalEvent persistentPortalEvent =
+                        this.wrapPortalEvent(portalEvent);
+                entityManager.persist(persistentPortalEvent);
+                batch.add(persistentPortalEvent);
             } catch (IllegalArgumentException iae) {
                 this.logger.warn(
                         portalEvent.getClass().getName()
@@ -214,7 +234,30 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                                 + " Exception="
                                 + iae.getMessage());
             }
+
+            if (batch.size() >= this.storeBatchSize) {
+                this.flushBatch(session, batch);
+            }
         }
+
+        this.flushBatch(session, batch);
+    }
+
+    /**
+     * Write the batch of new events as one JDBC batch and evict them, the stored events are never
+     * read again in this session so there is no reason to dirty check them on later flushes.
+     */
+    private void flushBatch(Session session, List<PersistentPortalEvent> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        session.flush();
+        for (final PersistentPortalEvent persistentPortalEvent : batch) {
+            session.evict(persistentPortalEvent);
+        }
+        this.logger.trace("Stored batch of {} portal events", batch.size());
+        batch.clear();
     }
 
     @Override
@@ -256,10 +299,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                     (PersistentPortalEvent) results.get(0);
             final PortalEvent portalEvent;
             try {
-                portalEvent =
-                        this.toPortalEvent(
-                                persistentPortalEvent.getEventData(),
-                                persistentPortalEvent.getEventType());
+                portalEvent = this.toPortalEvent(persistentPortalEvent);
             } catch (RuntimeException e) {
                 this.logger.warn(
                         "Failed to convert PersistentPortalEvent to PortalEvent: "
@@ -333,10 +373,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
                 results.next(); ) {
             final PersistentPortalEvent persistentPortalEvent =
                     (PersistentPortalEvent) results.get(0);
-            final PortalEvent portalEvent =
-                    this.toPortalEvent(
-                            persistentPortalEvent.getEventData(),
-                            persistentPortalEvent.getEventType());
+            final PortalEvent portalEvent = this.toPortalEvent(persistentPortalEvent);
             handler.apply(portalEvent);
             persistentPortalEvent.setAggregated(true);
             session.evict(persistentPortalEvent);
@@ -356,13 +393,14 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
         return new PersistentPortalEvent(event, portalEventData);
     }
 
-    protected <E extends PortalEvent> E toPortalEvent(final String eventData, Class<E> eventType) {
+    protected PortalEvent toPortalEvent(PersistentPortalEvent persistentPortalEvent) {
         try {
-            return mapper.readValue(eventData, eventType);
-        } catch (JsonParseException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
-        } catch (JsonMappingException e) {
-            throw new RuntimeException("Failed to deserialize PortalEvent data", e);
+            return eventDataCodec.decode(
+                    persistentPortalEvent.getEventData(),
+                    persistentPortalEvent.getEventType(),
+                    persistentPortalEvent.getServerId(),
+                    persistentPortalEvent.getEventSessionId(),
+                    persistentPortalEvent.getUserName());
         } catch (IOException e) {
             throw new RuntimeException("Failed to deserialize PortalEvent data", e);
         }
@@ -370,11 +408,10 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
 
     protected String toString(PortalEvent event) {
         try {
-            return mapper.writeValueAsString(event);
-        } catch (JsonParseException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
-        } catch (JsonMappingException e) {
-            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+            if (this.compactEventData) {
+                return eventDataCodec.encode(event);
+            }
+            return eventDataCodec.encodeFull(event);
         } catch (IOException e) {
             throw new RuntimeException("Failed to serialize PortalEvent data", e);
         }
@@ -17,8 +17,10 @@ package org.apereo.portal.events.handlers.db;
 import org.apereo.portal.events.PortalEvent;
 import org.apereo.portal.events.handlers.QueueingEventHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedResource;
 
 /** Hands off queued portal events for storage by the IPortalEventDao */
+@ManagedResource("uPortal:section=Events,name=PortalEventDaoQueuingEventHandler")
 public class PortalEventDaoQueuingEventHandler extends QueueingEventHandler<PortalEvent> {
     private IPortalEventDao portalEventDao;
 
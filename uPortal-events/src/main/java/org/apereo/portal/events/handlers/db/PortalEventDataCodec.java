@@ -0,0 +1,112 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers.db;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import org.apereo.portal.events.PortalEvent;
+
+/**
+ * Encodes {@link PortalEvent}s for the EVENT_DATA column of {@link PersistentPortalEvent}. The
+ * first character of the data identifies the format so rows written by earlier versions can still
+ * be read:
+ *
+ * <ul>
+ *   <li><code>{</code> - The full Jackson JSON of the event.
+ *   <li><code>2</code> - The Jackson JSON of the event without the serverId, eventSessionId and
+ *       userName fields. These are already stored in their own columns of the row and are restored
+ *       from there when the event is decoded.
+ * </ul>
+ */
+public class PortalEventDataCodec {
+    static final char COMPACT_FORMAT = '2';
+
+    private final ObjectMapper mapper;
+    private final ObjectWriter compactWriter;
+
+    public PortalEventDataCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.compactWriter =
+                mapper.copy().addMixIn(PortalEvent.class, CompactPortalEventMixIn.class).writer();
+    }
+
+    /** @return The event in the compact format */
+    public String encode(PortalEvent event) throws JsonProcessingException {
+        return COMPACT_FORMAT + this.compactWriter.writeValueAsString(event);
+    }
+
+    /** @return The event as full JSON, readable by versions that predate the compact format */
+    public String encodeFull(PortalEvent event) throws JsonProcessingException {
+        return this.mapper.writeValueAsString(event);
+    }
+
+    /**
+     * Decode event data in either format, the row values are only used for compact data.
+     *
+     * @param eventData The EVENT_DATA of the row
+     * @param eventType The EVENT_TYPE of the row
+     * @param serverId The SERVER_ID of the row
+     * @param eventSessionId The SESSION_ID of the row
+     * @param userName The USER_NAME of the row
+     */
+    public <E extends PortalEvent> E decode(
+            String eventData,
+            Class<E> eventType,
+            String serverId,
+            String eventSessionId,
+            String userName)
+            throws IOException {
+        if (eventData.isEmpty() || eventData.charAt(0) != COMPACT_FORMAT) {
+            return this.mapper.readValue(eventData, eventType);
+        }
+
+        final int end = eventData.lastIndexOf('}');
+        if (end < 2 || eventData.charAt(1) != '{') {
+            throw new IOException("Malformed compact PortalEvent data: " + eventData);
+        }
+
+        // Append the row values as the last fields, the type id has to stay first
+        final StringBuilder json = new StringBuilder(eventData.length() + 128);
+        json.append(eventData, 1, end);
+        final boolean emptyObject = end == 2;
+        appendField(json, "serverId", serverId, emptyObject);
+        appendField(json, "eventSessionId", eventSessionId, false);
+        appendField(json, "userName", userName, false);
+        json.append('}');
+
+        return this.mapper.readValue(json.toString(), eventType);
+    }
+
+    private static void appendField(StringBuilder json, String name, String value, boolean first) {
+        if (!first) {
+            json.append(',');
+        }
+        json.append('"').append(name).append("\":");
+        if (value == null) {
+            json.append("null");
+        } else {
+            json.append('"').append(JsonStringEncoder.getInstance().quoteAsString(value));
+            json.append('"');
+        }
+    }
+
+    /** Leaves the fields stored in their own columns out of the compact JSON */
+    @JsonIgnoreProperties(value = {"source", "serverId", "eventSessionId", "userName"})
+    private abstract static class CompactPortalEventMixIn {}
+}
@@ -25,6 +25,7 @@ import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.IBasicEntity;
+import org.apereo.portal.services.GroupService;
 import org.apereo.portal.spring.locator.ApplicationContextLocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -127,8 +128,8 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
             throw new GroupsException(this + " and " + gm + " have different entity types.");
         }
 
-        // Circular reference check:
-        if (gm.isGroup() && gm.asGroup().deepContains(this)) {
+        // Circular reference check, walks the member caches so uncommitted adds are included:
+        if (gm.isGroup() && primDeepContains(gm.asGroup(), this)) {
             throw new GroupsException(
                     "Adding " + gm + " to " + this + " creates a circular reference.");
         }
@@ -163,13 +164,26 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
     }
 
     /**
-     * Checks recursively if <code>GroupMember</code> gm is a member of this.
+     * Checks recursively if <code>GroupMember</code> gm is a member of this. Answered from the
+     * ancestor index of the composite group service, so only committed memberships are seen.
      *
      * @return boolean
      * @param gm org.apereo.portal.groups.IGroupMember
      */
     @Override
     public boolean deepContains(IGroupMember gm) throws GroupsException {
+        return this.contains(gm)
+                || GroupService.getCompositeGroupService().isDeepMemberOf(gm, this);
+    }
+
+    /**
+     * Checks recursively if <code>GroupMember</code> gm is a member of this by walking the member
+     * caches, which include uncommitted adds and removes.
+     *
+     * @return boolean
+     * @param gm org.apereo.portal.groups.IGroupMember
+     */
+    private boolean primDeepContains(IGroupMember gm) throws GroupsException {
         if (this.contains(gm)) {
             return true;
         }
@@ -179,7 +193,7 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
         while (it.hasNext() && !found) {
             IEntityGroup group = it.next();
             if (group != null) {
-                found = group.deepContains(gm);
+                found = primDeepContains(group, gm);
             } else {
                 // Something bad has happened:  we've abruptly lost a group node to
                 // which this group node refers.  This is an ERROR condition, but we
@@ -196,10 +210,19 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
 
         return found;
     }
+
+    /** Walks member caches of EntityGroupImpl children, other groups answer themselves */
+    private static boolean primDeepContains(IEntityGroup group, IGroupMember gm)
+            throws GroupsException {
+        return group instanceof EntityGroupImpl
+                ? ((EntityGroupImpl) group).primDeepContains(gm)
+                : group.deepContains(gm);
+    }
     /** Delegates to the factory. */
     @Override
     public void delete() throws GroupsException {
         getLocalGroupService().deleteGroup(this);
+        GroupService.getCompositeGroupService().invalidateAncestorIndex(this);
     }
 
     /** @return HashMap */
@@ -531,6 +554,11 @@ public class EntityGroupImpl extends GroupMemberImpl implements IEntityGroup {
 
         // Invalidate objects that changed their relationship with us
         this.invalidateInParentGroupsCache(invalidate);
+        final ICompositeGroupService compositeGroupService =
+                GroupService.getCompositeGroupService();
+        for (IGroupMember member : invalidate) {
+            compositeGroupService.invalidateAncestorIndex(member);
+        }
     }
 
     /** Casts to IEntityGroup. */
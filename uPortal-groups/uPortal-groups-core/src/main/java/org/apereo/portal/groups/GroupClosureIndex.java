@@ -0,0 +1,312 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apereo.portal.EntityIdentifier;
+
+/**
+ * Transitive closure of group membership: for each member the ids of every group that recursively
+ * contains it, so ancestor checks are a single cache lookup and a binary search instead of one
+ * parent groups lookup per level of the hierarchy.
+ *
+ * <p>Group keys are interned to small integer ids and each member's ancestors are kept as a sorted
+ * <code>int[]</code>. A group's ancestors are built from its parents' ancestors, so once the groups
+ * of a hierarchy are indexed a new member only costs its own parent groups lookup.
+ *
+ * <p>{@link #invalidate(IGroupMember)} must be called when a member is added to or removed from a
+ * group, or a group is deleted. It drops the member's own entry and, for a group, stamps the
+ * group's id with a change count. An entry built before the stamp that lists the group among its
+ * ancestors, which is every entry of a descendant of the group, is rebuilt on its next lookup while
+ * all other entries are kept. Entries for non-group members are also rebuilt whenever their parent
+ * groups set is rebuilt, so changes to a single member (e.g. a user's attribute based groups at
+ * login) are picked up without any invalidation.
+ *
+ * <p>{@link #invalidate()} discards all entries and interned keys. Interned ids are only valid
+ * until the next full invalidation, the intern table holds the keys of the groups looked up since
+ * then. The backing cache's TTL bounds how long changes made elsewhere,
+ * such as on another node in the cluster, go unnoticed.
+ *
+ * <p>Entries are not cached for members whose ancestors were collected through a circular
+ * reference, everything below the point where the cycle was cut only saw part of it.
+ */
+public class GroupClosureIndex {
+    private static final int[] NO_ANCESTORS = new int[0];
+
+    private final Ehcache ancestorsCache;
+    private final AtomicLong generation = new AtomicLong();
+    /** Counts membership changes, entries record the count they were built at */
+    private final AtomicLong changeCount = new AtomicLong();
+    private volatile GroupKeys groupKeys = new GroupKeys(0);
+
+    /** @param ancestorsCache Local, non-replicated, cache for the index entries */
+    public GroupClosureIndex(Ehcache ancestorsCache) {
+        this.ancestorsCache = ancestorsCache;
+    }
+
+    /**
+     * @return Sorted ids of all groups that recursively contain the member, only valid until the
+     *     next {@link #invalidate()}
+     */
+    public int[] getAncestorIds(IGroupMember member) throws GroupsException {
+        return this.getAncestorIds(member, this.groupKeys, new Traversal());
+    }
+
+    /** @return The keys of all groups that recursively contain the member */
+    public List<String> getAncestorKeys(IGroupMember member) throws GroupsException {
+        final GroupKeys keys = this.groupKeys;
+        final int[] ancestorIds = this.getAncestorIds(member, keys, new Traversal());
+        return keys.getKeys(ancestorIds);
+    }
+
+    /**
+     * @return A key that is equal for members recursively contained by the same groups, keys from
+     *     before and after the next {@link #invalidate()} are never equal
+     */
+    public AncestorsKey getAncestorsKey(IGroupMember member) throws GroupsException {
+        final GroupKeys keys = this.groupKeys;
+        final int[] ancestorIds = this.getAncestorIds(member, keys, new Traversal());
+        return new AncestorsKey(keys.generation, ancestorIds);
+    }
+
+    /** Answers if the group recursively contains the member */
+    public boolean isDeepMemberOf(IGroupMember member, IEntityGroup group) throws GroupsException {
+        final GroupKeys keys = this.groupKeys;
+        final int[] ancestorIds = this.getAncestorIds(member, keys, new Traversal());
+
+        // Look the id up after indexing the member, indexing interns any new ancestor keys
+        final Integer groupId = keys.groupIds.get(group.getKey());
+        return groupId != null && Arrays.binarySearch(ancestorIds, groupId) >= 0;
+    }
+
+    /**
+     * Discard the entries affected by a change to the member's parent groups, call after the
+     * member is added to or removed from a group or, for a group, after it is deleted. For a group
+     * this covers the entries of all of its descendants, entries of other members are kept.
+     */
+    public void invalidate(IGroupMember member) {
+        this.ancestorsCache.remove(member.getUnderlyingEntityIdentifier());
+        if (member.isGroup()) {
+            // Interned even if not looked up yet, a lookup may be indexing it concurrently
+            final GroupKeys keys = this.groupKeys;
+            keys.changedAt.put(keys.intern(member.getKey()), this.changeCount.incrementAndGet());
+        }
+    }
+
+    /** Discard every entry in the index and the interned group keys */
+    public void invalidate() {
+        this.groupKeys = new GroupKeys(this.generation.incrementAndGet());
+    }
+
+    /** @return Number of group keys interned since the last {@link #invalidate()} */
+    int getInternedKeyCount() {
+        return this.groupKeys.groupIds.size();
+    }
+
+    private int[] getAncestorIds(IGroupMember member, GroupKeys keys, Traversal traversal)
+            throws GroupsException {
+        final EntityIdentifier cacheKey = member.getUnderlyingEntityIdentifier();
+
+        Set<IEntityGroup> parentGroups = null;
+        final Element element = this.ancestorsCache.get(cacheKey);
+        if (element != null) {
+            final Ancestors ancestors = (Ancestors) element.getObjectValue();
+            if (ancestors.generation == keys.generation
+                    && !keys.isChangedSince(ancestors.ancestorIds, ancestors.builtAt)) {
+                if (member.isGroup()) {
+                    return ancestors.ancestorIds;
+                }
+                parentGroups = member.getParentGroups();
+                if (ancestors.parentGroups == parentGroups) {
+                    return ancestors.ancestorIds;
+                }
+            }
+        }
+
+        if (!traversal.inProgress.add(cacheKey)) {
+            // Circular reference, the ancestors are already being collected further up the stack
+            traversal.cutShort = true;
+            return NO_ANCESTORS;
+        }
+        final boolean cutShortAbove = traversal.cutShort;
+        traversal.cutShort = false;
+        try {
+            // Read before the parent groups so a change made during the build marks it stale
+            final long builtAt = this.changeCount.get();
+            if (parentGroups == null) {
+                parentGroups = member.getParentGroups();
+            }
+
+            final BitSet ancestorBits = new BitSet();
+            for (final IEntityGroup parentGroup : parentGroups) {
+                ancestorBits.set(keys.intern(parentGroup.getKey()));
+                for (final int ancestorId : this.getAncestorIds(parentGroup, keys, traversal)) {
+                    ancestorBits.set(ancestorId);
+                }
+            }
+
+            final int[] ancestorIds = ancestorBits.stream().toArray();
+            if (!traversal.cutShort) {
+                this.ancestorsCache.put(
+                        new Element(
+                                cacheKey,
+                                new Ancestors(
+                                        ancestorIds,
+                                        member.isGroup() ? null : parentGroups,
+                                        keys.generation,
+                                        builtAt)));
+            }
+            return ancestorIds;
+        } finally {
+            traversal.inProgress.remove(cacheKey);
+            traversal.cutShort |= cutShortAbove;
+        }
+    }
+
+    /** Group key intern table, replaced on every invalidation */
+    private static final class GroupKeys {
+        private final long generation;
+        private final ConcurrentMap<String, Integer> groupIds = new ConcurrentHashMap<>();
+        private final List<String> keys = new ArrayList<>();
+        /** Change count of the last membership change of each changed group */
+        private final ConcurrentMap<Integer, Long> changedAt = new ConcurrentHashMap<>();
+
+        GroupKeys(long generation) {
+            this.generation = generation;
+        }
+
+        int intern(String groupKey) {
+            final Integer groupId = this.groupIds.get(groupKey);
+            if (groupId != null) {
+                return groupId;
+            }
+
+            synchronized (this.keys) {
+                return this.groupIds.computeIfAbsent(
+                        groupKey,
+                        key -> {
+                            this.keys.add(key);
+                            return this.keys.size() - 1;
+                        });
+            }
+        }
+
+        /** @return true if any of the groups changed after the change count */
+        boolean isChangedSince(int[] groupIds, long changeCount) {
+            if (this.changedAt.isEmpty()) {
+                return false;
+            }
+            for (final int groupId : groupIds) {
+                final Long groupChangedAt = this.changedAt.get(groupId);
+                if (groupChangedAt != null && groupChangedAt > changeCount) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<String> getKeys(int[] groupIds) {
+            final List<String> groupKeys = new ArrayList<>(groupIds.length);
+            synchronized (this.keys) {
+                for (final int groupId : groupIds) {
+                    groupKeys.add(this.keys.get(groupId));
+                }
+            }
+            return groupKeys;
+        }
+    }
+
+    /** The ancestor ids of a member together with the generation of the ids */
+    public static final class AncestorsKey implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long generation;
+        private final int[] ancestorIds;
+        private final int hashCode;
+
+        AncestorsKey(long generation, int[] ancestorIds) {
+            this.generation = generation;
+            this.ancestorIds = ancestorIds;
+            this.hashCode = 31 * Long.hashCode(generation) + Arrays.hashCode(ancestorIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof AncestorsKey)) {
+                return false;
+            }
+            final AncestorsKey other = (AncestorsKey) obj;
+            return this.generation == other.generation
+                    && this.hashCode == other.hashCode
+                    && Arrays.equals(this.ancestorIds, other.ancestorIds);
+        }
+
+        @Override
+        public String toString() {
+            return "AncestorsKey [generation="
+                    + this.generation
+                    + ", ancestorIds="
+                    + Arrays.toString(this.ancestorIds)
+                    + "]";
+        }
+    }
+
+    /** State of a single ancestors lookup */
+    private static final class Traversal {
+        private final Set<EntityIdentifier> inProgress = new HashSet<>();
+        /** Set once a circular reference has cut the collection of the current member short */
+        private boolean cutShort;
+    }
+
+    private static final class Ancestors {
+        private final int[] ancestorIds;
+        /** The parent groups set of a non-group member the entry was built from */
+        private final Set<IEntityGroup> parentGroups;
+
+        private final long generation;
+        /** The change count when the entry was built */
+        private final long builtAt;
+
+        Ancestors(
+                int[] ancestorIds,
+                Set<IEntityGroup> parentGroups,
+                long generation,
+                long builtAt) {
+            this.ancestorIds = ancestorIds;
+            this.parentGroups = parentGroups;
+            this.generation = generation;
+            this.builtAt = builtAt;
+        }
+    }
+}
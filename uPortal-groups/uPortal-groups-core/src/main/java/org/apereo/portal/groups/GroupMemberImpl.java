@@ -71,7 +71,7 @@ public abstract class GroupMemberImpl implements IGroupMember {
      */
     @Override
     public Set<IEntityGroup> getAncestorGroups() throws GroupsException {
-        return primGetAncestorGroups(this, new HashSet<>());
+        return GroupService.getCompositeGroupService().findAncestorGroups(this);
     }
 
     /**
@@ -135,7 +135,9 @@ public abstract class GroupMemberImpl implements IGroupMember {
      */
     @Override
     public boolean isDeepMemberOf(IEntityGroup group) throws GroupsException {
-        return isMemberOf(group) ? true : group.deepContains(this);
+        return isMemberOf(group)
+                ? true
+                : GroupService.getCompositeGroupService().isDeepMemberOf(this, group);
     }
 
     /** @return boolean */
@@ -161,27 +163,6 @@ public abstract class GroupMemberImpl implements IGroupMember {
         throw new UnsupportedOperationException("This member is not a group:  " + this.getKey());
     }
 
-    /**
-     * Returns the <code>Set</code> of groups in our member <code>Collection</code> and,
-     * recursively, in the <code>Collections</code> of our members.
-     *
-     * @param member org.apereo.portal.groups.IGroupMember - The current group member in the
-     *     recursive execution.
-     * @param rslt Set - A Set that groups are added to.
-     * @return Set
-     */
-    protected Set<IEntityGroup> primGetAncestorGroups(IGroupMember member, Set<IEntityGroup> rslt)
-            throws GroupsException {
-        for (IEntityGroup group : member.getParentGroups()) {
-            // avoid stack overflow in case of circular group dependencies
-            if (!rslt.contains(group)) {
-                rslt.add(group);
-                primGetAncestorGroups(group, rslt);
-            }
-        }
-        return rslt;
-    }
-
     @Override
     public final int hashCode() {
         final int prime = 31;
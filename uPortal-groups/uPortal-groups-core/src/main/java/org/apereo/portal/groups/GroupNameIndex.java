@@ -0,0 +1,616 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.IGroupConstants.SearchMethod;
+
+/**
+ * In-memory index of the names of the groups in one {@link IEntityGroupStore}, answering every
+ * {@link SearchMethod} without scanning all groups or querying the store.
+ *
+ * <p>For each leaf type the names are kept in sorted arrays, as is and case folded, forwards for
+ * prefix and exact lookups and reversed for suffix lookups. Contains lookups intersect with the
+ * trigrams of the case folded names and verify the candidates, queries shorter than a trigram
+ * scan the names of the leaf type.
+ *
+ * <p>Queries are matched literally unless the index is created with <code>likeWildcards</code>, in
+ * which case <code>%</code> and <code>_</code> in starts with, ends with and contains queries match
+ * any run of characters and any single character, as they do in the SQL <code>LIKE</code> search
+ * the index replaces. Such queries scan the names of the leaf type.
+ *
+ * <p>The group names are read from the {@link Loader} on first use. Stores keep the index current
+ * through {@link #groupUpdated(String, String, Class)} and {@link #groupDeleted(String)}, changes
+ * they cannot see, such as those made on another node in the cluster, are picked up by reloading
+ * once the index is older than <code>maxAge</code>. Searches keep using the old names while one
+ * thread reloads, and changes recorded during the reload are applied on top of the loaded names.
+ *
+ * <p>Changes are kept next to the sorted arrays and checked by every search, once there are more
+ * than {@value #MAX_PENDING_CHANGES} of them the arrays of the affected leaf types are rebuilt.
+ */
+public class GroupNameIndex {
+    private static final int TRIGRAM_LENGTH = 3;
+    private static final int MAX_PENDING_CHANGES = 64;
+    private static final int[] NO_POSTINGS = new int[0];
+
+    /** Reads the names of all groups in a store */
+    public interface Loader {
+        Collection<GroupName> loadGroupNames() throws GroupsException;
+    }
+
+    /** Local key, name and leaf type of one group */
+    public static final class GroupName {
+        private final String key;
+        private final String name;
+        private final Class<?> leafType;
+
+        public GroupName(String key, String name, Class<?> leafType) {
+            this.key = key;
+            this.name = name;
+            this.leafType = leafType;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Class<?> getLeafType() {
+            return leafType;
+        }
+    }
+
+    private final Loader loader;
+    private final long maxAge;
+    private final boolean likeWildcards;
+
+    private final ReentrantLock loadLock = new ReentrantLock();
+    private final Object updateLock = new Object();
+    private volatile Snapshot snapshot;
+    // Guarded by updateLock: changes recorded while a load is running, null if none is
+    private Map<String, GroupName> changesDuringLoad;
+    // Guarded by updateLock: incremented by invalidate() so a load started before is discarded
+    private long invalidations;
+
+    /**
+     * @param loader Reads the names of all groups in the store
+     * @param maxAge Milliseconds after which all names are reloaded, 0 or less never reloads
+     */
+    public GroupNameIndex(Loader loader, long maxAge) {
+        this(loader, maxAge, false);
+    }
+
+    /**
+     * @param loader Reads the names of all groups in the store
+     * @param maxAge Milliseconds after which all names are reloaded, 0 or less never reloads
+     * @param likeWildcards If <code>%</code> and <code>_</code> in partial queries are wildcards
+     */
+    public GroupNameIndex(Loader loader, long maxAge, boolean likeWildcards) {
+        this.loader = loader;
+        this.maxAge = maxAge;
+        this.likeWildcards = likeWildcards;
+    }
+
+    /** @return The identifiers of the groups of the leaf type whose name matches the query */
+    public EntityIdentifier[] search(String query, SearchMethod method, Class<?> leafType)
+            throws GroupsException {
+        final Snapshot current = this.getSnapshot();
+
+        final Set<GroupName> matches = new LinkedHashSet<>();
+        final String foldedQuery = foldCase(query);
+        final Pattern likePattern =
+                this.likeWildcards ? toLikePattern(method, query, foldedQuery) : null;
+
+        final LeafTypeIndex index = current.indexes.get(leafType);
+        if (index != null && likePattern != null) {
+            for (final GroupName groupName : index.names.groupNames) {
+                if (matches(groupName, method, query, foldedQuery, likePattern)) {
+                    matches.add(groupName);
+                }
+            }
+        } else if (index != null) {
+            index.find(query, foldedQuery, method, matches);
+        }
+
+        // Groups changed since the arrays were built are matched by their current name
+        if (!current.changes.isEmpty()) {
+            matches.removeIf(groupName -> current.changes.containsKey(groupName.getKey()));
+            for (final GroupName groupName : current.changes.values()) {
+                if (groupName != null
+                        && leafType.equals(groupName.getLeafType())
+                        && matches(groupName, method, query, foldedQuery, likePattern)) {
+                    matches.add(groupName);
+                }
+            }
+        }
+
+        final EntityIdentifier[] results = new EntityIdentifier[matches.size()];
+        int i = 0;
+        for (final GroupName match : matches) {
+            results[i++] =
+                    new EntityIdentifier(match.getKey(), ICompositeGroupService.GROUP_ENTITY_TYPE);
+        }
+        return results;
+    }
+
+    /** Record that a group was created or its name or leaf type changed */
+    public void groupUpdated(String key, String name, Class<?> leafType) {
+        this.recordChange(key, new GroupName(key, name, leafType));
+    }
+
+    /** Record that a group was deleted */
+    public void groupDeleted(String key) {
+        this.recordChange(key, null);
+    }
+
+    /** Discard all names, they are reloaded by the next search */
+    public void invalidate() {
+        synchronized (this.updateLock) {
+            this.invalidations++;
+            this.snapshot = null;
+        }
+    }
+
+    /** @param groupName The new name of the group, null if it was deleted */
+    private void recordChange(String key, GroupName groupName) {
+        synchronized (this.updateLock) {
+            if (this.changesDuringLoad != null) {
+                this.changesDuringLoad.put(key, groupName);
+            }
+            final Snapshot current = this.snapshot;
+            if (current != null) {
+                this.snapshot = current.withChange(key, groupName);
+            }
+        }
+    }
+
+    private Snapshot getSnapshot() throws GroupsException {
+        Snapshot current = this.snapshot;
+        if (current != null && !this.isExpired(current)) {
+            return current;
+        }
+
+        if (current == null) {
+            this.loadLock.lock();
+        } else if (!this.loadLock.tryLock()) {
+            // Another thread is reloading, keep searching the names it is replacing
+            return current;
+        }
+        try {
+            current = this.snapshot;
+            if (current != null && !this.isExpired(current)) {
+                return current;
+            }
+            return this.load();
+        } finally {
+            this.loadLock.unlock();
+        }
+    }
+
+    /** Must be called while holding the load lock */
+    private Snapshot load() throws GroupsException {
+        final long loadInvalidations;
+        synchronized (this.updateLock) {
+            loadInvalidations = this.invalidations;
+            this.changesDuringLoad = new HashMap<>();
+        }
+        try {
+            final Map<String, GroupName> groupNames = new HashMap<>();
+            for (final GroupName groupName : this.loader.loadGroupNames()) {
+                groupNames.put(groupName.getKey(), groupName);
+            }
+            final Map<Class<?>, LeafTypeIndex> indexes = buildIndexes(groupNames.values(), null);
+            final long loaded = System.currentTimeMillis();
+
+            synchronized (this.updateLock) {
+                // The load may or may not have seen changes recorded while it ran, apply them again
+                Snapshot snapshot =
+                        new Snapshot(
+                                groupNames,
+                                indexes,
+                                Collections.<String, GroupName>emptyMap(),
+                                loaded);
+                for (final Map.Entry<String, GroupName> change :
+                        this.changesDuringLoad.entrySet()) {
+                    snapshot = snapshot.withChange(change.getKey(), change.getValue());
+                }
+                if (this.invalidations == loadInvalidations) {
+                    this.snapshot = snapshot;
+                }
+                return snapshot;
+            }
+        } finally {
+            synchronized (this.updateLock) {
+                this.changesDuringLoad = null;
+            }
+        }
+    }
+
+    private boolean isExpired(Snapshot snapshot) {
+        return this.maxAge > 0 && System.currentTimeMillis() - snapshot.loaded > this.maxAge;
+    }
+
+    /**
+     * @param leafTypes The leaf types to build indexes for, null for all
+     * @return Index for each leaf type with at least one named group
+     */
+    private static Map<Class<?>, LeafTypeIndex> buildIndexes(
+            Collection<GroupName> groupNames, Set<Class<?>> leafTypes) {
+        final Map<Class<?>, List<GroupName>> byLeafType = new HashMap<>();
+        for (final GroupName groupName : groupNames) {
+            if (groupName.getName() != null
+                    && (leafTypes == null || leafTypes.contains(groupName.getLeafType()))) {
+                byLeafType
+                        .computeIfAbsent(groupName.getLeafType(), k -> new ArrayList<>())
+                        .add(groupName);
+            }
+        }
+
+        final Map<Class<?>, LeafTypeIndex> indexes = new HashMap<>();
+        for (final Map.Entry<Class<?>, List<GroupName>> entry : byLeafType.entrySet()) {
+            indexes.put(entry.getKey(), new LeafTypeIndex(entry.getValue()));
+        }
+        return indexes;
+    }
+
+    /**
+     * @return The query as a SQL <code>LIKE</code> pattern anchored for the search method, null if
+     *     the method is exact or the query has no wildcards
+     */
+    private static Pattern toLikePattern(SearchMethod method, String query, String foldedQuery) {
+        if (query.indexOf('%') < 0 && query.indexOf('_') < 0) {
+            return null;
+        }
+
+        final String like;
+        switch (method) {
+            case STARTS_WITH:
+                like = query + "%";
+                break;
+            case STARTS_WITH_CI:
+                like = foldedQuery + "%";
+                break;
+            case ENDS_WITH:
+                like = "%" + query;
+                break;
+            case ENDS_WITH_CI:
+                like = "%" + foldedQuery;
+                break;
+            case CONTAINS:
+                like = "%" + query + "%";
+                break;
+            case CONTAINS_CI:
+                like = "%" + foldedQuery + "%";
+                break;
+            default:
+                return null;
+        }
+
+        final StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < like.length(); i++) {
+            final char c = like.charAt(i);
+            if (c == '%' || c == '_') {
+                if (literalStart < i) {
+                    regex.append(Pattern.quote(like.substring(literalStart, i)));
+                }
+                regex.append(c == '%' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < like.length()) {
+            regex.append(Pattern.quote(like.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /** Match a single group name, used for changes and wildcard queries */
+    private static boolean matches(
+            GroupName groupName,
+            SearchMethod method,
+            String query,
+            String foldedQuery,
+            Pattern likePattern) {
+        final String name = groupName.getName();
+        if (name == null) {
+            return false;
+        }
+        if (likePattern != null) {
+            return likePattern.matcher(isIgnoreCase(method) ? foldCase(name) : name).matches();
+        }
+
+        switch (method) {
+            case DISCRETE:
+                return name.equals(query);
+            case DISCRETE_CI:
+                return foldCase(name).equals(foldedQuery);
+            case STARTS_WITH:
+                return name.startsWith(query);
+            case STARTS_WITH_CI:
+                return foldCase(name).startsWith(foldedQuery);
+            case ENDS_WITH:
+                return name.endsWith(query);
+            case ENDS_WITH_CI:
+                return foldCase(name).endsWith(foldedQuery);
+            case CONTAINS:
+                return name.contains(query);
+            case CONTAINS_CI:
+                return foldCase(name).contains(foldedQuery);
+            default:
+                throw new IllegalArgumentException("Unknown search type " + method);
+        }
+    }
+
+    private static boolean isIgnoreCase(SearchMethod method) {
+        return method == SearchMethod.DISCRETE_CI
+                || method == SearchMethod.STARTS_WITH_CI
+                || method == SearchMethod.ENDS_WITH_CI
+                || method == SearchMethod.CONTAINS_CI;
+    }
+
+    static String foldCase(String value) {
+        return value.toUpperCase(Locale.ROOT);
+    }
+
+    private static String reverse(String value) {
+        return new StringBuilder(value).reverse().toString();
+    }
+
+    /** Immutable state of the index searched without locking */
+    private static final class Snapshot {
+        /** The names the sorted arrays were built from */
+        private final Map<String, GroupName> groupNames;
+
+        private final Map<Class<?>, LeafTypeIndex> indexes;
+        /** Key -> current name of groups changed since the arrays were built, null if deleted */
+        private final Map<String, GroupName> changes;
+
+        private final long loaded;
+
+        Snapshot(
+                Map<String, GroupName> groupNames,
+                Map<Class<?>, LeafTypeIndex> indexes,
+                Map<String, GroupName> changes,
+                long loaded) {
+            this.groupNames = groupNames;
+            this.indexes = indexes;
+            this.changes = changes;
+            this.loaded = loaded;
+        }
+
+        /** @return A copy with the change recorded, rebuilding changed leaf types if needed */
+        Snapshot withChange(String key, GroupName groupName) {
+            final Map<String, GroupName> newChanges = new HashMap<>(this.changes);
+            newChanges.put(key, groupName);
+            if (newChanges.size() <= MAX_PENDING_CHANGES) {
+                return new Snapshot(this.groupNames, this.indexes, newChanges, this.loaded);
+            }
+
+            final Map<String, GroupName> newGroupNames = new HashMap<>(this.groupNames);
+            final Set<Class<?>> changedLeafTypes = new HashSet<>();
+            for (final Map.Entry<String, GroupName> change : newChanges.entrySet()) {
+                final GroupName newName = change.getValue();
+                final GroupName oldName =
+                        newName == null
+                                ? newGroupNames.remove(change.getKey())
+                                : newGroupNames.put(change.getKey(), newName);
+                if (oldName != null) {
+                    changedLeafTypes.add(oldName.getLeafType());
+                }
+                if (newName != null) {
+                    changedLeafTypes.add(newName.getLeafType());
+                }
+            }
+
+            final Map<Class<?>, LeafTypeIndex> newIndexes = new HashMap<>(this.indexes);
+            final Map<Class<?>, LeafTypeIndex> rebuilt =
+                    buildIndexes(newGroupNames.values(), changedLeafTypes);
+            for (final Class<?> leafType : changedLeafTypes) {
+                final LeafTypeIndex index = rebuilt.get(leafType);
+                if (index != null) {
+                    newIndexes.put(leafType, index);
+                } else {
+                    newIndexes.remove(leafType);
+                }
+            }
+            return new Snapshot(
+                    newGroupNames,
+                    newIndexes,
+                    Collections.<String, GroupName>emptyMap(),
+                    this.loaded);
+        }
+    }
+
+    /** The names of all groups of one leaf type */
+    private static final class LeafTypeIndex {
+        private final SortedNames names;
+        private final SortedNames foldedNames;
+        private final SortedNames reversedNames;
+        private final SortedNames reversedFoldedNames;
+
+        /** folded trigram -> positions in foldedNames */
+        private final Map<String, int[]> trigrams;
+
+        LeafTypeIndex(List<GroupName> groupNames) {
+            this.names = new SortedNames(groupNames, GroupName::getName);
+            this.foldedNames = new SortedNames(groupNames, g -> foldCase(g.getName()));
+            this.reversedNames = new SortedNames(groupNames, g -> reverse(g.getName()));
+            this.reversedFoldedNames =
+                    new SortedNames(groupNames, g -> reverse(foldCase(g.getName())));
+
+            final Map<String, List<Integer>> postings = new HashMap<>();
+            for (int i = 0; i < this.foldedNames.keys.length; i++) {
+                final String folded = this.foldedNames.keys[i];
+                for (int start = 0; start + TRIGRAM_LENGTH <= folded.length(); start++) {
+                    final List<Integer> positions =
+                            postings.computeIfAbsent(
+                                    folded.substring(start, start + TRIGRAM_LENGTH),
+                                    k -> new ArrayList<>());
+                    // Positions are added in order, skip repeats of a trigram in one name
+                    if (positions.isEmpty() || positions.get(positions.size() - 1) != i) {
+                        positions.add(i);
+                    }
+                }
+            }
+            this.trigrams = new HashMap<>(postings.size() * 2);
+            for (final Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+                final List<Integer> positions = entry.getValue();
+                final int[] array = new int[positions.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = positions.get(i);
+                }
+                this.trigrams.put(entry.getKey(), array);
+            }
+        }
+
+        void find(
+                String query, String foldedQuery, SearchMethod method, Set<GroupName> matches)
+                throws GroupsException {
+            switch (method) {
+                case DISCRETE:
+                    this.names.find(query, true, matches);
+                    break;
+                case DISCRETE_CI:
+                    this.foldedNames.find(foldedQuery, true, matches);
+                    break;
+                case STARTS_WITH:
+                    this.names.find(query, false, matches);
+                    break;
+                case STARTS_WITH_CI:
+                    this.foldedNames.find(foldedQuery, false, matches);
+                    break;
+                case ENDS_WITH:
+                    this.reversedNames.find(reverse(query), false, matches);
+                    break;
+                case ENDS_WITH_CI:
+                    this.reversedFoldedNames.find(reverse(foldedQuery), false, matches);
+                    break;
+                case CONTAINS:
+                    this.findContaining(query, foldedQuery, false, matches);
+                    break;
+                case CONTAINS_CI:
+                    this.findContaining(query, foldedQuery, true, matches);
+                    break;
+                default:
+                    throw new GroupsException("Unknown search type");
+            }
+        }
+
+        void findContaining(
+                String query, String foldedQuery, boolean ignoreCase, Set<GroupName> matches) {
+            final String[] foldedKeys = this.foldedNames.keys;
+            final GroupName[] groupNames = this.foldedNames.groupNames;
+
+            if (foldedQuery.length() < TRIGRAM_LENGTH) {
+                for (int i = 0; i < foldedKeys.length; i++) {
+                    addIfContains(
+                            groupNames[i], foldedKeys[i], query, foldedQuery, ignoreCase, matches);
+                }
+                return;
+            }
+
+            // Every name containing the query contains all of its trigrams, start from the rarest
+            int[] candidates = null;
+            for (int start = 0; start + TRIGRAM_LENGTH <= foldedQuery.length(); start++) {
+                final int[] positions =
+                        this.trigrams.getOrDefault(
+                                foldedQuery.substring(start, start + TRIGRAM_LENGTH), NO_POSTINGS);
+                if (candidates == null || positions.length < candidates.length) {
+                    candidates = positions;
+                }
+            }
+            for (final int i : candidates) {
+                addIfContains(
+                        groupNames[i], foldedKeys[i], query, foldedQuery, ignoreCase, matches);
+            }
+        }
+
+        private static void addIfContains(
+                GroupName groupName,
+                String folded,
+                String query,
+                String foldedQuery,
+                boolean ignoreCase,
+                Set<GroupName> matches) {
+            if (ignoreCase
+                    ? folded.contains(foldedQuery)
+                    : groupName.getName().contains(query)) {
+                matches.add(groupName);
+            }
+        }
+    }
+
+    /** Group names sorted by a key derived from the name */
+    private static final class SortedNames {
+        private final String[] keys;
+        private final GroupName[] groupNames;
+
+        SortedNames(List<GroupName> unsorted, Function<GroupName, String> key) {
+            final int size = unsorted.size();
+            final Integer[] order = new Integer[size];
+            final String[] unsortedKeys = new String[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+                unsortedKeys[i] = key.apply(unsorted.get(i));
+            }
+            Arrays.sort(order, Comparator.comparing(i -> unsortedKeys[i]));
+
+            this.keys = new String[size];
+            this.groupNames = new GroupName[size];
+            for (int i = 0; i < size; i++) {
+                this.keys[i] = unsortedKeys[order[i]];
+                this.groupNames[i] = unsorted.get(order[i]);
+            }
+        }
+
+        /** Add the groups whose key equals, or starts with, the query */
+        void find(String query, boolean exact, Set<GroupName> matches) {
+            int i = Arrays.binarySearch(this.keys, query);
+            if (i < 0) {
+                i = -i - 1;
+            } else {
+                // binarySearch returns any of several equal keys, back up to the first
+                while (i > 0 && this.keys[i - 1].equals(query)) {
+                    i--;
+                }
+            }
+            for (; i < this.keys.length; i++) {
+                final String key = this.keys[i];
+                if (exact ? !key.equals(query) : !key.startsWith(query)) {
+                    break;
+                }
+                matches.add(this.groupNames[i]);
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@
 package org.apereo.portal.groups;
 
 import java.util.Iterator;
+import java.util.Set;
 import javax.naming.Name;
 import org.apereo.portal.EntityIdentifier;
 
@@ -37,6 +38,29 @@ public interface ICompositeGroupService extends IComponentGroupService {
      * @param gm IGroupMember
      */
     public Iterator findParentGroups(IGroupMember gm) throws GroupsException;
+    /**
+     * Returns the groups that recursively contain the <code>IGroupMember</code>, from the ancestor
+     * index.
+     */
+    public Set<IEntityGroup> findAncestorGroups(IGroupMember gm) throws GroupsException;
+    /**
+     * Answers if <code>group</code> recursively contains the <code>IGroupMember</code>, from the
+     * ancestor index.
+     */
+    public boolean isDeepMemberOf(IGroupMember gm, IEntityGroup group) throws GroupsException;
+    /**
+     * Returns a key that is equal for <code>IGroupMembers</code> recursively contained by the same
+     * groups, from the ancestor index.
+     */
+    public GroupClosureIndex.AncestorsKey getAncestorsKey(IGroupMember gm) throws GroupsException;
+    /** Discards the whole ancestor index. */
+    public void invalidateAncestorIndex();
+    /**
+     * Discards the ancestor index entries affected by a change to the parent groups of the <code>
+     * IGroupMember</code>, must be called when it is added to or removed from a group, or when it
+     * is a group that is deleted.
+     */
+    public void invalidateAncestorIndex(IGroupMember gm);
     /** Returns a pre-existing <code>IEntityGroup</code> or null if it does not exist. */
     public IEntityGroup findGroup(String key) throws GroupsException;
     /** Returns a pre-existing <code>IEntityGroup</code> or null if it does not exist. */
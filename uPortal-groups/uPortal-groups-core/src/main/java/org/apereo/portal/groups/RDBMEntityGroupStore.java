@@ -23,19 +23,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Ehcache;
-import net.sf.ehcache.Element;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.jdbc.RDBMServices;
 import org.apereo.portal.services.GroupService;
-import org.apereo.portal.spring.locator.ApplicationContextLocator;
 import org.apereo.portal.spring.locator.CounterStoreLocator;
 import org.apereo.portal.spring.locator.EntityTypesLocator;
 import org.apereo.portal.utils.SqlTransaction;
-import org.springframework.context.ApplicationContext;
 
 /** Store for <code>EntityGroupImpl</code>. */
 public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants {
@@ -68,7 +63,18 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static final String MEMBER_IS_ENTITY = "F";
     private static final String MEMBER_IS_GROUP = "T";
 
-    private static final String CACHE_NAME = "org.apereo.portal.groups.RDBMEntityGroupStore.search";
+    /** Reload the group name index at this interval to pick up changes made by other nodes */
+    private static final long GROUP_NAME_INDEX_MAX_AGE = 300000;
+
+    private static final String LOAD_GROUP_NAMES_SQL =
+            "SELECT "
+                    + GROUP_ID_COLUMN
+                    + ", "
+                    + GROUP_TYPE_COLUMN
+                    + ", "
+                    + GROUP_NAME_COLUMN
+                    + " FROM "
+                    + GROUP_TABLE;
 
     // SQL group search string
     private static final String SEARCH_GROUPS_PARTIAL_CASE_INSENSITIVE =
@@ -136,8 +142,9 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
     private static String deleteMemberEntitySql;
     private static String insertMemberSql;
 
-    // Group search cache
-    private Ehcache groupSearchCache;
+    // Group search index, % and _ are wildcards as they were in the LIKE search
+    private final GroupNameIndex groupNameIndex =
+            new GroupNameIndex(this::loadGroupNames, GROUP_NAME_INDEX_MAX_AGE, true);
 
     /** RDBMEntityGroupStore constructor. */
     public RDBMEntityGroupStore() {
@@ -159,20 +166,31 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
         if (LOG.isDebugEnabled()) {
             LOG.debug("RDBMEntityGroupStore.initialize(): Node separator set to " + sep);
         }
-
-        // Cache for group search
-        groupSearchCache = getGroupSearchCache();
     }
 
-    private Ehcache getGroupSearchCache() {
-        final ApplicationContext context = ApplicationContextLocator.getApplicationContext();
-        assert context != null;
-        final CacheManager cacheManager = context.getBean("cacheManager", CacheManager.class);
-        assert cacheManager != null;
-        if (!cacheManager.cacheExists(CACHE_NAME)) {
-            cacheManager.addCache(CACHE_NAME);
+    /** Reads the names of all groups for the group name index */
+    private Collection<GroupNameIndex.GroupName> loadGroupNames() throws GroupsException {
+        final List<GroupNameIndex.GroupName> groupNames = new ArrayList<>();
+        Connection conn = null;
+        try {
+            conn = RDBMServices.getConnection();
+            try (Statement stmnt = conn.createStatement();
+                    ResultSet rs = stmnt.executeQuery(LOAD_GROUP_NAMES_SQL)) {
+                while (rs.next()) {
+                    groupNames.add(
+                            new GroupNameIndex.GroupName(
+                                    rs.getString(1),
+                                    rs.getString(3),
+                                    EntityTypesLocator.getEntityTypes()
+                                            .getEntityTypeFromID(rs.getInt(2))));
+                }
+            }
+        } catch (SQLException sqle) {
+            throw new GroupsException("Problem loading group names", sqle);
+        } finally {
+            RDBMServices.releaseConnection(conn);
         }
-        return cacheManager.getCache(CACHE_NAME);
+        return groupNames;
     }
 
     /**
@@ -288,6 +306,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
             } catch (SQLException sqle) {
                 throw new GroupsException("Problem deleting " + group, sqle);
             }
+            groupNameIndex.groupDeleted(group.getLocalKey());
         }
     }
 
@@ -1378,17 +1397,19 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
         assert query != null;
         assert method != null;
         assert leaftype != null;
+        try {
+            return groupNameIndex.search(query, method, leaftype);
+        } catch (GroupsException ge) {
+            LOG.error("Group name index unavailable, searching the database instead", ge);
+        }
+        return searchForGroupsInDatabase(query, method, leaftype);
+    }
+
+    private EntityIdentifier[] searchForGroupsInDatabase(
+            String query, SearchMethod method, Class leaftype) throws GroupsException {
         final EntityIdentifier[] r = new EntityIdentifier[0];
         ArrayList ar = new ArrayList();
 
-        final String cacheKey = query + ":" + method.name() + ":" + leaftype.getSimpleName();
-        Element el = groupSearchCache.get(cacheKey);
-        if (el != null) {
-            ar = (ArrayList) el.getObjectValue();
-            assert ar != null;
-            return (EntityIdentifier[]) ar.toArray(r);
-        }
-
         Connection conn = null;
         PreparedStatement ps = null;
         int type = EntityTypesLocator.getEntityTypes().getEntityIDFromType(leaftype).intValue();
@@ -1461,8 +1482,6 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
         } finally {
             RDBMServices.releaseConnection(conn);
         }
-        el = new Element(cacheKey, ar);
-        groupSearchCache.put(el);
         return (EntityIdentifier[]) ar.toArray(r);
     }
 
@@ -1507,6 +1526,8 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
                 }
                 primUpdateMembers((EntityGroupImpl) group, conn);
                 commit(conn);
+                groupNameIndex.groupUpdated(
+                        group.getLocalKey(), group.getName(), group.getLeafType());
             } catch (Exception ex) {
                 rollback(conn);
                 throw new GroupsException("Problem updating " + this + ex);
@@ -23,10 +23,12 @@ import java.util.Map;
 import java.util.Set;
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
+import net.sf.ehcache.CacheManager;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.concurrency.CachingException;
 import org.apereo.portal.services.EntityCachingService;
 import org.apereo.portal.services.GroupService;
+import org.apereo.portal.spring.locator.ApplicationContextLocator;
 
 public class ReferenceCompositeGroupService extends ReferenceComponentGroupService
         implements ICompositeGroupService {
@@ -35,6 +37,12 @@ public class ReferenceCompositeGroupService extends ReferenceComponentGroupServi
 
     // See CompositeGroupService.xml:
     protected IIndividualGroupService defaultService;
+
+    private static final String ANCESTORS_CACHE_NAME =
+            "org.apereo.portal.groups.GroupClosureIndex.ancestors";
+
+    // Created on first use, see getAncestorIndex()
+    private volatile GroupClosureIndex ancestorIndex;
     /** ReferenceCompositeGroupService constructor comment. */
     public ReferenceCompositeGroupService() throws GroupsException {
         super();
@@ -64,6 +72,67 @@ public class ReferenceCompositeGroupService extends ReferenceComponentGroupServi
         }
         return allGroups.iterator();
     }
+    /**
+     * Returns the groups that recursively contain the <code>IGroupMember</code>. Only the ancestor
+     * keys come from the index, the groups themselves are looked up by key.
+     */
+    @Override
+    public Set<IEntityGroup> findAncestorGroups(IGroupMember gm) throws GroupsException {
+        final Set<IEntityGroup> rslt = new HashSet<>();
+        for (String key : getAncestorIndex().getAncestorKeys(gm)) {
+            final IEntityGroup group = findGroup(key);
+            if (group != null) {
+                rslt.add(group);
+            }
+        }
+        return rslt;
+    }
+    /** Answers if <code>group</code> recursively contains the <code>IGroupMember</code>. */
+    @Override
+    public boolean isDeepMemberOf(IGroupMember gm, IEntityGroup group) throws GroupsException {
+        return getAncestorIndex().isDeepMemberOf(gm, group);
+    }
+    /**
+     * Returns a key that is equal for <code>IGroupMembers</code> recursively contained by the same
+     * groups.
+     */
+    @Override
+    public GroupClosureIndex.AncestorsKey getAncestorsKey(IGroupMember gm) throws GroupsException {
+        return getAncestorIndex().getAncestorsKey(gm);
+    }
+    /** Discards the whole ancestor index. */
+    @Override
+    public void invalidateAncestorIndex() {
+        final GroupClosureIndex index = ancestorIndex;
+        if (index != null) {
+            index.invalidate();
+        }
+    }
+    /** Discards the ancestor index entries affected by a change to the member's parent groups. */
+    @Override
+    public void invalidateAncestorIndex(IGroupMember gm) {
+        final GroupClosureIndex index = ancestorIndex;
+        if (index != null) {
+            index.invalidate(gm);
+        }
+    }
+    /** @return GroupClosureIndex */
+    protected GroupClosureIndex getAncestorIndex() {
+        GroupClosureIndex index = ancestorIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = ancestorIndex;
+                if (index == null) {
+                    final CacheManager cacheManager =
+                            ApplicationContextLocator.getApplicationContext()
+                                    .getBean("cacheManager", CacheManager.class);
+                    index = new GroupClosureIndex(cacheManager.getCache(ANCESTORS_CACHE_NAME));
+                    ancestorIndex = index;
+                }
+            }
+        }
+        return index;
+    }
     /**
      * Returns a pre-existing <code>IEntityGroup</code> or null if the <code>IGroupMember</code>
      * does not exist.
@@ -0,0 +1,314 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apereo.portal.groups.pags.testers.BaseAttributeTester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.security.IPerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of {@link PagsGroup}s compiled for evaluating all of them against one person at once.
+ *
+ * <p>Each test group is indexed by one of its literal tests: a {@link StringEqualsTester}, a
+ * {@link StringEqualsIgnoreCaseTester} or a {@link RegexTester} whose pattern is a plain literal.
+ * Evaluation looks up each value of the indexed attributes in a hash index and only runs the
+ * remaining tests of the test groups found there, test groups without a literal test are always
+ * evaluated. Test groups of a group that already matched are skipped.
+ *
+ * <p>Instances are immutable and safe to share between threads.
+ */
+public final class CompiledPagsGroups {
+    private static final int[] NO_TEST_GROUPS = new int[0];
+    private static final String REGEX_META_CHARACTERS = "\\.[]{}()<>*+-=!?^$|";
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledPagsGroups.class);
+
+    private final String[] groupKeys;
+    private final Set<String> compiledGroupKeys;
+
+    /** Group index of each test group */
+    private final int[] testGroupOwners;
+    /** Tests of each test group that still have to run once it was found through the index */
+    private final IPersonTester[][] testGroupTests;
+
+    /** attribute name -> attribute value -> test groups */
+    private final Map<String, Map<String, int[]>> equalsIndex;
+    /** attribute name -> case folded attribute value -> test groups */
+    private final Map<String, Map<String, int[]>> equalsIgnoreCaseIndex;
+    /** Test groups without a literal test */
+    private final int[] unindexedTestGroups;
+
+    public CompiledPagsGroups(Collection<PagsGroup> groups) {
+        final int groupCount = groups.size();
+        this.groupKeys = new String[groupCount];
+        this.compiledGroupKeys = new HashSet<>(groupCount * 2);
+
+        final List<Integer> owners = new ArrayList<>();
+        final List<IPersonTester[]> tests = new ArrayList<>();
+        final Map<String, Map<String, List<Integer>>> equals = new HashMap<>();
+        final Map<String, Map<String, List<Integer>>> equalsIgnoreCase = new HashMap<>();
+        final List<Integer> unindexed = new ArrayList<>();
+
+        int groupIndex = 0;
+        for (final PagsGroup group : groups) {
+            this.groupKeys[groupIndex] = group.getKey();
+            this.compiledGroupKeys.add(group.getKey());
+
+            // A group without test groups never contains a person, see PagsGroup.contains
+            for (final TestGroup testGroup : group.getTestGroups()) {
+                final List<IPersonTester> testers = new ArrayList<>(testGroup.getTests());
+                final int testGroupIndex = owners.size();
+                owners.add(groupIndex);
+
+                final int literalIndex = this.findLiteralTester(testers);
+                if (literalIndex < 0) {
+                    unindexed.add(testGroupIndex);
+                } else {
+                    final IPersonTester literalTester = testers.remove(literalIndex);
+                    if (literalTester instanceof StringEqualsIgnoreCaseTester) {
+                        final StringEqualsIgnoreCaseTester tester =
+                                (StringEqualsIgnoreCaseTester) literalTester;
+                        addToIndex(
+                                equalsIgnoreCase,
+                                tester.getAttributeName(),
+                                foldCase(tester.getTestValue()),
+                                testGroupIndex);
+                    } else if (literalTester instanceof StringEqualsTester) {
+                        final StringEqualsTester tester = (StringEqualsTester) literalTester;
+                        addToIndex(
+                                equals,
+                                tester.getAttributeName(),
+                                tester.getTestValue(),
+                                testGroupIndex);
+                    } else {
+                        final RegexTester tester = (RegexTester) literalTester;
+                        addToIndex(
+                                equals,
+                                tester.getAttributeName(),
+                                getRegexLiteral(tester.getTestValue()),
+                                testGroupIndex);
+                    }
+                }
+                tests.add(testers.toArray(new IPersonTester[testers.size()]));
+            }
+            groupIndex++;
+        }
+
+        this.testGroupOwners = toIntArray(owners);
+        this.testGroupTests = tests.toArray(new IPersonTester[tests.size()][]);
+        this.equalsIndex = freezeIndex(equals);
+        this.equalsIgnoreCaseIndex = freezeIndex(equalsIgnoreCase);
+        this.unindexedTestGroups = toIntArray(unindexed);
+    }
+
+    /** @return true if the group with the specified key was part of this compilation */
+    public boolean isCompiled(String groupKey) {
+        return this.compiledGroupKeys.contains(groupKey);
+    }
+
+    /** @return The keys of all compiled groups that contain the specified person */
+    public Set<String> findContainingGroupKeys(IPerson person) {
+        final boolean[] groupMatched = new boolean[this.groupKeys.length];
+        final boolean[] testGroupEvaluated = new boolean[this.testGroupOwners.length];
+
+        for (final Map.Entry<String, Map<String, int[]>> attributeEntry :
+                this.equalsIndex.entrySet()) {
+            final Object[] values = person.getAttributeValues(attributeEntry.getKey());
+            if (values != null) {
+                final Map<String, int[]> valueIndex = attributeEntry.getValue();
+                for (final Object value : values) {
+                    if (value instanceof String) {
+                        this.evaluate(
+                                person,
+                                valueIndex.get(value),
+                                groupMatched,
+                                testGroupEvaluated);
+                    }
+                }
+            }
+        }
+
+        for (final Map.Entry<String, Map<String, int[]>> attributeEntry :
+                this.equalsIgnoreCaseIndex.entrySet()) {
+            final Object[] values = person.getAttributeValues(attributeEntry.getKey());
+            if (values != null) {
+                final Map<String, int[]> valueIndex = attributeEntry.getValue();
+                for (final Object value : values) {
+                    if (value instanceof String) {
+                        this.evaluate(
+                                person,
+                                valueIndex.get(foldCase((String) value)),
+                                groupMatched,
+                                testGroupEvaluated);
+                    }
+                }
+            }
+        }
+
+        this.evaluate(person, this.unindexedTestGroups, groupMatched, testGroupEvaluated);
+
+        final Set<String> result = new HashSet<>();
+        for (int i = 0; i < groupMatched.length; i++) {
+            if (groupMatched[i]) {
+                result.add(this.groupKeys[i]);
+            }
+        }
+        return result;
+    }
+
+    private void evaluate(
+            IPerson person,
+            int[] testGroups,
+            boolean[] groupMatched,
+            boolean[] testGroupEvaluated) {
+        if (testGroups == null) {
+            return;
+        }
+
+        for (final int testGroup : testGroups) {
+            final int owner = this.testGroupOwners[testGroup];
+            if (groupMatched[owner] || testGroupEvaluated[testGroup]) {
+                continue;
+            }
+            testGroupEvaluated[testGroup] = true;
+            groupMatched[owner] = this.test(person, testGroup);
+        }
+    }
+
+    private boolean test(IPerson person, int testGroup) {
+        try {
+            for (final IPersonTester tester : this.testGroupTests[testGroup]) {
+                if (tester == null || !tester.test(person)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            logger.warn(
+                    "Failed to evaluate a test group of PAGS group {} for {}",
+                    this.groupKeys[this.testGroupOwners[testGroup]],
+                    person.getUserName(),
+                    e);
+            return false;
+        }
+    }
+
+    /** @return The position of the tester to index the test group by, -1 if there is none */
+    private int findLiteralTester(List<IPersonTester> testers) {
+        int regexIndex = -1;
+        for (int i = 0; i < testers.size(); i++) {
+            final IPersonTester tester = testers.get(i);
+            if (tester == null) {
+                continue;
+            }
+
+            // Subclasses may override test(String), only the exact classes are indexed
+            final Class<?> testerClass = tester.getClass();
+            if ((testerClass == StringEqualsTester.class
+                            || testerClass == StringEqualsIgnoreCaseTester.class)
+                    && ((BaseAttributeTester) tester).getTestValue() != null) {
+                return i;
+            }
+            if (regexIndex < 0
+                    && testerClass == RegexTester.class
+                    && getRegexLiteral(((RegexTester) tester).getTestValue()) != null) {
+                regexIndex = i;
+            }
+        }
+        return regexIndex;
+    }
+
+    /**
+     * @return The string matched by the pattern if it is a plain literal, optionally anchored,
+     *     otherwise null
+     */
+    static String getRegexLiteral(String pattern) {
+        if (pattern == null) {
+            return null;
+        }
+
+        int start = 0;
+        int end = pattern.length();
+        if (end > start && pattern.charAt(start) == '^') {
+            start++;
+        }
+        if (end > start && pattern.charAt(end - 1) == '$') {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            final char c = pattern.charAt(i);
+            if (REGEX_META_CHARACTERS.indexOf(c) >= 0 || Character.isWhitespace(c)) {
+                return null;
+            }
+        }
+        return pattern.substring(start, end);
+    }
+
+    /** Fold case the same way {@link String#equalsIgnoreCase(String)} compares characters */
+    static String foldCase(String value) {
+        final char[] chars = value.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    private static void addToIndex(
+            Map<String, Map<String, List<Integer>>> index,
+            String attributeName,
+            String value,
+            int testGroup) {
+        index.computeIfAbsent(attributeName, k -> new HashMap<>())
+                .computeIfAbsent(value, k -> new ArrayList<>())
+                .add(testGroup);
+    }
+
+    private static Map<String, Map<String, int[]>> freezeIndex(
+            Map<String, Map<String, List<Integer>>> index) {
+        final Map<String, Map<String, int[]>> frozen = new HashMap<>(index.size() * 2);
+        for (final Map.Entry<String, Map<String, List<Integer>>> attributeEntry :
+                index.entrySet()) {
+            final Map<String, int[]> values = new HashMap<>(attributeEntry.getValue().size() * 2);
+            for (final Map.Entry<String, List<Integer>> valueEntry :
+                    attributeEntry.getValue().entrySet()) {
+                values.put(valueEntry.getKey(), toIntArray(valueEntry.getValue()));
+            }
+            frozen.put(attributeEntry.getKey(), values);
+        }
+        return frozen;
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        if (values.isEmpty()) {
+            return NO_TEST_GROUPS;
+        }
+        final int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
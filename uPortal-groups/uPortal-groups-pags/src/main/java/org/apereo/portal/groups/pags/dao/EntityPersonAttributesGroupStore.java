@@ -16,6 +16,7 @@ package org.apereo.portal.groups.pags.dao;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,6 +28,7 @@ import net.sf.ehcache.Element;
 import org.apereo.portal.EntityIdentifier;
 import org.apereo.portal.groups.EntityImpl;
 import org.apereo.portal.groups.EntityTestingGroupImpl;
+import org.apereo.portal.groups.GroupNameIndex;
 import org.apereo.portal.groups.GroupsException;
 import org.apereo.portal.groups.IEntity;
 import org.apereo.portal.groups.IEntityGroup;
@@ -35,6 +37,7 @@ import org.apereo.portal.groups.IEntitySearcher;
 import org.apereo.portal.groups.IEntityStore;
 import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.groups.ILockableEntityGroup;
+import org.apereo.portal.groups.pags.CompiledPagsGroups;
 import org.apereo.portal.groups.pags.IPersonTester;
 import org.apereo.portal.groups.pags.PagsGroup;
 import org.apereo.portal.groups.pags.TestGroup;
@@ -61,12 +64,21 @@ public class EntityPersonAttributesGroupStore
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private static final Class<IPerson> IPERSON_CLASS = IPerson.class;
     private static final EntityIdentifier[] EMPTY_SEARCH_RESULTS = new EntityIdentifier[0];
+
+    /**
+     * PAGS definitions are edited through the DAO, not this store, so the name index is reloaded at
+     * the same interval the cached group definitions expire
+     */
+    private static final long GROUP_NAME_INDEX_MAX_AGE = 300000;
+
+    /** Key of the CompiledPagsGroups in the pagsGroupCache, cannot collide with a group name */
+    private static final Object COMPILED_GROUPS_CACHE_KEY = new Object();
     private IPersonAttributesGroupDefinitionDao personAttributesGroupDefinitionDao;
 
     /** Caches IEntityGroup (EntityGroupImpl) instances */
     private final Cache entityGroupCache;
 
-    /** Caches PagsGroup instances */
+    /** Caches PagsGroup instances and the CompiledPagsGroups built from all of them */
     private final Cache pagsGroupCache;
 
     /**
@@ -74,6 +86,10 @@ public class EntityPersonAttributesGroupStore
      */
     private final Cache membershipCache;
 
+    /** Answers searchForGroups() */
+    private final GroupNameIndex groupNameIndex =
+            new GroupNameIndex(this::loadGroupNames, GROUP_NAME_INDEX_MAX_AGE);
+
     public EntityPersonAttributesGroupStore() {
         super();
         ApplicationContext applicationContext = ApplicationContextLocator.getApplicationContext();
@@ -256,15 +272,95 @@ public class EntityPersonAttributesGroupStore
         Set<IPersonAttributesGroupDefinition> pagsGroups =
                 personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
         List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+
+        /*
+         * Answer what we can from the membership cache;  the remaining groups
+         * are evaluated together against a single lookup of the person's
+         * attributes.
+         */
+        final List<IEntityGroup> uncached = new ArrayList<IEntityGroup>();
         for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
             IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
-            if (contains(group, member)) {
+            final Element element =
+                    membershipCache.get(
+                            new MembershipCacheKey(
+                                    group.getEntityIdentifier(),
+                                    member.getUnderlyingEntityIdentifier()));
+            if (element == null) {
+                uncached.add(group);
+            } else if ((Boolean) element.getObjectValue()) {
+                results.add(group);
+            }
+        }
+        if (uncached.isEmpty()) {
+            return results.iterator();
+        }
+
+        final CompiledPagsGroups compiledGroups = getCompiledGroups(pagsGroups);
+        final Set<String> containingGroups;
+        try {
+            final IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+            final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+            if (personAttributes == null) {
+                containingGroups = Collections.emptySet();
+            } else {
+                final RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+                rp.setAttributes(personAttributes.getAttributes());
+                containingGroups = compiledGroups.findContainingGroupKeys(rp);
+            }
+        } catch (Exception ex) {
+            logger.error(
+                    "Exception acquiring attributes for member "
+                            + member
+                            + " while finding the groups that contain this member.",
+                    ex);
+            return results.iterator();
+        }
+
+        for (IEntityGroup group : uncached) {
+            if (!compiledGroups.isCompiled(group.getName())) {
+                // Defined after the groups were compiled, evaluate it on its own
+                if (contains(group, member)) {
+                    results.add(group);
+                }
+                continue;
+            }
+            final boolean answer = containingGroups.contains(group.getName());
+            membershipCache.put(
+                    new Element(
+                            new MembershipCacheKey(
+                                    group.getEntityIdentifier(),
+                                    member.getUnderlyingEntityIdentifier()),
+                            answer));
+            if (answer) {
                 results.add(group);
             }
         }
         return results.iterator();
     }
 
+    /**
+     * Compiles all PAGS group definitions for evaluating them together. The result is cached
+     * alongside the individual group definitions and expires with them.
+     */
+    private CompiledPagsGroups getCompiledGroups(Set<IPersonAttributesGroupDefinition> pagsGroups) {
+        Element element = this.pagsGroupCache.get(COMPILED_GROUPS_CACHE_KEY);
+        if (element != null) {
+            return (CompiledPagsGroups) element.getObjectValue();
+        }
+        final List<PagsGroup> groupDefs = new ArrayList<PagsGroup>(pagsGroups.size());
+        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
+            // Groups that cannot be initialized are left out, contains() never matches them
+            final PagsGroup groupDef = buildGroupDef(pagsGroup);
+            if (groupDef != null) {
+                groupDefs.add(groupDef);
+            }
+        }
+        final CompiledPagsGroups compiledGroups = new CompiledPagsGroups(groupDefs);
+        this.pagsGroupCache.put(new Element(COMPILED_GROUPS_CACHE_KEY, compiledGroups));
+        return compiledGroups;
+    }
+
     @Override
     public Iterator<IEntityGroup> findEntitiesForGroup(IEntityGroup group) throws GroupsException {
         // PAGS groups are synthetic;  we don't support this behavior.
@@ -320,76 +416,21 @@ public class EntityPersonAttributesGroupStore
         if (leaftype != IPERSON_CLASS) {
             return EMPTY_SEARCH_RESULTS;
         }
+        return groupNameIndex.search(query, method, leaftype);
+    }
+
+    /** Reads the names of all PAGS groups for the group name index */
+    private Collection<GroupNameIndex.GroupName> loadGroupNames() {
         Set<IPersonAttributesGroupDefinition> pagsGroups =
                 personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
-        List<EntityIdentifier> results = new ArrayList<EntityIdentifier>();
-        switch (method) {
-            case DISCRETE:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().equals(query)) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case DISCRETE_CI:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().equalsIgnoreCase(query)) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case STARTS_WITH:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().startsWith(query)) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case STARTS_WITH_CI:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().toUpperCase().startsWith(query.toUpperCase())) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case ENDS_WITH:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().endsWith(query)) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case ENDS_WITH_CI:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().toUpperCase().endsWith(query.toUpperCase())) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case CONTAINS:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().indexOf(query) != -1) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
-            case CONTAINS_CI:
-                for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
-                    IEntityGroup g = convertPagsGroupToEntity(pagsGroup);
-                    if (g.getName().toUpperCase().indexOf(query.toUpperCase()) != -1) {
-                        results.add(g.getEntityIdentifier());
-                    }
-                }
-                break;
+        List<GroupNameIndex.GroupName> groupNames =
+                new ArrayList<GroupNameIndex.GroupName>(pagsGroups.size());
+        for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
+            groupNames.add(
+                    new GroupNameIndex.GroupName(
+                            pagsGroup.getName(), pagsGroup.getName(), IPERSON_CLASS));
         }
-        return results.toArray(new EntityIdentifier[] {});
+        return groupNames;
     }
 
     @Override
@@ -427,6 +468,16 @@ public class EntityPersonAttributesGroupStore
         if (element != null) {
             return (PagsGroup) element.getObjectValue();
         }
+        PagsGroup groupDef = buildGroupDef(group);
+        if (groupDef == null) {
+            return null;
+        }
+        element = new Element(group.getName(), groupDef);
+        this.pagsGroupCache.put(element);
+        return groupDef;
+    }
+
+    private PagsGroup buildGroupDef(IPersonAttributesGroupDefinition group) {
         PagsGroup groupDef = new PagsGroup();
         groupDef.setKey(group.getName());
         groupDef.setName(group.getName());
@@ -453,8 +504,6 @@ public class EntityPersonAttributesGroupStore
             }
             groupDef.addTestGroup(tg);
         }
-        element = new Element(group.getName(), groupDef);
-        this.pagsGroupCache.put(element);
         return groupDef;
     }
 
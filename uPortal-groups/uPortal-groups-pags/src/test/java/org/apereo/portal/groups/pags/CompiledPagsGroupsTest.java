@@ -0,0 +1,152 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups.pags;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import org.apereo.portal.groups.pags.testers.IntegerGETester;
+import org.apereo.portal.groups.pags.testers.RegexTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsIgnoreCaseTester;
+import org.apereo.portal.groups.pags.testers.StringEqualsTester;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledPagsGroupsTest {
+
+    private IPerson person;
+
+    @Before
+    public void setUp() {
+        person = new PersonImpl();
+        person.setUserName("testuser");
+        person.setAttribute("affiliation", Arrays.<Object>asList("staff", "student"));
+        person.setAttribute("campus", "North");
+        person.setAttribute("credits", "42");
+    }
+
+    @Test
+    public void testEqualsIndex() {
+        final PagsGroup students = group("students", testGroup(equals("affiliation", "student")));
+        final PagsGroup faculty = group("faculty", testGroup(equals("affiliation", "faculty")));
+        final PagsGroup northStudents =
+                group(
+                        "northStudents",
+                        testGroup(equals("affiliation", "student"), equals("campus", "North")));
+        final PagsGroup southStudents =
+                group(
+                        "southStudents",
+                        testGroup(equals("affiliation", "student"), equals("campus", "South")));
+
+        assertMatches(students, faculty, northStudents, southStudents);
+    }
+
+    @Test
+    public void testEqualsIgnoreCaseIndex() {
+        final PagsGroup north = group("north", testGroup(equalsIgnoreCase("campus", "NORTH")));
+        final PagsGroup south = group("south", testGroup(equalsIgnoreCase("campus", "south")));
+
+        assertMatches(north, south);
+    }
+
+    @Test
+    public void testRegexAndUnindexedTests() {
+        final PagsGroup literalRegex = group("literal", testGroup(regex("campus", "^North$")));
+        final PagsGroup patternRegex = group("pattern", testGroup(regex("campus", "N.*")));
+        final PagsGroup credits =
+                group(
+                        "credits",
+                        testGroup(integerGE("credits", "50")),
+                        testGroup(regex("affiliation", "sta.*"), integerGE("credits", "40")));
+        final PagsGroup noTestGroups = group("empty");
+        final PagsGroup emptyTestGroup = group("emptyTestGroup", testGroup());
+
+        assertMatches(literalRegex, patternRegex, credits, noTestGroups, emptyTestGroup);
+    }
+
+    @Test
+    public void testMissingAttribute() {
+        final PagsGroup missing = group("missing", testGroup(equals("department", "math")));
+
+        final CompiledPagsGroups compiled = new CompiledPagsGroups(Arrays.asList(missing));
+        assertTrue(compiled.findContainingGroupKeys(person).isEmpty());
+        assertTrue(compiled.isCompiled("missing"));
+        assertFalse(compiled.isCompiled("other"));
+    }
+
+    @Test
+    public void testRegexLiteral() {
+        assertEquals("North", CompiledPagsGroups.getRegexLiteral("^North$"));
+        assertEquals("a_b@c", CompiledPagsGroups.getRegexLiteral("a_b@c"));
+        assertNull(CompiledPagsGroups.getRegexLiteral("N.*"));
+        assertNull(CompiledPagsGroups.getRegexLiteral("a\\$"));
+        assertNull(CompiledPagsGroups.getRegexLiteral("a b"));
+    }
+
+    /** The compiled groups must agree with evaluating each group on its own */
+    private void assertMatches(PagsGroup... groups) {
+        final CompiledPagsGroups compiled = new CompiledPagsGroups(Arrays.asList(groups));
+        final HashSet<String> expected = new HashSet<>();
+        for (PagsGroup group : groups) {
+            if (group.contains(person)) {
+                expected.add(group.getKey());
+            }
+        }
+        assertEquals(expected, compiled.findContainingGroupKeys(person));
+    }
+
+    private static PagsGroup group(String key, TestGroup... testGroups) {
+        final PagsGroup group = new PagsGroup();
+        group.setKey(key);
+        group.setName(key);
+        for (TestGroup testGroup : testGroups) {
+            group.addTestGroup(testGroup);
+        }
+        return group;
+    }
+
+    private static TestGroup testGroup(IPersonTester... testers) {
+        final TestGroup testGroup = new TestGroup();
+        for (IPersonTester tester : testers) {
+            testGroup.addTest(tester);
+        }
+        return testGroup;
+    }
+
+    private static IPersonTester equals(String attributeName, String value) {
+        return new StringEqualsTester(
+                new TestPersonAttributesGroupTestDefinition(attributeName, value));
+    }
+
+    private static IPersonTester equalsIgnoreCase(String attributeName, String value) {
+        return new StringEqualsIgnoreCaseTester(
+                new TestPersonAttributesGroupTestDefinition(attributeName, value));
+    }
+
+    private static IPersonTester regex(String attributeName, String value) {
+        return new RegexTester(new TestPersonAttributesGroupTestDefinition(attributeName, value));
+    }
+
+    private static IPersonTester integerGE(String attributeName, String value) {
+        return new IntegerGETester(
+                new TestPersonAttributesGroupTestDefinition(attributeName, value));
+    }
+}
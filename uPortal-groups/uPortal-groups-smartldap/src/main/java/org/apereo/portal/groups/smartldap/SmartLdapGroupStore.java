@@ -14,17 +14,23 @@
  */
 package org.apereo.portal.groups.smartldap;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.concurrent.ConcurrentException;
 import org.apache.commons.lang3.concurrent.LazyInitializer;
@@ -50,9 +56,15 @@ import org.danann.cernunnos.runtime.ScriptRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.ldap.control.PagedResultsDirContextProcessor;
 import org.springframework.ldap.core.AttributesMapper;
 import org.springframework.ldap.core.ContextMapper;
 import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.LdapOperations;
+import org.springframework.ldap.core.LdapOperationsCallback;
+import org.springframework.ldap.core.support.SingleContextSource;
+import org.springframework.scheduling.TaskScheduler;
 
 public final class SmartLdapGroupStore implements IEntityGroupStore {
 
@@ -88,7 +100,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     }
 
     private ContextSource ldapContext =
-            null; // default;  must be set if used -- validated in refreshTree()
+            null; // default;  must be set if used -- validated in buildGroupsTree()
 
     public void setLdapContext(ContextSource ldapContext) {
         this.ldapContext = ldapContext;
@@ -139,6 +151,38 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     /** Timestamp (milliseconds) of the last tree refresh. */
     private volatile long lastTreeRefreshTime = 0;
 
+    /**
+     * Name of a generalized time attribute the directory updates whenever a group changes, e.g.
+     * modifyTimestamp or whenChanged. When set, a refresh first asks the directory for groups
+     * changed since the last build and keeps the current tree if there are none and no group was
+     * removed. Not used with resolveMemberGroups, groups outside the baseGroupDn are not checked.
+     */
+    private String modifyTimestampAttributeName = null;
+
+    public void setModifyTimestampAttributeName(String modifyTimestampAttributeName) {
+        this.modifyTimestampAttributeName = modifyTimestampAttributeName;
+    }
+
+    /**
+     * Page size of the searches that detect group changes. Must not exceed the directory's size
+     * limit, e.g. MaxPageSize on Active Directory.
+     */
+    private int directoryPageSize = 500; // default
+
+    public void setDirectoryPageSize(int directoryPageSize) {
+        this.directoryPageSize = directoryPageSize;
+    }
+
+    /** Refreshes the groups tree in the background, not available to command line tools */
+    @Autowired(required = false)
+    @Qualifier("uPortalTaskScheduler")
+    private TaskScheduler taskScheduler;
+
+    /** Only one refresh runs at a time, requests keep using the current tree meanwhile */
+    private final AtomicBoolean refreshInProgress = new AtomicBoolean(false);
+
+    private final Object initialBuildLock = new Object();
+
     // Cernunnos tech...
     private final ScriptRunner runner = new ScriptRunner();
     private final Task initTask =
@@ -178,8 +222,10 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
      *   <li>Map of all 'keys' (DNs) of SmartLdap managed groups indexed by group name in upper
      *       case. Includes ROOT_GROUP.
      * </ul>
+     *
+     * <p>The tree is immutable, a refresh builds a new one and replaces the reference.
      */
-    private GroupsTree groupsTree;
+    private volatile GroupsTree groupsTree;
 
     /*
      * Public API.
@@ -192,6 +238,12 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     public static final String ROOT_KEY = "SmartLdap ROOT";
     public static final String ROOT_DESC = "A root group provided for the SmartLdapGroupStore.";
 
+    private static final String GENERALIZED_TIME_FORMAT = "yyyyMMddHHmmss'Z'";
+    private static final long CLOCK_SKEW_MILLIS = 60000L;
+
+    /** Requests no attributes, see RFC 4511 section 4.5.1.8 */
+    private static final String[] NO_ATTRIBUTES = new String[] {"1.1"};
+
     private static final LazyInitializer<IEntityGroup> rootGroupInitializer =
             new LazyInitializer<IEntityGroup>() {
                 @Override
@@ -225,15 +277,13 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     @Override
     public IEntityGroup find(String key) throws GroupsException {
 
-        if (isTreeRefreshRequired()) {
-            refreshTree();
-        }
+        final GroupsTree tree = getGroupsTree();
 
         log.debug("Invoking find() for key:  {}", key);
 
         // All of our groups (incl. ROOT_GROUP)
         // are indexed in the 'groups' map by key...
-        return groupsTree.getGroups().get(key);
+        return tree.getGroups().get(key);
     }
 
     /**
@@ -245,9 +295,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
      */
     @Override
     public Iterator findParentGroups(IGroupMember gm) throws GroupsException {
-        if (isTreeRefreshRequired()) {
-            refreshTree();
-        }
+        final GroupsTree tree = getGroupsTree();
         log.debug("Invoking findParentGroups() for group member: {}", gm.getKey());
         Set<IEntityGroup> rslt = new HashSet<>();
         final IEntityGroup root = getRootGroup();
@@ -258,14 +306,14 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                     gm.getKey(),
                     group.getLocalKey(),
                     group.getName());
-            getParentGroups(group.getLocalKey(), rslt);
+            getParentGroups(tree, group.getLocalKey(), rslt);
         } else if (!gm.isGroup() && gm.getLeafType().equals(root.getLeafType())) {
             Object[] groupKeys = getPersonGroupMemberKeys(gm);
             for (Object o : groupKeys) {
                 String s = (String) o;
-                IEntityGroup group = groupsTree.getGroups().get(s);
+                IEntityGroup group = tree.getGroups().get(s);
                 rslt.add(group);
-                rslt.addAll(getParentGroups(s, new HashSet<>()));
+                rslt.addAll(getParentGroups(tree, s, new HashSet<>()));
             }
         }
         return rslt.iterator();
@@ -285,19 +333,20 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         return keys != null ? keys : new Object[] {};
     }
 
-    private Set<IEntityGroup> getParentGroups(String key, Set<IEntityGroup> groups) {
+    private Set<IEntityGroup> getParentGroups(
+            GroupsTree tree, String key, Set<IEntityGroup> groups) {
         // groups is an ongoing collection to avoid recursion
         log.debug("Getting parents of group: {}", key);
-        IEntityGroup group = groupsTree.getGroups().get(key);
+        IEntityGroup group = tree.getGroups().get(key);
         if (group == null) {
             log.warn("SmartLdap group not found for key: {}", key);
             return groups;
         }
-        List<String> parentKeys = groupsTree.getParents().get(key);
+        List<String> parentKeys = tree.getParents().get(key);
         parentKeys = parentKeys != null ? parentKeys : Collections.emptyList();
         log.debug("Parent keys for {}: {}", key, String.join(",", parentKeys));
         for (String parentKey : parentKeys) {
-            IEntityGroup parent = groupsTree.getGroups().get(parentKey);
+            IEntityGroup parent = tree.getGroups().get(parentKey);
             if (parent == null) {
                 log.warn("Group tree inconsistent -- missing parent: {}", parentKey);
             } else if (groups.contains(parent)) {
@@ -307,7 +356,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                         parentKey);
             } else {
                 groups.add(parent);
-                getParentGroups(parentKey, groups);
+                getParentGroups(tree, parentKey, groups);
             }
         }
         return groups;
@@ -323,9 +372,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     @Override
     public Iterator findEntitiesForGroup(IEntityGroup group) throws GroupsException {
 
-        if (isTreeRefreshRequired()) {
-            refreshTree();
-        }
+        final GroupsTree tree = getGroupsTree();
 
         log.debug("Invoking findEntitiesForGroup() for group:  {}", group.getLocalKey());
 
@@ -334,7 +381,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
 
         List<IEntity> rslt = new ArrayList<IEntity>();
         if (displayPersonMembers) {
-            List<String> list = groupsTree.getPersonChildren().get(group.getLocalKey());
+            List<String> list = tree.getPersonChildren().get(group.getLocalKey());
             if (list != null) {
                 // should only reach this code if its a SmartLdap managed group...
                 for (String s : list) {
@@ -365,10 +412,6 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     @Override
     public String[] findMemberGroupKeys(IEntityGroup group) throws GroupsException {
 
-        if (isTreeRefreshRequired()) {
-            refreshTree();
-        }
-
         log.debug("Invoking findMemberGroupKeys() for group:  {}", group.getLocalKey());
 
         List<String> rslt = new ArrayList<>();
@@ -391,19 +434,17 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     @Override
     public Iterator findMemberGroups(IEntityGroup group) throws GroupsException {
 
-        if (isTreeRefreshRequired()) {
-            refreshTree();
-        }
+        final GroupsTree tree = getGroupsTree();
 
         log.debug("Invoking findMemberGroups() for group:  {}", group.getLocalKey());
 
         List<IEntityGroup> rslt = new ArrayList<>();
 
-        List<String> list = groupsTree.getChildren().get(group.getLocalKey());
+        List<String> list = tree.getChildren().get(group.getLocalKey());
         if (list != null) {
             // should only reach this code if its a SmartLdap managed group...
             for (String s : list) {
-                rslt.add(groupsTree.getGroups().get(s));
+                rslt.add(tree.getGroups().get(s));
             }
         }
 
@@ -428,9 +469,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     public EntityIdentifier[] searchForGroups(String query, SearchMethod method, Class leaftype)
             throws GroupsException {
 
-        if (isTreeRefreshRequired()) {
-            refreshTree();
-        }
+        final GroupsTree tree = getGroupsTree();
 
         log.debug(
                 "Invoking searchForGroups():  query={}, method={}, leaftype=",
@@ -492,7 +531,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         }
 
         List<EntityIdentifier> rslt = new ArrayList<>();
-        for (Map.Entry<String, List<String>> y : groupsTree.getKeysByUpperCaseName().entrySet()) {
+        for (Map.Entry<String, List<String>> y : tree.getKeysByUpperCaseName().entrySet()) {
             if (y.getKey().matches(regex)) {
                 List<String> keys = y.getValue();
                 for (String k : keys) {
@@ -585,6 +624,12 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     @PostConstruct
     private void postConstruct() {
         Factory.setInstance(this);
+
+        if (taskScheduler != null && groupsTreeRefreshIntervalSeconds > 0) {
+            // Requests never wait for a refresh, they use the current tree until it is replaced
+            taskScheduler.scheduleWithFixedDelay(
+                    this::refreshTree, groupsTreeRefreshIntervalSeconds * 1000L);
+        }
     }
 
     private IEntityGroup getRootGroup() {
@@ -595,12 +640,34 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         }
     }
 
-    private boolean isTreeRefreshRequired() {
-
-        if (groupsTree == null) {
-            // Of course we need it
-            return true;
+    /**
+     * Returns the current groups tree. Only the very first call builds the tree while the caller
+     * waits. Without a task scheduler an expired tree is refreshed in the background, the caller
+     * proceeds with the expired one.
+     */
+    private GroupsTree getGroupsTree() {
+        GroupsTree tree = groupsTree;
+        if (tree == null) {
+            synchronized (initialBuildLock) {
+                tree = groupsTree;
+                if (tree == null) {
+                    log.info("Building groups tree for SmartLdap");
+                    tree = buildGroupsTree();
+                    groupsTree = tree;
+                    lastTreeRefreshTime = System.currentTimeMillis();
+                }
+            }
+        } else if (taskScheduler == null
+                && isTreeRefreshRequired()
+                && refreshInProgress.compareAndSet(false, true)) {
+            final Thread refresh = new Thread(this::rebuildTree, "SmartLdap Refresh Worker");
+            refresh.setDaemon(true);
+            refresh.start();
         }
+        return tree;
+    }
+
+    private boolean isTreeRefreshRequired() {
 
         if (groupsTreeRefreshIntervalSeconds <= 0) {
             // SmartLdap refresh feature may be disabled by setting
@@ -617,51 +684,97 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
     }
 
     /**
-     * Verifies that the collection of groups needs rebuilding and, if so, spawns a new worker
-     * <code>Thread</code> for that purpose.
+     * Builds a new groups tree and replaces the current one. Does nothing if the tree was never
+     * built, i.e. SmartLdap is configured but not in use, or if another refresh is running.
      */
-    private synchronized void refreshTree() {
+    private void refreshTree() {
 
-        if (!isTreeRefreshRequired()) {
-            // The groupsTree was already re-built while
-            // we were waiting to enter this method.
+        if (groupsTree == null || !refreshInProgress.compareAndSet(false, true)) {
             return;
         }
+        rebuildTree();
+    }
 
-        log.info("Refreshing groups tree for SmartLdap");
+    /** Performs the refresh, the caller must have set refreshInProgress */
+    private void rebuildTree() {
+        try {
+            if (isDirectoryUnchanged(groupsTree)) {
+                log.info("No SmartLdap group changes since the last refresh, keeping groups tree");
+            } else {
+                log.info("Refreshing groups tree for SmartLdap");
+                groupsTree = buildGroupsTree();
+            }
+        } catch (Throwable t) {
+            log.error("SmartLdapGroupStore failed to build the groups tree", t);
+        } finally {
+            // Even if the refresh failed, don't try
+            // again for another groupsTreeRefreshIntervalSeconds.
+            lastTreeRefreshTime = System.currentTimeMillis();
+            refreshInProgress.set(false);
+        }
+    }
 
-        // We must join the builder thread if
-        // we don't have an existing groupsTree.
-        final boolean doJoin = groupsTree == null;
+    /**
+     * Answers if no group under the baseGroupDn was added, changed or removed since the tree was
+     * built. Always false if change detection is not configured.
+     */
+    private boolean isDirectoryUnchanged(GroupsTree tree) {
+        if (StringUtils.isBlank(modifyTimestampAttributeName)
+                || resolveMemberGroups
+                || tree.getDirectoryGroupCount() < 0) {
+            return false;
+        }
 
-        // In most cases, re-build the tree in a separate thread;  the current
-        // request can proceed with the newly-expired groupsTree.
-        Thread refresh =
-                new Thread("SmartLdap Refresh Worker") {
-                    @Override
-                    public void run() {
-                        // Replace the old with the new...
-                        try {
-                            groupsTree = buildGroupsTree();
-                        } catch (Throwable t) {
-                            log.error("SmartLdapGroupStore failed to build the groups tree", t);
-                        }
-                    }
-                };
-        refresh.setDaemon(true);
-        refresh.start();
-        if (doJoin) {
-            try {
-                log.info("Joining the SmartLdap Refresh Worker Thread");
-                refresh.join();
-            } catch (InterruptedException ie) {
-                throw new RuntimeException(ie);
-            }
+        // Allow for clock differences between the portal and the directory
+        final SimpleDateFormat generalizedTime = new SimpleDateFormat(GENERALIZED_TIME_FORMAT);
+        generalizedTime.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final String since =
+                generalizedTime.format(new Date(tree.getBuildTime() - CLOCK_SKEW_MILLIS));
+
+        final String changedFilter =
+                "(&" + filter + "(" + modifyTimestampAttributeName + ">=" + since + "))";
+        if (countDirectoryGroups(changedFilter, 1) != 0) {
+            log.debug("SmartLdap groups changed since {}", since);
+            return false;
         }
 
-        // Even if the refresh thread failed, don't try
-        // again for another groupsTreeRefreshIntervalSeconds.
-        lastTreeRefreshTime = System.currentTimeMillis();
+        // Removed groups don't show up in the query above, only in the count
+        return countDirectoryGroups(filter, Integer.MAX_VALUE) == tree.getDirectoryGroupCount();
+    }
+
+    /**
+     * Counts the groups under the baseGroupDn matching the filter, stopping once the count reaches
+     * the limit. The search is paged, so the directory's size limit (1000 on Active Directory)
+     * neither truncates the count nor fails it.
+     */
+    private int countDirectoryGroups(final String searchFilter, final int limit) {
+        final SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        searchControls.setReturningAttributes(NO_ATTRIBUTES);
+
+        // The paged results cookie is only valid on the connection that returned it
+        return SingleContextSource.doWithSingleContext(
+                ldapContext,
+                new LdapOperationsCallback<Integer>() {
+                    @Override
+                    public Integer doWithLdapOperations(LdapOperations operations) {
+                        final PagedResultsDirContextProcessor processor =
+                                new PagedResultsDirContextProcessor(directoryPageSize);
+                        int count = 0;
+                        do {
+                            count +=
+                                    operations
+                                            .search(
+                                                    baseGroupDn,
+                                                    searchFilter,
+                                                    searchControls,
+                                                    (Attributes attributes) -> Boolean.TRUE,
+                                                    processor)
+                                            .size();
+                        } while (count < limit && processor.hasMore());
+                        return count;
+                    }
+                });
     }
 
     private String getContainingFolder(final String groupName) {
@@ -673,19 +786,14 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
 
         long timestamp = System.currentTimeMillis();
 
-        // Prepare the new local indices...
-        Map<String, IEntityGroup> newGroups =
-                Collections.synchronizedMap(new HashMap<String, IEntityGroup>());
-        Map<String, List<String>> newParents =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> newChildren =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> newKeysByUpperCaseName =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, List<String>> newChildrenPersons =
-                Collections.synchronizedMap(new HashMap<String, List<String>>());
-        Map<String, IEntityGroup> newFolders =
-                Collections.synchronizedMap(new HashMap<String, IEntityGroup>());
+        // Prepare the new local indices;  they are only visible to
+        // this thread until the finished tree is published...
+        Map<String, IEntityGroup> newGroups = new HashMap<>();
+        Map<String, List<String>> newParents = new HashMap<>();
+        Map<String, List<String>> newChildren = new HashMap<>();
+        Map<String, List<String>> newKeysByUpperCaseName = new HashMap<>();
+        Map<String, List<String>> newChildrenPersons = new HashMap<>();
+        Map<String, IEntityGroup> newFolders = new HashMap<>();
 
         // Gather IEntityGroup objects from LDAP...
         RuntimeRequestResponse req = new RuntimeRequestResponse();
@@ -728,6 +836,12 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                     "Either an AttributesMapper or a ContextMapper must be specified");
         }
 
+        // Counted before the search, so a group added meanwhile triggers the next refresh
+        final int directoryGroupCount =
+                StringUtils.isBlank(modifyTimestampAttributeName) || resolveMemberGroups
+                        ? -1
+                        : countDirectoryGroups(filter, Integer.MAX_VALUE);
+
         runner.run(initTask, req);
 
         log.info("init() found {} records", set.size());
@@ -759,7 +873,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                 // Adds the containing folder as a parent of this current path
                 List<String> parentsList = newParents.get(currentPath);
                 if (parentsList == null) {
-                    parentsList = Collections.synchronizedList(new ArrayList<String>());
+                    parentsList = new ArrayList<>();
                     newParents.put(currentPath, parentsList);
                 }
                 parentsList.add(containingFolder);
@@ -767,7 +881,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                 // Adds the current path as a child of the containing folder.
                 List<String> childrenList = newChildren.get(containingFolder);
                 if (childrenList == null) {
-                    childrenList = Collections.synchronizedList(new ArrayList<String>());
+                    childrenList = new ArrayList<>();
                     newChildren.put(containingFolder, childrenList);
                 }
                 childrenList.add(currentPath);
@@ -809,7 +923,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                     if (parentsList == null) {
                         log.debug("First parent for {}", childKey);
                         // first parent for this child...
-                        parentsList = Collections.synchronizedList(new ArrayList<String>());
+                        parentsList = new ArrayList<>();
                         newParents.put(childKey, parentsList);
                     }
                     log.debug("Adding {} to parent list for {}", g.getLocalKey(), childKey);
@@ -818,8 +932,8 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             }
 
             // new_children...
-            List<String> childrenList = Collections.synchronizedList(new ArrayList<String>());
-            List<String> childrenPersonList = Collections.synchronizedList(new ArrayList<String>());
+            List<String> childrenList = new ArrayList<>();
+            List<String> childrenPersonList = new ArrayList<>();
             for (String childKey : r.getKeysOfChildren()) {
                 log.debug("Child-processing child {} for group {}", childKey, g.getLocalKey());
                 // NB:  We're only interested in relationships between
@@ -845,7 +959,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             List<String> groupsWithMyName = newKeysByUpperCaseName.get(g.getName().toUpperCase());
             if (groupsWithMyName == null) {
                 // I am the first group with my name (pretty likely)...
-                groupsWithMyName = Collections.synchronizedList(new ArrayList<String>());
+                groupsWithMyName = new ArrayList<>();
                 newKeysByUpperCaseName.put(g.getName().toUpperCase(), groupsWithMyName);
             }
             groupsWithMyName.add(g.getLocalKey());
@@ -860,12 +974,11 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         newGroups.put(root.getLocalKey(), root);
 
         // newParents (I am a parent for all groups that have no other parent)...
-        List<String> childrenOfRoot =
-                Collections.synchronizedList(new ArrayList<String>()); // for later...
+        List<String> childrenOfRoot = new ArrayList<>(); // for later...
         for (String possibleChildKey : newGroups.keySet()) {
             if (!possibleChildKey.equals(root.getLocalKey())
                     && !newParents.containsKey(possibleChildKey)) {
-                List<String> p = Collections.synchronizedList(new ArrayList<String>());
+                List<String> p = new ArrayList<>();
                 p.add(root.getLocalKey());
                 newParents.put(possibleChildKey, p);
                 childrenOfRoot.add(possibleChildKey); // for later...
@@ -879,7 +992,7 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         List<String> groupsWithMyName = newKeysByUpperCaseName.get(root.getName().toUpperCase());
         if (groupsWithMyName == null) {
             // I am the first group with my name (pretty likely)...
-            groupsWithMyName = Collections.synchronizedList(new ArrayList<String>());
+            groupsWithMyName = new ArrayList<>();
             newKeysByUpperCaseName.put(root.getName().toUpperCase(), groupsWithMyName);
         }
         groupsWithMyName.add(root.getLocalKey());
@@ -947,7 +1060,13 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         }
 
         return new GroupsTree(
-                newGroups, newParents, newChildren, newChildrenPersons, newKeysByUpperCaseName);
+                newGroups,
+                newParents,
+                newChildren,
+                newChildrenPersons,
+                newKeysByUpperCaseName,
+                timestamp,
+                directoryGroupCount);
     }
 
     /*
@@ -985,6 +1104,8 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         private final Map<String, List<String>> children;
         private final Map<String, List<String>> personChildren;
         private final Map<String, List<String>> keysByUpperCaseName;
+        private final long buildTime;
+        private final int directoryGroupCount;
 
         /*
          * Public API.
@@ -995,7 +1116,9 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
                 Map<String, List<String>> parents,
                 Map<String, List<String>> children,
                 Map<String, List<String>> personChildren,
-                Map<String, List<String>> keysByUpperCaseName) {
+                Map<String, List<String>> keysByUpperCaseName,
+                long buildTime,
+                int directoryGroupCount) {
 
             // Assertions.
             if (groups == null) {
@@ -1020,11 +1143,21 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
             }
 
             // Instance Members.
-            this.groups = groups;
-            this.parents = parents;
-            this.children = children;
-            this.personChildren = personChildren;
-            this.keysByUpperCaseName = keysByUpperCaseName;
+            this.groups = Collections.unmodifiableMap(new HashMap<>(groups));
+            this.parents = freeze(parents);
+            this.children = freeze(children);
+            this.personChildren = freeze(personChildren);
+            this.keysByUpperCaseName = freeze(keysByUpperCaseName);
+            this.buildTime = buildTime;
+            this.directoryGroupCount = directoryGroupCount;
+        }
+
+        private static Map<String, List<String>> freeze(Map<String, List<String>> map) {
+            final Map<String, List<String>> rslt = new HashMap<>(map.size() * 2);
+            for (Map.Entry<String, List<String>> y : map.entrySet()) {
+                rslt.put(y.getKey(), Collections.unmodifiableList(new ArrayList<>(y.getValue())));
+            }
+            return Collections.unmodifiableMap(rslt);
         }
 
         public Map<String, IEntityGroup> getGroups() {
@@ -1046,6 +1179,16 @@ public final class SmartLdapGroupStore implements IEntityGroupStore {
         public Map<String, List<String>> getKeysByUpperCaseName() {
             return keysByUpperCaseName;
         }
+
+        /** Timestamp (milliseconds) at which building the tree started */
+        public long getBuildTime() {
+            return buildTime;
+        }
+
+        /** Number of groups under the baseGroupDn, -1 if change detection is not used */
+        public int getDirectoryGroupCount() {
+            return directoryGroupCount;
+        }
     }
 
     private static final class SubQueryCounter {
@@ -22,6 +22,7 @@ public class DistributedUserLayout {
     private final Document layout;
     private final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences;
     private final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences;
+    private final SharedLayoutKey sharedLayoutKey;
 
     /**
      * This constructor seems to be used with fragment owners.
@@ -32,6 +33,7 @@ public class DistributedUserLayout {
         this.layout = layout;
         this.distributedStructureStylesheetUserPreferences = null;
         this.distributedThemeStylesheetUserPreferences = null;
+        this.sharedLayoutKey = null;
     }
 
     /**
@@ -43,10 +45,28 @@ public class DistributedUserLayout {
             Document layout,
             IStylesheetUserPreferences distributedStructureStylesheetUserPreferences,
             IStylesheetUserPreferences distributedThemeStylesheetUserPreferences) {
+        this(
+                layout,
+                distributedStructureStylesheetUserPreferences,
+                distributedThemeStylesheetUserPreferences,
+                null);
+    }
+
+    /**
+     * Used for composite layouts that may share their document with other users.
+     *
+     * @param sharedLayoutKey Identifies the inputs the layout was built from
+     */
+    public DistributedUserLayout(
+            Document layout,
+            IStylesheetUserPreferences distributedStructureStylesheetUserPreferences,
+            IStylesheetUserPreferences distributedThemeStylesheetUserPreferences,
+            SharedLayoutKey sharedLayoutKey) {
         this.layout = layout;
         this.distributedStructureStylesheetUserPreferences =
                 distributedStructureStylesheetUserPreferences;
         this.distributedThemeStylesheetUserPreferences = distributedThemeStylesheetUserPreferences;
+        this.sharedLayoutKey = sharedLayoutKey;
     }
 
     /** @return The layout document */
@@ -61,4 +81,9 @@ public class DistributedUserLayout {
     public IStylesheetUserPreferences getDistributedThemeStylesheetUserPreferences() {
         return this.distributedThemeStylesheetUserPreferences;
     }
+
+    /** @return The key to share the layout's document under, null if it must not be shared */
+    public SharedLayoutKey getSharedLayoutKey() {
+        return this.sharedLayoutKey;
+    }
 }
@@ -68,6 +68,15 @@ public abstract class Evaluator {
 
     public abstract boolean isApplicable(IPerson person);
 
+    /**
+     * @return true if {@link #isApplicable(IPerson)} depends only on the groups the person belongs
+     *     to and on whether the person is a guest, so the result may be reused for any other person
+     *     with the same group memberships
+     */
+    public boolean isMembershipBased() {
+        return false;
+    }
+
     /**
      * Serializes this {@link Evaluator} into the same XML format supported by dlm.xml. <b>NOTE:</b>
      * this method will only yield usable XML if invoked on an instance of {@link
@@ -0,0 +1,167 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Identifies the inputs a composite layout was built from. Two layouts with equal keys are
+ * identical, so their documents can be shared.
+ *
+ * <p>The inputs are the activated fragment layouts in merge order, the personal layout fragment
+ * (PLF) before it was merged and the channels left out because the user may not render them.
+ * Fragment layouts are compared by identity: an activated fragment layout is never modified, a
+ * change to a fragment activates a new document.
+ */
+public final class SharedLayoutKey {
+    private final List<Document> fragmentLayouts;
+    private final String plfSignature;
+    private final SortedSet<String> excludedChannelIds;
+    private final int hashCode;
+
+    /**
+     * @param fragmentLayouts The activated fragment layouts merged into the layout, in merge order
+     * @param plf The user's PLF as it was before being merged into the layout
+     * @param excludedChannelIds IDs of the channels left out of the layout
+     */
+    public SharedLayoutKey(
+            List<Document> fragmentLayouts, Document plf, Collection<String> excludedChannelIds) {
+        this(new ArrayList<>(fragmentLayouts), getSignature(plf), excludedChannelIds);
+    }
+
+    private SharedLayoutKey(
+            List<Document> fragmentLayouts,
+            String plfSignature,
+            Collection<String> excludedChannelIds) {
+        this.fragmentLayouts = Collections.unmodifiableList(fragmentLayouts);
+        this.plfSignature = plfSignature;
+        this.excludedChannelIds =
+                Collections.unmodifiableSortedSet(new TreeSet<>(excludedChannelIds));
+
+        int result = 1;
+        for (final Document fragmentLayout : this.fragmentLayouts) {
+            result = 31 * result + System.identityHashCode(fragmentLayout);
+        }
+        result = 31 * result + this.plfSignature.hashCode();
+        result = 31 * result + this.excludedChannelIds.hashCode();
+        this.hashCode = result;
+    }
+
+    /** @return A key for the same layout with the specified channels also left out */
+    public SharedLayoutKey withExcludedChannels(Collection<String> channelIds) {
+        if (channelIds.isEmpty()) {
+            return this;
+        }
+        final Set<String> allChannelIds = new TreeSet<>(this.excludedChannelIds);
+        allChannelIds.addAll(channelIds);
+        return new SharedLayoutKey(this.fragmentLayouts, this.plfSignature, allChannelIds);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SharedLayoutKey)) {
+            return false;
+        }
+        final SharedLayoutKey other = (SharedLayoutKey) obj;
+        if (this.hashCode != other.hashCode
+                || this.fragmentLayouts.size() != other.fragmentLayouts.size()) {
+            return false;
+        }
+        for (int i = 0; i < this.fragmentLayouts.size(); i++) {
+            if (this.fragmentLayouts.get(i) != other.fragmentLayouts.get(i)) {
+                return false;
+            }
+        }
+        return this.plfSignature.equals(other.plfSignature)
+                && this.excludedChannelIds.equals(other.excludedChannelIds);
+    }
+
+    @Override
+    public String toString() {
+        return "SharedLayoutKey [fragmentLayouts="
+                + this.fragmentLayouts.size()
+                + ", plfSignature="
+                + this.plfSignature.length()
+                + " chars, excludedChannelIds="
+                + this.excludedChannelIds
+                + "]";
+    }
+
+    /**
+     * The PLF of a user that has not customized their layout only holds the root folders, so this
+     * stays small compared to the composite layout.
+     */
+    private static String getSignature(Document plf) {
+        final StringBuilder signature = new StringBuilder();
+        appendSignature(plf.getDocumentElement(), signature);
+        return signature.toString();
+    }
+
+    private static void appendSignature(Node node, StringBuilder signature) {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                signature.append('<').append(node.getNodeName());
+                final NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    final Node attribute = attributes.item(i);
+                    signature.append(' ').append(attribute.getNodeName()).append("=\"");
+                    appendEscaped(attribute.getNodeValue(), signature);
+                    signature.append('"');
+                }
+                signature.append('>');
+                for (Node child = node.getFirstChild();
+                        child != null;
+                        child = child.getNextSibling()) {
+                    appendSignature(child, signature);
+                }
+                signature.append("</>");
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                appendEscaped(node.getNodeValue(), signature);
+                break;
+            default:
+                // Comments and processing instructions are not part of the layout
+        }
+    }
+
+    /** Escapes the characters that delimit nodes so different trees never match */
+    private static void appendEscaped(String value, StringBuilder signature) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '<' || c == '"' || c == '\\') {
+                signature.append('\\');
+            }
+            signature.append(c);
+        }
+    }
+}
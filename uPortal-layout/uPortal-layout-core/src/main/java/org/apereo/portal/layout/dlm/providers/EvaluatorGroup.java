@@ -53,4 +53,16 @@ public abstract class EvaluatorGroup extends Evaluator {
     public void addEvaluator(Evaluator e) {
         this.evaluators.add(e);
     }
+
+    @Override
+    public boolean isMembershipBased() {
+        if (this.evaluators != null) {
+            for (Evaluator evaluator : this.evaluators) {
+                if (!evaluator.isMembershipBased()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 }
@@ -33,7 +33,10 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
-/** The simple user layout implementation. This layout is based on an XML Document. */
+/**
+ * The simple user layout implementation. This layout is based on an XML Document, the document may
+ * be shared with other users so every read is synchronized on it.
+ */
 public class SimpleLayout implements IUserLayout {
 
     private final DistributedUserLayout userLayout;
@@ -50,19 +53,23 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public IUserLayoutNodeDescription getNodeDescription(String nodeId) throws PortalException {
-        Element element = layout.getElementById(nodeId);
-        return UserLayoutNodeDescription.createUserLayoutNodeDescription(element);
+        synchronized (layout) {
+            Element element = layout.getElementById(nodeId);
+            return UserLayoutNodeDescription.createUserLayoutNodeDescription(element);
+        }
     }
 
     @Override
     public String getParentId(String nodeId) throws PortalException {
         String parentId = null;
-        Element element = layout.getElementById(nodeId);
-        if (element != null) {
-            Node parent = element.getParentNode();
-            if (parent != null && parent.getNodeType() == Node.ELEMENT_NODE) {
-                Element parentE = (Element) parent;
-                parentId = parentE.getAttribute("ID");
+        synchronized (layout) {
+            Element element = layout.getElementById(nodeId);
+            if (element != null) {
+                Node parent = element.getParentNode();
+                if (parent != null && parent.getNodeType() == Node.ELEMENT_NODE) {
+                    Element parentE = (Element) parent;
+                    parentId = parentE.getAttribute("ID");
+                }
             }
         }
         return parentId;
@@ -73,12 +80,14 @@ public class SimpleLayout implements IUserLayout {
         Vector v = new Vector();
         IUserLayoutNodeDescription node = getNodeDescription(nodeId);
         if (node instanceof IUserLayoutFolderDescription) {
-            Element element = layout.getElementById(nodeId);
-            for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
-                if (n.getNodeType() == Node.ELEMENT_NODE) {
-                    Element e = (Element) n;
-                    if (e.getAttribute("ID") != null) {
-                        v.add(e.getAttribute("ID"));
+            synchronized (layout) {
+                Element element = layout.getElementById(nodeId);
+                for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+                    if (n.getNodeType() == Node.ELEMENT_NODE) {
+                        Element e = (Element) n;
+                        if (e.getAttribute("ID") != null) {
+                            v.add(e.getAttribute("ID"));
+                        }
                     }
                 }
             }
@@ -97,7 +106,9 @@ public class SimpleLayout implements IUserLayout {
     @Override
     public String findNodeId(XPathExpression xpathExpression) throws PortalException {
         try {
-            return xpathExpression.evaluate(this.layout);
+            synchronized (this.layout) {
+                return xpathExpression.evaluate(this.layout);
+            }
         } catch (XPathExpressionException e) {
             throw new PortalException(
                     "Exception while executing XPathExpression: " + xpathExpression, e);
@@ -106,7 +117,9 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String findNodeId(INodeIdResolver finder) {
-        return finder.traverseDocument(this.layout);
+        synchronized (this.layout) {
+            return finder.traverseDocument(this.layout);
+        }
     }
 
     @Override
@@ -117,9 +130,12 @@ public class SimpleLayout implements IUserLayout {
             String expression = "/layout/folder";
             XPathFactory fac = XPathFactory.newInstance();
             XPath xpath = fac.newXPath();
-            Element rootNodeE = (Element) xpath.evaluate(expression, layout, XPathConstants.NODE);
+            synchronized (layout) {
+                Element rootNodeE =
+                        (Element) xpath.evaluate(expression, layout, XPathConstants.NODE);
 
-            rootNode = rootNodeE.getAttribute("ID");
+                rootNode = rootNodeE.getAttribute("ID");
+            }
         } catch (Exception e) {
             log.error("Error getting root id.", e);
         }
@@ -29,6 +29,7 @@ import java.util.Vector;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.xpath.XPathConstants;
 import org.apache.commons.logging.Log;
@@ -57,6 +58,7 @@ import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.PersonFactory;
 import org.apereo.portal.spring.locator.PortletDefinitionRegistryLocator;
 import org.apereo.portal.xml.XmlUtilities;
+import org.apereo.portal.xml.stream.XMLEventBufferReader;
 import org.apereo.portal.xml.xpath.XPathOperations;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -189,19 +191,62 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
         // determine if this is a layout fragment by looking at the root node
         // for a cp:fragment attribute.
-        Element layout = userLayout.getLayout().getDocumentElement();
-        Node attr = layout.getAttributeNodeNS(Constants.NS_URI, Constants.LCL_FRAGMENT_NAME);
-        this.isFragmentOwner = attr != null;
+        final Document document = userLayout.getLayout();
+        synchronized (document) {
+            Element layout = document.getDocumentElement();
+            Node attr = layout.getAttributeNodeNS(Constants.NS_URI, Constants.LCL_FRAGMENT_NAME);
+            this.isFragmentOwner = attr != null;
+        }
     }
 
+    /**
+     * The returned document is private to the owner and may be modified. Code that only reads the
+     * layout should use {@link #getLayoutDocument()} so the document stays shared.
+     */
     @SuppressWarnings("deprecation")
     @Deprecated
     @Override
     public Document getUserLayoutDOM() {
-        final DistributedUserLayout userLayout = getDistributedUserLayout();
+        final DistributedUserLayout userLayout = getModifiableDistributedUserLayout();
         return userLayout.getLayout();
     }
 
+    /**
+     * @return The layout document for reading, it may be shared with other users that have an
+     *     identical layout and must not be modified. The DOM is not safe for concurrent reads, so
+     *     every read must be synchronized on the document.
+     */
+    private Document getLayoutDocument() {
+        return getDistributedUserLayout().getLayout();
+    }
+
+    /**
+     * Returns the owner's layout with a document that is not shared with other users, copying the
+     * shared document on the first change to the layout.
+     */
+    protected DistributedUserLayout getModifiableDistributedUserLayout() {
+        final DistributedUserLayout userLayout = getDistributedUserLayout();
+        if (!this.layoutCachingService.isSharedLayout(userLayout)) {
+            return userLayout;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Copying shared layout before modification for " + owner.getUserName());
+        }
+        final Document sharedDocument = userLayout.getLayout();
+        final Document privateDocument;
+        synchronized (sharedDocument) {
+            privateDocument = (Document) sharedDocument.cloneNode(true);
+        }
+        final DistributedUserLayout privateLayout =
+                new DistributedUserLayout(
+                        privateDocument,
+                        userLayout.getDistributedStructureStylesheetUserPreferences(),
+                        userLayout.getDistributedThemeStylesheetUserPreferences());
+        this.layoutCachingService.cacheLayout(owner, profile, privateLayout);
+        return privateLayout;
+    }
+
     protected DistributedUserLayout getDistributedUserLayout() {
         DistributedUserLayout userLayout =
                 this.layoutCachingService.getCachedLayout(owner, profile);
@@ -218,6 +263,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             // 'header' and 'footer'.
             IAuthorizationPrincipal principal =
                     authorizationService.newPrincipal(owner.getUserName(), IPerson.class);
+            final List<String> removedChannelIds = new ArrayList<>();
             NodeList nodes = userLayoutDocument.getElementsByTagName("folder");
             for (int i = 0; i < nodes.getLength(); i++) {
                 Element fd = (Element) nodes.item(i);
@@ -242,6 +288,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                             String chanId = ch.getAttribute("chanID");
                             if (!principal.canRender(chanId)) {
                                 fd.removeChild(ch);
+                                removedChannelIds.add(chanId);
                                 if (LOG.isDebugEnabled()) {
                                     LOG.debug(
                                             "RDBMUserLayoutStore removing channel '"
@@ -262,6 +309,17 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                 }
             }
 
+            // Users with identical layouts reference a single document
+            final SharedLayoutKey sharedLayoutKey = userLayout.getSharedLayoutKey();
+            if (sharedLayoutKey != null) {
+                final DistributedUserLayout prunedLayout =
+                        new DistributedUserLayout(
+                                userLayoutDocument,
+                                userLayout.getDistributedStructureStylesheetUserPreferences(),
+                                userLayout.getDistributedThemeStylesheetUserPreferences(),
+                                sharedLayoutKey.withExcludedChannels(removedChannelIds));
+                userLayout = this.layoutCachingService.shareLayout(prunedLayout);
+            }
             setUserLayoutDOM(userLayout);
         }
         return userLayout;
@@ -269,7 +327,8 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public XMLEventReader getUserLayoutReader() {
-        Document ul = this.getUserLayoutDOM();
+        final DistributedUserLayout userLayout = this.getDistributedUserLayout();
+        Document ul = userLayout.getLayout();
         if (ul == null) {
             throw new PortalException(
                     "User layout has not been initialized for " + owner.getUserName());
@@ -279,7 +338,21 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
         final DOMSource layoutSoure = new DOMSource(ul);
         try {
-            return xmlInputFactory.createXMLEventReader(layoutSoure);
+            if (!this.layoutCachingService.isSharedLayout(userLayout)) {
+                return xmlInputFactory.createXMLEventReader(layoutSoure);
+            }
+
+            // The reader is consumed after this returns, buffer the events of a shared document
+            // while holding its lock
+            final List<XMLEvent> events = new ArrayList<>();
+            synchronized (ul) {
+                final XMLEventReader layoutReader =
+                        xmlInputFactory.createXMLEventReader(layoutSoure);
+                while (layoutReader.hasNext()) {
+                    events.add(layoutReader.nextEvent());
+                }
+            }
+            return new XMLEventBufferReader(events.listIterator());
         } catch (XMLStreamException e) {
             throw new RuntimeException(
                     "Failed to create Layout XMLStreamReader for user: " + owner.getUserName(), e);
@@ -300,7 +373,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                 this.layoutCachingService.removeCachedLayout(owner, profile);
             }
 
-            uli = getUserLayoutDOM();
+            uli = getLayoutDocument();
         } catch (Exception e) {
             throw new PortalException(
                     "Exception encountered while "
@@ -325,7 +398,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public synchronized void saveUserLayout() throws PortalException {
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
 
         if (uld == null) {
             throw new PortalException(
@@ -348,49 +421,53 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public Set<String> getAllSubscribedChannels() {
-        final Document uld = this.getUserLayoutDOM();
+        final Document uld = this.getLayoutDocument();
 
         if (uld == null) {
             throw new PortalException(
                     "UserLayout has not been initialized for " + owner.getUserName());
         }
 
-        final NodeList channelElements = uld.getElementsByTagName(CHANNEL);
+        synchronized (uld) {
+            final NodeList channelElements = uld.getElementsByTagName(CHANNEL);
 
-        final Set<String> allSubscribedChannels =
-                new LinkedHashSet<String>(channelElements.getLength());
-        for (int nodeIndex = 0; nodeIndex < channelElements.getLength(); nodeIndex++) {
-            final Element channelElement = (Element) channelElements.item(nodeIndex);
-            final String subscribeId = channelElement.getAttribute("ID");
-            allSubscribedChannels.add(subscribeId);
-        }
+            final Set<String> allSubscribedChannels =
+                    new LinkedHashSet<String>(channelElements.getLength());
+            for (int nodeIndex = 0; nodeIndex < channelElements.getLength(); nodeIndex++) {
+                final Element channelElement = (Element) channelElements.item(nodeIndex);
+                final String subscribeId = channelElement.getAttribute("ID");
+                allSubscribedChannels.add(subscribeId);
+            }
 
-        return allSubscribedChannels;
+            return allSubscribedChannels;
+        }
     }
 
     @Override
     public IUserLayoutNodeDescription getNode(String nodeId) throws PortalException {
         if (nodeId == null) return null;
 
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
 
         if (uld == null)
             throw new PortalException(
                     "UserLayout has not been initialized for " + owner.getUserName() + ".");
 
-        // find an element with a given id
-        Element element = uld.getElementById(nodeId);
-        if (element == null) {
-            throw new PortalException(
-                    "Element with ID=\""
-                            + nodeId
-                            + "\" doesn't exist for "
-                            + owner.getUserName()
-                            + ".");
+        synchronized (uld) {
+            // find an element with a given id
+            Element element = uld.getElementById(nodeId);
+            if (element == null) {
+                throw new PortalException(
+                        "Element with ID=\""
+                                + nodeId
+                                + "\" doesn't exist for "
+                                + owner.getUserName()
+                                + ".");
+            }
+            // instantiate the node description
+            final IUserLayoutNodeDescription desc = createNodeDescription(element);
+            return desc;
         }
-        // instantiate the node description
-        final IUserLayoutNodeDescription desc = createNodeDescription(element);
-        return desc;
     }
 
     @Override
@@ -994,19 +1071,21 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
                     && canAddNode(node, parent, nextSiblingId);
 
         // same parent. which direction are we moving?
-        Document uld = this.getUserLayoutDOM();
-        Element parentE = uld.getElementById(parent.getId());
-        Element child = (Element) parentE.getFirstChild();
-        int idx = 0;
+        Document uld = this.getLayoutDocument();
         int nodeIdx = -1;
         int sibIdx = -1;
-
-        while (child != null) {
-            String id = child.getAttribute(Constants.ATT_ID);
-            if (id.equals(node.getId())) nodeIdx = idx;
-            if (id.equals(nextSiblingId)) sibIdx = idx;
-            idx++;
-            child = (Element) child.getNextSibling();
+        synchronized (uld) {
+            Element parentE = uld.getElementById(parent.getId());
+            Element child = (Element) parentE.getFirstChild();
+            int idx = 0;
+
+            while (child != null) {
+                String id = child.getAttribute(Constants.ATT_ID);
+                if (id.equals(node.getId())) nodeIdx = idx;
+                if (id.equals(nextSiblingId)) sibIdx = idx;
+                idx++;
+                child = (Element) child.getNextSibling();
+            }
         }
         if (nodeIdx == -1
                 || // couldn't find node
@@ -1107,21 +1186,24 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public String getParentId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
-        Element nelement = uld.getElementById(nodeId);
-        if (nelement != null) {
-            Node parent = nelement.getParentNode();
-            if (parent != null) {
-                if (parent.getNodeType() != Node.ELEMENT_NODE) {
-                    throw new PortalException(
-                            "Node with id=\""
-                                    + nodeId
-                                    + "\" is attached to something other then an element node.");
+        Document uld = this.getLayoutDocument();
+        synchronized (uld) {
+            Element nelement = uld.getElementById(nodeId);
+            if (nelement != null) {
+                Node parent = nelement.getParentNode();
+                if (parent != null) {
+                    if (parent.getNodeType() != Node.ELEMENT_NODE) {
+                        throw new PortalException(
+                                "Node with id=\""
+                                        + nodeId
+                                        + "\" is attached to something other then an element"
+                                        + " node.");
+                    }
+                    Element e = (Element) parent;
+                    return e.getAttribute("ID");
                 }
-                Element e = (Element) parent;
-                return e.getAttribute("ID");
+                return null;
             }
-            return null;
         }
         throw new PortalException(
                 "Node with id=\""
@@ -1133,19 +1215,21 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public String getNextSiblingId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
-        Element nelement = uld.getElementById(nodeId);
-        if (nelement != null) {
-            Node nsibling = nelement.getNextSibling();
-            // scroll to the next element node
-            while (nsibling != null && nsibling.getNodeType() != Node.ELEMENT_NODE) {
-                nsibling = nsibling.getNextSibling();
-            }
-            if (nsibling != null) {
-                Element e = (Element) nsibling;
-                return e.getAttribute("ID");
+        Document uld = this.getLayoutDocument();
+        synchronized (uld) {
+            Element nelement = uld.getElementById(nodeId);
+            if (nelement != null) {
+                Node nsibling = nelement.getNextSibling();
+                // scroll to the next element node
+                while (nsibling != null && nsibling.getNodeType() != Node.ELEMENT_NODE) {
+                    nsibling = nsibling.getNextSibling();
+                }
+                if (nsibling != null) {
+                    Element e = (Element) nsibling;
+                    return e.getAttribute("ID");
+                }
+                return null;
             }
-            return null;
         }
         throw new PortalException(
                 "Node with id=\""
@@ -1158,19 +1242,21 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
 
     @Override
     public String getPreviousSiblingId(String nodeId) throws PortalException {
-        Document uld = this.getUserLayoutDOM();
-        Element nelement = uld.getElementById(nodeId);
-        if (nelement != null) {
-            Node nsibling = nelement.getPreviousSibling();
-            // scroll to the next element node
-            while (nsibling != null && nsibling.getNodeType() != Node.ELEMENT_NODE) {
-                nsibling = nsibling.getNextSibling();
-            }
-            if (nsibling != null) {
-                Element e = (Element) nsibling;
-                return e.getAttribute("ID");
+        Document uld = this.getLayoutDocument();
+        synchronized (uld) {
+            Element nelement = uld.getElementById(nodeId);
+            if (nelement != null) {
+                Node nsibling = nelement.getPreviousSibling();
+                // scroll to the next element node
+                while (nsibling != null && nsibling.getNodeType() != Node.ELEMENT_NODE) {
+                    nsibling = nsibling.getNextSibling();
+                }
+                if (nsibling != null) {
+                    Element e = (Element) nsibling;
+                    return e.getAttribute("ID");
+                }
+                return null;
             }
-            return null;
         }
         throw new PortalException(
                 "Node with id=\""
@@ -1194,18 +1280,20 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         Vector<String> v = new Vector<String>();
         IUserLayoutNodeDescription node = getNode(nodeId);
         if (node instanceof IUserLayoutFolderDescription) {
-            Document uld = this.getUserLayoutDOM();
-            Element felement = uld.getElementById(nodeId);
-            for (Node n = felement.getFirstChild(); n != null; n = n.getNextSibling()) {
-                if (n.getNodeType() == Node.ELEMENT_NODE
-                        && (visibleOnly == false
-                                || (visibleOnly == true
-                                        && ((Element) n)
-                                                .getAttribute(Constants.ATT_HIDDEN)
-                                                .equals("false")))) {
-                    Element e = (Element) n;
-                    if (e.getAttribute("ID") != null) {
-                        v.add(e.getAttribute("ID"));
+            Document uld = this.getLayoutDocument();
+            synchronized (uld) {
+                Element felement = uld.getElementById(nodeId);
+                for (Node n = felement.getFirstChild(); n != null; n = n.getNextSibling()) {
+                    if (n.getNodeType() == Node.ELEMENT_NODE
+                            && (visibleOnly == false
+                                    || (visibleOnly == true
+                                            && ((Element) n)
+                                                    .getAttribute(Constants.ATT_HIDDEN)
+                                                    .equals("false")))) {
+                        Element e = (Element) n;
+                        if (e.getAttribute("ID") != null) {
+                            v.add(e.getAttribute("ID"));
+                        }
                     }
                 }
             }
@@ -1240,8 +1328,10 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
      */
     @Override
     public String getSubscribeId(String fname) {
-        final Document userLayout = this.getUserLayoutDOM();
-        return new PortletSubscribeIdResolver(fname).traverseDocument(userLayout);
+        final Document userLayout = this.getLayoutDocument();
+        synchronized (userLayout) {
+            return new PortletSubscribeIdResolver(fname).traverseDocument(userLayout);
+        }
     }
 
     @Override
@@ -1250,15 +1340,17 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
         variables.put("parentFolderId", parentFolderId);
         variables.put("fname", fname);
 
-        final Document userLayout = this.getUserLayoutDOM();
-        final Element fnameNode =
-                this.xpathOperations.evaluate(
-                        "//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]",
-                        variables,
-                        userLayout,
-                        XPathConstants.NODE);
-        if (fnameNode != null) {
-            return fnameNode.getAttribute("ID");
+        final Document userLayout = this.getLayoutDocument();
+        synchronized (userLayout) {
+            final Element fnameNode =
+                    this.xpathOperations.evaluate(
+                            "//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]",
+                            variables,
+                            userLayout,
+                            XPathConstants.NODE);
+            if (fnameNode != null) {
+                return fnameNode.getAttribute("ID");
+            }
         }
 
         return null;
@@ -1284,36 +1376,43 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
     @Override
     public String getRootFolderId() {
         if (rootNodeId == null) {
-            Document layout = getUserLayoutDOM();
+            Document layout = getLayoutDocument();
 
-            Element rootNode =
-                    this.xpathOperations.evaluate("//layout/folder", layout, XPathConstants.NODE);
-            if (rootNode == null
-                    || !rootNode.getAttribute(Constants.ATT_TYPE)
-                            .equals(Constants.ROOT_FOLDER_ID)) {
+            String rootId = this.findRootFolderId(layout);
+            if (rootId == null) {
                 LOG.error(
                         "Unable to locate root node in layout of "
                                 + owner.getUserName()
                                 + ". Resetting corrupted layout.");
                 resetLayout((String) null);
 
-                rootNode =
-                        this.xpathOperations.evaluate(
-                                "//layout/folder", layout, XPathConstants.NODE);
-                if (rootNode == null
-                        || !rootNode.getAttribute(Constants.ATT_TYPE)
-                                .equals(Constants.ROOT_FOLDER_ID)) {
+                rootId = this.findRootFolderId(layout);
+                if (rootId == null) {
                     throw new PortalException(
                             "Corrupted layout detected for "
                                     + owner.getUserName()
                                     + " and resetting layout failed.");
                 }
             }
-            rootNodeId = rootNode.getAttribute("ID");
+            rootNodeId = rootId;
         }
         return rootNodeId;
     }
 
+    /** @return The ID of the layout's root folder, null if the layout has none */
+    private String findRootFolderId(Document layout) {
+        synchronized (layout) {
+            Element rootNode =
+                    this.xpathOperations.evaluate("//layout/folder", layout, XPathConstants.NODE);
+            if (rootNode == null
+                    || !rootNode.getAttribute(Constants.ATT_TYPE)
+                            .equals(Constants.ROOT_FOLDER_ID)) {
+                return null;
+            }
+            return rootNode.getAttribute("ID");
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -1408,7 +1507,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, Initializin
             if (person == owner) {
                 this.layoutCachingService.removeCachedLayout(person, profile);
                 updateCacheKey();
-                getUserLayoutDOM();
+                getLayoutDocument();
             }
             // if (isFragmentOwner)
             // {
@@ -18,10 +18,20 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
@@ -40,6 +50,7 @@ import org.apereo.portal.security.IPerson;
 import org.apereo.portal.security.provider.PersonImpl;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -52,12 +63,13 @@ public class FragmentActivator {
     private static final String NEWLY_CREATED_ATTR = "newlyCreated";
     private static final Log LOG = LogFactory.getLog(FragmentActivator.class);
 
-    private final LoadingCache<String, List<Locale>> fragmentOwnerLocales =
+    private final LoadingCache<String, CopyOnWriteArrayList<Locale>> fragmentOwnerLocales =
             CacheBuilder.newBuilder()
-                    .<String, List<Locale>>build(
-                            new CacheLoader<String, List<Locale>>() {
+                    .<String, CopyOnWriteArrayList<Locale>>build(
+                            new CacheLoader<String, CopyOnWriteArrayList<Locale>>() {
                                 @Override
-                                public List<Locale> load(String key) throws Exception {
+                                public CopyOnWriteArrayList<Locale> load(String key)
+                                        throws Exception {
                                     return new CopyOnWriteArrayList<Locale>();
                                 }
                             });
@@ -68,6 +80,8 @@ public class FragmentActivator {
     private IUserLayoutStore userLayoutStore;
     private ConfigurationLoader configurationLoader;
     private LocaleManagerFactory localeManagerFactory;
+    private ExecutorService executorService;
+    private int preactivationThreads = 4;
 
     private static final String PROPERTY_ALLOW_EXPANDED_CONTENT =
             "org.apereo.portal.layout.dlm.allowExpandedContent";
@@ -132,6 +146,19 @@ public class FragmentActivator {
         this.localeManagerFactory = localeManagerFactory;
     }
 
+    /** Runs fragment preactivation in parallel, not available to command line tools */
+    @Autowired(required = false)
+    public void setExecutorService(
+            @Qualifier("uPortalTaskExecutor") ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /** Number of fragments activated concurrently by {@link #preactivateFragments()} */
+    @Value("${org.apereo.portal.layout.dlm.FragmentActivator.preactivationThreads:4}")
+    public void setPreactivationThreads(int preactivationThreads) {
+        this.preactivationThreads = preactivationThreads;
+    }
+
     private static class UserViewKey implements Serializable {
         private static final long serialVersionUID = 1L;
         private final String ownerId;
@@ -192,7 +219,7 @@ public class FragmentActivator {
 
         final Locale locale = userViewKey.getLocale();
 
-        fragmentOwnerLocales.getUnchecked(ownerId).add(locale);
+        fragmentOwnerLocales.getUnchecked(ownerId).addIfAbsent(locale);
 
         if (fd.isNoAudienceIncluded()) {
             if (LOG.isDebugEnabled()) {
@@ -239,6 +266,136 @@ public class FragmentActivator {
         return view;
     }
 
+    /**
+     * Activates every fragment that has an audience ahead of time, for the default portal locale
+     * and every locale the fragment has been requested in so far. Meant to be called at startup
+     * and then periodically, well within the time to live of the userViews cache, so that users
+     * logging in find all fragments already activated instead of activating them one at a time.
+     * Fragments are activated in parallel on the task executor, the calling thread takes part and
+     * returns once all fragments have been processed. A fragment whose layout did not change keeps
+     * its current view, so layouts sharing its document stay shared.
+     */
+    public void preactivateFragments() {
+        final List<FragmentDefinition> fragments = configurationLoader.getFragments();
+        final List<Locale> portalLocales = localeManagerFactory.getPortalLocales();
+        final Locale defaultLocale =
+                portalLocales != null && !portalLocales.isEmpty()
+                        ? portalLocales.get(0)
+                        : Locale.getDefault();
+
+        final Queue<UserViewKey> keys = new ConcurrentLinkedQueue<>();
+        for (final FragmentDefinition fd : fragments) {
+            if (fd.isNoAudienceIncluded()) {
+                continue;
+            }
+            final Set<Locale> locales = new LinkedHashSet<>();
+            locales.add(defaultLocale);
+            final List<Locale> ownerLocales = fragmentOwnerLocales.getIfPresent(fd.getOwnerId());
+            if (ownerLocales != null) {
+                locales.addAll(ownerLocales);
+            }
+            for (final Locale locale : locales) {
+                keys.add(new UserViewKey(fd.getOwnerId(), locale));
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final int total = keys.size();
+        final AtomicInteger failures = new AtomicInteger();
+        final Runnable worker =
+                () -> {
+                    for (UserViewKey key = keys.poll(); key != null; key = keys.poll()) {
+                        if (!preactivateFragment(key)) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                };
+
+        // The calling thread is one of the workers, extra ones run on the task executor if it has
+        // room for them
+        final List<Future<?>> helpers = new ArrayList<>();
+        if (executorService != null) {
+            final int helperCount = Math.min(preactivationThreads, total) - 1;
+            try {
+                for (int i = 0; i < helperCount; i++) {
+                    helpers.add(executorService.submit(worker));
+                }
+            } catch (RejectedExecutionException e) {
+                LOG.debug("Task executor is busy, preactivating with fewer threads", e);
+            }
+        }
+        worker.run();
+        for (final Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOG.warn("Fragment preactivation worker failed", e.getCause());
+            }
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info(
+                    "Preactivated "
+                            + (total - failures.get())
+                            + " of "
+                            + total
+                            + " fragment layouts using "
+                            + (helpers.size() + 1)
+                            + " threads in "
+                            + (System.currentTimeMillis() - start)
+                            + "ms");
+        }
+    }
+
+    /** @return false if the fragment could not be activated */
+    private boolean preactivateFragment(UserViewKey userViewKey) {
+        try {
+            UserView view = activateFragment(userViewKey);
+
+            // Keep the current view if the layout did not change, layouts merged from its
+            // document are shared by identity
+            final net.sf.ehcache.Element current = userViews.getQuiet(userViewKey);
+            if (current != null) {
+                final UserView currentView = (UserView) current.getObjectValue();
+                if (isSameView(currentView, view)) {
+                    view = currentView;
+                }
+            }
+
+            // Quietly so refreshing a fragment on one server doesn't invalidate it on the others
+            userViews.putQuiet(new net.sf.ehcache.Element(userViewKey, view));
+            userViewErrors.remove(userViewKey);
+            return true;
+        } catch (Exception e) {
+            LOG.warn("Failed to preactivate fragment layout for " + userViewKey, e);
+            userViewErrors.put(new net.sf.ehcache.Element(userViewKey, e));
+            return false;
+        }
+    }
+
+    private static boolean isSameView(UserView currentView, UserView view) {
+        if (currentView == null || view == null) {
+            return currentView == view;
+        }
+        if (currentView.getUserId() != view.getUserId()
+                || currentView.getLayoutId() != view.getLayoutId()
+                || currentView.getProfileId() != view.getProfileId()) {
+            return false;
+        }
+        final Document currentLayout = currentView.getLayout();
+        final Document layout = view.getLayout();
+        if (currentLayout == null || layout == null) {
+            return currentLayout == layout;
+        }
+        return currentLayout.isEqualNode(layout);
+    }
+
     public UserView getUserView(final FragmentDefinition fd, final Locale locale) {
         final UserViewKey userViewKey = new UserViewKey(fd.getOwnerId(), locale);
         final net.sf.ehcache.Element userViewElement = this.userViews.get(userViewKey);
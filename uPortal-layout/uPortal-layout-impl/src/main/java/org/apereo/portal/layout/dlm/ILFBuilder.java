@@ -49,6 +49,15 @@ public class ILFBuilder {
     private static final Log LOG = LogFactory.getLog(ILFBuilder.class);
 
     public static Document constructILF(Document PLF, List<Document> sequence, IPerson person) {
+        return constructILF(PLF, sequence, person, null);
+    }
+
+    /**
+     * @param excludedChannelIds If not null receives the IDs of the channels left out of the ILF
+     *     because the user may not render them
+     */
+    public static Document constructILF(
+            Document PLF, List<Document> sequence, IPerson person, Set<String> excludedChannelIds) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Constructing ILF for IPerson='" + person + "'");
         }
@@ -78,7 +87,7 @@ public class ILFBuilder {
         // now merge fragments one at a time into ILF document
 
         for (final Document document : sequence) {
-            mergeFragment(document, result, ap);
+            mergeFragment(document, result, ap, excludedChannelIds);
         }
         return result;
     }
@@ -93,11 +102,20 @@ public class ILFBuilder {
     public static void mergeFragment(
             Document fragment, Document composite, IAuthorizationPrincipal ap)
             throws AuthorizationException {
+        mergeFragment(fragment, composite, ap, null);
+    }
+
+    private static void mergeFragment(
+            Document fragment,
+            Document composite,
+            IAuthorizationPrincipal ap,
+            Set<String> excludedChannelIds)
+            throws AuthorizationException {
         Element fragmentLayout = fragment.getDocumentElement();
         Element fragmentRoot = (Element) fragmentLayout.getFirstChild();
         Element compositeLayout = composite.getDocumentElement();
         Element compositeRoot = (Element) compositeLayout.getFirstChild();
-        mergeChildren(fragmentRoot, compositeRoot, ap, new HashSet());
+        mergeChildren(fragmentRoot, compositeRoot, ap, new HashSet(), excludedChannelIds);
     }
 
     /**
@@ -106,10 +124,15 @@ public class ILFBuilder {
      * @param ap User's authorization principal for determining if they can view a channel
      * @param visitedNodes A Set of nodes from the source tree that have been visited to get to this
      *     node, used to ensure a loop doesn't exist in the source tree.
+     * @param excludedChannelIds If not null receives the IDs of channels that are not merged
      * @throws AuthorizationException
      */
     private static void mergeChildren(
-            Element source, Element dest, IAuthorizationPrincipal ap, Set visitedNodes)
+            Element source,
+            Element dest,
+            IAuthorizationPrincipal ap,
+            Set visitedNodes,
+            Set<String> excludedChannelIds)
             throws AuthorizationException {
         // Record this node in the visited nodes set. If add returns false a loop has been detected
         if (!visitedNodes.add(source)) {
@@ -145,7 +168,9 @@ public class ILFBuilder {
                     String id = newChild.getAttribute(Constants.ATT_ID);
                     if (id != null && !id.equals(""))
                         newChild.setIdAttribute(Constants.ATT_ID, true);
-                    mergeChildren(child, newChild, ap, visitedNodes);
+                    mergeChildren(child, newChild, ap, visitedNodes, excludedChannelIds);
+                } else if (null != child && excludedChannelIds != null) {
+                    excludedChannelIds.add(child.getAttribute("chanID"));
                 }
             }
 
@@ -28,4 +28,19 @@ public interface ILayoutCachingService {
     public void removeCachedLayout(IPerson owner, IUserProfile profile);
 
     public DistributedUserLayout getCachedLayout(IPerson owner, IUserProfile profile);
+
+    /**
+     * Returns a layout equivalent to the one passed in whose document is shared with every other
+     * user whose layout has an equal {@link DistributedUserLayout#getSharedLayoutKey()}. Layouts
+     * without a key are returned as is. A shared document must never be modified, see {@link
+     * #isSharedLayout(DistributedUserLayout)}, and is read by many threads at once, so reads must
+     * be synchronized on the document.
+     */
+    public DistributedUserLayout shareLayout(DistributedUserLayout layout);
+
+    /**
+     * @return true if the document of the layout may be shared with other users, the layout must
+     *     then be copied before it is modified
+     */
+    public boolean isSharedLayout(DistributedUserLayout layout);
 }
@@ -14,6 +14,11 @@
  */
 package org.apereo.portal.layout.dlm;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.MapMaker;
+import java.util.Collections;
+import java.util.Set;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import org.apache.commons.logging.Log;
@@ -25,6 +30,7 @@ import org.apereo.portal.utils.cache.UsernameTaggedCacheEntryPurger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
 
 /** Provides API for layout caching service */
 @Service("layoutCachingService")
@@ -33,6 +39,17 @@ public class LayoutCachingService implements ILayoutCachingService {
 
     private Ehcache layoutCache;
 
+    /*
+     * Layout documents shared between users, keyed by the inputs they were built from. Users that
+     * have not customized their layout and see the same fragments end up with identical layouts,
+     * they all reference one document instead of a private copy each. Entries go away once no
+     * cached layout references the document anymore.
+     */
+    private final Cache<SharedLayoutKey, Document> sharedLayouts =
+            CacheBuilder.newBuilder().weakValues().build();
+    private final Set<Document> sharedDocuments =
+            Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
     @Autowired
     public void setLayoutCache(
             @Qualifier("org.apereo.portal.layout.dlm.LAYOUT_CACHE") Ehcache layoutCache) {
@@ -61,6 +78,35 @@ public class LayoutCachingService implements ILayoutCachingService {
         this.layoutCache.remove(cacheKey);
     }
 
+    @Override
+    public DistributedUserLayout shareLayout(DistributedUserLayout layout) {
+        final SharedLayoutKey sharedLayoutKey = layout.getSharedLayoutKey();
+        if (sharedLayoutKey == null) {
+            return layout;
+        }
+
+        final Document document = layout.getLayout();
+        // Mark as shared before publishing so no other user gets an unmarked document
+        this.sharedDocuments.add(document);
+        final Document sharedDocument =
+                this.sharedLayouts.asMap().putIfAbsent(sharedLayoutKey, document);
+        if (sharedDocument == null || sharedDocument == document) {
+            return layout;
+        }
+        this.sharedDocuments.remove(document);
+
+        return new DistributedUserLayout(
+                sharedDocument,
+                layout.getDistributedStructureStylesheetUserPreferences(),
+                layout.getDistributedThemeStylesheetUserPreferences(),
+                sharedLayoutKey);
+    }
+
+    @Override
+    public boolean isSharedLayout(DistributedUserLayout layout) {
+        return this.sharedDocuments.contains(layout.getLayout());
+    }
+
     protected CacheKey getCacheKey(IPerson owner, IUserProfile profile) {
         return CacheKey.buildTagged(
                 LayoutCachingService.class.getName(),
@@ -16,13 +16,13 @@ package org.apereo.portal.layout.dlm;
 
 import com.google.common.cache.Cache;
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -38,13 +38,13 @@ import org.apereo.portal.IUserIdentityStore;
 import org.apereo.portal.IUserProfile;
 import org.apereo.portal.PortalException;
 import org.apereo.portal.io.xml.IPortalDataHandlerService;
-import org.apereo.portal.jdbc.RDBMServices;
 import org.apereo.portal.layout.LayoutStructure;
 import org.apereo.portal.layout.StructureParameter;
 import org.apereo.portal.layout.StylesheetUserPreferencesImpl;
 import org.apereo.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.apereo.portal.layout.om.IStylesheetDescriptor;
 import org.apereo.portal.layout.om.IStylesheetUserPreferences;
+import org.apereo.portal.layout.simple.LayoutStructureRows;
 import org.apereo.portal.layout.simple.RDBMUserLayoutStore;
 import org.apereo.portal.portlet.dao.IPortletEntityDao;
 import org.apereo.portal.portlet.dao.jpa.PortletPreferenceImpl;
@@ -1238,6 +1238,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
 
         final Document ILF;
         final Document PLF = this.getPLF(person, profile);
+        SharedLayoutKey sharedLayoutKey = null;
 
         // If this user is an owner then ownedFragment will be non null. For
         // fragment owners and owners of any default layout from which a
@@ -1278,8 +1279,15 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             final List<Document> applicableLayouts =
                     this.fragmentUtils.getFragmentDefinitionUserViewLayouts(
                             applicableFragmentDefinitions, locale);
+            // The key captures the PLF before the merge, which may change it
+            final SharedLayoutKey unmergedLayoutKey =
+                    new SharedLayoutKey(applicableLayouts, PLF, Collections.<String>emptySet());
+            final Set<String> excludedChannelIds = new HashSet<>();
             final IntegrationResult integrationResult = new IntegrationResult();
-            ILF = this.createCompositeILF(person, PLF, applicableLayouts, integrationResult);
+            ILF =
+                    this.createCompositeILF(
+                            person, PLF, applicableLayouts, integrationResult, excludedChannelIds);
+            sharedLayoutKey = unmergedLayoutKey.withExcludedChannels(excludedChannelIds);
             // push optimizations made during merge back into db.
             if (integrationResult.isChangedPLF()) {
                 if (logger.isDebugEnabled()) {
@@ -1292,7 +1300,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             fragmentNames.addAll(
                     this.fragmentUtils.getFragmentNames(applicableFragmentDefinitions));
         }
-        return this.createDistributedUserLayout(person, profile, ILF, fragmentNames);
+        return this.createDistributedUserLayout(
+                person, profile, ILF, fragmentNames, sharedLayoutKey);
     }
 
     private Document getPLF(final IPerson person, final IUserProfile profile) {
@@ -1318,8 +1327,10 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             final IPerson person,
             final Document PLF,
             final List<Document> applicableLayouts,
-            final IntegrationResult integrationResult) {
-        final Document ILF = ILFBuilder.constructILF(PLF, applicableLayouts, person);
+            final IntegrationResult integrationResult,
+            final Set<String> excludedChannelIds) {
+        final Document ILF =
+                ILFBuilder.constructILF(PLF, applicableLayouts, person, excludedChannelIds);
         PLFIntegrator.mergePLFintoILF(PLF, ILF, integrationResult);
         if (logger.isDebugEnabled()) {
             logger.debug(
@@ -1338,7 +1349,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             final IPerson person,
             final IUserProfile profile,
             final Document ILF,
-            final Set<String> fragmentNames) {
+            final Set<String> fragmentNames,
+            final SharedLayoutKey sharedLayoutKey) {
         final int structureStylesheetId = profile.getStructureStylesheetId();
         final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences =
                 this.loadDistributedStylesheetUserPreferences(
@@ -1352,7 +1364,8 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         return new DistributedUserLayout(
                 ILF,
                 distributedStructureStylesheetUserPreferences,
-                distributedThemeStylesheetUserPreferences);
+                distributedThemeStylesheetUserPreferences,
+                sharedLayoutKey);
     }
 
     /**
@@ -1693,14 +1706,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, LayoutStructureRows layoutRows) throws SQLException {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             // parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1742,36 +1754,27 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
 
-        final String externalId = structure.getAttribute("external_id");
+        String externalId = structure.getAttribute("external_id");
         if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
+            externalId = String.valueOf(Integer.parseInt(externalId));
         } else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-        }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
-        } else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
-        }
-        final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(
-                10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
-        logger.debug(structStmt.toString());
-        structStmt.executeUpdate();
+            externalId = null;
+        }
+        layoutRows.addStruct(
+                saveStructId,
+                nextStructId,
+                childStructId,
+                externalId,
+                isChannel ? chanId : null,
+                isChannel ? null : structure.getAttribute("name"),
+                structure.getAttribute("type"),
+                xmlBool(structure.getAttribute("hidden")),
+                xmlBool(structure.getAttribute("immutable")),
+                xmlBool(structure.getAttribute("unremovable")));
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1784,12 +1787,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                     && !name.equals(Constants.ATT_FRAGMENT)
                     && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                logger.debug(parmStmt.toString());
-                parmStmt.executeUpdate();
+                layoutRows.addParam(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1809,12 +1807,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            logger.debug(parmStmt.toString());
-                            parmStmt.executeUpdate();
+                            layoutRows.addParam(saveStructId, parmName, parmValue);
                         }
                     }
                 }
@@ -46,6 +46,11 @@ public class AllUsersEvaluatorFactory extends Evaluator implements EvaluatorFact
         return true;
     }
 
+    @Override
+    public boolean isMembershipBased() {
+        return true;
+    }
+
     @Override
     public void toElement(Element parent) {
 
@@ -151,6 +151,11 @@ public class GroupMembershipEvaluator extends Evaluator {
         }
     }
 
+    @Override
+    public boolean isMembershipBased() {
+        return true;
+    }
+
     @Override
     public void toElement(Element parent) {
 
@@ -59,6 +59,11 @@ public class GuestUserEvaluatorFactory extends Evaluator implements EvaluatorFac
         return p.isGuest();
     }
 
+    @Override
+    public boolean isMembershipBased() {
+        return true;
+    }
+
     @Override
     public void toElement(Element parent) {
 
@@ -0,0 +1,153 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apereo.portal.jdbc.IDatabaseMetadata;
+import org.apereo.portal.layout.LayoutStructure;
+
+/**
+ * Loads the <code>UP_LAYOUT_STRUCT</code> rows of a user layout together with their <code>
+ * UP_LAYOUT_PARAM</code> rows as {@link LayoutStructure}s keyed by struct id. When the database
+ * supports outer joins structures and parameters are read in a single query, otherwise with one
+ * query each.
+ */
+public class LayoutStructureLoader {
+    private static final String STRUCT_COLUMNS =
+            "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,"
+                    + "ULS.TYPE,ULS.HIDDEN,ULS.UNREMOVABLE,ULS.IMMUTABLE";
+
+    private final IDatabaseMetadata databaseMetadata;
+
+    public LayoutStructureLoader(IDatabaseMetadata databaseMetadata) {
+        this.databaseMetadata = databaseMetadata;
+    }
+
+    /**
+     * Load the structures of one layout.
+     *
+     * @param locale Locale of the structures, null if the portal is not locale aware
+     * @return The structures keyed by struct id, empty if the layout has none
+     */
+    public Map<Integer, LayoutStructure> loadLayout(
+            Connection con, int userId, int layoutId, String locale) throws SQLException {
+
+        final Map<Integer, LayoutStructure> structures = new HashMap<>();
+        final boolean outerJoin = this.databaseMetadata.supportsOuterJoins();
+
+        final StringBuilder sql = new StringBuilder(STRUCT_COLUMNS);
+        if (outerJoin) {
+            sql.append(",USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL FROM ")
+                    .append(this.databaseMetadata.getJoinQuery().getQuery("layout"));
+        } else {
+            sql.append(" FROM UP_LAYOUT_STRUCT ULS WHERE");
+        }
+        sql.append(" ULS.USER_ID=? AND ULS.LAYOUT_ID=?");
+
+        try (PreparedStatement pstmt = con.prepareStatement(sql.toString())) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    // getInt returns 0 for NULL columns
+                    final int structId = rs.getInt(1);
+                    LayoutStructure ls = structures.get(structId);
+                    if (ls == null) {
+                        ls = readStructure(rs, structId, locale);
+                        structures.put(structId, ls);
+                    }
+                    if (outerJoin) {
+                        final String name = rs.getString(10);
+                        final String value = rs.getString(11);
+                        // may not be there because of the join
+                        if (name != null) {
+                            ls.addParameter(name, value);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (!outerJoin) {
+            this.loadParameters(con, userId, layoutId, structures);
+        }
+        return structures;
+    }
+
+    private void loadParameters(
+            Connection con, int userId, int layoutId, Map<Integer, LayoutStructure> structures)
+            throws SQLException {
+
+        final String sql =
+                "SELECT USP.STRUCT_ID,USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL "
+                        + "FROM UP_LAYOUT_PARAM USP WHERE USP.USER_ID=? AND USP.LAYOUT_ID=?";
+
+        try (PreparedStatement pstmt = con.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    final LayoutStructure ls = structures.get(rs.getInt(1));
+                    if (ls != null) {
+                        ls.addParameter(rs.getString(2), rs.getString(3));
+                    }
+                }
+            }
+        }
+    }
+
+    private static LayoutStructure readStructure(ResultSet rs, int structId, String locale)
+            throws SQLException {
+        // Some JDBC drivers require columns accessed in order, getInt returns 0 for NULL columns
+        final int nextId = rs.getInt(2);
+        final int childId = rs.getInt(3);
+        final int chanId = rs.getInt(4);
+        final String name = rs.getString(5);
+        final String type = rs.getString(6);
+
+        final LayoutStructure ls;
+        if (locale != null) {
+            ls =
+                    new LayoutStructure(
+                            structId,
+                            nextId,
+                            childId,
+                            chanId,
+                            rs.getString(7),
+                            rs.getString(8),
+                            rs.getString(9),
+                            locale);
+        } else {
+            ls =
+                    new LayoutStructure(
+                            structId,
+                            nextId,
+                            childId,
+                            chanId,
+                            rs.getString(7),
+                            rs.getString(8),
+                            rs.getString(9));
+        }
+        if (!ls.isChannel()) {
+            ls.addFolderData(name, type);
+        }
+        return ls;
+    }
+}
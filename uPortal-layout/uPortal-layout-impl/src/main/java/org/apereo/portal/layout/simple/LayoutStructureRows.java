@@ -0,0 +1,342 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import org.apereo.portal.jdbc.RDBMServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The <code>UP_LAYOUT_STRUCT</code> and <code>UP_LAYOUT_PARAM</code> rows of one user layout.
+ * Layout stores collect the rows of the layout being saved into an instance and {@link
+ * #saveChanges(Connection, int, int, LayoutStructureRows)} writes only the rows that differ from
+ * the persisted ones, so a layout edit touches a few rows instead of the whole layout.
+ */
+public final class LayoutStructureRows {
+    private static final Logger logger = LoggerFactory.getLogger(LayoutStructureRows.class);
+
+    private static final String STRUCT_KEY = "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?";
+    private static final String PARAM_KEY = STRUCT_KEY + " AND STRUCT_PARM_NM=?";
+
+    private final Map<Integer, StructRow> structs = new LinkedHashMap<>();
+    private final Map<Integer, Map<String, String>> params = new LinkedHashMap<>();
+
+    /** Add the <code>UP_LAYOUT_STRUCT</code> row of a layout node */
+    public void addStruct(
+            int structId,
+            int nextStructId,
+            int childStructId,
+            String externalId,
+            Integer chanId,
+            String name,
+            String type,
+            boolean hidden,
+            boolean immutable,
+            boolean unremovable) {
+        this.structs.put(
+                structId,
+                new StructRow(
+                        nextStructId,
+                        childStructId,
+                        externalId,
+                        chanId,
+                        name,
+                        type,
+                        hidden,
+                        immutable,
+                        unremovable));
+    }
+
+    /** Add an <code>UP_LAYOUT_PARAM</code> row of a layout node */
+    public void addParam(int structId, String name, String value) {
+        this.params.computeIfAbsent(structId, k -> new LinkedHashMap<>()).put(name, value);
+    }
+
+    /** Load the persisted rows of the layout */
+    public static LayoutStructureRows load(Connection con, int userId, int layoutId)
+            throws SQLException {
+        final LayoutStructureRows rows = new LayoutStructureRows();
+
+        try (PreparedStatement pstmt =
+                con.prepareStatement(
+                        "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, "
+                                + "NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+                                + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?")) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int chanId = rs.getInt(5);
+                    rows.addStruct(
+                            rs.getInt(1),
+                            rs.getInt(2),
+                            rs.getInt(3),
+                            rs.getString(4),
+                            rs.wasNull() ? null : chanId,
+                            rs.getString(6),
+                            rs.getString(7),
+                            RDBMServices.dbFlag(rs.getString(8)),
+                            RDBMServices.dbFlag(rs.getString(9)),
+                            RDBMServices.dbFlag(rs.getString(10)));
+                }
+            }
+        }
+
+        try (PreparedStatement pstmt =
+                con.prepareStatement(
+                        "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL "
+                                + "FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?")) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.addParam(rs.getInt(1), rs.getString(2), rs.getString(3));
+                }
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Bring the persisted rows of the layout in line with these rows. Only rows that were added,
+     * changed or removed are written, each kind of change as one JDBC batch.
+     *
+     * @param persisted The rows currently stored for the layout, see {@link #load(Connection, int,
+     *     int)}
+     */
+    public void saveChanges(Connection con, int userId, int layoutId, LayoutStructureRows persisted)
+            throws SQLException {
+
+        // Parameters go first so no parameter row is left without its structure row
+        try (PreparedStatement pstmt =
+                con.prepareStatement("DELETE FROM UP_LAYOUT_PARAM " + PARAM_KEY)) {
+            for (final Map.Entry<Integer, Map<String, String>> structParams :
+                    persisted.params.entrySet()) {
+                final Map<String, String> newParams = this.params.get(structParams.getKey());
+                for (final String name : structParams.getValue().keySet()) {
+                    if (newParams == null || !newParams.containsKey(name)) {
+                        pstmt.setInt(1, userId);
+                        pstmt.setInt(2, layoutId);
+                        pstmt.setInt(3, structParams.getKey());
+                        pstmt.setString(4, name);
+                        pstmt.addBatch();
+                    }
+                }
+            }
+            executeBatch(pstmt, "deleted parameters", userId, layoutId);
+        }
+
+        try (PreparedStatement pstmt =
+                con.prepareStatement("DELETE FROM UP_LAYOUT_STRUCT " + STRUCT_KEY)) {
+            for (final Integer structId : persisted.structs.keySet()) {
+                if (!this.structs.containsKey(structId)) {
+                    pstmt.setInt(1, userId);
+                    pstmt.setInt(2, layoutId);
+                    pstmt.setInt(3, structId);
+                    pstmt.addBatch();
+                }
+            }
+            executeBatch(pstmt, "deleted structures", userId, layoutId);
+        }
+
+        try (PreparedStatement updateStmt =
+                        con.prepareStatement(
+                                "UPDATE UP_LAYOUT_STRUCT SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, "
+                                        + "EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, "
+                                        + "IMMUTABLE=?, UNREMOVABLE=? "
+                                        + STRUCT_KEY);
+                PreparedStatement insertStmt =
+                        con.prepareStatement(
+                                "INSERT INTO UP_LAYOUT_STRUCT (NEXT_STRUCT_ID, CHLD_STRUCT_ID, "
+                                        + "EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, "
+                                        + "UNREMOVABLE, USER_ID, LAYOUT_ID, STRUCT_ID) "
+                                        + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)")) {
+            for (final Map.Entry<Integer, StructRow> struct : this.structs.entrySet()) {
+                final StructRow persistedStruct = persisted.structs.get(struct.getKey());
+                if (persistedStruct == null) {
+                    struct.getValue().bind(insertStmt, userId, layoutId, struct.getKey());
+                    insertStmt.addBatch();
+                } else if (!persistedStruct.equals(struct.getValue())) {
+                    struct.getValue().bind(updateStmt, userId, layoutId, struct.getKey());
+                    updateStmt.addBatch();
+                }
+            }
+            executeBatch(updateStmt, "updated structures", userId, layoutId);
+            executeBatch(insertStmt, "inserted structures", userId, layoutId);
+        }
+
+        try (PreparedStatement updateStmt =
+                        con.prepareStatement(
+                                "UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? " + PARAM_KEY);
+                PreparedStatement insertStmt =
+                        con.prepareStatement(
+                                "INSERT INTO UP_LAYOUT_PARAM (STRUCT_PARM_VAL, USER_ID, LAYOUT_ID, "
+                                        + "STRUCT_ID, STRUCT_PARM_NM) VALUES (?,?,?,?,?)")) {
+            for (final Map.Entry<Integer, Map<String, String>> structParams :
+                    this.params.entrySet()) {
+                final Map<String, String> persistedParams =
+                        persisted.params.get(structParams.getKey());
+                for (final Map.Entry<String, String> param : structParams.getValue().entrySet()) {
+                    final PreparedStatement pstmt;
+                    if (persistedParams == null || !persistedParams.containsKey(param.getKey())) {
+                        pstmt = insertStmt;
+                    } else if (!Objects.equals(
+                            persistedParams.get(param.getKey()), param.getValue())) {
+                        pstmt = updateStmt;
+                    } else {
+                        continue;
+                    }
+                    pstmt.setString(1, param.getValue());
+                    pstmt.setInt(2, userId);
+                    pstmt.setInt(3, layoutId);
+                    pstmt.setInt(4, structParams.getKey());
+                    pstmt.setString(5, param.getKey());
+                    pstmt.addBatch();
+                }
+            }
+            executeBatch(updateStmt, "updated parameters", userId, layoutId);
+            executeBatch(insertStmt, "inserted parameters", userId, layoutId);
+        }
+    }
+
+    private static void executeBatch(
+            PreparedStatement pstmt, String description, int userId, int layoutId)
+            throws SQLException {
+        final int[] counts = pstmt.executeBatch();
+        if (counts.length > 0) {
+            logger.debug(
+                    "Saved {} {} of layout {} for user {}",
+                    counts.length,
+                    description,
+                    layoutId,
+                    userId);
+        }
+    }
+
+    /** Column values of an <code>UP_LAYOUT_STRUCT</code> row other than the key */
+    private static final class StructRow {
+        private final int nextStructId;
+        private final int childStructId;
+        private final String externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final boolean hidden;
+        private final boolean immutable;
+        private final boolean unremovable;
+
+        StructRow(
+                int nextStructId,
+                int childStructId,
+                String externalId,
+                Integer chanId,
+                String name,
+                String type,
+                boolean hidden,
+                boolean immutable,
+                boolean unremovable) {
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            // Some databases store empty strings as NULL, treat them the same
+            this.externalId = emptyToNull(externalId);
+            this.chanId = chanId;
+            this.name = emptyToNull(name);
+            this.type = emptyToNull(type);
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        /** Bind the columns in the order of the UPDATE and INSERT statements of saveChanges */
+        void bind(PreparedStatement pstmt, int userId, int layoutId, int structId)
+                throws SQLException {
+            pstmt.setInt(1, this.nextStructId);
+            pstmt.setInt(2, this.childStructId);
+            if (this.externalId != null) {
+                pstmt.setString(3, this.externalId);
+            } else {
+                pstmt.setNull(3, Types.VARCHAR);
+            }
+            if (this.chanId != null) {
+                pstmt.setInt(4, this.chanId);
+            } else {
+                pstmt.setNull(4, Types.NUMERIC);
+            }
+            if (this.name != null) {
+                pstmt.setString(5, this.name);
+            } else {
+                pstmt.setNull(5, Types.VARCHAR);
+            }
+            if (this.type != null) {
+                pstmt.setString(6, this.type);
+            } else {
+                pstmt.setNull(6, Types.VARCHAR);
+            }
+            pstmt.setString(7, RDBMServices.dbFlag(this.hidden));
+            pstmt.setString(8, RDBMServices.dbFlag(this.immutable));
+            pstmt.setString(9, RDBMServices.dbFlag(this.unremovable));
+            pstmt.setInt(10, userId);
+            pstmt.setInt(11, layoutId);
+            pstmt.setInt(12, structId);
+        }
+
+        private static String emptyToNull(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StructRow)) {
+                return false;
+            }
+            final StructRow other = (StructRow) obj;
+            return this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && this.hidden == other.hidden
+                    && this.immutable == other.immutable
+                    && this.unremovable == other.unremovable
+                    && Objects.equals(this.externalId, other.externalId)
+                    && Objects.equals(this.chanId, other.chanId)
+                    && Objects.equals(this.name, other.name)
+                    && Objects.equals(this.type, other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(
+                    this.nextStructId,
+                    this.childStructId,
+                    this.externalId,
+                    this.chanId,
+                    this.name,
+                    this.type,
+                    this.hidden,
+                    this.immutable,
+                    this.unremovable);
+        }
+    }
+}
@@ -24,7 +24,6 @@ import java.sql.Statement;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
@@ -94,6 +93,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
     private ILocaleStore localeStore;
     protected LocaleManagerFactory localeManagerFactory;
     private IDatabaseMetadata databaseMetadata;
+    private LayoutStructureLoader layoutStructureLoader;
     protected IPortletDefinitionRegistry portletDefinitionRegistry;
     protected IStylesheetDescriptorDao stylesheetDescriptorDao;
 
@@ -146,13 +146,15 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     @Override
     public void afterPropertiesSet() {
+        this.layoutStructureLoader = new LayoutStructureLoader(databaseMetadata);
+
         if (databaseMetadata.supportsOuterJoins()) {
             final IJoinQueryString joinQuery = databaseMetadata.getJoinQuery();
 
             if (joinQuery instanceof DatabaseMetaDataImpl.JdbcDb) {
                 joinQuery.addQuery(
                         "layout",
-                        "{oj UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.STRUCT_ID = USP.STRUCT_ID} WHERE");
+                        "{oj UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.LAYOUT_ID = USP.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID} WHERE");
                 joinQuery.addQuery(
                         "ss_struct",
                         "{oj UP_SS_STRUCT USS LEFT OUTER JOIN UP_SS_STRUCT_PAR USP ON USS.SS_ID=USP.SS_ID} WHERE");
@@ -162,7 +164,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             } else if (joinQuery instanceof DatabaseMetaDataImpl.PostgreSQLDb) {
                 joinQuery.addQuery(
                         "layout",
-                        "UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.STRUCT_ID = USP.STRUCT_ID WHERE");
+                        "UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON ULS.USER_ID = USP.USER_ID AND ULS.LAYOUT_ID = USP.LAYOUT_ID AND ULS.STRUCT_ID = USP.STRUCT_ID WHERE");
                 joinQuery.addQuery(
                         "ss_struct",
                         "UP_SS_STRUCT USS LEFT OUTER JOIN UP_SS_STRUCT_PAR USP ON USS.SS_ID=USP.SS_ID WHERE");
@@ -172,7 +174,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
             } else if (joinQuery instanceof DatabaseMetaDataImpl.OracleDb) {
                 joinQuery.addQuery(
                         "layout",
-                        "UP_LAYOUT_STRUCT ULS, UP_LAYOUT_PARAM USP WHERE ULS.STRUCT_ID = USP.STRUCT_ID(+) AND ULS.USER_ID = USP.USER_ID(+) AND");
+                        "UP_LAYOUT_STRUCT ULS, UP_LAYOUT_PARAM USP WHERE ULS.STRUCT_ID = USP.STRUCT_ID(+) AND ULS.USER_ID = USP.USER_ID(+) AND ULS.LAYOUT_ID = USP.LAYOUT_ID(+) AND");
                 joinQuery.addQuery(
                         "ss_struct",
                         "UP_SS_STRUCT USS, UP_SS_STRUCT_PAR USP WHERE USS.SS_ID=USP.SS_ID(+) AND");
@@ -311,9 +313,13 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
     }
 
     /** Create a layout */
-    private void createLayout(HashMap layoutStructure, Document doc, Element root, int structId) {
+    private void createLayout(
+            Map<Integer, LayoutStructure> layoutStructure,
+            Document doc,
+            Element root,
+            int structId) {
         while (structId != 0) {
-            LayoutStructure ls = (LayoutStructure) layoutStructure.get(structId);
+            LayoutStructure ls = layoutStructure.get(structId);
             // replaced with call to method in containing class to allow overriding
             // by subclasses of RDBMUserLayoutStore.
             // Element structure = ls.getStructureDocument(doc);
@@ -412,7 +418,6 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
         return jdbcOperations.execute(
                 (ConnectionCallback<Document>)
                         con -> {
-                            ResultSet rs;
                             int userId = person.getID();
                             final int realUserId = userId;
                             Document doc = DocumentFactory.getThreadDocument();
@@ -583,284 +588,47 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                 }
 
                                 int firstStructId;
+                                Map<Integer, LayoutStructure> layoutStructure;
 
                                 // Flags to enable a default layout lookup if it's needed
                                 boolean foundLayout;
                                 boolean triedDefault = false;
 
+                                final String locale =
+                                        localeManagerFactory.isLocaleAware()
+                                                ? localeManager.getLocales().get(0).toString()
+                                                : null;
+
                                 // This loop is used to ensure a layout is found for a user. It
-                                // tries
-                                // looking up the layout for the current userID. If one isn't found
-                                // the userID is replaced with the template user ID for this user
-                                // and
-                                // the layout is searched for again. This loop should only ever loop
-                                // once.
+                                // tries looking up the layout for the current userID. If one isn't
+                                // found the userID is replaced with the template user ID for this
+                                // user and the layout is searched for again. This loop should only
+                                // ever loop once.
                                 do {
-                                    String sQuery =
-                                            "SELECT INIT_STRUCT_ID FROM UP_USER_LAYOUT WHERE USER_ID="
-                                                    + userId
-                                                    + " AND LAYOUT_ID = "
-                                                    + layoutId;
-                                    logger.debug("getUserLayout(): {}", sQuery);
-                                    rs = stmt.executeQuery(sQuery);
-                                    try {
-                                        if (rs.next()) {
-                                            firstStructId = rs.getInt(1);
-                                        } else {
-                                            throw new RuntimeException(
-                                                    "getUserLayout(): No INIT_STRUCT_ID in UP_USER_LAYOUT for USER_ID: "
-                                                            + userId
-                                                            + " and LAYOUT_ID: "
-                                                            + layoutId);
-                                        }
-                                    } finally {
-                                        rs.close();
-                                    }
-
-                                    String sql;
-                                    if (localeManagerFactory.isLocaleAware()) {
-                                        // This needs to be changed to get the localized strings
-                                        sql =
-                                                "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,"
-                                                        + "ULS.UNREMOVABLE,ULS.IMMUTABLE";
-                                    } else {
-                                        sql =
-                                                "SELECT ULS.STRUCT_ID,ULS.NEXT_STRUCT_ID,ULS.CHLD_STRUCT_ID,ULS.CHAN_ID,ULS.NAME,ULS.TYPE,ULS.HIDDEN,"
-                                                        + "ULS.UNREMOVABLE,ULS.IMMUTABLE";
-                                    }
-                                    if (databaseMetadata.supportsOuterJoins()) {
-                                        sql +=
-                                                ",USP.STRUCT_PARM_NM,USP.STRUCT_PARM_VAL FROM "
-                                                        + databaseMetadata
-                                                                .getJoinQuery()
-                                                                .getQuery("layout");
-                                    } else {
-                                        sql += " FROM UP_LAYOUT_STRUCT ULS WHERE ";
-                                    }
-                                    sql +=
-                                            " ULS.USER_ID="
-                                                    + userId
-                                                    + " AND ULS.LAYOUT_ID="
-                                                    + layoutId
-                                                    + " ORDER BY ULS.STRUCT_ID";
-                                    logger.debug("getUserLayout(): {}", sql);
-                                    rs = stmt.executeQuery(sql);
-
-                                    // check for rows in the result set
-                                    foundLayout = rs.next();
+                                    firstStructId = getInitStructId(con, userId, layoutId);
+                                    // Structures and their parameters are read by a single
+                                    // query
+                                    layoutStructure =
+                                            layoutStructureLoader.loadLayout(
+                                                    con, userId, layoutId, locale);
+                                    foundLayout = !layoutStructure.isEmpty();
 
                                     if (!foundLayout && !triedDefault && userId == realUserId) {
                                         // If we didn't find any rows and we haven't tried the
-                                        // default
-                                        // user yet
+                                        // default user yet
                                         triedDefault = true;
-                                        rs.close();
 
                                         // Get the default user ID and layout ID
-                                        sQuery =
-                                                "SELECT USER_DFLT_LAY_ID FROM UP_USER WHERE USER_ID="
-                                                        + getSystemUser().getID();
-                                        logger.debug("getUserLayout(): {}", sQuery);
-                                        rs = stmt.executeQuery(sQuery);
-                                        try {
-                                            rs.next();
-                                            userId = getSystemUser().getID();
-                                            layoutId = rs.getInt(1);
-                                        } finally {
-                                            rs.close();
-                                        }
+                                        userId = getSystemUser().getID();
+                                        layoutId = getDefaultLayoutId(con, userId);
                                     } else {
                                         // We tried the default or actually found a layout
                                         break;
                                     }
                                 } while (!foundLayout);
 
-                                HashMap layoutStructure = new HashMap();
-                                StringBuilder structChanIds = new StringBuilder();
-
-                                try {
-                                    int lastStructId;
-                                    LayoutStructure ls;
-                                    String sepChar = "";
-                                    if (foundLayout) {
-                                        int structId = rs.getInt(1);
-                                        // Result Set returns 0 by default if structId was null
-                                        // Except if you are using poolman 2.0.4 in which case you
-                                        // get
-                                        // -1 back
-                                        if (rs.wasNull()) {
-                                            structId = 0;
-                                        }
-                                        readLayout:
-                                        while (true) {
-
-                                            int nextId = rs.getInt(2);
-                                            if (rs.wasNull()) {
-                                                nextId = 0;
-                                            }
-                                            int childId = rs.getInt(3);
-                                            if (rs.wasNull()) {
-                                                childId = 0;
-                                            }
-                                            int chanId = rs.getInt(4);
-                                            if (rs.wasNull()) {
-                                                chanId = 0;
-                                            }
-                                            String temp5 =
-                                                    rs.getString(
-                                                            5); // Some JDBC drivers require columns
-                                            // accessed in order
-                                            String temp6 =
-                                                    rs.getString(
-                                                            6); // Access 5 and 6 now, save till
-                                            // needed.
-
-                                            // uPortal i18n
-                                            int name_index, value_index;
-                                            if (localeManagerFactory.isLocaleAware()) {
-                                                List<Locale> locales = localeManager.getLocales();
-                                                String locale = locales.get(0).toString();
-                                                ls =
-                                                        new LayoutStructure(
-                                                                structId,
-                                                                nextId,
-                                                                childId,
-                                                                chanId,
-                                                                rs.getString(7),
-                                                                rs.getString(8),
-                                                                rs.getString(9),
-                                                                locale);
-                                                name_index = 10;
-                                                value_index = 11;
-                                            } else {
-                                                ls =
-                                                        new LayoutStructure(
-                                                                structId,
-                                                                nextId,
-                                                                childId,
-                                                                chanId,
-                                                                rs.getString(7),
-                                                                rs.getString(8),
-                                                                rs.getString(9));
-                                                name_index = 10;
-                                                value_index = 11;
-                                            }
-                                            layoutStructure.put(structId, ls);
-                                            lastStructId = structId;
-                                            if (!ls.isChannel()) {
-                                                ls.addFolderData(
-                                                        temp5,
-                                                        temp6); // Plug in saved column values
-                                            }
-                                            if (databaseMetadata.supportsOuterJoins()) {
-                                                do {
-                                                    String name = rs.getString(name_index);
-                                                    String value =
-                                                            rs.getString(
-                                                                    value_index); // Oracle JDBC
-                                                    // requires us to do
-                                                    // this for longs
-                                                    if (name != null) { // may not be there because
-                                                        // of
-                                                        // the join
-                                                        ls.addParameter(name, value);
-                                                    }
-                                                    if (!rs.next()) {
-                                                        break readLayout;
-                                                    }
-                                                    structId = rs.getInt(1);
-                                                    if (rs.wasNull()) {
-                                                        structId = 0;
-                                                    }
-                                                } while (structId == lastStructId);
-                                            } else { // Do second SELECT later on for structure
-                                                // parameters
-                                                if (ls.isChannel()) {
-                                                    structChanIds
-                                                            .append(sepChar)
-                                                            .append(ls.getChanId());
-                                                    sepChar = ",";
-                                                }
-                                                if (rs.next()) {
-                                                    structId = rs.getInt(1);
-                                                    if (rs.wasNull()) {
-                                                        structId = 0;
-                                                    }
-                                                } else {
-                                                    break readLayout;
-                                                }
-                                            }
-                                        } // while
-                                    }
-                                } finally {
-                                    rs.close();
-                                }
-
-                                if (!databaseMetadata.supportsOuterJoins()
-                                        && structChanIds.length()
-                                                > 0) { // Pick up structure parameters
-                                    // first, get the struct ids for the channels
-                                    String sql =
-                                            "SELECT STRUCT_ID FROM UP_LAYOUT_STRUCT WHERE USER_ID="
-                                                    + userId
-                                                    + " AND LAYOUT_ID="
-                                                    + layoutId
-                                                    + " AND CHAN_ID IN ("
-                                                    + structChanIds.toString()
-                                                    + ") ORDER BY STRUCT_ID";
-
-                                    logger.debug("getUserLayout(): {}", sql);
-                                    StringBuilder structIdsSB = new StringBuilder();
-                                    String sep = "";
-                                    rs = stmt.executeQuery(sql);
-                                    try {
-                                        // use the results to build a correct list of struct ids to
-                                        // look
-                                        // for
-                                        while (rs.next()) {
-                                            structIdsSB.append(sep).append(rs.getString(1));
-                                            sep = ",";
-                                        } // while
-                                    } finally {
-                                        rs.close();
-                                    } // be a good doobie
-
-                                    sql =
-                                            "SELECT STRUCT_ID, STRUCT_PARM_NM,STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID="
-                                                    + userId
-                                                    + " AND LAYOUT_ID="
-                                                    + layoutId
-                                                    + " AND STRUCT_ID IN ("
-                                                    + structIdsSB.toString()
-                                                    + ") ORDER BY STRUCT_ID";
-                                    logger.debug("getUserLayout(): {}", sql);
-                                    rs = stmt.executeQuery(sql);
-                                    try {
-                                        if (rs.next()) {
-                                            int structId = rs.getInt(1);
-                                            readParm:
-                                            while (true) {
-                                                LayoutStructure ls =
-                                                        (LayoutStructure)
-                                                                layoutStructure.get(structId);
-                                                int lastStructId = structId;
-                                                do {
-                                                    ls.addParameter(
-                                                            rs.getString(2), rs.getString(3));
-                                                    if (!rs.next()) {
-                                                        break readParm;
-                                                    }
-                                                } while ((structId = rs.getInt(1)) == lastStructId);
-                                            }
-                                        }
-                                    } finally {
-                                        rs.close();
-                                    }
-                                }
-
                                 if (layoutStructure.size() > 0) { // We have a layout to work with
                                     createLayout(layoutStructure, doc, root, firstStructId);
-                                    layoutStructure.clear();
 
                                     if (logger.isDebugEnabled()) {
                                         long stopTime = System.currentTimeMillis();
@@ -878,6 +646,38 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                         });
     }
 
+    private int getInitStructId(Connection con, int userId, int layoutId) throws SQLException {
+        final String sql =
+                "SELECT INIT_STRUCT_ID FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
+        try (PreparedStatement pstmt = con.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            logger.debug("getUserLayout(): {}", sql);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        throw new RuntimeException(
+                "getUserLayout(): No INIT_STRUCT_ID in UP_USER_LAYOUT for USER_ID: "
+                        + userId
+                        + " and LAYOUT_ID: "
+                        + layoutId);
+    }
+
+    private int getDefaultLayoutId(Connection con, int userId) throws SQLException {
+        final String sql = "SELECT USER_DFLT_LAY_ID FROM UP_USER WHERE USER_ID=?";
+        try (PreparedStatement pstmt = con.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            logger.debug("getUserLayout(): {}", sql);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
     private final ThreadLocal<Cache<Tuple<String, String>, UserProfile>> profileCacheHolder =
             new ThreadLocal<>();
 
@@ -1085,8 +885,12 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-    protected abstract int saveStructure(
-            Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
+    /**
+     * Add the rows of the node, its children and its following siblings to the layout rows.
+     *
+     * @return The struct id of the node, 0 if there is no node to save
+     */
+    protected abstract int saveStructure(Node node, LayoutStructureRows layoutRows)
             throws SQLException;
 
     /** Save the user layout. */
@@ -1132,64 +936,27 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                                                 firstLayout = true;
                                             }
 
-                                            String sql =
-                                                    "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-                                            PreparedStatement pstmt = con.prepareStatement(sql);
-                                            try {
-                                                pstmt.clearParameters();
-                                                pstmt.setInt(1, userId);
-                                                pstmt.setInt(2, layoutId);
-                                                logger.debug(sql);
-                                                pstmt.executeUpdate();
-                                            } finally {
-                                                pstmt.close();
-                                            }
-
-                                            sql =
-                                                    "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                            pstmt = con.prepareStatement(sql);
-                                            try {
-                                                pstmt.clearParameters();
-                                                pstmt.setInt(1, userId);
-                                                pstmt.setInt(2, layoutId);
-                                                logger.debug(sql);
-                                                pstmt.executeUpdate();
-                                            } finally {
-                                                pstmt.close();
-                                            }
-
-                                            int firstStructId;
-                                            try (PreparedStatement structStmt =
-                                                            con.prepareStatement(
-                                                                    "INSERT INTO UP_LAYOUT_STRUCT "
-                                                                            + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                                                                            + "VALUES ("
-                                                                            + userId
-                                                                            + ","
-                                                                            + layoutId
-                                                                            + ",?,?,?,?,?,?,?,?,?,?)");
-                                                    PreparedStatement parmStmt =
-                                                            con.prepareStatement(
-                                                                    "INSERT INTO UP_LAYOUT_PARAM "
-                                                                            + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) "
-                                                                            + "VALUES ("
-                                                                            + userId
-                                                                            + ","
-                                                                            + layoutId
-                                                                            + ",?,?,?)")) {
-                                                firstStructId =
-                                                        saveStructure(
-                                                                layoutXML
-                                                                        .getFirstChild()
-                                                                        .getFirstChild(),
-                                                                structStmt,
-                                                                parmStmt);
-                                            }
+                                            // Only write the rows that differ from the
+                                            // persisted layout
+                                            final LayoutStructureRows layoutRows =
+                                                    new LayoutStructureRows();
+                                            final int firstStructId =
+                                                    saveStructure(
+                                                            layoutXML
+                                                                    .getFirstChild()
+                                                                    .getFirstChild(),
+                                                            layoutRows);
+                                            layoutRows.saveChanges(
+                                                    con,
+                                                    userId,
+                                                    layoutId,
+                                                    LayoutStructureRows.load(
+                                                            con, userId, layoutId));
 
                                             // Check to see if the user has a matching layout
-                                            sql =
+                                            String sql =
                                                     "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-                                            pstmt = con.prepareStatement(sql);
+                                            PreparedStatement pstmt = con.prepareStatement(sql);
                                             try {
                                                 pstmt.clearParameters();
                                                 pstmt.setInt(1, userId);
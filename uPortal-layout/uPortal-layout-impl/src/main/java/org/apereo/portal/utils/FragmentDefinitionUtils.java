@@ -16,19 +16,35 @@ package org.apereo.portal.utils;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.GroupClosureIndex;
+import org.apereo.portal.groups.GroupsException;
+import org.apereo.portal.groups.ICompositeGroupService;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
 import org.apereo.portal.layout.dlm.ConfigurationLoader;
+import org.apereo.portal.layout.dlm.Evaluator;
 import org.apereo.portal.layout.dlm.FragmentActivator;
 import org.apereo.portal.layout.dlm.FragmentDefinition;
 import org.apereo.portal.layout.dlm.UserView;
 import org.apereo.portal.security.IPerson;
+import org.apereo.portal.utils.cache.CacheKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Document;
 
@@ -43,6 +59,8 @@ public class FragmentDefinitionUtils implements IFragmentDefinitionUtils {
 
     private ConfigurationLoader configurationLoader;
     private FragmentActivator fragmentActivator;
+    private ICompositeGroupService compositeGroupService;
+    private Ehcache audienceDecisions;
 
     @Autowired
     public void setConfigurationLoader(ConfigurationLoader configurationLoader) {
@@ -54,6 +72,22 @@ public class FragmentDefinitionUtils implements IFragmentDefinitionUtils {
         this.fragmentActivator = fragmentActivator;
     }
 
+    @Autowired
+    public void setCompositeGroupService(ICompositeGroupService compositeGroupService) {
+        this.compositeGroupService = compositeGroupService;
+    }
+
+    /**
+     * Remembers audience decisions of membership based fragments per combination of group
+     * memberships, see {@link Evaluator#isMembershipBased()}
+     */
+    @Autowired(required = false)
+    public void setAudienceDecisions(
+            @Qualifier("org.apereo.portal.utils.FragmentDefinitionUtils.audienceDecisions")
+                    Ehcache audienceDecisions) {
+        this.audienceDecisions = audienceDecisions;
+    }
+
     @Override
     public final List<FragmentDefinition> getFragmentDefinitions() {
         return this.configurationLoader.getFragments();
@@ -81,11 +115,28 @@ public class FragmentDefinitionUtils implements IFragmentDefinitionUtils {
         logger.debug("About to check applicability of {} fragments", definitions.size());
 
         if (definitions != null) {
+            Map<String, Boolean> decisions = null;
             for (final FragmentDefinition fragmentDefinition : definitions) {
                 logger.debug(
                         "Checking applicability of the following fragment: {}",
                         fragmentDefinition.getName());
-                if (fragmentDefinition.isApplicable(person)) {
+                final boolean applicable;
+                if (fragmentDefinition.isMembershipBased()) {
+                    if (decisions == null) {
+                        decisions = this.getAudienceDecisions(person);
+                    }
+                    final String audienceKey = getAudienceKey(fragmentDefinition);
+                    final Boolean decision = decisions.get(audienceKey);
+                    if (decision != null) {
+                        applicable = decision;
+                    } else {
+                        applicable = fragmentDefinition.isApplicable(person);
+                        decisions.put(audienceKey, applicable);
+                    }
+                } else {
+                    applicable = fragmentDefinition.isApplicable(person);
+                }
+                if (applicable) {
                     result.add(fragmentDefinition);
                 }
             }
@@ -93,6 +144,85 @@ public class FragmentDefinitionUtils implements IFragmentDefinitionUtils {
         return result;
     }
 
+    /**
+     * Audience decisions already made for people with the same group memberships as the specified
+     * person, keyed by {@link #getAudienceKey(FragmentDefinition)}. Decisions added to the returned
+     * map are shared with those people.
+     */
+    private Map<String, Boolean> getAudienceDecisions(IPerson person) {
+        if (this.audienceDecisions == null) {
+            return new HashMap<>();
+        }
+
+        final CacheKey fingerprint;
+        try {
+            fingerprint = this.getMembershipFingerprint(person);
+        } catch (GroupsException e) {
+            logger.warn(
+                    "Failed to determine group memberships of {}, fragment audiences will be "
+                            + "evaluated without the cache",
+                    person.getUserName(),
+                    e);
+            return new HashMap<>();
+        }
+
+        final Element element = this.audienceDecisions.get(fingerprint);
+        if (element != null) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Boolean> decisions = (Map<String, Boolean>) element.getObjectValue();
+            return decisions;
+        }
+
+        final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<>();
+        final Element existing =
+                this.audienceDecisions.putIfAbsent(new Element(fingerprint, decisions));
+        if (existing != null) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Boolean> existingDecisions =
+                    (Map<String, Boolean>) existing.getObjectValue();
+            return existingDecisions;
+        }
+        return decisions;
+    }
+
+    /**
+     * The groups that directly and recursively contain the person, the latter from the group
+     * closure index, and whether they are a guest, everything a membership based audience depends
+     * on. Direct parents are needed by evaluators in member of mode.
+     */
+    private CacheKey getMembershipFingerprint(IPerson person) throws GroupsException {
+        final EntityIdentifier entityIdentifier = person.getEntityIdentifier();
+        final IGroupMember groupMember =
+                this.compositeGroupService.getGroupMember(
+                        entityIdentifier.getKey(), entityIdentifier.getType());
+        final GroupClosureIndex.AncestorsKey ancestorsKey =
+                this.compositeGroupService.getAncestorsKey(groupMember);
+
+        final ArrayList<String> parentKeys = new ArrayList<>();
+        for (final IEntityGroup parentGroup : groupMember.getParentGroups()) {
+            parentKeys.add(parentGroup.getKey());
+        }
+        Collections.sort(parentKeys);
+
+        return CacheKey.build(
+                FragmentDefinitionUtils.class.getName(),
+                person.isGuest(),
+                ancestorsKey,
+                parentKeys);
+    }
+
+    /** Identifies a fragment together with its audience so edited audiences aren't reused */
+    private static String getAudienceKey(FragmentDefinition fragmentDefinition) {
+        final StringBuilder key = new StringBuilder(fragmentDefinition.getName());
+        final List<Evaluator> evaluators = fragmentDefinition.getEvaluators();
+        if (evaluators != null) {
+            for (final Evaluator evaluator : evaluators) {
+                key.append('|').append(evaluator.getSummary());
+            }
+        }
+        return key.toString();
+    }
+
     @Override
     public List<UserView> getFragmentDefinitionUserViews(final Locale locale) {
         return this.getFragmentDefinitionUserViews(this.getFragmentDefinitions(), locale);
@@ -0,0 +1,226 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.xml.parsers.DocumentBuilderFactory;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.event.CacheEventListener;
+import org.apereo.portal.IUserIdentityStore;
+import org.apereo.portal.IUserProfile;
+import org.apereo.portal.i18n.LocaleManagerFactory;
+import org.apereo.portal.layout.IUserLayoutStore;
+import org.apereo.portal.properties.PropertiesManager;
+import org.apereo.portal.security.IPerson;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/** Tests that {@link FragmentActivator#preactivateFragments()} only fills the userViews cache. */
+public class FragmentActivatorTest {
+    private static final String USER_VIEWS = "fragmentActivatorTest.userViews";
+    private static final String USER_VIEW_ERRORS = "fragmentActivatorTest.userViewErrors";
+    private static final String LAYOUT =
+            "<layout ID=\"u10l1\"><folder ID=\"s1\" type=\"root\">"
+                    + "<folder ID=\"s2\" type=\"regular\" hidden=\"false\">"
+                    + "<channel ID=\"n3\"/></folder>"
+                    + "<folder ID=\"s4\" type=\"header\" hidden=\"false\"/>"
+                    + "</folder></layout>";
+    private static final String CHANGED_LAYOUT =
+            "<layout ID=\"u10l1\"><folder ID=\"s1\" type=\"root\">"
+                    + "<folder ID=\"s2\" type=\"regular\" hidden=\"false\">"
+                    + "<channel ID=\"n3\"/><channel ID=\"n5\"/></folder>"
+                    + "</folder></layout>";
+
+    @Mock private ConfigurationLoader configurationLoader;
+    @Mock private IUserIdentityStore identityStore;
+    @Mock private IUserLayoutStore userLayoutStore;
+    @Mock private LocaleManagerFactory localeManagerFactory;
+    @Mock private IUserProfile profile;
+    @Mock private CacheEventListener userViewsListener;
+
+    private CacheManager cacheManager;
+    private ExecutorService executorService;
+    private FragmentActivator fragmentActivator;
+    private FragmentDefinition news;
+    private FragmentDefinition welcome;
+    private FragmentDefinition unassigned;
+
+    @BeforeClass
+    public static void setupProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty("org.apereo.portal.layout.dlm.allowExpandedContent", "false");
+        PropertiesManager.setProperties(properties);
+    }
+
+    @AfterClass
+    public static void teardownProperties() {
+        PropertiesManager.setProperties(null);
+    }
+
+    @Before
+    public void setup() throws Exception {
+        initMocks(this);
+
+        cacheManager = CacheManager.create();
+        final Cache userViews = new Cache(USER_VIEWS, 100, false, false, 0, 0);
+        cacheManager.addCache(userViews);
+        userViews.getCacheEventNotificationService().registerListener(userViewsListener);
+        final Cache userViewErrors = new Cache(USER_VIEW_ERRORS, 100, false, false, 0, 0);
+        cacheManager.addCache(userViewErrors);
+
+        news = mockFragment("news-lo", 1, true);
+        welcome = mockFragment("welcome-lo", 2, true);
+        unassigned = mockFragment("unassigned-lo", 3, false);
+        when(configurationLoader.getFragments())
+                .thenReturn(Arrays.asList(news, welcome, unassigned));
+
+        when(localeManagerFactory.getPortalLocales())
+                .thenReturn(Collections.singletonList(Locale.US));
+        when(identityStore.getPortalUID(any(IPerson.class), eq(false))).thenReturn(10);
+        when(profile.getProfileId()).thenReturn(1);
+        when(profile.getLayoutId()).thenReturn(1);
+        when(profile.getStructureStylesheetId()).thenReturn(1);
+        when(profile.getThemeStylesheetId()).thenReturn(2);
+        when(userLayoutStore.getUserProfileByFname(any(IPerson.class), eq("default")))
+                .thenReturn(profile);
+        when(userLayoutStore.getFragmentLayout(any(IPerson.class), eq(profile)))
+                .thenAnswer(invocation -> parseLayout(LAYOUT));
+
+        executorService = Executors.newFixedThreadPool(2);
+
+        fragmentActivator = new FragmentActivator();
+        fragmentActivator.setConfigurationLoader(configurationLoader);
+        fragmentActivator.setIdentityStore(identityStore);
+        fragmentActivator.setUserLayoutStore(userLayoutStore);
+        fragmentActivator.setLocaleManagerFactory(localeManagerFactory);
+        fragmentActivator.setExecutorService(executorService);
+        fragmentActivator.setUserViews(userViews);
+        fragmentActivator.setUserViewErrors(userViewErrors);
+    }
+
+    @After
+    public void teardown() {
+        executorService.shutdownNow();
+        cacheManager.removeCache(USER_VIEWS);
+        cacheManager.removeCache(USER_VIEW_ERRORS);
+    }
+
+    @Test
+    public void testPreactivationFillsUserViews() throws Exception {
+        fragmentActivator.preactivateFragments();
+
+        assertEquals(2, cacheManager.getCache(USER_VIEWS).getSize());
+        assertEquals(0, cacheManager.getCache(USER_VIEW_ERRORS).getSize());
+        verify(userLayoutStore, times(2)).getFragmentLayout(any(IPerson.class), eq(profile));
+
+        // Served from the cache, not activated again
+        final UserView view = fragmentActivator.getUserView(news, Locale.US);
+        assertNotNull(view);
+        assertEquals(10, view.getUserId());
+        assertNotNull(view.getLayout().getElementById("u10l1s2"));
+        assertNull(view.getLayout().getElementById("u10l1s4"));
+        assertNotNull(fragmentActivator.getUserView(welcome, Locale.US));
+        verify(userLayoutStore, times(2)).getFragmentLayout(any(IPerson.class), eq(profile));
+        verify(configurationLoader, never()).getFragmentByOwnerId("unassigned-lo");
+    }
+
+    @Test
+    public void testPreactivationHasNoSideEffects() throws Exception {
+        fragmentActivator.preactivateFragments();
+        final UserView first = fragmentActivator.getUserView(news, Locale.US);
+        fragmentActivator.preactivateFragments();
+
+        // An unchanged layout keeps its view, so merged layouts sharing the document stay shared
+        assertSame(first, fragmentActivator.getUserView(news, Locale.US));
+
+        // A changed layout replaces the view without notifying replicated caches on other servers
+        when(userLayoutStore.getFragmentLayout(any(IPerson.class), eq(profile)))
+                .thenAnswer(invocation -> parseLayout(CHANGED_LAYOUT));
+        fragmentActivator.preactivateFragments();
+        final UserView changed = fragmentActivator.getUserView(news, Locale.US);
+        assertNotSame(first, changed);
+        assertNotNull(changed.getLayout().getElementById("u10l1n5"));
+
+        verify(userViewsListener, never()).notifyElementPut(any(), any());
+        verify(userViewsListener, never()).notifyElementUpdated(any(), any());
+        verify(userViewsListener, never()).notifyElementRemoved(any(), any());
+
+        // Existing owners are neither created nor have their layout saved
+        verify(identityStore, never()).getPortalUID(any(IPerson.class), eq(true));
+        verify(userLayoutStore, never())
+                .setUserLayout(any(), any(), any(), anyBoolean(), anyBoolean());
+        verify(userLayoutStore, never()).setUserLayout(any(), any(), any(), anyBoolean());
+    }
+
+    @Test
+    public void testPreactivationIncludesRequestedLocales() throws Exception {
+        final UserView requested = fragmentActivator.getUserView(news, Locale.FRANCE);
+        assertSame(requested, fragmentActivator.getUserView(news, Locale.FRANCE));
+
+        fragmentActivator.preactivateFragments();
+
+        assertSame(requested, fragmentActivator.getUserView(news, Locale.FRANCE));
+        verify(localeManagerFactory, times(2))
+                .createLocaleManager(
+                        any(IPerson.class), eq(Collections.singletonList(Locale.FRANCE)));
+        verify(localeManagerFactory, times(2))
+                .createLocaleManager(any(IPerson.class), eq(Collections.singletonList(Locale.US)));
+    }
+
+    private FragmentDefinition mockFragment(String ownerId, long id, boolean hasAudience) {
+        final FragmentDefinition fragment = mock(FragmentDefinition.class);
+        when(fragment.getName()).thenReturn(ownerId);
+        when(fragment.getOwnerId()).thenReturn(ownerId);
+        when(fragment.getId()).thenReturn(id);
+        when(fragment.getPrecedence()).thenReturn(50.0);
+        when(fragment.isNoAudienceIncluded()).thenReturn(!hasAudience);
+        when(configurationLoader.getFragmentByOwnerId(ownerId)).thenReturn(fragment);
+        return fragment;
+    }
+
+    private static Document parseLayout(String layout) throws Exception {
+        final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new InputSource(new StringReader(layout)));
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.dlm;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.apereo.portal.utils.DocumentFactory;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+public class LayoutCachingServiceTest {
+    private final LayoutCachingService layoutCachingService = new LayoutCachingService();
+    private final List<Document> fragmentLayouts =
+            Arrays.asList(createLayout("Welcome"), createLayout("News"));
+
+    @Test
+    public void testLayoutsWithEqualKeysShareDocument() {
+        final DistributedUserLayout first =
+                newLayout(new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels()));
+        final DistributedUserLayout second =
+                newLayout(new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels()));
+
+        final DistributedUserLayout sharedFirst = layoutCachingService.shareLayout(first);
+        final DistributedUserLayout sharedSecond = layoutCachingService.shareLayout(second);
+
+        assertSame(first.getLayout(), sharedFirst.getLayout());
+        assertSame(first.getLayout(), sharedSecond.getLayout());
+        assertTrue(layoutCachingService.isSharedLayout(sharedSecond));
+        assertFalse(layoutCachingService.isSharedLayout(second));
+    }
+
+    @Test
+    public void testNewFragmentLayoutIsNotShared() {
+        final List<Document> reactivated =
+                Arrays.asList(fragmentLayouts.get(0), createLayout("News"));
+
+        assertNotShared(
+                new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels()),
+                new SharedLayoutKey(reactivated, createLayout("Home"), channels()));
+    }
+
+    @Test
+    public void testFragmentOrderIsNotShared() {
+        final List<Document> reordered =
+                Arrays.asList(fragmentLayouts.get(1), fragmentLayouts.get(0));
+
+        assertNotShared(
+                new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels()),
+                new SharedLayoutKey(reordered, createLayout("Home"), channels()));
+    }
+
+    @Test
+    public void testCustomizedPlfIsNotShared() {
+        assertNotShared(
+                new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels()),
+                new SharedLayoutKey(fragmentLayouts, createLayout("My Home"), channels()));
+    }
+
+    @Test
+    public void testExcludedChannelsAreNotShared() {
+        final SharedLayoutKey key =
+                new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels("1"));
+
+        assertNotShared(key, key.withExcludedChannels(channels("2")));
+    }
+
+    @Test
+    public void testExcludedChannelsAreUnordered() {
+        final SharedLayoutKey first =
+                new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels("1", "2"));
+        final SharedLayoutKey second =
+                new SharedLayoutKey(fragmentLayouts, createLayout("Home"), channels("2"))
+                        .withExcludedChannels(channels("1"));
+
+        final DistributedUserLayout shared = layoutCachingService.shareLayout(newLayout(first));
+        assertSame(
+                shared.getLayout(),
+                layoutCachingService.shareLayout(newLayout(second)).getLayout());
+    }
+
+    @Test
+    public void testLayoutWithoutKeyIsNotShared() {
+        final DistributedUserLayout layout = new DistributedUserLayout(createLayout("Home"));
+
+        assertSame(layout, layoutCachingService.shareLayout(layout));
+        assertFalse(layoutCachingService.isSharedLayout(layout));
+    }
+
+    @Test
+    public void testCopiedLayoutIsNotShared() {
+        final DistributedUserLayout shared =
+                layoutCachingService.shareLayout(
+                        newLayout(
+                                new SharedLayoutKey(
+                                        fragmentLayouts, createLayout("Home"), channels())));
+        final DistributedUserLayout copy =
+                new DistributedUserLayout((Document) shared.getLayout().cloneNode(true));
+
+        assertTrue(layoutCachingService.isSharedLayout(shared));
+        assertFalse(layoutCachingService.isSharedLayout(copy));
+    }
+
+    private void assertNotShared(SharedLayoutKey firstKey, SharedLayoutKey secondKey) {
+        final DistributedUserLayout first = layoutCachingService.shareLayout(newLayout(firstKey));
+        final DistributedUserLayout second =
+                layoutCachingService.shareLayout(newLayout(secondKey));
+
+        assertNotSame(first.getLayout(), second.getLayout());
+    }
+
+    private static List<String> channels(String... channelIds) {
+        return Arrays.asList(channelIds);
+    }
+
+    private static DistributedUserLayout newLayout(SharedLayoutKey sharedLayoutKey) {
+        return new DistributedUserLayout(createLayout("Home"), null, null, sharedLayoutKey);
+    }
+
+    private static Document createLayout(String tabName) {
+        final Document layout = DocumentFactory.getThreadDocument();
+        final Element root = layout.createElement("layout");
+        layout.appendChild(root);
+        final Element folder = layout.createElement("folder");
+        folder.setAttribute("ID", "s1");
+        folder.setAttribute("name", tabName);
+        root.appendChild(folder);
+        return layout;
+    }
+}
@@ -53,6 +53,23 @@ public class ParenTest extends TestCase {
         assertTrue("false should make true", notParen.isApplicable(p));
     }
 
+    public void testIsMembershipBased() {
+
+        Paren paren = new Paren(Paren.Type.OR);
+        paren.addEvaluator(new AllUsersEvaluatorFactory());
+        paren.addEvaluator(new GuestUserEvaluatorFactory());
+        assertTrue(
+                "membership based children make a membership based paren",
+                paren.isMembershipBased());
+
+        Paren nested = new Paren(Paren.Type.NOT);
+        nested.addEvaluator(new NoUsersEvaluatorFactory());
+        paren.addEvaluator(nested);
+        assertFalse(
+                "any other child makes the paren depend on more than membership",
+                paren.isMembershipBased());
+    }
+
     private static class NoUsersEvaluatorFactory extends Evaluator {
 
         @Override
@@ -0,0 +1,92 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import org.apereo.portal.jdbc.IDatabaseMetadata;
+import org.apereo.portal.jdbc.IJoinQueryString;
+import org.apereo.portal.layout.LayoutStructure;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayoutStructureLoaderTest {
+    private IDatabaseMetadata databaseMetadata;
+    private Connection connection;
+    private PreparedStatement pstmt;
+    private ResultSet rs;
+
+    @Before
+    public void setup() throws SQLException {
+        final IJoinQueryString joinQuery = mock(IJoinQueryString.class);
+        when(joinQuery.getQuery("layout"))
+                .thenReturn(
+                        "UP_LAYOUT_STRUCT ULS LEFT OUTER JOIN UP_LAYOUT_PARAM USP ON "
+                                + "ULS.USER_ID = USP.USER_ID AND ULS.LAYOUT_ID = USP.LAYOUT_ID "
+                                + "AND ULS.STRUCT_ID = USP.STRUCT_ID WHERE");
+        databaseMetadata = mock(IDatabaseMetadata.class);
+        when(databaseMetadata.supportsOuterJoins()).thenReturn(true);
+        when(databaseMetadata.getJoinQuery()).thenReturn(joinQuery);
+
+        rs = mock(ResultSet.class);
+        pstmt = mock(PreparedStatement.class);
+        when(pstmt.executeQuery()).thenReturn(rs);
+        connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString())).thenReturn(pstmt);
+    }
+
+    @Test
+    public void testParametersJoinedToStructure() throws SQLException {
+        // One folder with two parameters, read as two joined rows
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getInt(1)).thenReturn(2);
+        when(rs.getString(5)).thenReturn("Tab");
+        when(rs.getString(6)).thenReturn("regular");
+        when(rs.getString(7)).thenReturn("N");
+        when(rs.getString(8)).thenReturn("N");
+        when(rs.getString(9)).thenReturn("N");
+        when(rs.getString(10)).thenReturn("dlm:deleteAllowed", "dlm:moveAllowed");
+        when(rs.getString(11)).thenReturn("false", "true");
+
+        final Map<Integer, LayoutStructure> structures =
+                new LayoutStructureLoader(databaseMetadata).loadLayout(connection, 10, 1, null);
+
+        assertEquals(1, structures.size());
+        assertEquals(2, structures.get(2).getParameters().size());
+        verify(connection, times(1)).prepareStatement(anyString());
+        verify(pstmt).setInt(1, 10);
+        verify(pstmt).setInt(2, 1);
+    }
+
+    @Test
+    public void testParametersQueriedSeparatelyWithoutOuterJoins() throws SQLException {
+        when(databaseMetadata.supportsOuterJoins()).thenReturn(false);
+        when(rs.next()).thenReturn(false);
+
+        new LayoutStructureLoader(databaseMetadata).loadLayout(connection, 10, 1, null);
+
+        verify(connection, times(2)).prepareStatement(anyString());
+    }
+}
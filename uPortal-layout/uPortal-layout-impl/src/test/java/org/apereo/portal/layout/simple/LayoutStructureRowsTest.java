@@ -0,0 +1,107 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.layout.simple;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayoutStructureRowsTest {
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>();
+    private Connection connection;
+
+    @Before
+    public void setup() throws SQLException {
+        connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString()))
+                .thenAnswer(
+                        invocation -> {
+                            final PreparedStatement pstmt = mock(PreparedStatement.class);
+                            when(pstmt.executeBatch()).thenReturn(new int[0]);
+                            statements.put(invocation.getArgument(0), pstmt);
+                            return pstmt;
+                        });
+    }
+
+    @Test
+    public void testUnchangedLayoutWritesNothing() throws SQLException {
+        final LayoutStructureRows persisted = createLayout();
+        final LayoutStructureRows layout = createLayout();
+
+        layout.saveChanges(connection, 10, 1, persisted);
+
+        for (final PreparedStatement pstmt : statements.values()) {
+            verify(pstmt, never()).addBatch();
+        }
+    }
+
+    @Test
+    public void testOnlyChangedRowsAreWritten() throws SQLException {
+        final LayoutStructureRows persisted = createLayout();
+        persisted.addStruct(4, 0, 0, null, 7, null, "regular", false, false, false);
+        persisted.addParam(4, "dlm:moveAllowed", "false");
+
+        final LayoutStructureRows layout = new LayoutStructureRows();
+        // Folder 1 now ends with a new channel 5, channel 4 was removed
+        layout.addStruct(1, 0, 2, null, null, "Tab", "regular", false, false, false);
+        layout.addStruct(2, 5, 0, null, 3, null, "", false, false, false);
+        layout.addStruct(5, 0, 0, null, 8, null, "", false, false, false);
+        layout.addParam(1, "dlm:deleteAllowed", "true");
+        layout.addParam(5, "dlm:moveAllowed", "false");
+
+        layout.saveChanges(connection, 10, 1, persisted);
+
+        verify(statement("DELETE FROM UP_LAYOUT_PARAM"), times(1)).addBatch();
+        verify(statement("DELETE FROM UP_LAYOUT_STRUCT"), times(1)).addBatch();
+        verify(statement("UPDATE UP_LAYOUT_STRUCT"), times(1)).addBatch();
+        verify(statement("INSERT INTO UP_LAYOUT_STRUCT"), times(1)).addBatch();
+        verify(statement("UPDATE UP_LAYOUT_PARAM"), times(1)).addBatch();
+        verify(statement("INSERT INTO UP_LAYOUT_PARAM"), times(1)).addBatch();
+
+        verify(statement("DELETE FROM UP_LAYOUT_STRUCT")).setInt(3, 4);
+        verify(statement("UPDATE UP_LAYOUT_STRUCT")).setInt(12, 2);
+        verify(statement("INSERT INTO UP_LAYOUT_STRUCT")).setInt(12, 5);
+        verify(statement("UPDATE UP_LAYOUT_PARAM")).setString(1, "true");
+    }
+
+    private PreparedStatement statement(String prefix) {
+        for (final Map.Entry<String, PreparedStatement> entry : statements.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                return entry.getValue();
+            }
+        }
+        throw new AssertionError("No statement prepared for " + prefix);
+    }
+
+    /** A tab with one channel, as read back from a database that stores '' as NULL */
+    private LayoutStructureRows createLayout() {
+        final LayoutStructureRows rows = new LayoutStructureRows();
+        rows.addStruct(1, 0, 2, null, null, "Tab", "regular", false, false, false);
+        rows.addStruct(2, 0, 0, null, 3, null, null, false, false, false);
+        rows.addParam(1, "dlm:deleteAllowed", "false");
+        return rows;
+    }
+}
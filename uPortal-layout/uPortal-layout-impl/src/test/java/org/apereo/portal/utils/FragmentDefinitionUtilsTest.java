@@ -0,0 +1,227 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.GroupClosureIndex;
+import org.apereo.portal.groups.ICompositeGroupService;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.layout.dlm.ConfigurationLoader;
+import org.apereo.portal.layout.dlm.FragmentDefinition;
+import org.apereo.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/** Tests how {@link FragmentDefinitionUtils} reuses audience decisions between people. */
+public class FragmentDefinitionUtilsTest {
+    private static final String AUDIENCE_DECISIONS = "fragmentDefinitionUtilsTest";
+    private static final String ANCESTORS = "fragmentDefinitionUtilsTest.ancestors";
+
+    @Mock private ConfigurationLoader configurationLoader;
+    @Mock private ICompositeGroupService compositeGroupService;
+
+    private CacheManager cacheManager;
+    private GroupClosureIndex groupClosureIndex;
+    private FragmentDefinitionUtils fragmentDefinitionUtils;
+    private IEntityGroup staff;
+    private IEntityGroup faculty;
+    private IEntityGroup students;
+
+    @Before
+    public void setup() throws Exception {
+        initMocks(this);
+
+        cacheManager = CacheManager.create();
+        final Cache audienceDecisions = new Cache(AUDIENCE_DECISIONS, 100, false, false, 0, 0);
+        cacheManager.addCache(audienceDecisions);
+        final Cache ancestors = new Cache(ANCESTORS, 100, false, false, 0, 0);
+        cacheManager.addCache(ancestors);
+
+        groupClosureIndex = new GroupClosureIndex(ancestors);
+        when(compositeGroupService.getAncestorsKey(any()))
+                .thenAnswer(
+                        invocation ->
+                                groupClosureIndex.getAncestorsKey(
+                                        (IGroupMember) invocation.getArgument(0)));
+
+        staff = mockGroup("local.1");
+        faculty = mockGroup("local.2", staff);
+        students = mockGroup("local.3");
+
+        fragmentDefinitionUtils = new FragmentDefinitionUtils();
+        fragmentDefinitionUtils.setConfigurationLoader(configurationLoader);
+        fragmentDefinitionUtils.setCompositeGroupService(compositeGroupService);
+        fragmentDefinitionUtils.setAudienceDecisions(audienceDecisions);
+    }
+
+    @After
+    public void teardown() {
+        cacheManager.removeCache(AUDIENCE_DECISIONS);
+        cacheManager.removeCache(ANCESTORS);
+    }
+
+    @Test
+    public void testSameMembershipsReuseDecisions() throws Exception {
+        final FragmentDefinition facultyFragment = mockFragment("faculty", true, true);
+        final FragmentDefinition studentFragment = mockFragment("students", true, false);
+        when(configurationLoader.getFragments())
+                .thenReturn(Arrays.asList(facultyFragment, studentFragment));
+
+        final IPerson jdoe = mockPerson("jdoe", false, faculty);
+        final IPerson jsmith = mockPerson("jsmith", false, faculty);
+        assertEquals(
+                Collections.singletonList(facultyFragment),
+                fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jdoe));
+        assertEquals(
+                Collections.singletonList(facultyFragment),
+                fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jsmith));
+
+        verify(facultyFragment, times(1)).isApplicable(any());
+        verify(studentFragment, times(1)).isApplicable(any());
+    }
+
+    @Test
+    public void testDifferentMembershipsAreEvaluated() throws Exception {
+        final FragmentDefinition fragment = mockFragment("faculty", true, true);
+        when(configurationLoader.getFragments()).thenReturn(Collections.singletonList(fragment));
+
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(
+                mockPerson("jdoe", false, faculty));
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(
+                mockPerson("jroe", false, students));
+        // Same groups, but a guest
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(
+                mockPerson("guest", true, faculty));
+
+        verify(fragment, times(3)).isApplicable(any());
+    }
+
+    @Test
+    public void testDifferentDirectParentsAreEvaluated() throws Exception {
+        final IPerson jdoe = mockPerson("jdoe", false, faculty);
+        final IPerson jsmith = mockPerson("jsmith", false, faculty, staff);
+
+        // A member of mode audience, only people directly in staff
+        final FragmentDefinition fragment = mockFragment("staff", true, false);
+        when(fragment.isApplicable(jsmith)).thenReturn(true);
+        when(configurationLoader.getFragments()).thenReturn(Collections.singletonList(fragment));
+
+        // Both are recursively in faculty and staff
+        assertEquals(
+                groupClosureIndex.getAncestorsKey(
+                        compositeGroupService.getGroupMember("jdoe", IPerson.class)),
+                groupClosureIndex.getAncestorsKey(
+                        compositeGroupService.getGroupMember("jsmith", IPerson.class)));
+
+        assertEquals(
+                Collections.emptyList(),
+                fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jdoe));
+        assertEquals(
+                Collections.singletonList(fragment),
+                fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jsmith));
+        verify(fragment, times(2)).isApplicable(any());
+    }
+
+    @Test
+    public void testMembershipChangeIsEvaluated() throws Exception {
+        final FragmentDefinition fragment = mockFragment("faculty", true, true);
+        when(configurationLoader.getFragments()).thenReturn(Collections.singletonList(fragment));
+
+        final IPerson jdoe = mockPerson("jdoe", false, faculty);
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jdoe);
+
+        // Moved to another group, the old decisions no longer apply
+        final IGroupMember groupMember =
+                compositeGroupService.getGroupMember("jdoe", IPerson.class);
+        when(groupMember.getParentGroups()).thenReturn(toSet(students));
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jdoe);
+
+        verify(fragment, times(2)).isApplicable(any());
+    }
+
+    @Test
+    public void testOtherEvaluatorsBypassDecisions() throws Exception {
+        final FragmentDefinition fragment = mockFragment("attribute", false, true);
+        when(configurationLoader.getFragments()).thenReturn(Collections.singletonList(fragment));
+
+        final IPerson jdoe = mockPerson("jdoe", false, faculty);
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jdoe);
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(
+                mockPerson("jsmith", false, faculty));
+        fragmentDefinitionUtils.getFragmentDefinitionsApplicableToPerson(jdoe);
+
+        verify(fragment, times(3)).isApplicable(any());
+        verify(compositeGroupService, never()).getAncestorsKey(any());
+        assertEquals(0, cacheManager.getCache(AUDIENCE_DECISIONS).getSize());
+    }
+
+    private FragmentDefinition mockFragment(
+            String name, boolean membershipBased, boolean applicable) {
+        final FragmentDefinition fragment = mock(FragmentDefinition.class);
+        when(fragment.getName()).thenReturn(name);
+        when(fragment.isMembershipBased()).thenReturn(membershipBased);
+        when(fragment.isApplicable(any())).thenReturn(applicable);
+        return fragment;
+    }
+
+    private IPerson mockPerson(String username, boolean guest, IEntityGroup... parents)
+            throws Exception {
+        final IGroupMember groupMember = mock(IGroupMember.class);
+        when(groupMember.getKey()).thenReturn(username);
+        when(groupMember.getUnderlyingEntityIdentifier())
+                .thenReturn(new EntityIdentifier(username, IPerson.class));
+        when(groupMember.getParentGroups()).thenReturn(toSet(parents));
+        when(compositeGroupService.getGroupMember(username, IPerson.class))
+                .thenReturn(groupMember);
+
+        final IPerson person = mock(IPerson.class);
+        when(person.getUserName()).thenReturn(username);
+        when(person.isGuest()).thenReturn(guest);
+        when(person.getEntityIdentifier())
+                .thenReturn(new EntityIdentifier(username, IPerson.class));
+        return person;
+    }
+
+    private static IEntityGroup mockGroup(String key, IEntityGroup... parents) throws Exception {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getKey()).thenReturn(key);
+        when(group.isGroup()).thenReturn(true);
+        when(group.getUnderlyingEntityIdentifier())
+                .thenReturn(new EntityIdentifier(key, IEntityGroup.class));
+        when(group.getParentGroups()).thenReturn(toSet(parents));
+        return group;
+    }
+
+    private static HashSet<IEntityGroup> toSet(IEntityGroup... groups) {
+        return new HashSet<>(Arrays.asList(groups));
+    }
+}
@@ -27,6 +27,8 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     private boolean browserSetEtag = false;
     private PublicPortletCacheKey publicPortletCacheKey;
     private PrivatePortletCacheKey privatePortletCacheKey;
+    private Serializable revalidationCacheKey;
+    private long revalidationStarted;
 
     protected CacheState() {}
 
@@ -74,6 +76,13 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     public PrivatePortletCacheKey getPrivatePortletCacheKey() {
         return privatePortletCacheKey;
     }
+    /**
+     * @return The cache key this request is refreshing stale cached data for, null if the request
+     *     is not a stale-while-revalidate refresh
+     */
+    public Serializable getRevalidationCacheKey() {
+        return revalidationCacheKey;
+    }
 
     protected void setBrowserSetEtag(boolean browserSetEtag) {
         this.browserSetEtag = browserSetEtag;
@@ -102,4 +111,16 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     protected void setPrivatePortletCacheKey(PrivatePortletCacheKey privatePortletCacheKey) {
         this.privatePortletCacheKey = privatePortletCacheKey;
     }
+
+    protected void setRevalidationCacheKey(Serializable revalidationCacheKey) {
+        this.revalidationCacheKey = revalidationCacheKey;
+    }
+
+    protected long getRevalidationStarted() {
+        return revalidationStarted;
+    }
+
+    protected void setRevalidationStarted(long revalidationStarted) {
+        this.revalidationStarted = revalidationStarted;
+    }
 }
@@ -79,6 +79,13 @@ public interface IPortletCacheControlService {
             CacheState<CachedPortletResourceData<Long>, Long> cacheState,
             CachedPortletResourceData<Long> cachedPortletResourceData);
 
+    /**
+     * Release the stale-while-revalidate refresh claimed by the request, if any, so the next
+     * request for the expired output can refresh it. Must be called once the portlet has executed
+     * whether or not its output was cached.
+     */
+    void releaseRevalidation(CacheState<?, ?> cacheState);
+
     /**
      * Purge any {@link CachedPortletRenderData} for the portlet.
      *
@@ -17,6 +17,12 @@ package org.apereo.portal.portlet.container.cache;
 import java.io.Serializable;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
 import javax.servlet.http.HttpServletRequest;
@@ -25,7 +31,9 @@ import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.IPortletDefinitionParameter;
 import org.apereo.portal.portlet.om.IPortletEntity;
 import org.apereo.portal.portlet.om.IPortletEntityId;
 import org.apereo.portal.portlet.om.IPortletWindow;
@@ -35,6 +43,9 @@ import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.PortletRenderResult;
 import org.apereo.portal.url.IPortalRequestInfo;
 import org.apereo.portal.url.IUrlSyntaxProvider;
+import org.apereo.portal.utils.cache.CacheEntryTag;
+import org.apereo.portal.utils.cache.CompressedOffHeapStore;
+import org.apereo.portal.utils.cache.TaggedCacheEntry;
 import org.apereo.portal.utils.cache.TaggedCacheEntryPurger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,9 +58,26 @@ import org.springframework.web.servlet.support.RequestContextUtils;
 /**
  * Default implementation of {@link IPortletCacheControlService}. {@link CacheControl}s are stored
  * in a {@link Map} stored as a {@link HttpServletRequest} attribute.
+ *
+ * <p>Portlets published with the {@link #STALE_WHILE_REVALIDATE_PARAMETER} parameter keep their
+ * expired output for that many seconds past its expiration. During that window the first request
+ * to find the expired output re-renders the portlet while every other request is served the stale
+ * output instead of also waiting on a render.
+ *
+ * <p>If <code>offHeapTierMaxBytes</code> is set, public scope output is also written compressed to
+ * an off-heap {@link CompressedOffHeapStore} shared by the three public caches. Output evicted from
+ * a public cache is read back from the off-heap tier and promoted into the cache on its next hit.
+ * Output is serialized and compressed into the tier on the <code>uPortalTaskExecutor</code> when it
+ * is available rather than on the rendering thread.
  */
 @Service
 public class PortletCacheControlServiceImpl implements IPortletCacheControlService {
+    /**
+     * Optional publishing parameter, number of seconds expired cached output may still be served
+     * while a single request refreshes it
+     */
+    public static final String STALE_WHILE_REVALIDATE_PARAMETER = "staleWhileRevalidate";
+
     private static final String IF_NONE_MATCH = "If-None-Match";
     private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
 
@@ -73,6 +101,16 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
 
+    // cache key -> time the refresh of the stale data under the key started
+    private final ConcurrentMap<Serializable, Long> revalidationsInProgress =
+            new ConcurrentHashMap<>();
+    private long revalidationTimeout = TimeUnit.MINUTES.toMillis(1);
+
+    private CompressedOffHeapStore<OffHeapTierKey, Serializable> offHeapTier;
+    private ExecutorService offHeapTierExecutor;
+    // Incremented before every off-heap tier purge so a write that raced the purge is dropped
+    private final AtomicLong offHeapTierPurges = new AtomicLong();
+
     @Autowired
     public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
         this.taggedCacheEntryPurger = taggedCacheEntryPurger;
@@ -139,6 +177,34 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheSizeThreshold;
     }
 
+    /**
+     * @param revalidationTimeout Time in ms after which a refresh of stale data that has not
+     *     stored new output is assumed to have failed and another request may retry it
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.revalidationTimeout:60000}")
+    public void setRevalidationTimeout(long revalidationTimeout) {
+        this.revalidationTimeout = revalidationTimeout;
+    }
+
+    /**
+     * @param offHeapTierMaxBytes Maximum compressed bytes of public scope output kept off-heap, 0
+     *     disables the off-heap tier
+     */
+    @Value(
+            "${org.apereo.portal.portlet.container.cache.PortletCacheControlServiceImpl.offHeapTierMaxBytes:0}")
+    public void setOffHeapTierMaxBytes(long offHeapTierMaxBytes) {
+        this.offHeapTier =
+                offHeapTierMaxBytes > 0 ? new CompressedOffHeapStore<>(offHeapTierMaxBytes) : null;
+    }
+
+    /** Writes to the off-heap tier run on the executor, if not set they run on the caller */
+    @Autowired(required = false)
+    public void setOffHeapTierExecutor(
+            @Qualifier("uPortalTaskExecutor") ExecutorService offHeapTierExecutor) {
+        this.offHeapTierExecutor = offHeapTierExecutor;
+    }
+
     @Autowired
     public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
         this.portletWindowRegistry = portletWindowRegistry;
@@ -284,8 +350,11 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 }
             }
 
+            final long now = System.currentTimeMillis();
             final long expirationTime = cachedPortletData.getExpirationTime();
-            if (expirationTime == -1 || expirationTime > System.currentTimeMillis()) {
+            if (expirationTime == -1
+                    || expirationTime > now
+                    || this.isServeStale(cacheState, portletWindow, expirationTime, now)) {
                 // Cached data exists, see if it can be used with no additional work
                 // Cached data is not expired, check if browser data should be used
                 cacheState.setUseCachedData(true);
@@ -332,6 +401,73 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheState;
     }
 
+    /**
+     * Determine if expired cached data should be replayed. True if the data is within the portlet's
+     * stale-while-revalidate window and another request is already refreshing it, otherwise this
+     * request claims the refresh and the portlet is rendered.
+     */
+    protected <D extends CachedPortletResultHolder<T>, T extends Serializable> boolean isServeStale(
+            CacheState<D, T> cacheState,
+            IPortletWindow portletWindow,
+            long expirationTime,
+            long now) {
+
+        final int staleWhileRevalidate = this.getStaleWhileRevalidate(portletWindow);
+        if (staleWhileRevalidate <= 0
+                || expirationTime + TimeUnit.SECONDS.toMillis(staleWhileRevalidate) <= now) {
+            return false;
+        }
+
+        final Serializable cacheKey =
+                cacheState.getPrivatePortletCacheKey() != null
+                        ? cacheState.getPrivatePortletCacheKey()
+                        : cacheState.getPublicPortletCacheKey();
+
+        final Long refreshStarted = this.revalidationsInProgress.putIfAbsent(cacheKey, now);
+        if (refreshStarted == null
+                || (refreshStarted + this.revalidationTimeout < now
+                        && this.revalidationsInProgress.replace(cacheKey, refreshStarted, now))) {
+            logger.debug(
+                    "Refreshing stale cached output with key {} for {}", cacheKey, portletWindow);
+            cacheState.setRevalidationCacheKey(cacheKey);
+            cacheState.setRevalidationStarted(now);
+            return false;
+        }
+
+        logger.debug("Serving stale cached output with key {} for {}", cacheKey, portletWindow);
+        return true;
+    }
+
+    /**
+     * @return The number of seconds past expiration the cached output of the portlet may be served
+     *     while it is refreshed, 0 if the portlet is not published with {@link
+     *     #STALE_WHILE_REVALIDATE_PARAMETER}
+     */
+    protected int getStaleWhileRevalidate(IPortletWindow portletWindow) {
+        final IPortletDefinition portletDefinition =
+                portletWindow.getPortletEntity().getPortletDefinition();
+        if (portletDefinition == null) {
+            return 0;
+        }
+
+        final IPortletDefinitionParameter parameter =
+                portletDefinition.getParameter(STALE_WHILE_REVALIDATE_PARAMETER);
+        if (parameter == null || parameter.getValue() == null) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Integer.parseInt(parameter.getValue().trim()));
+        } catch (NumberFormatException e) {
+            logger.warn(
+                    "Ignoring invalid {} parameter value '{}' on portlet {}",
+                    STALE_WHILE_REVALIDATE_PARAMETER,
+                    parameter.getValue(),
+                    portletDefinition.getFName());
+            return 0;
+        }
+    }
+
     /**
      * Get the cached portlet data looking in both the public and then private caches returning the
      * first found
@@ -359,6 +495,12 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         // Check for publicly cached data
         D cachedPortletData =
                 (D) this.getCachedPortletData(publicCacheKey, publicOutputCache, portletWindow);
+        if (cachedPortletData == null) {
+            cachedPortletData =
+                    (D)
+                            this.getOffHeapPortletData(
+                                    publicCacheKey, publicOutputCache, portletWindow);
+        }
         if (cachedPortletData != null) {
             cacheState.setCachedPortletData(cachedPortletData);
             return cacheState;
@@ -415,6 +557,97 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return (CachedPortletResultHolder<T>) publicCacheElement.getObjectValue();
     }
 
+    /**
+     * Get cached portlet data from the off-heap tier, promoting it back into the cache if found.
+     *
+     * @param cacheKey The cache key
+     * @param outputCache The cache the data was originally stored in
+     * @param portletWindow The portlet window the lookup is for
+     * @return The cache data for the portlet window, null if the off-heap tier does not have it
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends Serializable> CachedPortletResultHolder<T> getOffHeapPortletData(
+            Serializable cacheKey, Ehcache outputCache, IPortletWindow portletWindow) {
+        if (this.offHeapTier == null) {
+            return null;
+        }
+
+        final OffHeapTierKey tierKey = new OffHeapTierKey(outputCache.getName(), cacheKey);
+        final long tierExpirationTime = this.offHeapTier.getExpirationTime(tierKey);
+        final CachedPortletResultHolder<T> cachedPortletData =
+                (CachedPortletResultHolder<T>) this.offHeapTier.get(tierKey);
+        if (cachedPortletData == null) {
+            return null;
+        }
+
+        final Element element = new Element(cacheKey, cachedPortletData);
+        if (tierExpirationTime != Long.MAX_VALUE) {
+            final long remaining = tierExpirationTime - System.currentTimeMillis();
+            final int timeToLive = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remaining));
+            if (timeToLive < outputCache.getCacheConfiguration().getTimeToLiveSeconds()) {
+                element.setTimeToLive(timeToLive);
+            }
+        }
+        outputCache.put(element);
+
+        logger.debug(
+                "Promoted off-heap cached output with key {} for {}", cacheKey, portletWindow);
+        return cachedPortletData;
+    }
+
+    /** Write public output to the off-heap tier, if enabled */
+    protected void storeOffHeapPortletData(
+            Ehcache outputCache,
+            Serializable cacheKey,
+            CachedPortletResultHolder<?> data,
+            int staleWhileRevalidate) {
+        if (this.offHeapTier == null || !(data instanceof Serializable)) {
+            return;
+        }
+
+        final long expirationTime;
+        if (data.getEtag() == null && data.getExpirationTime() > 0) {
+            expirationTime =
+                    data.getExpirationTime()
+                            + TimeUnit.SECONDS.toMillis(Math.max(0, staleWhileRevalidate));
+        } else {
+            // Validation or non-expiring data, keep it as long as the cache would
+            final CacheConfiguration cacheConfiguration = outputCache.getCacheConfiguration();
+            final long lifespan =
+                    Math.max(
+                            cacheConfiguration.getTimeToLiveSeconds(),
+                            cacheConfiguration.getTimeToIdleSeconds());
+            expirationTime =
+                    cacheConfiguration.isEternal() || lifespan <= 0
+                            ? Long.MAX_VALUE
+                            : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lifespan);
+        }
+
+        final CompressedOffHeapStore<OffHeapTierKey, Serializable> offHeapTier = this.offHeapTier;
+        final OffHeapTierKey tierKey = new OffHeapTierKey(outputCache.getName(), cacheKey);
+        final long purges = this.offHeapTierPurges.get();
+        final Runnable write =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        offHeapTier.put(tierKey, (Serializable) data, expirationTime);
+                        if (offHeapTierPurges.get() != purges) {
+                            offHeapTier.remove(tierKey);
+                        }
+                    }
+                };
+
+        if (this.offHeapTierExecutor == null) {
+            write.run();
+            return;
+        }
+        try {
+            this.offHeapTierExecutor.execute(write);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Off-heap tier write rejected, not storing key {}", cacheKey, e);
+        }
+    }
+
     @Override
     public boolean shouldOutputBeCached(CacheControl cacheControl) {
         if (cacheControl.getExpirationTime() != 0) {
@@ -484,10 +717,18 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId);
         final CacheControl cacheControl = cacheState.getCacheControl();
+        final int staleWhileRevalidate = this.getStaleWhileRevalidate(portletWindow);
 
         if (cacheControl.isPublicScope()) {
             final PublicPortletCacheKey publicCacheKey = cacheState.getPublicPortletCacheKey();
-            this.cacheElement(publicOutputCache, publicCacheKey, cachedPortletData, cacheControl);
+            this.cacheElement(
+                    publicOutputCache,
+                    publicCacheKey,
+                    cachedPortletData,
+                    cacheControl,
+                    staleWhileRevalidate);
+            this.storeOffHeapPortletData(
+                    publicOutputCache, publicCacheKey, cachedPortletData, staleWhileRevalidate);
             logger.debug("Cached public data under key {} for {}", publicCacheKey, portletWindow);
         } else {
             PrivatePortletCacheKey privateCacheKey = cacheState.getPrivatePortletCacheKey();
@@ -504,9 +745,30 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                                 sessionId, portletWindowId, entityId, publicCacheKey);
             }
 
-            this.cacheElement(privateOutputCache, privateCacheKey, cachedPortletData, cacheControl);
+            this.cacheElement(
+                    privateOutputCache,
+                    privateCacheKey,
+                    cachedPortletData,
+                    cacheControl,
+                    staleWhileRevalidate);
             logger.debug("Cached private data under key {} for {}", privateCacheKey, portletWindow);
         }
+
+        // Fresh data is stored, let the next expiration be refreshed
+        this.releaseRevalidation(cacheState);
+    }
+
+    @Override
+    public void releaseRevalidation(CacheState<?, ?> cacheState) {
+        final Serializable revalidationCacheKey = cacheState.getRevalidationCacheKey();
+        if (revalidationCacheKey == null) {
+            return;
+        }
+
+        // Only remove our own claim, it may have been taken over after revalidationTimeout
+        this.revalidationsInProgress.remove(
+                revalidationCacheKey, cacheState.getRevalidationStarted());
+        cacheState.setRevalidationCacheKey(null);
     }
 
     /**
@@ -519,6 +781,20 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             Serializable cacheKey,
             CachedPortletResultHolder<?> data,
             CacheControl cacheControl) {
+        this.cacheElement(cache, cacheKey, data, cacheControl, 0);
+    }
+
+    /**
+     * Same as {@link #cacheElement(Ehcache, Serializable, CachedPortletResultHolder, CacheControl)}
+     * but keeps an element with a positive expiration in the cache for an additional
+     * staleWhileRevalidate seconds so it can be served while it is refreshed.
+     */
+    protected void cacheElement(
+            Ehcache cache,
+            Serializable cacheKey,
+            CachedPortletResultHolder<?> data,
+            CacheControl cacheControl,
+            int staleWhileRevalidate) {
         // using validation method, ignore expirationTime and defer to cache configuration
         if (cacheControl.getETag() != null) {
             final Element element = new Element(cacheKey, data);
@@ -535,13 +811,14 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             return;
         }
 
-        // using expiration method with a positive expiration, set that value as the element's TTL
-        // if it is lower than the configured cache TTL
+        // using expiration method with a positive expiration, set that value plus the stale window
+        // as the element's TTL if it is lower than the configured cache TTL
         final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
         final Element element = new Element(cacheKey, data);
         final long cacheTTL = cacheConfiguration.getTimeToLiveSeconds();
-        if (expirationTime < cacheTTL) {
-            element.setTimeToLive(expirationTime);
+        final int elementTTL = expirationTime + Math.max(0, staleWhileRevalidate);
+        if (elementTTL < cacheTTL) {
+            element.setTimeToLive(elementTTL);
         }
         cache.put(element);
     }
@@ -558,9 +835,12 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         int purgeCount = 0;
 
         // Remove all publicly cached data
-        purgeCount +=
-                this.taggedCacheEntryPurger.purgeCacheEntries(
-                        PublicPortletCacheKey.createTag(definitionId));
+        final CacheEntryTag publicTag = PublicPortletCacheKey.createTag(definitionId);
+        purgeCount += this.taggedCacheEntryPurger.purgeCacheEntries(publicTag);
+        if (this.offHeapTier != null) {
+            this.offHeapTierPurges.incrementAndGet();
+            purgeCount += this.offHeapTier.removeIf(tierKey -> tierKey.hasTag(publicTag));
+        }
 
         // Remove all privately cached data
         purgeCount +=
@@ -571,4 +851,44 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 
         return purgeCount != 0;
     }
+
+    /** Key for the off-heap tier, the same cache key may be used in more than one cache */
+    private static final class OffHeapTierKey {
+        private final String cacheName;
+        private final Serializable cacheKey;
+        private final int hash;
+
+        OffHeapTierKey(String cacheName, Serializable cacheKey) {
+            this.cacheName = cacheName;
+            this.cacheKey = cacheKey;
+            this.hash = 31 * cacheName.hashCode() + cacheKey.hashCode();
+        }
+
+        boolean hasTag(CacheEntryTag tag) {
+            return this.cacheKey instanceof TaggedCacheEntry
+                    && ((TaggedCacheEntry) this.cacheKey).getTags().contains(tag);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof OffHeapTierKey)) {
+                return false;
+            }
+            final OffHeapTierKey other = (OffHeapTierKey) obj;
+            return this.cacheName.equals(other.cacheName) && this.cacheKey.equals(other.cacheKey);
+        }
+
+        @Override
+        public String toString() {
+            return this.cacheName + ":" + this.cacheKey;
+        }
+    }
 }
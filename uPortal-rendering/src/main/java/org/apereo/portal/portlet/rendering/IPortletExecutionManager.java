@@ -14,6 +14,7 @@
  */
 package org.apereo.portal.portlet.rendering;
 
+import java.util.Collection;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apereo.portal.portlet.om.IPortletWindowId;
@@ -94,6 +95,40 @@ public interface IPortletExecutionManager {
             HttpServletRequest request,
             HttpServletResponse response);
 
+    /**
+     * @return true if getting the HEAD output for the specified portlet will not block waiting on
+     *     the portlet to render.
+     */
+    boolean isPortletRenderHeaderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
+    /**
+     * @return true if the specified portlet has been requested to render it's output for the BODY
+     *     during this request and that rendering is complete, getting the output or render results
+     *     will not block.
+     */
+    boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response);
+
+    /**
+     * Wait for the first of the specified portlets to complete rendering its BODY output. A
+     * portlet that has not been requested to render is returned immediately, getting its output
+     * renders it without waiting on another thread.
+     *
+     * @param timeout Maximum time in milliseconds to wait
+     * @return The first of the portlets to complete, null if none completed within the timeout
+     */
+    IPortletWindowId waitForPortletRenderComplete(
+            Collection<IPortletWindowId> portletWindowIds,
+            long timeout,
+            HttpServletRequest request,
+            HttpServletResponse response)
+            throws InterruptedException;
+
     /**
      * @param portletWindowId
      * @param request
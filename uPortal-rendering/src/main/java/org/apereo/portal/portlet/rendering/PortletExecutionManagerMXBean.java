@@ -53,4 +53,43 @@ public interface PortletExecutionManagerMXBean {
 
     /** @return Number of times each portlet has been executed */
     Map<String, Integer> getPortletExecutionCounts();
+
+    /**
+     * @param circuitBreakerEnabled If true portlets that keep failing or timing out are not
+     *     rendered until their circuit closes again
+     */
+    void setCircuitBreakerEnabled(boolean circuitBreakerEnabled);
+
+    /** @return If true portlets that keep failing or timing out are not rendered */
+    boolean isCircuitBreakerEnabled();
+
+    /**
+     * @param circuitBreakerFailureRateThreshold Share of recent executions, between 0 and 1, that
+     *     must fail for a portlet's circuit to open
+     */
+    void setCircuitBreakerFailureRateThreshold(double circuitBreakerFailureRateThreshold);
+
+    /** @return Share of recent executions that must fail for a portlet's circuit to open */
+    double getCircuitBreakerFailureRateThreshold();
+
+    /** @param circuitBreakerOpenDuration Time in ms a circuit stays open before a probe */
+    void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration);
+
+    /** @return Time in ms a circuit stays open before a probe */
+    long getCircuitBreakerOpenDuration();
+
+    /**
+     * @param adaptiveTimeoutMultiplier Multiplier applied to a portlet's recent 99th percentile
+     *     render time to cap its render timeout, 0 disables adaptive timeouts
+     */
+    void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier);
+
+    /** @return Multiplier applied to a portlet's recent 99th percentile render time */
+    double getAdaptiveTimeoutMultiplier();
+
+    /** @return Circuit state, failure rate and render time percentiles of each portlet */
+    Map<String, String> getPortletCircuitBreakerStates();
+
+    /** Discard the tracked state of every portlet's circuit, closing all circuits */
+    void resetPortletCircuitBreakers();
 }
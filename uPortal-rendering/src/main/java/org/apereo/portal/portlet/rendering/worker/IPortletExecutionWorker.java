@@ -51,4 +51,17 @@ public interface IPortletExecutionWorker<V> extends IPortletExecutionContext {
 
     /** @return true If {@link #get(long)} has been called */
     public boolean isRetrieved();
+
+    /**
+     * Register a callback that is run once the worker's execution completes, successfully or not.
+     * If the execution is already complete the callback is run immediately in the calling thread,
+     * otherwise it runs in the thread that executed the worker and must not block.
+     */
+    public void addCompletionListener(Runnable listener);
+
+    /**
+     * Remove a callback registered with {@link #addCompletionListener(Runnable)} that has not run
+     * yet, does nothing if the callback already ran or was never registered.
+     */
+    public void removeCompletionListener(Runnable listener);
 }
@@ -0,0 +1,58 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+/**
+ * Order in which queued portlet workers are started when the portlet thread pool is saturated,
+ * earlier constants are started first. The priority of a worker is stored as the {@link
+ * #PRIORITY_ATTRIBUTE} execution attribute by {@link PortletExecutionPriorityInterceptor}.
+ */
+public enum PortletExecutionPriority {
+    /** Actions, events and the focused, maximized or targeted portlet */
+    INTERACTIVE,
+    /**
+     * Portlet header rendering, ahead of {@link #ABOVE_FOLD} and {@link #PAGE} as the page is not
+     * written until the &lt;head&gt; output of every portlet on it is available
+     */
+    HEADER,
+    /** Portlets at the top of the columns and top regions of the page, visible without scrolling */
+    ABOVE_FOLD,
+    /**
+     * Other portlets rendered on the page. Only the portlets of the active tab are rendered for a
+     * page, the structure transform leaves out the other tabs
+     */
+    PAGE,
+    /** Resource requests made by the page after it has loaded */
+    BACKGROUND;
+
+    /** Execution attribute holding the {@link PortletExecutionPriority} of a worker */
+    public static final String PRIORITY_ATTRIBUTE =
+            PortletExecutionPriority.class.getName() + ".PRIORITY";
+
+    /**
+     * Execution attribute holding an Integer identifying the user the worker runs for, queued
+     * workers of the same priority are started round-robin across users
+     */
+    public static final String FAIRNESS_KEY_ATTRIBUTE =
+            PortletExecutionPriority.class.getName() + ".FAIRNESS_KEY";
+
+    /**
+     * Request attribute holding the Set of portlet window ids of the portlets rendered above the
+     * fold, filled in by {@link
+     * org.apereo.portal.rendering.PortletRenderingInitiationStAXComponent}
+     */
+    public static final String ABOVE_FOLD_ATTRIBUTE =
+            PortletExecutionPriority.class.getName() + ".ABOVE_FOLD";
+}
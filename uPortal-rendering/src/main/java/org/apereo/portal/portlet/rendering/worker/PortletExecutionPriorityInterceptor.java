@@ -0,0 +1,121 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.Set;
+import javax.portlet.WindowState;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.url.IPortalRequestInfo;
+import org.apereo.portal.url.IUrlSyntaxProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Assigns a {@link PortletExecutionPriority} and fairness key to each worker before it is
+ * submitted, used by {@link PortletWorkerPriorityQueue} to order queued workers.
+ */
+@Service("PortletExecutionPriorityInterceptor")
+public class PortletExecutionPriorityInterceptor extends PortletExecutionInterceptorAdaptor {
+    private IPortletWindowRegistry portletWindowRegistry;
+    private IUrlSyntaxProvider urlSyntaxProvider;
+
+    @Autowired
+    public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
+        this.portletWindowRegistry = portletWindowRegistry;
+    }
+
+    @Autowired
+    public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
+        this.urlSyntaxProvider = urlSyntaxProvider;
+    }
+
+    @Override
+    public void preSubmit(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            IPortletExecutionContext context) {
+        context.setExecutionAttribute(
+                PortletExecutionPriority.PRIORITY_ATTRIBUTE, this.getPriority(request, context));
+        context.setExecutionAttribute(
+                PortletExecutionPriority.FAIRNESS_KEY_ATTRIBUTE, this.getFairnessKey(request));
+    }
+
+    protected PortletExecutionPriority getPriority(
+            HttpServletRequest request, IPortletExecutionContext context) {
+        switch (context.getExecutionType()) {
+            case ACTION:
+            case EVENT:
+                return PortletExecutionPriority.INTERACTIVE;
+            case RENDER_HEADER:
+                return PortletExecutionPriority.HEADER;
+            case RESOURCE:
+                return PortletExecutionPriority.BACKGROUND;
+            default:
+                {
+                    final IPortletWindowId portletWindowId = context.getPortletWindowId();
+                    if (this.isFocused(request, portletWindowId)) {
+                        return PortletExecutionPriority.INTERACTIVE;
+                    }
+                    return this.isAboveTheFold(request, portletWindowId)
+                            ? PortletExecutionPriority.ABOVE_FOLD
+                            : PortletExecutionPriority.PAGE;
+                }
+        }
+    }
+
+    /** @return true if the page rendering the portlet places it above the fold */
+    protected boolean isAboveTheFold(HttpServletRequest request, IPortletWindowId portletWindowId) {
+        final Object aboveTheFold =
+                request.getAttribute(PortletExecutionPriority.ABOVE_FOLD_ATTRIBUTE);
+        return aboveTheFold instanceof Set && ((Set<?>) aboveTheFold).contains(portletWindowId);
+    }
+
+    /** @return true if the portlet is targeted by the request or not rendered in a normal state */
+    protected boolean isFocused(HttpServletRequest request, IPortletWindowId portletWindowId) {
+        final IPortalRequestInfo portalRequestInfo =
+                this.urlSyntaxProvider.getPortalRequestInfo(request);
+        if (portalRequestInfo != null
+                && portletWindowId.equals(portalRequestInfo.getTargetedPortletWindowId())) {
+            return true;
+        }
+
+        final IPortletWindow portletWindow =
+                this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
+        if (portletWindow == null) {
+            return false;
+        }
+
+        final WindowState windowState = portletWindow.getWindowState();
+        return windowState != null
+                && !WindowState.NORMAL.equals(windowState)
+                && !WindowState.MINIMIZED.equals(windowState);
+    }
+
+    /** @return Identifies the user the request is for, the session if there is one */
+    protected Integer getFairnessKey(HttpServletRequest request) {
+        final HttpSession session = request.getSession(false);
+        if (session != null) {
+            return session.getId().hashCode();
+        }
+
+        final String remoteAddr = request.getRemoteAddr();
+        return remoteAddr != null ? remoteAddr.hashCode() : 0;
+    }
+}
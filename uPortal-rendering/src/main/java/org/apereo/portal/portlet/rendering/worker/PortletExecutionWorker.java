@@ -16,6 +16,7 @@ package org.apereo.portal.portlet.rendering.worker;
 
 import com.google.common.util.concurrent.Futures;
 import java.lang.Thread.State;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -48,6 +49,7 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
 
     private final Map<String, Object> executionAttributes = new ConcurrentHashMap<String, Object>();
     private final CountDownLatch startLatch = new CountDownLatch(1);
+    private final List<Runnable> completionListeners = new ArrayList<Runnable>();
     private final ExecutorService executorService;
     private final List<IPortletExecutionInterceptor> interceptors;
     final IPortletRenderer portletRenderer;
@@ -256,6 +258,20 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
 
     private void executionComplete() {
         complete = System.currentTimeMillis();
+
+        final List<Runnable> listeners;
+        synchronized (this.completionListeners) {
+            listeners = new ArrayList<Runnable>(this.completionListeners);
+            this.completionListeners.clear();
+        }
+        for (final Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (Throwable t) {
+                logger.error("Completion listener threw exception for {}", this, t);
+            }
+        }
+
         if (logger.isDebugEnabled()) {
             logger.debug(
                     "Execution complete on portlet "
@@ -307,6 +323,25 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         return this.retrieved;
     }
 
+    @Override
+    public void addCompletionListener(Runnable listener) {
+        synchronized (this.completionListeners) {
+            // complete is set before the listeners are copied so an added listener is never missed
+            if (this.complete == 0) {
+                this.completionListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    @Override
+    public void removeCompletionListener(Runnable listener) {
+        synchronized (this.completionListeners) {
+            this.completionListeners.remove(listener);
+        }
+    }
+
     @Override
     public final long waitForStart(long timeout) throws InterruptedException {
         // Wait for start Callable to start
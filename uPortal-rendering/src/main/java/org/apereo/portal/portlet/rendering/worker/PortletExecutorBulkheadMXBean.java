@@ -0,0 +1,46 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+/** JMX stats for PortletExecutorBulkhead */
+public interface PortletExecutorBulkheadMXBean {
+
+    /** @return Name of the bulkhead */
+    String getName();
+
+    /** @return Number of threads actively executing portlets */
+    int getActiveCount();
+
+    /** @return Number of threads currently in the pool */
+    int getPoolSize();
+
+    /** @return Maximum number of threads in the pool */
+    int getMaxPoolSize();
+
+    /** @return Number of workers waiting for a thread */
+    int getQueueSize();
+
+    /** @return Number of workers that have completed on the bulkhead */
+    long getCompletedTaskCount();
+
+    /** @return Number of workers the bulkhead had no room for */
+    long getRejectedCount();
+
+    /** @return Number of rejected workers that ran on the shared portlet thread pool instead */
+    long getOverflowCount();
+
+    /** @return What happens to workers the bulkhead has no room for */
+    String getSaturationPolicyName();
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
+
+/**
+ * Creates the portlet thread pool. When <code>prioritized</code> is true and the pool has a queue
+ * (<code>queueCapacity</code> greater than 0) workers that can't get a thread right away wait in a
+ * {@link PortletWorkerPriorityQueue} instead of a FIFO queue.
+ *
+ * <p>Note that a {@link ThreadPoolExecutor} only queues once <code>corePoolSize</code> threads are
+ * busy and only grows past it when the queue is full, so prioritization only has an effect once
+ * the core threads are saturated.
+ */
+public class PortletThreadPoolExecutorFactoryBean extends ThreadPoolExecutorFactoryBean {
+    private static final long serialVersionUID = 1L;
+
+    private boolean prioritized = false;
+    private int fairnessBuckets = 64;
+
+    /** If true queued workers are started by priority, defaults to false */
+    public void setPrioritized(boolean prioritized) {
+        this.prioritized = prioritized;
+    }
+
+    /** Number of buckets users are spread across for fairness, defaults to 64 */
+    public void setFairnessBuckets(int fairnessBuckets) {
+        this.fairnessBuckets = fairnessBuckets;
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> createQueue(int queueCapacity) {
+        if (this.prioritized && queueCapacity > 0) {
+            return new PortletWorkerPriorityQueue(queueCapacity, this.fairnessBuckets);
+        }
+        return super.createQueue(queueCapacity);
+    }
+
+    @Override
+    protected ThreadPoolExecutor createExecutor(
+            int corePoolSize,
+            int maxPoolSize,
+            int keepAliveSeconds,
+            BlockingQueue<Runnable> queue,
+            ThreadFactory threadFactory,
+            RejectedExecutionHandler rejectedExecutionHandler) {
+
+        return new ThreadPoolExecutor(
+                corePoolSize,
+                maxPoolSize,
+                keepAliveSeconds,
+                TimeUnit.SECONDS,
+                queue,
+                threadFactory,
+                rejectedExecutionHandler) {
+
+            /*
+             * Portlet workers submit a PortletExecutionCallable which is already a FutureTask,
+             * queue it directly so the priority queue can see which worker it is for
+             */
+            @SuppressWarnings("unchecked")
+            @Override
+            protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+                if (callable instanceof RunnableFuture
+                        && callable instanceof IPortletExecutionContext) {
+                    return (RunnableFuture<T>) callable;
+                }
+                return super.newTaskFor(callable);
+            }
+        };
+    }
+}
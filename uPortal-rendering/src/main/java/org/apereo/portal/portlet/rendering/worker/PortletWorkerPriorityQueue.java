@@ -0,0 +1,85 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import org.apereo.portal.utils.threading.QualityOfServiceBlockingQueue;
+
+/**
+ * Work queue for the portlet thread pool that starts queued workers by {@link
+ * PortletExecutionPriority} and, within a priority, round-robin across users so one user's page
+ * full of portlets does not hold up everyone else's.
+ *
+ * <p>Users are hashed into a fixed number of fairness buckets which keeps the number of sub-queues
+ * bounded. Elements that are not portlet workers are queued with {@link
+ * PortletExecutionPriority#PAGE} priority in the first bucket.
+ */
+public class PortletWorkerPriorityQueue extends QualityOfServiceBlockingQueue<Integer, Runnable> {
+    private static final PortletExecutionPriority[] PRIORITIES = PortletExecutionPriority.values();
+
+    private final int fairnessBuckets;
+    private final int[] nextBucket = new int[PRIORITIES.length];
+
+    /**
+     * @param capacity Maximum number of queued workers
+     * @param fairnessBuckets Number of buckets users are spread across within each priority
+     */
+    public PortletWorkerPriorityQueue(int capacity, int fairnessBuckets) {
+        super(capacity);
+        if (fairnessBuckets < 1) {
+            throw new IllegalArgumentException("fairnessBuckets must be greater than 0");
+        }
+        this.fairnessBuckets = fairnessBuckets;
+    }
+
+    @Override
+    protected Integer getElementKey(Runnable e) {
+        PortletExecutionPriority priority = PortletExecutionPriority.PAGE;
+        int bucket = 0;
+
+        if (e instanceof IPortletExecutionContext) {
+            final IPortletExecutionContext context = (IPortletExecutionContext) e;
+            final Object priorityAttribute =
+                    context.getExecutionAttribute(PortletExecutionPriority.PRIORITY_ATTRIBUTE);
+            if (priorityAttribute instanceof PortletExecutionPriority) {
+                priority = (PortletExecutionPriority) priorityAttribute;
+            }
+
+            final Object fairnessKey =
+                    context.getExecutionAttribute(PortletExecutionPriority.FAIRNESS_KEY_ATTRIBUTE);
+            if (fairnessKey instanceof Integer) {
+                bucket = Math.abs((Integer) fairnessKey % this.fairnessBuckets);
+            }
+        }
+
+        return priority.ordinal() * this.fairnessBuckets + bucket;
+    }
+
+    @Override
+    protected Integer getNextElementKey() {
+        for (int priority = 0; priority < PRIORITIES.length; priority++) {
+            final int firstBucket = this.nextBucket[priority];
+            for (int i = 0; i < this.fairnessBuckets; i++) {
+                final int bucket = (firstBucket + i) % this.fairnessBuckets;
+                final Integer key = priority * this.fairnessBuckets + bucket;
+                if (!this.isKeyEmpty(key)) {
+                    this.nextBucket[priority] = (bucket + 1) % this.fairnessBuckets;
+                    return key;
+                }
+            }
+        }
+
+        throw new IllegalStateException("getNextElementKey called on an empty queue");
+    }
+}
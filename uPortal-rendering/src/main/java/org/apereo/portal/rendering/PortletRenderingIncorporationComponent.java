@@ -14,32 +14,74 @@
  */
 package org.apereo.portal.rendering;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.CharacterEventReaderDelegate;
 import org.apereo.portal.character.stream.FilteringCharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
 import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
 import org.apereo.portal.character.stream.events.PortletContentPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletHeaderPlaceholderEvent;
 import org.apereo.portal.character.stream.events.PortletLinkPlaceholderEvent;
-import org.apereo.portal.character.stream.events.PortletNewItemCountPlaceholderEvent;
-import org.apereo.portal.character.stream.events.PortletTitlePlaceholderEvent;
+import org.apereo.portal.character.stream.events.PortletPlaceholderEvent;
 import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
 
-/** Inserts the results of portlet's rendering into the character stream */
+/**
+ * Inserts the results of portlet's rendering into the character stream
+ *
+ * <p>When progressive rendering is enabled the output of a portlet that is still rendering in a
+ * worker when its placeholder is reached is not waited for. An empty placeholder element is written
+ * for its content and a <code>{up-progressive-value-N}</code> token for its title, new item count
+ * and link, which may be used in attributes or the page title, and the rest of the page is sent to
+ * the client. Before the closing <code>body</code> tag the deferred portlets are written in the
+ * order they finish rendering, each followed by a small script that moves the content into its
+ * placeholder and replaces its tokens. Portlets that were never started in a worker are rendered in
+ * place as before.
+ */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    private static final String PLACEHOLDER_ID_PREFIX = "up-progressive-";
+    private static final String CONTENT_ID_PREFIX = "up-progressive-content-";
+    private static final String VALUE_TOKEN_PREFIX = "{up-progressive-value-";
+    private static final String BODY_END_TAG = "</body";
+
     private IPortletExecutionManager portletExecutionManager;
+    private boolean progressiveRendering = false;
+    private long progressiveCompletionWait = 1000;
 
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
     }
 
+    /**
+     * If true portlet output that is not ready when its placeholder is reached is written before
+     * the end of the body as it completes instead of blocking the rest of the page, defaults to
+     * false.
+     */
+    public void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
+    }
+
+    /**
+     * Maximum time in milliseconds to wait for the next deferred portlet to complete before
+     * waiting on the oldest one, defaults to 1000. The wait on the portlet itself is bounded by
+     * the normal portlet render timeout.
+     */
+    public void setProgressiveCompletionWait(long progressiveCompletionWait) {
+        this.progressiveCompletionWait = progressiveCompletionWait;
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -61,26 +103,145 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
         final PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader =
                 this.wrappedComponent.getEventReader(request, response);
 
-        final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
-        final PortletIncorporatingEventReader portletIncorporatingEventReader =
-                new PortletIncorporatingEventReader(eventReader, request, response);
+        CharacterEventReader eventReader = pipelineEventReader.getEventReader();
+        DeferredPortlets deferredPortlets = null;
+        if (this.progressiveRendering) {
+            // Below the portlet output so only the theme markup is searched for the body end
+            deferredPortlets = new DeferredPortlets();
+            eventReader =
+                    new DeferredPortletEventReader(
+                            eventReader, request, response, deferredPortlets);
+        }
+        final CharacterEventReader portletIncorporatingEventReader =
+                new PortletIncorporatingEventReader(
+                        eventReader, request, response, deferredPortlets);
 
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
         return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
                 portletIncorporatingEventReader, outputProperties);
     }
 
+    /** @return The title, new item count or link the placeholder stands for */
+    private String getPortletValue(
+            PortletPlaceholderEvent placeholderEvent,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final IPortletWindowId portletWindowId = placeholderEvent.getPortletWindowId();
+        switch (placeholderEvent.getEventType()) {
+            case PORTLET_TITLE:
+                {
+                    return portletExecutionManager.getPortletTitle(
+                            portletWindowId, request, response);
+                }
+            case PORTLET_NEW_ITEM_COUNT:
+                {
+                    final int newItemCount =
+                            portletExecutionManager.getPortletNewItemCount(
+                                    portletWindowId, request, response);
+                    return String.valueOf(newItemCount);
+                }
+            case PORTLET_LINK:
+                {
+                    final String defaultPortletUrl =
+                            ((PortletLinkPlaceholderEvent) placeholderEvent)
+                                    .getDefaultPortletUrl();
+                    return portletExecutionManager.getPortletLink(
+                            portletWindowId, defaultPortletUrl, request, response);
+                }
+            default:
+                {
+                    throw new IllegalArgumentException(
+                            "Unsupported placeholder event: " + placeholderEvent);
+                }
+        }
+    }
+
+    /** @return Index of the last closing body tag in the data, -1 if there is none */
+    private static int lastIndexOfBodyEnd(String data) {
+        for (int i = data.length() - BODY_END_TAG.length(); i >= 0; i--) {
+            if (data.regionMatches(true, i, BODY_END_TAG, 0, BODY_END_TAG.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Ids used in the generated markup, window ids are already safe but never trust that */
+    private static String getProgressiveId(IPortletWindowId portletWindowId) {
+        return portletWindowId.getStringId().replaceAll("[^A-Za-z0-9_.-]", "_");
+    }
+
+    /** Portlet output deferred during one request, in the order the portlets were deferred */
+    private static class DeferredPortlets {
+        private final Map<IPortletWindowId, DeferredPortlet> portlets = new LinkedHashMap<>();
+        private int valueCount = 0;
+
+        public boolean isEmpty() {
+            return this.portlets.isEmpty();
+        }
+
+        public Collection<IPortletWindowId> getPortletWindowIds() {
+            return this.portlets.keySet();
+        }
+
+        public void addContent(IPortletWindowId portletWindowId) {
+            this.getDeferredPortlet(portletWindowId).content = true;
+        }
+
+        /** @return The token written in place of the value */
+        public String addValue(PortletPlaceholderEvent placeholderEvent) {
+            final String token = VALUE_TOKEN_PREFIX + this.valueCount++ + "}";
+            this.getDeferredPortlet(placeholderEvent.getPortletWindowId())
+                    .values
+                    .put(token, placeholderEvent);
+            return token;
+        }
+
+        /** @return The deferred portlet, the oldest one if the window id is null or unknown */
+        public DeferredPortlet remove(IPortletWindowId portletWindowId) {
+            final DeferredPortlet deferredPortlet =
+                    portletWindowId != null ? this.portlets.remove(portletWindowId) : null;
+            if (deferredPortlet != null) {
+                return deferredPortlet;
+            }
+
+            final Iterator<DeferredPortlet> deferredPortletItr = this.portlets.values().iterator();
+            final DeferredPortlet oldest = deferredPortletItr.next();
+            deferredPortletItr.remove();
+            return oldest;
+        }
+
+        private DeferredPortlet getDeferredPortlet(IPortletWindowId portletWindowId) {
+            return this.portlets.computeIfAbsent(portletWindowId, DeferredPortlet::new);
+        }
+    }
+
+    private static class DeferredPortlet {
+        private final IPortletWindowId portletWindowId;
+        /** If the content placeholder was written */
+        private boolean content = false;
+        /** Placeholders of the title, new item count and link by the token written for them */
+        private final Map<String, PortletPlaceholderEvent> values = new LinkedHashMap<>();
+
+        public DeferredPortlet(IPortletWindowId portletWindowId) {
+            this.portletWindowId = portletWindowId;
+        }
+    }
+
     private class PortletIncorporatingEventReader extends FilteringCharacterEventReader {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
+        private final DeferredPortlets deferredPortlets;
 
         public PortletIncorporatingEventReader(
                 CharacterEventReader delegate,
                 HttpServletRequest request,
-                HttpServletResponse response) {
+                HttpServletResponse response,
+                DeferredPortlets deferredPortlets) {
             super(delegate);
             this.request = request;
             this.response = response;
+            this.deferredPortlets = deferredPortlets;
         }
 
         @Override
@@ -93,6 +254,11 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                         final IPortletWindowId portletWindowId =
                                 headerPlaceholderEvent.getPortletWindowId();
 
+                        if (!portletExecutionManager.isPortletRenderHeaderComplete(
+                                portletWindowId, this.request, this.response)) {
+                            RenderingOutputFlushUtils.flushOutput(this.request);
+                        }
+
                         final String output =
                                 portletExecutionManager.getPortletHeadOutput(
                                         portletWindowId, this.request, this.response);
@@ -106,6 +272,17 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                         final IPortletWindowId portletWindowId =
                                 contentPlaceholderEvent.getPortletWindowId();
 
+                        if (this.isDeferrable(portletWindowId)) {
+                            this.deferredPortlets.addContent(portletWindowId);
+                            return CharacterDataEventImpl.create(
+                                    "<div id=\""
+                                            + PLACEHOLDER_ID_PREFIX
+                                            + getProgressiveId(portletWindowId)
+                                            + "\" class=\"up-progressive-placeholder\"></div>");
+                        }
+
+                        this.flushIfRenderIncomplete(portletWindowId);
+
                         final String output =
                                 portletExecutionManager.getPortletOutput(
                                         portletWindowId, this.request, this.response);
@@ -113,48 +290,23 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                         return CharacterDataEventImpl.create(output);
                     }
                 case PORTLET_TITLE:
-                    {
-                        final PortletTitlePlaceholderEvent titlePlaceholderEvent =
-                                (PortletTitlePlaceholderEvent) event;
-                        final IPortletWindowId portletWindowId =
-                                titlePlaceholderEvent.getPortletWindowId();
-
-                        final String title =
-                                portletExecutionManager.getPortletTitle(
-                                        portletWindowId, this.request, this.response);
-
-                        return CharacterDataEventImpl.create(title);
-                    }
                 case PORTLET_NEW_ITEM_COUNT:
+                case PORTLET_LINK:
                     {
-                        final PortletNewItemCountPlaceholderEvent newItemCountPlaceholderEvent =
-                                (PortletNewItemCountPlaceholderEvent) event;
+                        final PortletPlaceholderEvent placeholderEvent =
+                                (PortletPlaceholderEvent) event;
                         final IPortletWindowId portletWindowId =
-                                newItemCountPlaceholderEvent.getPortletWindowId();
+                                placeholderEvent.getPortletWindowId();
 
-                        final int newItemCount =
-                                portletExecutionManager.getPortletNewItemCount(
-                                        portletWindowId, this.request, this.response);
+                        if (this.isDeferrable(portletWindowId)) {
+                            return CharacterDataEventImpl.create(
+                                    this.deferredPortlets.addValue(placeholderEvent));
+                        }
 
-                        return CharacterDataEventImpl.create(String.valueOf(newItemCount));
-                    }
-                case PORTLET_LINK:
-                    {
-                        final PortletLinkPlaceholderEvent linkPlaceholderEvent =
-                                (PortletLinkPlaceholderEvent) event;
-                        final IPortletWindowId portletWindowId =
-                                linkPlaceholderEvent.getPortletWindowId();
-                        final String defaultPortletUrl =
-                                linkPlaceholderEvent.getDefaultPortletUrl();
-
-                        final String link =
-                                portletExecutionManager.getPortletLink(
-                                        portletWindowId,
-                                        defaultPortletUrl,
-                                        this.request,
-                                        this.response);
-
-                        return CharacterDataEventImpl.create(link);
+                        this.flushIfRenderIncomplete(portletWindowId);
+
+                        return CharacterDataEventImpl.create(
+                                getPortletValue(placeholderEvent, this.request, this.response));
                     }
                 default:
                     {
@@ -162,5 +314,199 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                     }
             }
         }
+
+        /** Only portlets rendering in a worker are deferred, others render in place */
+        private boolean isDeferrable(IPortletWindowId portletWindowId) {
+            return this.deferredPortlets != null
+                    && portletExecutionManager.isPortletRenderRequested(
+                            portletWindowId, this.request, this.response)
+                    && !portletExecutionManager.isPortletRenderComplete(
+                            portletWindowId, this.request, this.response);
+        }
+
+        /**
+         * Retrieving the render results of a portlet that is still executing blocks, send the
+         * output buffered so far to the client before waiting.
+         */
+        private void flushIfRenderIncomplete(IPortletWindowId portletWindowId) {
+            if (!portletExecutionManager.isPortletRenderComplete(
+                    portletWindowId, this.request, this.response)) {
+                RenderingOutputFlushUtils.flushOutput(this.request);
+            }
+        }
+    }
+
+    /**
+     * Writes the output of the portlets deferred by {@link PortletIncorporatingEventReader} in the
+     * order the portlets complete. It reads the theme markup, before the portlet output is
+     * incorporated. The fill-ins are inserted before the closing <code>body</code> tag, or appended
+     * to the page if there is none.
+     */
+    private class DeferredPortletEventReader extends CharacterEventReaderDelegate {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final DeferredPortlets deferredPortlets;
+        /** Next event to return, already read from upstream or generated */
+        private CharacterEvent nextEvent;
+        /** Data from the closing body tag on, returned once all fill-ins are written */
+        private CharacterEvent bodyEndEvent;
+
+        public DeferredPortletEventReader(
+                CharacterEventReader delegate,
+                HttpServletRequest request,
+                HttpServletResponse response,
+                DeferredPortlets deferredPortlets) {
+            super(delegate);
+            this.request = request;
+            this.response = response;
+            this.deferredPortlets = deferredPortlets;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.peek() != null;
+        }
+
+        @Override
+        public CharacterEvent next() {
+            final CharacterEvent event = this.peek();
+            if (event == null) {
+                throw new NoSuchElementException();
+            }
+            this.nextEvent = null;
+            return event;
+        }
+
+        @Override
+        public CharacterEvent peek() {
+            if (this.nextEvent != null) {
+                return this.nextEvent;
+            }
+
+            // Fill-ins go before the body end, or at the end of the page if it was not found
+            if (!this.deferredPortlets.isEmpty()
+                    && (this.bodyEndEvent != null || !super.hasNext())) {
+                this.nextEvent = this.createFillIn();
+                return this.nextEvent;
+            }
+
+            if (this.bodyEndEvent != null) {
+                this.nextEvent = this.bodyEndEvent;
+                this.bodyEndEvent = null;
+                return this.nextEvent;
+            }
+
+            if (!super.hasNext()) {
+                return null;
+            }
+
+            final CharacterEvent event = super.next();
+            if (!this.deferredPortlets.isEmpty() && event instanceof CharacterDataEvent) {
+                final String data = ((CharacterDataEvent) event).getData();
+                final int bodyEnd = lastIndexOfBodyEnd(data);
+                if (bodyEnd >= 0) {
+                    this.bodyEndEvent = CharacterDataEventImpl.create(data.substring(bodyEnd));
+                    if (bodyEnd > 0) {
+                        this.nextEvent = CharacterDataEventImpl.create(data.substring(0, bodyEnd));
+                        return this.nextEvent;
+                    }
+                    return this.peek();
+                }
+            }
+
+            this.nextEvent = event;
+            return this.nextEvent;
+        }
+
+        private CharacterEvent createFillIn() {
+            final DeferredPortlet deferredPortlet = this.removeNextCompleted();
+            final IPortletWindowId portletWindowId = deferredPortlet.portletWindowId;
+            final StringBuilder fillIn = new StringBuilder(512);
+
+            if (deferredPortlet.content) {
+                final String output =
+                        portletExecutionManager.getPortletOutput(
+                                portletWindowId, this.request, this.response);
+
+                final String id = getProgressiveId(portletWindowId);
+                fillIn.append("<div id=\"")
+                        .append(CONTENT_ID_PREFIX)
+                        .append(id)
+                        .append("\" hidden=\"hidden\">")
+                        .append(output)
+                        .append("</div><script>(function(){var c=document.getElementById('")
+                        .append(CONTENT_ID_PREFIX)
+                        .append(id)
+                        .append("'),p=document.getElementById('")
+                        .append(PLACEHOLDER_ID_PREFIX)
+                        .append(id)
+                        .append("');if(c&&p){while(c.firstChild){p.parentNode.insertBefore(")
+                        .append("c.firstChild,p);}p.parentNode.removeChild(p);")
+                        .append("c.parentNode.removeChild(c);}})();</script>");
+            }
+
+            if (!deferredPortlet.values.isEmpty()) {
+                // Values are markup like the rest of the page, decode them before replacing the
+                // tokens in the text and attribute values of every element
+                fillIn.append("<script>(function(v){var d=document.createElement('textarea'),")
+                        .append("e=document.getElementsByTagName('*'),i,j,k,n,a;")
+                        .append("function r(s){for(k in v){s=s.split(k).join(v[k]);}return s;}")
+                        .append("for(k in v){d.innerHTML=v[k];v[k]=d.value;}")
+                        .append("for(i=0;i<e.length;i++){a=e[i].attributes;")
+                        .append("for(j=0;j<a.length;j++){if(a[j].value.indexOf('")
+                        .append(VALUE_TOKEN_PREFIX)
+                        .append("')>=0){a[j].value=r(a[j].value);}}")
+                        .append("for(n=e[i].firstChild;n;n=n.nextSibling){")
+                        .append("if(n.nodeType==3&&n.nodeValue.indexOf('")
+                        .append(VALUE_TOKEN_PREFIX)
+                        .append("')>=0){n.nodeValue=r(n.nodeValue);}}}})({");
+                String separator = "";
+                for (final Map.Entry<String, PortletPlaceholderEvent> valueEntry :
+                        deferredPortlet.values.entrySet()) {
+                    final String value =
+                            getPortletValue(valueEntry.getValue(), this.request, this.response);
+                    fillIn.append(separator)
+                            .append('\'')
+                            .append(StringEscapeUtils.escapeJavaScript(valueEntry.getKey()))
+                            .append("':'")
+                            .append(StringEscapeUtils.escapeJavaScript(value))
+                            .append('\'');
+                    separator = ",";
+                }
+                fillIn.append("});</script>");
+            }
+
+            return CharacterDataEventImpl.create(fillIn.toString());
+        }
+
+        /**
+         * Remove and return the first deferred portlet to complete. If none complete within the
+         * configured wait the oldest is returned so its own render timeout applies.
+         */
+        private DeferredPortlet removeNextCompleted() {
+            final Collection<IPortletWindowId> portletWindowIds =
+                    this.deferredPortlets.getPortletWindowIds();
+            IPortletWindowId portletWindowId;
+            try {
+                portletWindowId =
+                        portletExecutionManager.waitForPortletRenderComplete(
+                                portletWindowIds, 0, this.request, this.response);
+                if (portletWindowId == null) {
+                    // Nothing is ready, make sure the client has everything written so far
+                    RenderingOutputFlushUtils.flushOutput(this.request);
+                    portletWindowId =
+                            portletExecutionManager.waitForPortletRenderComplete(
+                                    portletWindowIds,
+                                    progressiveCompletionWait,
+                                    this.request,
+                                    this.response);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                portletWindowId = null;
+            }
+
+            return this.deferredPortlets.remove(portletWindowId);
+        }
     }
 }
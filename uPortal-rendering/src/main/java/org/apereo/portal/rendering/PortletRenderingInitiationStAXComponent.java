@@ -14,11 +14,16 @@
  */
 package org.apereo.portal.rendering;
 
+import com.google.common.collect.ImmutableSet;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.EndElement;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 import org.apereo.portal.layout.IUserLayoutManager;
@@ -26,6 +31,7 @@ import org.apereo.portal.portlet.om.IPortletWindow;
 import org.apereo.portal.portlet.om.IPortletWindowId;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+import org.apereo.portal.portlet.rendering.worker.PortletExecutionPriority;
 import org.apereo.portal.utils.Tuple;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.apereo.portal.xml.stream.FilteringXMLEventReader;
@@ -36,12 +42,32 @@ import org.springframework.beans.factory.annotation.Autowired;
 /**
  * Initiates portlet rendering based each encountered {@link IUserLayoutManager#CHANNEL_HEADER} and
  * {@link IUserLayoutManager#CHANNEL} element in the event stream
+ *
+ * <p>The first portlets of each column and of the regions at the top of the page are recorded in
+ * the {@link PortletExecutionPriority#ABOVE_FOLD_ATTRIBUTE} request attribute so their workers are
+ * started ahead of the rest of the page when the portlet thread pool queues workers.
  */
 public class PortletRenderingInitiationStAXComponent extends StAXPipelineComponentWrapper {
+    private static final String COLUMN = "column";
+    private static final String REGION = "region";
+    private static final QName REGION_NAME = new QName("name");
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private IPortletExecutionManager portletExecutionManager;
     private IPortletWindowRegistry portletWindowRegistry;
+    private int aboveTheFoldPortlets = 2;
+    private Set<String> aboveTheFoldRegions =
+            ImmutableSet.of(
+                    "eyebrow",
+                    "header-top",
+                    "header-left",
+                    "header-right",
+                    "header-bottom",
+                    "page-top",
+                    "pre-content",
+                    "sidebar-left",
+                    "sidebar-right");
 
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
@@ -53,6 +79,23 @@ public class PortletRenderingInitiationStAXComponent extends StAXPipelineCompone
         this.portletWindowRegistry = portletWindowRegistry;
     }
 
+    /**
+     * Number of portlets at the top of each column and of each region in {@link
+     * #setAboveTheFoldRegions(Set)} that are above the fold, defaults to 2. 0 treats every portlet
+     * as below the fold.
+     */
+    public void setAboveTheFoldPortlets(int aboveTheFoldPortlets) {
+        this.aboveTheFoldPortlets = aboveTheFoldPortlets;
+    }
+
+    /**
+     * Names of the regions whose first portlets are above the fold, defaults to the Respondr
+     * regions at the top and sides of the page
+     */
+    public void setAboveTheFoldRegions(Set<String> aboveTheFoldRegions) {
+        this.aboveTheFoldRegions = ImmutableSet.copyOf(aboveTheFoldRegions);
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -83,6 +126,8 @@ public class PortletRenderingInitiationStAXComponent extends StAXPipelineCompone
     private class PortletRenderingXMLEventReader extends FilteringXMLEventReader {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
+        /** Portlets of the current column or region still above the fold */
+        private int aboveTheFoldRemaining = 0;
 
         public PortletRenderingXMLEventReader(
                 HttpServletRequest request, HttpServletResponse response, XMLEventReader reader) {
@@ -98,6 +143,16 @@ public class PortletRenderingInitiationStAXComponent extends StAXPipelineCompone
 
                 final QName name = startElement.getName();
                 final String localName = name.getLocalPart();
+                if (COLUMN.equals(localName)) {
+                    this.aboveTheFoldRemaining = aboveTheFoldPortlets;
+                } else if (REGION.equals(localName)) {
+                    final Attribute regionName = startElement.getAttributeByName(REGION_NAME);
+                    final boolean aboveTheFoldRegion =
+                            regionName != null
+                                    && aboveTheFoldRegions.contains(regionName.getValue());
+                    this.aboveTheFoldRemaining = aboveTheFoldRegion ? aboveTheFoldPortlets : 0;
+                }
+
                 if (IUserLayoutManager.CHANNEL.equals(localName)) {
                     final Tuple<IPortletWindow, StartElement> portletWindowAndElement =
                             portletWindowRegistry.getPortletWindow(request, startElement);
@@ -109,6 +164,11 @@ public class PortletRenderingInitiationStAXComponent extends StAXPipelineCompone
                     final IPortletWindow portletWindow = portletWindowAndElement.first;
                     final IPortletWindowId portletWindowId = portletWindow.getPortletWindowId();
 
+                    if (this.aboveTheFoldRemaining > 0) {
+                        this.aboveTheFoldRemaining--;
+                        this.addAboveTheFold(portletWindowId);
+                    }
+
                     if (!portletExecutionManager.isPortletRenderRequested(
                             portletWindowId, this.request, this.response)) {
                         portletExecutionManager.startPortletRender(
@@ -144,9 +204,29 @@ public class PortletRenderingInitiationStAXComponent extends StAXPipelineCompone
 
                     return portletWindowAndElement.second;
                 }
+            } else if (event.isEndElement()) {
+                final EndElement endElement = event.asEndElement();
+                final String localName = endElement.getName().getLocalPart();
+                if (COLUMN.equals(localName) || REGION.equals(localName)) {
+                    this.aboveTheFoldRemaining = 0;
+                }
             }
 
             return event;
         }
+
+        private void addAboveTheFold(IPortletWindowId portletWindowId) {
+            @SuppressWarnings("unchecked")
+            Set<IPortletWindowId> aboveTheFold =
+                    (Set<IPortletWindowId>)
+                            this.request.getAttribute(
+                                    PortletExecutionPriority.ABOVE_FOLD_ATTRIBUTE);
+            if (aboveTheFold == null) {
+                aboveTheFold = new HashSet<IPortletWindowId>();
+                this.request.setAttribute(
+                        PortletExecutionPriority.ABOVE_FOLD_ATTRIBUTE, aboveTheFold);
+            }
+            aboveTheFold.add(portletWindowId);
+        }
     }
 }
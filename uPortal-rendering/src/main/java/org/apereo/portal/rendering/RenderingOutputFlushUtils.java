@@ -0,0 +1,61 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.io.Flushable;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets pipeline components ask the top level renderer to send any output it has buffered to the
+ * client before they block, for example while waiting on a portlet that is still rendering. The
+ * renderer registers a {@link Flushable} for the duration of the request, if none is registered
+ * the calls are ignored.
+ */
+public final class RenderingOutputFlushUtils {
+    private static final String OUTPUT_FLUSHER_ATTRIBUTE =
+            RenderingOutputFlushUtils.class.getName() + ".OUTPUT_FLUSHER";
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderingOutputFlushUtils.class);
+
+    private RenderingOutputFlushUtils() {}
+
+    /** Register the flusher for the output of the specified request */
+    public static void setOutputFlusher(HttpServletRequest request, Flushable outputFlusher) {
+        request.setAttribute(OUTPUT_FLUSHER_ATTRIBUTE, outputFlusher);
+    }
+
+    /** Remove the flusher registered for the specified request */
+    public static void clearOutputFlusher(HttpServletRequest request) {
+        request.removeAttribute(OUTPUT_FLUSHER_ATTRIBUTE);
+    }
+
+    /** Flush the buffered output of the specified request, if the renderer buffers output */
+    public static void flushOutput(HttpServletRequest request) {
+        final Flushable outputFlusher = (Flushable) request.getAttribute(OUTPUT_FLUSHER_ATTRIBUTE);
+        if (outputFlusher == null) {
+            return;
+        }
+
+        try {
+            outputFlusher.flush();
+        } catch (IOException e) {
+            // The next write to the response will fail the same way, just note it here
+            logger.debug("Failed to flush rendering output for {}", request.getRequestURI(), e);
+        }
+    }
+}
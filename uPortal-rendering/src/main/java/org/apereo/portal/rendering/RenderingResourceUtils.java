@@ -0,0 +1,71 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks resources pipeline components open for the duration of a render, for example the pipe a
+ * streaming transform writes to. The top level renderer closes them once it is done with the
+ * request, whether rendering completed or failed, so work feeding an abandoned reader is stopped.
+ */
+public final class RenderingResourceUtils {
+    private static final String RESOURCES_ATTRIBUTE =
+            RenderingResourceUtils.class.getName() + ".RESOURCES";
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderingResourceUtils.class);
+
+    private RenderingResourceUtils() {}
+
+    /** Register a resource to close when rendering of the specified request ends */
+    public static void registerResource(HttpServletRequest request, Closeable resource) {
+        @SuppressWarnings("unchecked")
+        List<Closeable> resources = (List<Closeable>) request.getAttribute(RESOURCES_ATTRIBUTE);
+        if (resources == null) {
+            resources = new ArrayList<>();
+            request.setAttribute(RESOURCES_ATTRIBUTE, resources);
+        }
+        resources.add(resource);
+    }
+
+    /** Close and forget all resources registered for the specified request */
+    public static void closeResources(HttpServletRequest request) {
+        @SuppressWarnings("unchecked")
+        final List<Closeable> resources =
+                (List<Closeable>) request.getAttribute(RESOURCES_ATTRIBUTE);
+        if (resources == null) {
+            return;
+        }
+        request.removeAttribute(RESOURCES_ATTRIBUTE);
+
+        for (final Closeable resource : resources) {
+            try {
+                resource.close();
+            } catch (IOException | RuntimeException e) {
+                logger.warn(
+                        "Failed to close rendering resource {} for {}",
+                        resource,
+                        request.getRequestURI(),
+                        e);
+            }
+        }
+    }
+}
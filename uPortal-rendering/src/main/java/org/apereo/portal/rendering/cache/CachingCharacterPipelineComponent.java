@@ -14,10 +14,16 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.ListIterator;
 import org.apereo.portal.character.stream.CharacterEventBufferReader;
 import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
 import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.CharacterEventTypes;
 import org.apereo.portal.rendering.CharacterPipelineComponent;
 
 /** component that can cache character pipeline events */
@@ -25,6 +31,54 @@ public class CachingCharacterPipelineComponent
         extends CachingPipelineComponent<CharacterEventReader, CharacterEvent>
         implements CharacterPipelineComponent {
 
+    /**
+     * Merges adjacent {@link CharacterDataEvent}s into a single (shared) event and stores the
+     * result in a right-sized array backed list.
+     */
+    @Override
+    protected List<CharacterEvent> compactEventCache(List<CharacterEvent> eventBuffer) {
+        final ArrayList<CharacterEvent> eventCache =
+                new ArrayList<CharacterEvent>(eventBuffer.size());
+        final StringBuilder characterData = new StringBuilder();
+        CharacterEvent pendingEvent = null;
+        for (final CharacterEvent event : eventBuffer) {
+            if (event.getEventType() == CharacterEventTypes.CHARACTER) {
+                if (pendingEvent == null) {
+                    pendingEvent = event;
+                } else {
+                    if (characterData.length() == 0) {
+                        characterData.append(((CharacterDataEvent) pendingEvent).getData());
+                    }
+                    characterData.append(((CharacterDataEvent) event).getData());
+                }
+                continue;
+            }
+
+            this.addCharacterData(eventCache, pendingEvent, characterData);
+            pendingEvent = null;
+            eventCache.add(event);
+        }
+        this.addCharacterData(eventCache, pendingEvent, characterData);
+
+        eventCache.trimToSize();
+        return Collections.unmodifiableList(eventCache);
+    }
+
+    private void addCharacterData(
+            List<CharacterEvent> eventCache,
+            CharacterEvent pendingEvent,
+            StringBuilder characterData) {
+        if (pendingEvent == null) {
+            return;
+        }
+        if (characterData.length() == 0) {
+            eventCache.add(pendingEvent);
+        } else {
+            eventCache.add(CharacterDataEventImpl.create(characterData.toString()));
+            characterData.setLength(0);
+        }
+    }
+
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
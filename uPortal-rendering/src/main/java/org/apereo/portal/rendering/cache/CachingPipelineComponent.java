@@ -14,11 +14,15 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import net.sf.ehcache.Ehcache;
@@ -34,14 +38,30 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
 
-/** Component that caches events from a wrapped component */
+/**
+ * Component that caches events from a wrapped component
+ *
+ * <p>Concurrent requests that miss the cache for the same key do not all call the wrapped
+ * component, the first one loads the events while the others wait for it to populate the cache.
+ * A waiting request gives up and loads the events itself once the load has taken twice as long
+ * as loads usually take, and never waits longer than {@link #setLoadWaitTimeout(long)}.
+ */
 public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWrapper<R, E>
         implements BeanNameAware {
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+    /** Shortest time a request waits for a load started by another request */
+    private static final long MIN_LOAD_WAIT = 50;
+
+    private final ConcurrentMap<CacheKey, LoadInProgress> loadsInProgress =
+            new ConcurrentHashMap<>();
+
     private ResourcesElementsProvider resourcesElementsProvider;
     private Ehcache cache;
     private String beanName;
+    private long loadWaitTimeout = 2000;
+    /** Moving average of the time in milliseconds a successful load takes, -1 until known */
+    private volatile long averageLoadTime = -1;
 
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -52,6 +72,14 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         this.cache = cache;
     }
 
+    /**
+     * Maximum time in milliseconds a request waits for another request loading the same key
+     * before loading the events itself, defaults to 2000. 0 disables waiting.
+     */
+    public void setLoadWaitTimeout(long loadWaitTimeout) {
+        this.loadWaitTimeout = loadWaitTimeout;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -65,7 +93,6 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
     /* (non-Javadoc)
      * @see org.apereo.portal.rendering.PipelineComponent#getEventReader(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
-    @SuppressWarnings("unchecked")
     @Override
     public final PipelineEventReader<R, E> getEventReader(
             HttpServletRequest request, HttpServletResponse response) {
@@ -78,10 +105,18 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
 
         // Get the key for this request from the target component and see if there is a cache entry
         final CacheKey cacheKey = this.wrappedComponent.getCacheKey(request, response);
-        Element element = this.cache.get(cacheKey);
-        CachedEventReader<E> cachedEventReader = null;
-        if (element != null) {
-            cachedEventReader = (CachedEventReader<E>) element.getObjectValue();
+        CachedEventReader<E> cachedEventReader = this.getCachedEventReader(cacheKey);
+
+        // Another request may already be loading the same events, wait for it instead of
+        // repeating the work
+        LoadInProgress load = null;
+        if (cachedEventReader == null) {
+            load = new LoadInProgress();
+            final LoadInProgress existingLoad = this.loadsInProgress.putIfAbsent(cacheKey, load);
+            if (existingLoad != null) {
+                load = null;
+                cachedEventReader = this.waitForLoad(cacheKey, existingLoad);
+            }
         }
 
         // If there was a cached reader return it immediately
@@ -91,26 +126,40 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
                     "{} - No cached events found for key {}, calling parent",
                     this.beanName,
                     cacheKey);
-            final PipelineEventReader<R, E> pipelineEventReader =
-                    this.wrappedComponent.getEventReader(request, response);
-
-            // Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
-            for (final E event : pipelineEventReader) {
-                // TODO add de-duplication logic here
-                eventCache.add(event);
+            try {
+                final PipelineEventReader<R, E> pipelineEventReader =
+                        this.wrappedComponent.getEventReader(request, response);
+
+                // Copy the events from the reader into a buffer and compact it to be cached
+                final List<E> eventBuffer = new ArrayList<E>();
+                for (final E event : pipelineEventReader) {
+                    eventBuffer.add(event);
+                }
+                final List<E> eventCache = this.compactEventCache(eventBuffer);
+
+                final Map<String, String> outputProperties =
+                        pipelineEventReader.getOutputProperties();
+                cachedEventReader =
+                        new CachedEventReader<E>(
+                                eventCache, new LinkedHashMap<String, String>(outputProperties));
+
+                // Cache the buffer
+                this.cache.put(new Element(cacheKey, cachedEventReader));
+                if (load != null) {
+                    this.recordLoadTime(load);
+                }
+                logger.debug(
+                        "{} - Cached {} events as {} for key {}",
+                        this.beanName,
+                        eventBuffer.size(),
+                        eventCache.size(),
+                        cacheKey);
+            } finally {
+                if (load != null) {
+                    this.loadsInProgress.remove(cacheKey, load);
+                    load.latch.countDown();
+                }
             }
-
-            final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-            cachedEventReader =
-                    new CachedEventReader<E>(
-                            eventCache, new LinkedHashMap<String, String>(outputProperties));
-
-            // Cache the buffer
-            element = new Element(cacheKey, cachedEventReader);
-            this.cache.put(element);
-            logger.debug(
-                    "{} - Cached {} events for key {}", this.beanName, eventCache.size(), cacheKey);
         } else {
             logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
         }
@@ -122,6 +171,80 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
 
+    @SuppressWarnings("unchecked")
+    private CachedEventReader<E> getCachedEventReader(CacheKey cacheKey) {
+        final Element element = this.cache.get(cacheKey);
+        if (element == null) {
+            return null;
+        }
+        return (CachedEventReader<E>) element.getObjectValue();
+    }
+
+    /**
+     * Wait for another request to finish loading the events for the key.
+     *
+     * @return The cached events, null if the other load failed or did not finish in time
+     */
+    private CachedEventReader<E> waitForLoad(CacheKey cacheKey, LoadInProgress load) {
+        final long waitTime = this.getLoadWaitTime(load);
+        logger.debug(
+                "{} - Waiting up to {}ms for events being loaded by another request for key {}",
+                this.beanName,
+                waitTime,
+                cacheKey);
+        try {
+            if (!load.latch.await(waitTime, TimeUnit.MILLISECONDS)) {
+                logger.debug(
+                        "{} - Timed out waiting {}ms for events for key {}, calling parent",
+                        this.beanName,
+                        waitTime,
+                        cacheKey);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return this.getCachedEventReader(cacheKey);
+    }
+
+    /**
+     * @return How much longer to wait for the load, twice the average load time less the time the
+     *     load has already taken, bounded by the load wait timeout
+     */
+    private long getLoadWaitTime(LoadInProgress load) {
+        final long averageLoadTime = this.averageLoadTime;
+        long waitTime = this.loadWaitTimeout;
+        if (averageLoadTime >= 0) {
+            waitTime = Math.min(waitTime, Math.max(MIN_LOAD_WAIT, averageLoadTime * 2));
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - load.started);
+        return Math.max(0, waitTime - elapsed);
+    }
+
+    private void recordLoadTime(LoadInProgress load) {
+        final long loadTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - load.started);
+        final long averageLoadTime = this.averageLoadTime;
+        // Racing updates can lose a sample, that only slows down how fast the average moves
+        this.averageLoadTime =
+                averageLoadTime < 0 ? loadTime : (averageLoadTime * 7 + loadTime) / 8;
+    }
+
+    /**
+     * Convert the buffered events into the form stored in the cache. The returned list is shared
+     * by all readers of the cache entry so it must not be modified after it is returned. The
+     * default implementation caches the buffer as is.
+     */
+    protected List<E> compactEventCache(List<E> eventBuffer) {
+        return eventBuffer;
+    }
+
+    /** A load of the events for a key by one request that other requests can wait on */
+    private static final class LoadInProgress {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final long started = System.nanoTime();
+    }
+
     // Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
 }
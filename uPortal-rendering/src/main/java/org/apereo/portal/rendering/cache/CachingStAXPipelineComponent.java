@@ -14,16 +14,24 @@
  */
 package org.apereo.portal.rendering.cache;
 
+import java.util.List;
 import java.util.ListIterator;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.events.XMLEvent;
 import org.apereo.portal.rendering.StAXPipelineComponent;
+import org.apereo.portal.xml.stream.CompactXMLEventList;
 import org.apereo.portal.xml.stream.XMLEventBufferReader;
 
 /** component that can cache StAX pipeline events */
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent>
         implements StAXPipelineComponent {
 
+    /** Store events as shared immutable instances, reading the cache allocates no events */
+    @Override
+    protected List<XMLEvent> compactEventCache(List<XMLEvent> eventBuffer) {
+        return new CompactXMLEventList(eventBuffer);
+    }
+
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
         return new XMLEventBufferReader(eventCache);
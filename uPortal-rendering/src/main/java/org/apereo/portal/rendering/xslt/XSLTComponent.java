@@ -17,6 +17,8 @@ package org.apereo.portal.rendering.xslt;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLEventReader;
@@ -33,19 +35,25 @@ import javax.xml.transform.stax.StAXSource;
 import org.apache.commons.logging.LogFactory;
 import org.apereo.portal.rendering.PipelineEventReader;
 import org.apereo.portal.rendering.PipelineEventReaderImpl;
+import org.apereo.portal.rendering.RenderingResourceUtils;
 import org.apereo.portal.rendering.StAXPipelineComponentWrapper;
 import org.apereo.portal.utils.cache.CacheKey;
 import org.apereo.portal.xml.ResourceLoaderURIResolver;
 import org.apereo.portal.xml.stream.XMLEventBufferReader;
 import org.apereo.portal.xml.stream.XMLEventBufferWriter;
+import org.apereo.portal.xml.stream.XMLEventPipe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.util.xml.FixedXMLEventStreamReader;
 import org.springframework.util.xml.SimpleTransformErrorListener;
 import org.springframework.util.xml.StaxUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.helpers.LocatorImpl;
 
@@ -61,6 +69,12 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
 
     private String beanName;
 
+    private Executor transformExecutor;
+    private boolean streaming = false;
+    private int streamingBufferBlocks = 4;
+    private int streamingBlockSize = 256;
+    private long streamingTimeout = 60000;
+
     public XSLTComponent() {
         this.errorListener = new SimpleTransformErrorListener(LogFactory.getLog(this.getClass()));
     }
@@ -73,6 +87,41 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         this.transformerSource = transformerSource;
     }
 
+    /**
+     * Executor used to run the transform when {@link #setStreaming(boolean)} is enabled. If the
+     * executor rejects the transform it is run in the calling thread in buffered mode.
+     */
+    public void setTransformExecutor(Executor transformExecutor) {
+        this.transformExecutor = transformExecutor;
+    }
+
+    /**
+     * If true the transform runs on the {@link #setTransformExecutor(Executor)} and downstream
+     * components consume the output events as they are produced instead of after the whole
+     * document has been buffered. Defaults to false.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /** Number of event blocks that may be queued ahead of the consumer, defaults to 4 */
+    public void setStreamingBufferBlocks(int streamingBufferBlocks) {
+        this.streamingBufferBlocks = streamingBufferBlocks;
+    }
+
+    /** Number of events per block handed to the consumer, defaults to 256 */
+    public void setStreamingBlockSize(int streamingBlockSize) {
+        this.streamingBlockSize = streamingBlockSize;
+    }
+
+    /**
+     * Milliseconds the transform and its consumer wait on each other before the streaming
+     * transform is abandoned, defaults to 60000
+     */
+    public void setStreamingTimeout(long streamingTimeout) {
+        this.streamingTimeout = streamingTimeout;
+    }
+
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -142,6 +191,26 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
         // Setup logging for the transform
         transformer.setErrorListener(this.errorListener);
 
+        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+
+        XMLEventReader outputEventReader = null;
+        if (this.streaming && this.transformExecutor != null) {
+            outputEventReader = this.streamingTransform(request, transformer, xmlReaderSource);
+        }
+        if (outputEventReader == null) {
+            outputEventReader = this.bufferedTransform(transformer, xmlReaderSource);
+        }
+
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl =
+                new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(
+                        outputEventReader, outputProperties);
+        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
+        return pipelineEventReaderImpl;
+    }
+
+    /** Run the complete transform in the current thread, buffering all of the output events */
+    protected XMLEventReader bufferedTransform(Transformer transformer, Source xmlReaderSource) {
         // Transform to a SAX ContentHandler to avoid JDK bug:
         // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
         final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
@@ -157,18 +226,69 @@ public class XSLTComponent extends StAXPipelineComponentWrapper
             throw new RuntimeException("Failed to transform document", e);
         }
 
-        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
-
         final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
-        final XMLEventReader outputEventReader =
-                new XMLEventBufferReader(eventBuffer.listIterator());
+        return new XMLEventBufferReader(eventBuffer.listIterator());
+    }
 
-        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl =
-                new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(
-                        outputEventReader, outputProperties);
-        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
-        return pipelineEventReaderImpl;
+    /**
+     * Start the transform on the transform executor, the returned reader provides events as they
+     * are produced. Returns null if the executor rejected the transform. The pipe is closed when
+     * rendering of the request ends so the transform stops if the output is abandoned.
+     */
+    protected XMLEventReader streamingTransform(
+            HttpServletRequest request,
+            final Transformer transformer,
+            final Source xmlReaderSource) {
+        final XMLEventPipe eventPipe =
+                new XMLEventPipe(
+                        this.streamingBufferBlocks, this.streamingBlockSize, this.streamingTimeout);
+
+        // The transform may call back into request scoped code, carry the thread state over
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+
+        final Runnable transformTask =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final RequestAttributes previousRequestAttributes =
+                                RequestContextHolder.getRequestAttributes();
+                        final LocaleContext previousLocaleContext =
+                                LocaleContextHolder.getLocaleContext();
+                        RequestContextHolder.setRequestAttributes(requestAttributes);
+                        LocaleContextHolder.setLocaleContext(localeContext);
+                        try {
+                            // Transform to a SAX ContentHandler to avoid JDK bug:
+                            // http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
+                            final ContentHandler contentHandler =
+                                    StaxUtils.createContentHandler(eventPipe.getWriter());
+                            contentHandler.setDocumentLocator(new LocatorImpl());
+
+                            logger.debug("{} - Begining streaming XML Transformation", beanName);
+                            transformer.transform(xmlReaderSource, new SAXResult(contentHandler));
+                            eventPipe.getWriter().close();
+                            logger.debug("{} - Streaming XML Transformation complete", beanName);
+                        } catch (Throwable t) {
+                            logger.debug("{} - Streaming XML Transformation failed", beanName, t);
+                            eventPipe.fail(t);
+                        } finally {
+                            RequestContextHolder.setRequestAttributes(previousRequestAttributes);
+                            LocaleContextHolder.setLocaleContext(previousLocaleContext);
+                        }
+                    }
+                };
+
+        try {
+            this.transformExecutor.execute(transformTask);
+        } catch (RejectedExecutionException e) {
+            this.logger.debug(
+                    "{} - Streaming transform rejected, falling back to buffered transform",
+                    this.beanName);
+            return null;
+        }
+
+        RenderingResourceUtils.registerResource(request, eventPipe);
+        return eventPipe.getReader();
     }
 
     @Override
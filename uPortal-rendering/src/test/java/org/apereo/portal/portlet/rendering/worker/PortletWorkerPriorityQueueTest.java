@@ -0,0 +1,107 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class PortletWorkerPriorityQueueTest {
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        final PortletWorkerPriorityQueue queue = new PortletWorkerPriorityQueue(10, 4);
+
+        final Runnable background = mockWorker(PortletExecutionPriority.BACKGROUND, 1);
+        final Runnable page = mockWorker(PortletExecutionPriority.PAGE, 0);
+        final Runnable aboveFold = mockWorker(PortletExecutionPriority.ABOVE_FOLD, 2);
+        final Runnable header = mockWorker(PortletExecutionPriority.HEADER, 1);
+        final Runnable interactive = mockWorker(PortletExecutionPriority.INTERACTIVE, 1);
+        final Runnable other = mock(Runnable.class);
+
+        queue.offer(background);
+        queue.offer(page);
+        queue.offer(other);
+        queue.offer(aboveFold);
+        queue.offer(header);
+        queue.offer(interactive);
+
+        assertSame(interactive, queue.poll());
+        assertSame(header, queue.poll());
+        assertSame(aboveFold, queue.poll());
+        assertSame(page, queue.poll());
+        assertSame(other, queue.poll());
+        assertSame(background, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testRoundRobinAcrossUsers() throws Exception {
+        final PortletWorkerPriorityQueue queue = new PortletWorkerPriorityQueue(10, 4);
+
+        final List<Runnable> first = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final Runnable worker = mockWorker(PortletExecutionPriority.PAGE, 1);
+            first.add(worker);
+            queue.offer(worker);
+        }
+        final Runnable second = mockWorker(PortletExecutionPriority.PAGE, 2);
+        queue.offer(second);
+        final Runnable third = mockWorker(PortletExecutionPriority.PAGE, -3);
+        queue.offer(third);
+
+        assertSame(first.get(0), queue.poll());
+        assertSame(second, queue.poll());
+        assertSame(third, queue.poll());
+        assertSame(first.get(1), queue.poll());
+        assertSame(first.get(2), queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPriorityBeforeFairness() throws Exception {
+        final PortletWorkerPriorityQueue queue = new PortletWorkerPriorityQueue(10, 4);
+
+        final Runnable page = mockWorker(PortletExecutionPriority.PAGE, 2);
+        final Runnable firstHeader = mockWorker(PortletExecutionPriority.HEADER, 1);
+        final Runnable secondHeader = mockWorker(PortletExecutionPriority.HEADER, 1);
+        queue.offer(page);
+        queue.offer(firstHeader);
+        queue.offer(secondHeader);
+
+        assertSame(firstHeader, queue.poll());
+        assertSame(secondHeader, queue.poll());
+        assertSame(page, queue.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFairnessBuckets() {
+        new PortletWorkerPriorityQueue(10, 0);
+    }
+
+    private Runnable mockWorker(PortletExecutionPriority priority, int fairnessKey) {
+        final Runnable worker =
+                mock(Runnable.class, withSettings().extraInterfaces(IPortletExecutionContext.class));
+        final IPortletExecutionContext context = (IPortletExecutionContext) worker;
+        when(context.getExecutionAttribute(PortletExecutionPriority.PRIORITY_ATTRIBUTE))
+                .thenReturn(priority);
+        when(context.getExecutionAttribute(PortletExecutionPriority.FAIRNESS_KEY_ATTRIBUTE))
+                .thenReturn(fairnessKey);
+        return worker;
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering.cache;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.rendering.CharacterPipelineComponent;
+import org.apereo.portal.rendering.PipelineEventReader;
+import org.apereo.portal.rendering.PipelineEventReaderImpl;
+import org.apereo.portal.utils.cache.CacheKey;
+import org.jasig.resourceserver.aggr.om.Included;
+import org.jasig.resourceserver.utils.aggr.ResourcesElementsProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/** Tests for the cache miss coalescing in CachingPipelineComponent. */
+public class CachingPipelineComponentTest {
+
+    private static final CacheKey CACHE_KEY = CacheKey.build("test", "page");
+
+    @Mock private CharacterPipelineComponent wrappedComponent;
+
+    @Mock private ResourcesElementsProvider resourcesElementsProvider;
+
+    @Mock private Ehcache cache;
+
+    private final ConcurrentMap<Object, Element> cacheEntries = new ConcurrentHashMap<>();
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private final CountDownLatch leaderStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseLeader = new CountDownLatch(1);
+
+    private CachingCharacterPipelineComponent cachingComponent;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+
+        when(resourcesElementsProvider.getDefaultIncludedType()).thenReturn(Included.AGGREGATED);
+        when(wrappedComponent.getCacheKey(any(), any())).thenReturn(CACHE_KEY);
+        when(cache.get(any(Serializable.class)))
+                .thenAnswer(invocation -> cacheEntries.get(invocation.getArgument(0)));
+        doAnswer(
+                        invocation -> {
+                            final Element element = invocation.getArgument(0);
+                            cacheEntries.put(element.getObjectKey(), element);
+                            return null;
+                        })
+                .when(cache)
+                .put(any(Element.class));
+
+        cachingComponent = new CachingCharacterPipelineComponent();
+        cachingComponent.setWrappedComponent(wrappedComponent);
+        cachingComponent.setResourcesElementsProvider(resourcesElementsProvider);
+        cachingComponent.setCache(cache);
+        cachingComponent.setBeanName("testCache");
+
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        releaseLeader.countDown();
+        executor.shutdownNow();
+    }
+
+    /** A follower waits for the leader and reads the events the leader cached. */
+    @Test
+    public void followerUsesEventsLoadedByLeader() throws Exception {
+        cachingComponent.setLoadWaitTimeout(10000);
+        when(wrappedComponent.getEventReader(any(), any()))
+                .thenAnswer(
+                        invocation -> {
+                            leaderStarted.countDown();
+                            releaseLeader.await();
+                            return this.createReader("leader");
+                        });
+
+        final Future<String> leader = executor.submit(this::render);
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+        final Future<String> follower = executor.submit(this::render);
+
+        Thread.sleep(100);
+        releaseLeader.countDown();
+
+        assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("leader", follower.get(5, TimeUnit.SECONDS));
+        verify(wrappedComponent, times(1)).getEventReader(any(), any());
+    }
+
+    /** A follower renders the events itself when the leader fails. */
+    @Test
+    public void followerRendersLocallyWhenLeaderFails() throws Exception {
+        cachingComponent.setLoadWaitTimeout(10000);
+        when(wrappedComponent.getEventReader(any(), any()))
+                .thenAnswer(
+                        invocation -> {
+                            leaderStarted.countDown();
+                            releaseLeader.await();
+                            throw new IllegalStateException("leader failed");
+                        })
+                .thenAnswer(invocation -> this.createReader("follower"));
+
+        final Future<String> leader = executor.submit(this::render);
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+        final Future<String> follower = executor.submit(this::render);
+
+        Thread.sleep(100);
+        releaseLeader.countDown();
+
+        try {
+            leader.get(5, TimeUnit.SECONDS);
+            fail("Leader failure should have been thrown");
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("follower", follower.get(5, TimeUnit.SECONDS));
+        verify(wrappedComponent, times(2)).getEventReader(any(), any());
+    }
+
+    /** A follower stops waiting for a stuck leader and renders the events itself. */
+    @Test
+    public void followerRendersLocallyWhenWaitTimesOut() throws Exception {
+        cachingComponent.setLoadWaitTimeout(100);
+        when(wrappedComponent.getEventReader(any(), any()))
+                .thenAnswer(
+                        invocation -> {
+                            leaderStarted.countDown();
+                            releaseLeader.await();
+                            return this.createReader("leader");
+                        })
+                .thenAnswer(invocation -> this.createReader("follower"));
+
+        final Future<String> leader = executor.submit(this::render);
+        assertTrue(leaderStarted.await(5, TimeUnit.SECONDS));
+
+        final long start = System.nanoTime();
+        final String followerOutput = this.render();
+        final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("follower", followerOutput);
+        assertTrue("Follower waited " + waited + "ms", waited < 5000);
+        assertFalse(leader.isDone());
+
+        releaseLeader.countDown();
+        assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    private String render() {
+        final PipelineEventReader<CharacterEventReader, CharacterEvent> eventReader =
+                cachingComponent.getEventReader(request, response);
+        final StringBuilder output = new StringBuilder();
+        for (final CharacterEvent event : eventReader) {
+            output.append(((CharacterDataEvent) event).getData());
+        }
+        return output.toString();
+    }
+
+    private PipelineEventReader<CharacterEventReader, CharacterEvent> createReader(String data) {
+        final CharacterEventReader eventReader =
+                new CharacterEventBufferReader(
+                        Collections.<CharacterEvent>singletonList(
+                                        CharacterDataEventImpl.create(data))
+                                .listIterator());
+        return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(eventReader);
+    }
+}
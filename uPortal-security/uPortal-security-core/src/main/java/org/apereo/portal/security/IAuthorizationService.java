@@ -14,6 +14,9 @@
  */
 package org.apereo.portal.security;
 
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 import org.apereo.portal.AuthorizationException;
 import org.apereo.portal.groups.GroupsException;
 import org.apereo.portal.groups.IGroupMember;
@@ -91,6 +94,18 @@ public interface IAuthorizationService {
      */
     boolean canPrincipalBrowse(IAuthorizationPrincipal principal, IPortletDefinition portlet);
 
+    /**
+     * Filters the portlets down to those the principal has permission to browse. Gives the same
+     * answers as {@link #canPrincipalBrowse(IAuthorizationPrincipal, IPortletDefinition)} for each
+     * portlet but evaluates the whole collection in one pass.
+     *
+     * @param principal principal
+     * @param portlets Portlets to check
+     * @return The browsable portlets, in the iteration order of <code>portlets</code>
+     */
+    List<IPortletDefinition> filterBrowsablePortlets(
+            IAuthorizationPrincipal principal, Collection<IPortletDefinition> portlets);
+
     /**
      * Answers if the principal has permission to subscribe to this Channel.
      *
@@ -101,6 +116,19 @@ public interface IAuthorizationService {
      */
     boolean canPrincipalSubscribe(IAuthorizationPrincipal principal, String channelPublishId)
             throws AuthorizationException;
+
+    /**
+     * Filters the portlets down to those the principal has permission to subscribe to. Gives the
+     * same answers as {@link #canPrincipalSubscribe(IAuthorizationPrincipal, String)} for each
+     * portlet but evaluates the whole collection in one pass.
+     *
+     * @param principal principal
+     * @param portlets Portlets to check
+     * @return The portlets that may be subscribed to, in the iteration order of <code>portlets
+     *     </code>
+     */
+    List<IPortletDefinition> filterSubscribablePortlets(
+            IAuthorizationPrincipal principal, Collection<IPortletDefinition> portlets);
     /**
      * Answers if the owner has given the principal permission to perform the activity on the
      * target. Params <code>owner</code> and <code>activity</code> must be non-null. If <code>target
@@ -118,6 +146,25 @@ public interface IAuthorizationService {
     boolean doesPrincipalHavePermission(
             IAuthorizationPrincipal principal, String owner, String activity, String target)
             throws AuthorizationException;
+
+    /**
+     * Answers which of the targets the owner has given the principal (or any of its parents)
+     * permission to perform the activity on. The principal's permissions are resolved once and
+     * every target is evaluated against them, which is much cheaper than calling {@link
+     * #doesPrincipalHavePermission(IAuthorizationPrincipal, String, String, String)} per target
+     * for large lists.
+     *
+     * @param principal IAuthorizationPrincipal
+     * @param owner java.lang.String
+     * @param activity java.lang.String
+     * @param targets Non-null keys of the targets to check
+     * @return A BitSet with the bit at the index of each permitted target set
+     * @exception AuthorizationException indicates authorization information could not be retrieved.
+     */
+    BitSet doesPrincipalHavePermissions(
+            IAuthorizationPrincipal principal, String owner, String activity, List<String> targets)
+            throws AuthorizationException;
+
     /**
      * Returns the <code>IPermissions</code> owner has granted this <code>Principal</code> for the
      * specified activity and target. This includes inherited <code>IPermissions</code>. Null
@@ -14,6 +14,8 @@
  */
 package org.apereo.portal.security;
 
+import java.util.BitSet;
+import java.util.List;
 import org.apereo.portal.AuthorizationException;
 import org.apereo.portal.permission.IPermissionActivity;
 import org.apereo.portal.permission.IPermissionOwner;
@@ -48,4 +50,35 @@ public interface IPermissionPolicy {
             IPermissionActivity activity,
             IPermissionTarget target)
             throws AuthorizationException;
+
+    /**
+     * Answers which of the targets the owner has authorized the principal to perform the activity
+     * on. The default implementation evaluates each target with {@link
+     * #doesPrincipalHavePermission(IAuthorizationService, IAuthorizationPrincipal,
+     * IPermissionOwner, IPermissionActivity, IPermissionTarget)}, policies may override it to share
+     * work across the targets.
+     *
+     * @param service org.apereo.portal.security.IAuthorizationService
+     * @param principal org.apereo.portal.security.IAuthorizationPrincipal
+     * @param owner The 'namespace' of the activity
+     * @param activity The behavior that requires permission
+     * @param targets The objects upon which the behavior will be invoked
+     * @return A BitSet with the bit at the index of each permitted target set
+     * @exception AuthorizationException
+     */
+    default BitSet doesPrincipalHavePermissions(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            List<IPermissionTarget> targets)
+            throws AuthorizationException {
+        final BitSet rslt = new BitSet(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            if (doesPrincipalHavePermission(service, principal, owner, activity, targets.get(i))) {
+                rslt.set(i);
+            }
+        }
+        return rslt;
+    }
 }
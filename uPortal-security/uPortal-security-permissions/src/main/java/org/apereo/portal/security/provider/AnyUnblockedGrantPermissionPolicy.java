@@ -14,9 +14,17 @@
  */
 package org.apereo.portal.security.provider;
 
+import java.util.BitSet;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
 import org.apereo.portal.AuthorizationException;
@@ -38,6 +46,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 /**
@@ -64,22 +73,67 @@ import org.springframework.stereotype.Service;
  * <p>Principal -- Small group (DENY) -- Bigger group -- Huge group Principal -- Some other group --
  * Bigger other group (GRANT) -- Huge group Results in GRANT because there is an unblocked path to a
  * GRANT.
+ *
+ * <p>Answers are kept in a {@link PermissionMatrix} per principal, one row of target bits per owner
+ * and activity. A row is filled in as targets are checked so repeated checks, such as rendering or
+ * browsing the same portlets on every request, are a single bit test. Matrices of users are tagged
+ * with the username and purged when the user logs in again.
+ *
+ * <p>Target keys are interned to ids shared by all matrices for the life of the policy, a row only
+ * holds the 64 bit words of the ids its principal has checked. Targets seen after {@link
+ * #setMaxTargetIds(int)} ids are handed out are answered without caching, the answers of all other
+ * targets stay cached.
  */
 @Service("anyUnblockedGrantPermissionPolicy")
 public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
 
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
-    @Autowired private IPermissionOwnerDao permissionOwnerDao;
+    /** Default for {@link #setMaxTargetIds(int)} */
+    static final int DEFAULT_MAX_TARGET_IDS = 1 << 20;
 
-    @Autowired private IPermissionTargetProviderRegistry targetProviderRegistry;
+    private IPermissionOwnerDao permissionOwnerDao;
+
+    private IPermissionTargetProviderRegistry targetProviderRegistry;
 
-    @Autowired
-    @Qualifier(
-            value =
-                    "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_GRANT")
     private Cache hasUnblockedGrantCache;
 
+    private final TargetIds targetIds = new TargetIds();
+
+    private final AtomicBoolean targetIdsFullLogged = new AtomicBoolean();
+
+    private volatile int maxTargetIds = DEFAULT_MAX_TARGET_IDS;
+
+    @Autowired
+    public void setPermissionOwnerDao(IPermissionOwnerDao permissionOwnerDao) {
+        this.permissionOwnerDao = permissionOwnerDao;
+    }
+
+    @Autowired
+    public void setTargetProviderRegistry(
+            IPermissionTargetProviderRegistry targetProviderRegistry) {
+        this.targetProviderRegistry = targetProviderRegistry;
+    }
+
+    /**
+     * Number of distinct targets whose answers are cached, defaults to 1048576. Set well above the
+     * number of portlets, groups and categories in the portal, checks of targets seen after the
+     * limit is reached are not cached.
+     */
+    @Value(
+            "${org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.maxTargetIds:1048576}")
+    public void setMaxTargetIds(int maxTargetIds) {
+        this.maxTargetIds = maxTargetIds;
+    }
+
+    @Autowired
+    public void setHasUnblockedGrantCache(
+            @Qualifier(
+                            "org.apereo.portal.security.provider.AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_GRANT")
+                    Cache hasUnblockedGrantCache) {
+        this.hasUnblockedGrantCache = hasUnblockedGrantCache;
+    }
+
     @Override
     public boolean doesPrincipalHavePermission(
             IAuthorizationService service,
@@ -114,6 +168,63 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
             return false;
         }
 
+        final PermissionMatrix matrix = getPermissionMatrix(principal);
+        if (isSuperUser(service, principal, matrix, activity)) {
+            // Stop checking;  just return true
+            return true;
+        }
+
+        return hasPermission(service, principal, matrix, owner, activity, target);
+    }
+
+    /**
+     * Resolves the principal's permission matrix and super-user status once for all the targets.
+     * Null targets are never permitted.
+     */
+    @Override
+    public BitSet doesPrincipalHavePermissions(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            List<IPermissionTarget> targets)
+            throws AuthorizationException {
+
+        final BitSet rslt = new BitSet(targets.size());
+        if (service == null || principal == null || owner == null || activity == null) {
+            log.error(
+                    "Null argument to AnyUnblockedGrantPermissionPolicy "
+                            + "doesPrincipalHavePermissions() method should not be possible;  "
+                            + "service='{}', principal='{}', owner='{}', activity='{}'",
+                    service,
+                    principal,
+                    owner,
+                    activity,
+                    new AuthorizationException("Null argument"));
+            // fail closed
+            return rslt;
+        }
+
+        final PermissionMatrix matrix = getPermissionMatrix(principal);
+        final boolean superUser = isSuperUser(service, principal, matrix, activity);
+        for (int i = 0; i < targets.size(); i++) {
+            final IPermissionTarget target = targets.get(i);
+            if (target != null
+                    && (superUser
+                            || hasPermission(
+                                    service, principal, matrix, owner, activity, target))) {
+                rslt.set(i);
+            }
+        }
+        return rslt;
+    }
+
+    private boolean isSuperUser(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            PermissionMatrix matrix,
+            IPermissionActivity activity) {
+
         // Is this user a super-user?  (Should this logic be moved to AuthorizationImpl?)
         final IPermissionActivity allPermissionsActivity =
                 permissionOwnerDao.getPermissionActivity(
@@ -126,16 +237,28 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
                     targetProviderRegistry
                             .getTargetProvider(allPermissionsActivity.getTargetProviderKey())
                             .getTarget(IPermission.ALL_TARGET);
-            if (doesPrincipalHavePermission(
+            return hasPermission(
                     service,
                     principal,
+                    matrix,
                     allPermissionsOwner,
                     allPermissionsActivity,
-                    allPermissionsTarget)) {
-                // Stop checking;  just return true
-                return true;
-            }
+                    allPermissionsTarget);
         }
+        return false;
+    }
+
+    /**
+     * Checks the specified activity and target, including the collective target for its class of
+     * targets, without the super-user check made by {@link #doesPrincipalHavePermission}.
+     */
+    private boolean hasPermission(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            PermissionMatrix matrix,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            IPermissionTarget target) {
 
         /*
          * uPortal uses a few "special" targets that signal permission to
@@ -171,8 +294,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
          * the collective target, else StackOverflowError.
          */
         if (collectiveTarget != null && !collectiveTarget.equals(target)) {
-            if (doesPrincipalHavePermission(
-                    service, principal, owner, activity, collectiveTarget)) {
+            if (hasPermission(service, principal, matrix, owner, activity, collectiveTarget)) {
                 /*
                  * There is a collective for this class of target,
                  * and the user DOES have this special permission
@@ -188,7 +310,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
             final Set<IGroupMember> seenGroups = new HashSet<>();
             rslt =
                     hasUnblockedPathToGrantWithCache(
-                            service, principal, owner, activity, target, seenGroups);
+                            service, principal, matrix, owner, activity, target, seenGroups);
         } catch (Exception e) {
             log.error(
                     "Error searching for unblocked path to grant for principal [" + principal + "]",
@@ -225,22 +347,28 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
     private boolean hasUnblockedPathToGrantWithCache(
             IAuthorizationService service,
             IAuthorizationPrincipal principal,
+            PermissionMatrix matrix,
             IPermissionOwner owner,
             IPermissionActivity activity,
             IPermissionTarget target,
             Set<IGroupMember> seenGroups)
             throws GroupsException {
 
-        final CacheKey cacheKey = getCacheKey(principal, owner, activity, target);
-        Element element = hasUnblockedGrantCache.get(cacheKey);
-        if (element == null) {
-            final boolean answer =
+        final int targetId = getTargetId(target.getKey());
+        if (targetId < 0) {
+            // No more target ids, answer without caching
+            return hasUnblockedPathToGrant(service, principal, owner, activity, target, seenGroups);
+        }
+
+        final PermissionRow row = matrix.getRow(owner.getFname(), activity.getFname());
+        Boolean answer = row.get(targetId);
+        if (answer == null) {
+            answer =
                     hasUnblockedPathToGrant(
                             service, principal, owner, activity, target, seenGroups);
-            element = new Element(cacheKey, answer);
-            hasUnblockedGrantCache.put(element);
+            row.set(targetId, answer);
         }
-        return (Boolean) element.getObjectValue();
+        return answer;
     }
 
     /**
@@ -328,7 +456,13 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
                     IAuthorizationPrincipal parentPrincipal = service.newPrincipal(parentGroup);
                     boolean parentHasUnblockedPathToGrant =
                             hasUnblockedPathToGrantWithCache(
-                                    service, parentPrincipal, owner, activity, target, seenGroups);
+                                    service,
+                                    parentPrincipal,
+                                    getPermissionMatrix(parentPrincipal),
+                                    owner,
+                                    activity,
+                                    target,
+                                    seenGroups);
                     if (parentHasUnblockedPathToGrant) {
                         return true;
                     }
@@ -403,11 +537,37 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
         return rslt;
     }
 
-    protected CacheKey getCacheKey(
-            IAuthorizationPrincipal principal,
-            IPermissionOwner owner,
-            IPermissionActivity activity,
-            IPermissionTarget target) {
+    /** @return The id of the target, -1 if all {@link #setMaxTargetIds(int)} ids are used */
+    private int getTargetId(String targetKey) {
+        final int targetId = targetIds.getId(targetKey, maxTargetIds);
+        if (targetId < 0 && targetIdsFullLogged.compareAndSet(false, true)) {
+            log.warn(
+                    "All {} permission target ids are in use, checks of targets seen from now on "
+                            + "are not cached. Raise maxTargetIds above the number of targets in "
+                            + "the portal.",
+                    maxTargetIds);
+        }
+        return targetId;
+    }
+
+    /** Package visible for tests */
+    int getTargetIdCount() {
+        return targetIds.size();
+    }
+
+    private PermissionMatrix getPermissionMatrix(IAuthorizationPrincipal principal) {
+        final CacheKey cacheKey = getCacheKey(principal);
+        final Element element = hasUnblockedGrantCache.get(cacheKey);
+        if (element != null) {
+            return (PermissionMatrix) element.getObjectValue();
+        }
+
+        final PermissionMatrix matrix = new PermissionMatrix();
+        final Element existing = hasUnblockedGrantCache.putIfAbsent(new Element(cacheKey, matrix));
+        return existing != null ? (PermissionMatrix) existing.getObjectValue() : matrix;
+    }
+
+    protected CacheKey getCacheKey(IAuthorizationPrincipal principal) {
 
         CacheKey rslt;
         if (principal.isGroup()) {
@@ -417,10 +577,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
             rslt =
                     CacheKey.build(
                             AnyUnblockedGrantPermissionPolicy.class.getName(),
-                            principal.getPrincipalString(),
-                            owner.getFname(),
-                            activity.getFname(),
-                            target.getKey());
+                            principal.getPrincipalString());
         } else {
             /*
              * Keys tagged with the username for users;  this practice
@@ -430,12 +587,84 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
                     CacheKey.buildTagged(
                             AnyUnblockedGrantPermissionPolicy.class.getName(),
                             UsernameTaggedCacheEntryPurger.createCacheEntryTag(principal.getKey()),
-                            principal.getPrincipalString(),
-                            owner.getFname(),
-                            activity.getFname(),
-                            target.getKey());
+                            principal.getPrincipalString());
         }
 
         return rslt;
     }
+
+    /** Ids of target keys, used as the bit index in {@link PermissionRow}s */
+    private static final class TargetIds {
+        private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+
+        /** @return The id of the target, -1 if maxIds ids are handed out */
+        int getId(String targetKey, int maxIds) {
+            final Integer id = ids.get(targetKey);
+            if (id != null) {
+                return id;
+            }
+            if (nextId.get() >= maxIds) {
+                return -1;
+            }
+            // Concurrent callers may pass the check above together, keep the ids in bounds
+            final int newId = ids.computeIfAbsent(targetKey, k -> nextId.getAndIncrement());
+            return newId < maxIds ? newId : -1;
+        }
+
+        int size() {
+            return ids.size();
+        }
+    }
+
+    /** Answers of this policy for a single principal, one row per owner and activity */
+    private static final class PermissionMatrix {
+        private final ConcurrentMap<String, ConcurrentMap<String, PermissionRow>> rows =
+                new ConcurrentHashMap<>();
+
+        PermissionRow getRow(String owner, String activity) {
+            ConcurrentMap<String, PermissionRow> ownerRows = rows.get(owner);
+            if (ownerRows == null) {
+                ownerRows = rows.computeIfAbsent(owner, k -> new ConcurrentHashMap<>());
+            }
+            PermissionRow row = ownerRows.get(activity);
+            if (row == null) {
+                row = ownerRows.computeIfAbsent(activity, k -> new PermissionRow());
+            }
+            return row;
+        }
+    }
+
+    /**
+     * Known and granted bits of the targets checked for one activity, indexed by target id. Only
+     * the 64 bit words holding checked targets are kept, so the row's size follows the number of
+     * targets checked rather than the highest target id.
+     */
+    private static final class PermissionRow {
+        private static final int KNOWN = 0;
+        private static final int GRANTED = 1;
+
+        private final Map<Integer, long[]> words = new HashMap<>();
+
+        /** @return The answer for the target, null if it has not been checked yet */
+        synchronized Boolean get(int targetId) {
+            final long[] word = words.get(targetId >>> 6);
+            final long bit = 1L << targetId;
+            if (word == null || (word[KNOWN] & bit) == 0) {
+                return null;
+            }
+            return (word[GRANTED] & bit) != 0;
+        }
+
+        synchronized void set(int targetId, boolean answer) {
+            final long[] word = words.computeIfAbsent(targetId >>> 6, k -> new long[2]);
+            final long bit = 1L << targetId;
+            word[KNOWN] |= bit;
+            if (answer) {
+                word[GRANTED] |= bit;
+            } else {
+                word[GRANTED] &= ~bit;
+            }
+        }
+    }
 }
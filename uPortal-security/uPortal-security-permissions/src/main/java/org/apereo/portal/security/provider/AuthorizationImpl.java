@@ -17,13 +17,17 @@ package org.apereo.portal.security.provider;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.constructs.blocking.CacheEntryFactory;
@@ -434,6 +438,18 @@ public class AuthorizationImpl implements IAuthorizationService {
 
         String target = PermissionHelper.permissionTargetIdForPortletDefinition(portlet);
 
+        // Test the appropriate permission.
+        return doesPrincipalHavePermission(principal, owner, getBrowseActivity(portlet), target);
+    }
+
+    @Override
+    public List<IPortletDefinition> filterBrowsablePortlets(
+            IAuthorizationPrincipal principal, Collection<IPortletDefinition> portlets) {
+        return filterPortlets(
+                principal, IPermission.PORTAL_SUBSCRIBE, portlets, this::getBrowseActivity);
+    }
+
+    private String getBrowseActivity(IPortletDefinition portlet) {
         PortletLifecycleState state = portlet.getLifecycleState();
 
         /*
@@ -457,9 +473,7 @@ public class AuthorizationImpl implements IAuthorizationService {
                     "Unrecognized lifecycle state for channel "
                             + portlet.getPortletDefinitionId().getStringId());
         }
-
-        // Test the appropriate permission.
-        return doesPrincipalHavePermission(principal, owner, permission, target);
+        return permission;
     }
 
     /**
@@ -486,6 +500,19 @@ public class AuthorizationImpl implements IAuthorizationService {
 
         String target = PermissionHelper.permissionTargetIdForPortletDefinition(portlet);
 
+        // Test the appropriate permission.
+        return doesPrincipalHavePermission(
+                principal, owner, getSubscribeActivity(portlet), target);
+    }
+
+    @Override
+    public List<IPortletDefinition> filterSubscribablePortlets(
+            IAuthorizationPrincipal principal, Collection<IPortletDefinition> portlets) {
+        return filterPortlets(
+                principal, IPermission.PORTAL_SUBSCRIBE, portlets, this::getSubscribeActivity);
+    }
+
+    private String getSubscribeActivity(IPortletDefinition portlet) {
         PortletLifecycleState state = portlet.getLifecycleState();
 
         /*
@@ -506,11 +533,52 @@ public class AuthorizationImpl implements IAuthorizationService {
             permission = IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
         } else {
             throw new AuthorizationException(
-                    "Unrecognized lifecycle state for channel " + portletDefinitionId);
+                    "Unrecognized lifecycle state for channel "
+                            + portlet.getPortletDefinitionId().getStringId());
         }
+        return permission;
+    }
 
-        // Test the appropriate permission.
-        return doesPrincipalHavePermission(principal, owner, permission, target);
+    /**
+     * Portlets in different lifecycle states are checked against different activities, so the
+     * portlets are grouped by activity and each group is checked with a single bulk call.
+     */
+    private List<IPortletDefinition> filterPortlets(
+            IAuthorizationPrincipal principal,
+            String owner,
+            Collection<IPortletDefinition> portlets,
+            Function<IPortletDefinition, String> activityFunction) {
+
+        final IPortletDefinition[] portletArray =
+                portlets.toArray(new IPortletDefinition[portlets.size()]);
+        final Map<String, List<Integer>> indexesByActivity = new LinkedHashMap<>();
+        for (int i = 0; i < portletArray.length; i++) {
+            final String activity = activityFunction.apply(portletArray[i]);
+            indexesByActivity.computeIfAbsent(activity, k -> new ArrayList<>()).add(i);
+        }
+
+        final BitSet permitted = new BitSet(portletArray.length);
+        for (final Map.Entry<String, List<Integer>> entry : indexesByActivity.entrySet()) {
+            final List<Integer> indexes = entry.getValue();
+            final List<String> targets = new ArrayList<>(indexes.size());
+            for (final Integer index : indexes) {
+                targets.add(
+                        PermissionHelper.permissionTargetIdForPortletDefinition(
+                                portletArray[index]));
+            }
+
+            final BitSet bits =
+                    doesPrincipalHavePermissions(principal, owner, entry.getKey(), targets);
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                permitted.set(indexes.get(i));
+            }
+        }
+
+        final List<IPortletDefinition> rslt = new ArrayList<>(permitted.cardinality());
+        for (int i = permitted.nextSetBit(0); i >= 0; i = permitted.nextSetBit(i + 1)) {
+            rslt.add(portletArray[i]);
+        }
+        return rslt;
     }
 
     /**
@@ -534,6 +602,38 @@ public class AuthorizationImpl implements IAuthorizationService {
                 principal, owner, activity, target, getDefaultPermissionPolicy());
     }
 
+    @Override
+    public BitSet doesPrincipalHavePermissions(
+            IAuthorizationPrincipal principal, String owner, String activity, List<String> targets)
+            throws AuthorizationException {
+
+        final IPermissionPolicy policy = getDefaultPermissionPolicy();
+        final IPermissionActivity ipActivity =
+                permissionOwnerDao.getPermissionActivity(owner, activity);
+        if (ipActivity == null) {
+            /*
+             * Only admins have permission to an unknown activity and that does not depend on the
+             * target;  the single target check also logs the missing data.
+             */
+            final BitSet rslt = new BitSet(targets.size());
+            if (!targets.isEmpty()
+                    && doesPrincipalHavePermission(
+                            principal, owner, activity, targets.get(0), policy)) {
+                rslt.set(0, targets.size());
+            }
+            return rslt;
+        }
+
+        final IPermissionOwner ipOwner = permissionOwnerDao.getPermissionOwner(owner);
+        final IPermissionTargetProvider targetProvider =
+                targetProviderRegistry.getTargetProvider(ipActivity.getTargetProviderKey());
+        final List<IPermissionTarget> ipTargets = new ArrayList<>(targets.size());
+        for (final String target : targets) {
+            ipTargets.add(targetProvider.getTarget(target));
+        }
+        return policy.doesPrincipalHavePermissions(this, principal, ipOwner, ipActivity, ipTargets);
+    }
+
     /**
      * Answers if the owner has given the principal permission to perform the activity on the
      * target, as evaluated by the policy. Params <code>policy</code>, <code>owner</code> and <code>
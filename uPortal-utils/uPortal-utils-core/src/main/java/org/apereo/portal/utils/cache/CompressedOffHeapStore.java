@@ -0,0 +1,346 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Byte bounded LRU store that keeps values serialized and deflate compressed in direct (off-heap)
+ * memory. Intended as a second tier behind an on-heap cache for large values such as rendered
+ * markup: only the small key and entry objects stay on the heap so the store can hold far more data
+ * than the heap cache without adding to old generation garbage collection work.
+ *
+ * <p>All of the direct memory, <code>maxBytes</code> rounded down to whole blocks, is allocated
+ * when the store is created and split into fixed size blocks. A value occupies as many blocks as
+ * its compressed form needs, blocks of removed and evicted values go back on a free list for reuse
+ * so the store never allocates direct memory after construction and does not depend on garbage
+ * collection to release it. The JVM must allow enough direct memory (<code>
+ * -XX:MaxDirectMemorySize</code>) for <code>maxBytes</code>.
+ *
+ * <p>Every {@link #get(Object)} deserializes a new copy of the value. Serialization and compression
+ * happen outside of the store's lock, only the index updates and block copies are synchronized.
+ */
+public class CompressedOffHeapStore<K, V extends Serializable> {
+    /** Default size of the blocks values are stored in */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    // Largest direct buffer allocated, the block arena is split across as many as needed
+    private static final int MAX_SLAB_BYTES = 1 << 30;
+
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final int blockSize;
+    private final int blockCount;
+    private final int blocksPerSlab;
+    private final ByteBuffer[] slabs;
+    private final int[] freeBlocks;
+    private int freeBlockCount;
+
+    private final Map<K, StoredValue> entries = new LinkedHashMap<>(16, .75f, true);
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /** @param maxBytes Maximum number of bytes of direct memory used by the store */
+    public CompressedOffHeapStore(long maxBytes) {
+        this(maxBytes, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param maxBytes Maximum number of bytes of direct memory used by the store
+     * @param blockSize Size of the blocks values are stored in, smaller blocks waste less space on
+     *     the last partially filled block of each value. Reduced to <code>maxBytes</code> if
+     *     larger.
+     */
+    public CompressedOffHeapStore(long maxBytes, int blockSize) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be greater than 0");
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be greater than 0");
+        }
+        this.blockSize = (int) Math.min(blockSize, maxBytes);
+        this.blockCount = (int) Math.min(maxBytes / this.blockSize, Integer.MAX_VALUE);
+        this.blocksPerSlab = Math.max(1, MAX_SLAB_BYTES / this.blockSize);
+
+        this.slabs =
+                new ByteBuffer[(this.blockCount + this.blocksPerSlab - 1) / this.blocksPerSlab];
+        for (int i = 0; i < this.slabs.length; i++) {
+            final int slabBlocks =
+                    Math.min(this.blocksPerSlab, this.blockCount - i * this.blocksPerSlab);
+            this.slabs[i] = ByteBuffer.allocateDirect(slabBlocks * this.blockSize);
+        }
+
+        this.freeBlocks = new int[this.blockCount];
+        this.resetFreeBlocks();
+    }
+
+    /**
+     * Store a value, replacing any existing value for the key. Least recently used entries are
+     * evicted to make room, values that compress to more than <code>maxBytes</code> are not stored.
+     *
+     * @param expirationTime Time since the epoch in milliseconds after which the value is no longer
+     *     returned, {@link Long#MAX_VALUE} if it does not expire
+     * @return true if the value was stored
+     */
+    public boolean put(K key, V value, long expirationTime) {
+        final byte[] compressed;
+        try {
+            compressed = compress(value);
+        } catch (IOException e) {
+            logger.warn("Failed to serialize value for key {}, it will not be stored", key, e);
+            this.remove(key);
+            return false;
+        }
+
+        final long neededBlocks = (compressed.length + (long) this.blockSize - 1) / this.blockSize;
+        if (neededBlocks > this.blockCount) {
+            logger.debug(
+                    "Compressed value for key {} is {} bytes, larger than the store, not storing",
+                    key,
+                    compressed.length);
+            this.remove(key);
+            return false;
+        }
+
+        synchronized (this.entries) {
+            final StoredValue previous = this.entries.remove(key);
+            if (previous != null) {
+                this.releaseBlocks(previous);
+            }
+
+            final Iterator<StoredValue> eldestIterator = this.entries.values().iterator();
+            while (this.freeBlockCount < neededBlocks && eldestIterator.hasNext()) {
+                this.releaseBlocks(eldestIterator.next());
+                eldestIterator.remove();
+                this.evictionCount++;
+            }
+
+            final int[] blocks = new int[(int) neededBlocks];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = this.freeBlocks[--this.freeBlockCount];
+            }
+            this.writeBlocks(blocks, compressed);
+
+            this.entries.put(key, new StoredValue(blocks, compressed.length, expirationTime));
+        }
+
+        return true;
+    }
+
+    /** @return A copy of the value stored for the key, null if there is none or it has expired */
+    public V get(K key) {
+        final byte[] compressed;
+        synchronized (this.entries) {
+            final StoredValue storedValue = this.entries.get(key);
+            if (storedValue == null) {
+                this.missCount++;
+                return null;
+            }
+            if (storedValue.expirationTime <= System.currentTimeMillis()) {
+                this.entries.remove(key);
+                this.releaseBlocks(storedValue);
+                this.missCount++;
+                return null;
+            }
+            this.hitCount++;
+            compressed = this.readBlocks(storedValue);
+        }
+
+        try {
+            return decompress(compressed);
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            logger.warn("Failed to deserialize value for key {}, removing it", key, e);
+            this.remove(key);
+            return null;
+        }
+    }
+
+    /** @return The expiration time of the value stored for the key, -1 if there is none */
+    public long getExpirationTime(K key) {
+        synchronized (this.entries) {
+            final StoredValue storedValue = this.entries.get(key);
+            return storedValue != null ? storedValue.expirationTime : -1;
+        }
+    }
+
+    /** Remove the value stored for the key */
+    public void remove(K key) {
+        synchronized (this.entries) {
+            final StoredValue storedValue = this.entries.remove(key);
+            if (storedValue != null) {
+                this.releaseBlocks(storedValue);
+            }
+        }
+    }
+
+    /** @return Number of entries removed because their key matched */
+    public int removeIf(Predicate<? super K> keyPredicate) {
+        int removed = 0;
+        synchronized (this.entries) {
+            for (final Iterator<Map.Entry<K, StoredValue>> entryIterator =
+                            this.entries.entrySet().iterator();
+                    entryIterator.hasNext(); ) {
+                final Map.Entry<K, StoredValue> entry = entryIterator.next();
+                if (keyPredicate.test(entry.getKey())) {
+                    this.releaseBlocks(entry.getValue());
+                    entryIterator.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** Remove all entries */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.resetFreeBlocks();
+        }
+    }
+
+    /** @return Bytes of direct memory allocated by the store */
+    public long getMaxBytes() {
+        return (long) this.blockCount * this.blockSize;
+    }
+
+    /** @return Bytes of direct memory in blocks holding values */
+    public long getUsedBytes() {
+        synchronized (this.entries) {
+            return (long) (this.blockCount - this.freeBlockCount) * this.blockSize;
+        }
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    public int getSize() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (this.entries) {
+            return this.hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (this.entries) {
+            return this.missCount;
+        }
+    }
+
+    public long getEvictionCount() {
+        synchronized (this.entries) {
+            return this.evictionCount;
+        }
+    }
+
+    /** Must be called while holding the entries lock */
+    private void resetFreeBlocks() {
+        // Hand out blocks in ascending order
+        for (int i = 0; i < this.blockCount; i++) {
+            this.freeBlocks[i] = this.blockCount - 1 - i;
+        }
+        this.freeBlockCount = this.blockCount;
+    }
+
+    /** Must be called while holding the entries lock */
+    private void releaseBlocks(StoredValue storedValue) {
+        for (final int block : storedValue.blocks) {
+            this.freeBlocks[this.freeBlockCount++] = block;
+        }
+    }
+
+    /** Must be called while holding the entries lock, the slab positions are shared */
+    private void writeBlocks(int[] blocks, byte[] data) {
+        for (int i = 0; i < blocks.length; i++) {
+            final int offset = i * this.blockSize;
+            final ByteBuffer slab = this.positionSlab(blocks[i]);
+            slab.put(data, offset, Math.min(this.blockSize, data.length - offset));
+        }
+    }
+
+    /** Must be called while holding the entries lock, the slab positions are shared */
+    private byte[] readBlocks(StoredValue storedValue) {
+        final byte[] data = new byte[storedValue.length];
+        final int[] blocks = storedValue.blocks;
+        for (int i = 0; i < blocks.length; i++) {
+            final int offset = i * this.blockSize;
+            final ByteBuffer slab = this.positionSlab(blocks[i]);
+            slab.get(data, offset, Math.min(this.blockSize, data.length - offset));
+        }
+        return data;
+    }
+
+    private ByteBuffer positionSlab(int block) {
+        final ByteBuffer slab = this.slabs[block / this.blocksPerSlab];
+        slab.clear();
+        slab.position((block % this.blocksPerSlab) * this.blockSize);
+        return slab;
+    }
+
+    private byte[] compress(V value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (ObjectOutputStream out =
+                new ObjectOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeObject(value);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V decompress(byte[] compressed) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in =
+                new ObjectInputStream(
+                        new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+            return (V) in.readObject();
+        }
+    }
+
+    private static final class StoredValue {
+        private final int[] blocks;
+        private final int length;
+        private final long expirationTime;
+
+        StoredValue(int[] blocks, int length, long expirationTime) {
+            this.blocks = blocks;
+            this.length = length;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Read-only, array backed list of {@link XMLEvent}s intended for long lived caches.
+ *
+ * <p>Elements, text, comments and processing instructions are re-created once as immutable events
+ * without location information and shared: identical events, within the list and across all
+ * lists, are the same instance. {@link QName}s are shared the same way and adjacent character data
+ * is merged into a single event. {@link #get(int)} returns the stored instance so reading a cached
+ * list never allocates events.
+ *
+ * <p>Event types without a shared form (start/end document, DTD, entity references, ...) are kept
+ * as is. As these events are not serializable neither is the list, it must only be stored in
+ * memory caches.
+ */
+public final class CompactXMLEventList extends AbstractList<XMLEvent> implements RandomAccess {
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newFactory();
+
+    // Since the caches use weak refs for the values they should never be a cause for object
+    // retention therefor no max-size is needed
+    private static final LoadingCache<QNameKey, QName> WEAK_NAME_CACHE =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(
+                            new CacheLoader<QNameKey, QName>() {
+                                @Override
+                                public QName load(QNameKey key) throws Exception {
+                                    return new QName(key.namespaceURI, key.localPart, key.prefix);
+                                }
+                            });
+
+    private static final Cache<EventKey, XMLEvent> WEAK_EVENT_CACHE =
+            CacheBuilder.newBuilder().weakValues().build();
+
+    private final XMLEvent[] events;
+
+    /** Compact the specified events, the source list is not referenced after construction */
+    public CompactXMLEventList(List<? extends XMLEvent> events) {
+        final Builder builder = new Builder(events.size());
+        for (final XMLEvent event : events) {
+            builder.add(event);
+        }
+        builder.flushCharacters();
+
+        this.events = builder.events.toArray(new XMLEvent[builder.events.size()]);
+    }
+
+    @Override
+    public int size() {
+        return this.events.length;
+    }
+
+    @Override
+    public XMLEvent get(int index) {
+        return this.events[index];
+    }
+
+    /** @return The shared event for the key, created if no list currently uses it */
+    private static XMLEvent getSharedEvent(EventKey key) {
+        final XMLEvent sharedEvent = WEAK_EVENT_CACHE.getIfPresent(key);
+        if (sharedEvent != null) {
+            return sharedEvent;
+        }
+
+        final XMLEvent event = createEvent(key.parts);
+        final XMLEvent existingEvent = WEAK_EVENT_CACHE.asMap().putIfAbsent(key, event);
+        return existingEvent != null ? existingEvent : event;
+    }
+
+    private static XMLEvent createEvent(Object[] parts) {
+        final int type = (Integer) parts[0];
+        switch (type) {
+            case XMLStreamConstants.START_ELEMENT:
+                {
+                    final QName name = getSharedName((QNameKey) parts[1]);
+
+                    final int attributeCount = (Integer) parts[2];
+                    final List<Attribute> attributes = new ArrayList<>(attributeCount);
+                    int index = 3;
+                    for (int i = 0; i < attributeCount; i++) {
+                        final QName attributeName = getSharedName((QNameKey) parts[index++]);
+                        final String value = (String) parts[index++];
+                        attributes.add(EVENT_FACTORY.createAttribute(attributeName, value));
+                    }
+
+                    final List<Namespace> namespaces = createNamespaces(parts, index);
+                    return EVENT_FACTORY.createStartElement(
+                            name, attributes.iterator(), namespaces.iterator());
+                }
+            case XMLStreamConstants.END_ELEMENT:
+                {
+                    final QName name = getSharedName((QNameKey) parts[1]);
+                    final List<Namespace> namespaces = createNamespaces(parts, 2);
+                    return EVENT_FACTORY.createEndElement(name, namespaces.iterator());
+                }
+            case XMLStreamConstants.CHARACTERS:
+                return EVENT_FACTORY.createCharacters((String) parts[1]);
+            case XMLStreamConstants.CDATA:
+                return EVENT_FACTORY.createCData((String) parts[1]);
+            case XMLStreamConstants.SPACE:
+                return EVENT_FACTORY.createSpace((String) parts[1]);
+            case XMLStreamConstants.COMMENT:
+                return EVENT_FACTORY.createComment((String) parts[1]);
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                return EVENT_FACTORY.createProcessingInstruction(
+                        (String) parts[1], (String) parts[2]);
+            default:
+                throw new IllegalStateException("No shared form for event type: " + type);
+        }
+    }
+
+    private static List<Namespace> createNamespaces(Object[] parts, int index) {
+        if (index == parts.length) {
+            return Collections.emptyList();
+        }
+
+        final List<Namespace> namespaces = new ArrayList<>((parts.length - index) / 2);
+        while (index < parts.length) {
+            final String prefix = (String) parts[index++];
+            final String namespaceURI = (String) parts[index++];
+            if (XMLConstants.DEFAULT_NS_PREFIX.equals(prefix)) {
+                namespaces.add(EVENT_FACTORY.createNamespace(namespaceURI));
+            } else {
+                namespaces.add(EVENT_FACTORY.createNamespace(prefix, namespaceURI));
+            }
+        }
+        return namespaces;
+    }
+
+    private static QName getSharedName(QNameKey key) {
+        return WEAK_NAME_CACHE.getUnchecked(key);
+    }
+
+    /** Builds the list of shared events, merging adjacent character data */
+    private static final class Builder {
+        private final List<XMLEvent> events;
+        private final List<Object> parts = new ArrayList<>();
+        private final StringBuilder pendingCharacters = new StringBuilder();
+        private int pendingCharactersType = -1;
+
+        Builder(int expectedEvents) {
+            this.events = new ArrayList<>(expectedEvents);
+        }
+
+        void add(XMLEvent event) {
+            final int eventType = event.getEventType();
+            switch (eventType) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    {
+                        this.addCharacters(event.asCharacters());
+                        return;
+                    }
+            }
+
+            this.flushCharacters();
+            this.parts.add(eventType);
+            switch (eventType) {
+                case XMLStreamConstants.START_ELEMENT:
+                    {
+                        final StartElement startElement = event.asStartElement();
+                        this.parts.add(new QNameKey(startElement.getName()));
+
+                        final int attributeCountIndex = this.parts.size();
+                        this.parts.add(0);
+                        int attributeCount = 0;
+                        for (final Iterator<Attribute> attributes = startElement.getAttributes();
+                                attributes.hasNext(); ) {
+                            final Attribute attribute = attributes.next();
+                            this.parts.add(new QNameKey(attribute.getName()));
+                            this.parts.add(nullToEmpty(attribute.getValue()));
+                            attributeCount++;
+                        }
+                        this.parts.set(attributeCountIndex, attributeCount);
+
+                        this.addNamespaces(startElement.getNamespaces());
+                        break;
+                    }
+                case XMLStreamConstants.END_ELEMENT:
+                    {
+                        final EndElement endElement = event.asEndElement();
+                        this.parts.add(new QNameKey(endElement.getName()));
+                        this.addNamespaces(endElement.getNamespaces());
+                        break;
+                    }
+                case XMLStreamConstants.COMMENT:
+                    {
+                        this.parts.add(nullToEmpty(((Comment) event).getText()));
+                        break;
+                    }
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    {
+                        final ProcessingInstruction pi = (ProcessingInstruction) event;
+                        this.parts.add(nullToEmpty(pi.getTarget()));
+                        this.parts.add(nullToEmpty(pi.getData()));
+                        break;
+                    }
+                default:
+                    {
+                        this.parts.clear();
+                        this.events.add(event);
+                        return;
+                    }
+            }
+            this.addSharedEvent();
+        }
+
+        private void addCharacters(Characters characters) {
+            final int type;
+            if (characters.isCData()) {
+                type = XMLStreamConstants.CDATA;
+            } else if (characters.isIgnorableWhiteSpace()) {
+                type = XMLStreamConstants.SPACE;
+            } else {
+                type = XMLStreamConstants.CHARACTERS;
+            }
+
+            // CDATA sections are kept separate so their boundaries survive serialization
+            if (type != this.pendingCharactersType || type == XMLStreamConstants.CDATA) {
+                this.flushCharacters();
+                this.pendingCharactersType = type;
+            }
+            this.pendingCharacters.append(characters.getData());
+        }
+
+        void flushCharacters() {
+            if (this.pendingCharactersType == -1) {
+                return;
+            }
+
+            this.parts.add(this.pendingCharactersType);
+            this.parts.add(this.pendingCharacters.toString());
+            this.addSharedEvent();
+
+            this.pendingCharacters.setLength(0);
+            this.pendingCharactersType = -1;
+        }
+
+        private void addNamespaces(Iterator<Namespace> namespaces) {
+            while (namespaces.hasNext()) {
+                final Namespace namespace = namespaces.next();
+                this.parts.add(nullToEmpty(namespace.getPrefix()));
+                this.parts.add(nullToEmpty(namespace.getNamespaceURI()));
+            }
+        }
+
+        private void addSharedEvent() {
+            final EventKey key = new EventKey(this.parts.toArray());
+            this.parts.clear();
+            this.events.add(getSharedEvent(key));
+        }
+
+        private static String nullToEmpty(String value) {
+            return value == null ? "" : value;
+        }
+    }
+
+    /** Content of a shared event, equal for events that would produce identical output */
+    private static final class EventKey {
+        private final Object[] parts;
+        private final int hash;
+
+        EventKey(Object[] parts) {
+            this.parts = parts;
+            this.hash = Arrays.hashCode(parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof EventKey)) return false;
+            final EventKey other = (EventKey) obj;
+            return this.hash == other.hash && Arrays.equals(this.parts, other.parts);
+        }
+    }
+
+    /** Name key that, unlike {@link QName}, includes the prefix in equality */
+    private static final class QNameKey {
+        private final String namespaceURI;
+        private final String localPart;
+        private final String prefix;
+        private final int hash;
+
+        QNameKey(QName name) {
+            this.namespaceURI = name.getNamespaceURI();
+            this.localPart = name.getLocalPart();
+            this.prefix = name.getPrefix();
+            this.hash =
+                    (31 * this.namespaceURI.hashCode() + this.localPart.hashCode()) * 31
+                            + this.prefix.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof QNameKey)) return false;
+            final QNameKey other = (QNameKey) obj;
+            return this.localPart.equals(other.localPart)
+                    && this.namespaceURI.equals(other.namespaceURI)
+                    && this.prefix.equals(other.prefix);
+        }
+    }
+}
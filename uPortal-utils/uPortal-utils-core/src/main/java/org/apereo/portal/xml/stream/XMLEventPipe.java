@@ -0,0 +1,417 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Bounded producer/consumer hand-off of {@link XMLEvent}s between two threads. One thread writes
+ * events to {@link #getWriter()} while another consumes them from {@link #getReader()} as they
+ * are produced. Events are handed over in fixed size blocks to keep queue contention low and at
+ * most <code>capacity * blockSize</code> events are ever held in memory, the producer blocks when
+ * the consumer falls behind.
+ *
+ * <p>The producer must call {@link XMLEventWriter#close()} when done or {@link #fail(Throwable)}
+ * if it could not complete, the failure is re-thrown to the consumer. The consumer must close the
+ * pipe, or its reader, when it stops reading early, including when it fails. Once closed every
+ * write fails immediately so the producer can abandon its work.
+ */
+public class XMLEventPipe implements Closeable {
+    private static final Object END_OF_STREAM = new Object();
+    private static final long CLOSE_CHECK_INTERVAL = 100;
+
+    private final BlockingQueue<Object> queue;
+    private final int blockSize;
+    private final long timeout;
+    private final PipeWriter writer;
+    private final PipeReader reader;
+
+    private volatile boolean readerClosed = false;
+
+    /**
+     * @param capacity Maximum number of blocks queued between the producer and the consumer
+     * @param blockSize Number of events per block handed to the consumer
+     * @param timeout Maximum time in milliseconds either side waits on the other before failing
+     */
+    public XMLEventPipe(int capacity, int blockSize, long timeout) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be greater than 0");
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.blockSize = blockSize;
+        this.timeout = timeout;
+        this.writer = new PipeWriter();
+        this.reader = new PipeReader();
+    }
+
+    /** @return The writer side of the pipe, must only be used by the producing thread */
+    public XMLEventWriter getWriter() {
+        return this.writer;
+    }
+
+    /** @return The reader side of the pipe, must only be used by the consuming thread */
+    public XMLEventReader getReader() {
+        return this.reader;
+    }
+
+    /** Close the reader side of the pipe, must only be called by the consuming thread */
+    @Override
+    public void close() {
+        this.reader.close();
+    }
+
+    /** @return true if the reader side of the pipe has been closed */
+    public boolean isClosed() {
+        return this.readerClosed;
+    }
+
+    /**
+     * Signal that the producer failed, the consumer will receive the cause wrapped in an {@link
+     * XMLStreamException} once it has read all events written before the failure.
+     */
+    public void fail(Throwable cause) {
+        this.writer.flushBlock();
+        this.put(new PipeFailure(cause), false);
+    }
+
+    private boolean put(Object element, boolean failOnTimeout) {
+        try {
+            long deadline = System.currentTimeMillis() + this.timeout;
+            while (!this.readerClosed) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    if (failOnTimeout) {
+                        return false;
+                    }
+                    // Termination markers must get through, drop queued data to make room
+                    this.queue.clear();
+                    deadline = System.currentTimeMillis() + this.timeout;
+                    continue;
+                }
+
+                // Wait in short slices so a closed reader is noticed promptly
+                if (this.queue.offer(
+                        element,
+                        Math.min(remaining, CLOSE_CHECK_INTERVAL),
+                        TimeUnit.MILLISECONDS)) {
+                    if (this.readerClosed) {
+                        // Closed while offering, nobody will read the element
+                        this.queue.clear();
+                        return false;
+                    }
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static final class PipeFailure {
+        private final Throwable cause;
+
+        PipeFailure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final class PipeWriter implements XMLEventWriter {
+        private final Map<String, String> prefixes = new LinkedHashMap<>();
+        private XMLEvent[] block = new XMLEvent[blockSize];
+        private int blockLength = 0;
+        private boolean closed = false;
+        private NamespaceContext namespaceContext;
+
+        @Override
+        public void add(XMLEvent event) throws XMLStreamException {
+            if (this.closed) {
+                throw new XMLStreamException("XMLEventPipe writer has already been closed");
+            }
+            if (readerClosed) {
+                throw new XMLStreamException("XMLEventPipe reader has been closed");
+            }
+            this.block[this.blockLength++] = event;
+            if (this.blockLength == this.block.length) {
+                this.writeBlock();
+            }
+        }
+
+        @Override
+        public void add(XMLEventReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                this.add(reader.nextEvent());
+            }
+        }
+
+        @Override
+        public void flush() throws XMLStreamException {
+            if (this.blockLength > 0) {
+                this.writeBlock();
+            }
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            if (this.closed) {
+                return;
+            }
+            this.flush();
+            this.closed = true;
+            this.putOrThrow(END_OF_STREAM);
+        }
+
+        void flushBlock() {
+            if (this.blockLength > 0 && !this.closed) {
+                put(this.trimBlock(), false);
+            }
+            this.closed = true;
+        }
+
+        private void writeBlock() throws XMLStreamException {
+            this.putOrThrow(this.trimBlock());
+        }
+
+        private void putOrThrow(Object element) throws XMLStreamException {
+            if (!put(element, true)) {
+                if (readerClosed) {
+                    throw new XMLStreamException("XMLEventPipe reader has been closed");
+                }
+                throw new XMLStreamException(
+                        "Timed out after " + timeout + "ms waiting for XMLEventPipe reader");
+            }
+        }
+
+        private XMLEvent[] trimBlock() {
+            XMLEvent[] full = this.block;
+            if (this.blockLength < full.length) {
+                final XMLEvent[] trimmed = new XMLEvent[this.blockLength];
+                System.arraycopy(full, 0, trimmed, 0, this.blockLength);
+                full = trimmed;
+            } else {
+                this.block = new XMLEvent[blockSize];
+            }
+            this.blockLength = 0;
+            return full;
+        }
+
+        @Override
+        public String getPrefix(String uri) {
+            return this.prefixes.get(uri);
+        }
+
+        @Override
+        public void setPrefix(String prefix, String uri) {
+            this.prefixes.put(uri, prefix);
+        }
+
+        @Override
+        public void setDefaultNamespace(String uri) {
+            // NO-OP, events carry their own namespace information
+        }
+
+        @Override
+        public void setNamespaceContext(NamespaceContext context) {
+            this.namespaceContext = context;
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return this.namespaceContext;
+        }
+    }
+
+    private final class PipeReader implements XMLEventReader {
+        private XMLEvent[] block;
+        private int blockIndex;
+        private boolean ended = false;
+        private XMLEvent previousEvent;
+
+        /** Make sure there is an event available in the current block, false if at the end */
+        private boolean fill() throws XMLStreamException {
+            while (!this.ended && (this.block == null || this.blockIndex >= this.block.length)) {
+                final Object element;
+                try {
+                    element = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new XMLStreamException("Interrupted waiting for XMLEventPipe writer", e);
+                }
+
+                if (element == null) {
+                    throw new XMLStreamException(
+                            "Timed out after " + timeout + "ms waiting for XMLEventPipe writer");
+                }
+                if (element == END_OF_STREAM) {
+                    this.ended = true;
+                } else if (element instanceof PipeFailure) {
+                    this.ended = true;
+                    final Throwable cause = ((PipeFailure) element).cause;
+                    throw new XMLStreamException(
+                            "XMLEventPipe writer failed: " + cause.getMessage(), cause);
+                } else {
+                    this.block = (XMLEvent[]) element;
+                    this.blockIndex = 0;
+                }
+            }
+            return !this.ended;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return this.fill();
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public XMLEvent nextEvent() throws XMLStreamException {
+            if (!this.fill()) {
+                throw new NoSuchElementException();
+            }
+            this.previousEvent = this.block[this.blockIndex];
+            this.block[this.blockIndex++] = null;
+            return this.previousEvent;
+        }
+
+        @Override
+        public Object next() {
+            try {
+                return this.nextEvent();
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public XMLEvent peek() throws XMLStreamException {
+            if (!this.fill()) {
+                return null;
+            }
+            return this.block[this.blockIndex];
+        }
+
+        @Override
+        public String getElementText() throws XMLStreamException {
+            XMLEvent event = this.previousEvent;
+            if (event == null || !event.isStartElement()) {
+                throw new XMLStreamException("Must be on START_ELEMENT to read next text");
+            }
+
+            final StringBuilder text = new StringBuilder();
+            event = this.nextEvent();
+            while (!event.isEndElement()) {
+                switch (event.getEventType()) {
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                    case XMLStreamConstants.CDATA:
+                        {
+                            final Characters characters = event.asCharacters();
+                            text.append(characters.getData());
+                            break;
+                        }
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        {
+                            final EntityReference entityReference = (EntityReference) event;
+                            final EntityDeclaration declaration =
+                                    entityReference.getDeclaration();
+                            text.append(declaration.getReplacementText());
+                            break;
+                        }
+                    case XMLStreamConstants.COMMENT:
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        {
+                            // Ignore
+                            break;
+                        }
+                    default:
+                        {
+                            throw new XMLStreamException(
+                                    "Unexpected event type '"
+                                            + XMLStreamConstantsUtils.getEventName(
+                                                    event.getEventType())
+                                            + "' encountered. Found event: "
+                                            + event,
+                                    event.getLocation());
+                        }
+                }
+
+                event = this.nextEvent();
+            }
+
+            return text.toString();
+        }
+
+        @Override
+        public XMLEvent nextTag() throws XMLStreamException {
+            XMLEvent event = this.nextEvent();
+            while ((event.isCharacters() && event.asCharacters().isWhiteSpace())
+                    || event.isProcessingInstruction()
+                    || event.getEventType() == XMLStreamConstants.COMMENT) {
+
+                event = this.nextEvent();
+            }
+
+            if (!event.isStartElement() && !event.isEndElement()) {
+                throw new XMLStreamException(
+                        "Unexpected event type '"
+                                + XMLStreamConstantsUtils.getEventName(event.getEventType())
+                                + "' encountered. Found event: "
+                                + event,
+                        event.getLocation());
+            }
+
+            return event;
+        }
+
+        @Override
+        public Object getProperty(String name) throws IllegalArgumentException {
+            return null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            readerClosed = true;
+            this.ended = true;
+            this.block = null;
+            queue.clear();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.utils.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Test;
+
+public class CompressedOffHeapStoreTest {
+
+    @Test
+    public void testPutGet() {
+        final CompressedOffHeapStore<String, ArrayList<String>> store =
+                new CompressedOffHeapStore<>(1024 * 1024);
+
+        final ArrayList<String> value = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            value.add("<div class=\"portlet-content\">Item " + i + "</div>");
+        }
+
+        assertTrue(store.put("a", value, Long.MAX_VALUE));
+        final ArrayList<String> stored = store.get("a");
+        assertEquals(value, stored);
+        assertNotSame(value, stored);
+        assertEquals(1, store.getSize());
+        assertEquals(1, store.getHitCount());
+        assertTrue("Repetitive markup should compress", store.getUsedBytes() < value.size() * 30);
+
+        assertNull(store.get("b"));
+        assertEquals(1, store.getMissCount());
+    }
+
+    @Test
+    public void testExpiration() {
+        final CompressedOffHeapStore<String, String> store = new CompressedOffHeapStore<>(4096);
+
+        store.put("a", "expired", System.currentTimeMillis() - 1);
+        assertNull(store.get("a"));
+        assertEquals(0, store.getSize());
+        assertEquals(0, store.getUsedBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final CompressedOffHeapStore<Integer, String> store = new CompressedOffHeapStore<>(4096);
+
+        final StringBuilder random = new StringBuilder();
+        final Random rnd = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            random.append((char) ('a' + rnd.nextInt(26)));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            store.put(i, i + random.toString(), Long.MAX_VALUE);
+            // keep the first entry recently used
+            store.get(0);
+        }
+
+        assertTrue(store.getUsedBytes() <= store.getMaxBytes());
+        assertTrue(store.getEvictionCount() > 0);
+        assertEquals("0" + random, store.get(0));
+        assertNull(store.get(1));
+    }
+
+    @Test
+    public void testRemoveIf() {
+        final CompressedOffHeapStore<String, String> store = new CompressedOffHeapStore<>(4096);
+        store.put("keep", "value", Long.MAX_VALUE);
+        store.put("purge.1", "value", Long.MAX_VALUE);
+        store.put("purge.2", "value", Long.MAX_VALUE);
+
+        assertEquals(2, store.removeIf(key -> key.startsWith("purge.")));
+        assertEquals(1, store.getSize());
+        assertNull(store.get("purge.1"));
+        assertEquals("value", store.get("keep"));
+    }
+
+    @Test
+    public void testValueLargerThanStore() {
+        final CompressedOffHeapStore<String, byte[]> store = new CompressedOffHeapStore<>(16);
+        final byte[] value = new byte[256];
+        new Random(7).nextBytes(value);
+
+        assertFalse(store.put("a", value, Long.MAX_VALUE));
+        assertEquals(0, store.getSize());
+    }
+
+    @Test
+    public void testValuesSpanningBlocksReuseFreedBlocks() {
+        final CompressedOffHeapStore<Integer, byte[]> store =
+                new CompressedOffHeapStore<>(1000, 64);
+        assertEquals(64, store.getBlockSize());
+        assertEquals(960, store.getMaxBytes());
+
+        final Random rnd = new Random(3);
+        final byte[][] values = new byte[20][];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new byte[200 + rnd.nextInt(200)];
+            rnd.nextBytes(values[i]);
+            assertTrue(store.put(i, values[i], Long.MAX_VALUE));
+            assertArrayEquals(values[i], store.get(i));
+            assertTrue(store.getUsedBytes() <= store.getMaxBytes());
+        }
+        assertTrue(store.getEvictionCount() > 0);
+
+        // Replacing a value frees its old blocks
+        final byte[] small = new byte[] {1, 2, 3};
+        assertTrue(store.put(19, small, Long.MAX_VALUE));
+        assertArrayEquals(small, store.get(19));
+
+        store.clear();
+        assertEquals(0, store.getUsedBytes());
+        assertTrue(store.put(0, values[0], Long.MAX_VALUE));
+        assertArrayEquals(values[0], store.get(0));
+    }
+}
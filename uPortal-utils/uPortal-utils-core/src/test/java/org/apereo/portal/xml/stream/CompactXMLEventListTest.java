@@ -0,0 +1,100 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.events.XMLEvent;
+import org.junit.Test;
+
+public class CompactXMLEventListTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final List<XMLEvent> events = this.readDocument();
+        final CompactXMLEventList compactEvents = new CompactXMLEventList(events);
+
+        assertEquals(events.size(), compactEvents.size());
+        assertEquals(
+                this.serialize(new XMLEventBufferReader(events.listIterator())),
+                this.serialize(new XMLEventBufferReader(compactEvents.listIterator())));
+    }
+
+    @Test
+    public void testMergeAdjacentCharacters() throws Exception {
+        final XMLEventFactory eventFactory = XMLEventFactory.newFactory();
+
+        final List<XMLEvent> events = new ArrayList<>();
+        events.add(eventFactory.createStartElement("", "", "a"));
+        events.add(eventFactory.createCharacters("foo"));
+        events.add(eventFactory.createCharacters("bar"));
+        events.add(eventFactory.createCData("baz"));
+        events.add(eventFactory.createEndElement("", "", "a"));
+
+        final CompactXMLEventList compactEvents = new CompactXMLEventList(events);
+        assertEquals(4, compactEvents.size());
+        assertEquals("foobar", compactEvents.get(1).asCharacters().getData());
+        assertTrue(compactEvents.get(2).asCharacters().isCData());
+    }
+
+    @Test
+    public void testSharedEvents() throws Exception {
+        final List<XMLEvent> events = this.readDocument();
+        final CompactXMLEventList compactEvents = new CompactXMLEventList(events);
+        final CompactXMLEventList otherCompactEvents = new CompactXMLEventList(this.readDocument());
+
+        for (int i = 0; i < compactEvents.size(); i++) {
+            // Reading returns the stored instance instead of a new event
+            assertSame(compactEvents.get(i), compactEvents.get(i));
+
+            final XMLEvent event = compactEvents.get(i);
+            if (event.isStartElement() || event.isEndElement() || event.isCharacters()) {
+                assertSame(event, otherCompactEvents.get(i));
+            }
+        }
+    }
+
+    private List<XMLEvent> readDocument() throws Exception {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        final InputStream xmlStream = this.getClass().getResourceAsStream("document.xml");
+        final XMLEventReader xmlEventReader = xmlInputFactory.createXMLEventReader(xmlStream);
+
+        final List<XMLEvent> events = new ArrayList<>();
+        while (xmlEventReader.hasNext()) {
+            events.add(xmlEventReader.nextEvent());
+        }
+        return events;
+    }
+
+    private String serialize(XMLEventReader reader) throws Exception {
+        final StringWriter writer = new StringWriter();
+        final XMLEventWriter eventWriter =
+                XMLOutputFactory.newFactory().createXMLEventWriter(writer);
+        eventWriter.add(reader);
+        eventWriter.flush();
+        return writer.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+import org.junit.Test;
+
+public class XMLEventPipeTest {
+
+    @Test
+    public void testStreamAllEvents() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(2, 8, 10000);
+
+        final Thread producer =
+                new Thread(
+                        () -> {
+                            final XMLEventWriter writer = pipe.getWriter();
+                            try {
+                                writer.add(this.createDocumentReader());
+                                writer.close();
+                            } catch (Exception e) {
+                                pipe.fail(e);
+                            }
+                        });
+        producer.start();
+
+        final XMLEventReader reader = pipe.getReader();
+        final XMLEvent firstEvent = reader.peek();
+        assertTrue(firstEvent.isStartDocument());
+
+        int eventCount = 0;
+        XMLEvent lastEvent = null;
+        while (reader.hasNext()) {
+            lastEvent = reader.nextEvent();
+            eventCount++;
+        }
+        assertEquals(122, eventCount);
+        assertTrue(lastEvent.isEndDocument());
+        assertFalse(reader.hasNext());
+
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+    }
+
+    @Test
+    public void testProducerFailure() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(2, 8, 10000);
+
+        final Thread producer =
+                new Thread(
+                        () -> {
+                            final XMLEventWriter writer = pipe.getWriter();
+                            try {
+                                final XMLEventReader source = this.createDocumentReader();
+                                for (int i = 0; i < 10; i++) {
+                                    writer.add(source.nextEvent());
+                                }
+                            } catch (Exception e) {
+                                pipe.fail(e);
+                                return;
+                            }
+                            pipe.fail(new IllegalStateException("transform failed"));
+                        });
+        producer.start();
+
+        final XMLEventReader reader = pipe.getReader();
+        int eventCount = 0;
+        try {
+            while (reader.hasNext()) {
+                reader.nextEvent();
+                eventCount++;
+            }
+            fail("Producer failure should have been reported to the reader");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof XMLStreamException);
+        }
+        assertEquals(10, eventCount);
+    }
+
+    @Test
+    public void testReaderCloseAbortsProducer() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(1, 4, 10000);
+        final AtomicReference<Exception> producerException = new AtomicReference<>();
+
+        final Thread producer =
+                new Thread(
+                        () -> {
+                            final XMLEventWriter writer = pipe.getWriter();
+                            try {
+                                writer.add(this.createDocumentReader());
+                                writer.close();
+                            } catch (Exception e) {
+                                producerException.set(e);
+                            }
+                        });
+        producer.start();
+
+        final XMLEventReader reader = pipe.getReader();
+        reader.nextEvent();
+        reader.close();
+
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        assertTrue(producerException.get() instanceof XMLStreamException);
+    }
+
+    @Test
+    public void testWriteAfterCloseFailsFast() throws Exception {
+        final XMLEventPipe pipe = new XMLEventPipe(1, 4, 10000);
+        final XMLEventReader source = this.createDocumentReader();
+
+        // Consumer gives up without reading anything
+        pipe.close();
+        assertTrue(pipe.isClosed());
+
+        final long start = System.currentTimeMillis();
+        try {
+            pipe.getWriter().add(source);
+            fail("Writing to a closed pipe should fail");
+        } catch (XMLStreamException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    private XMLEventReader createDocumentReader() throws XMLStreamException {
+        final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+        final InputStream xmlStream = this.getClass().getResourceAsStream("document.xml");
+        return xmlInputFactory.createXMLEventReader(xmlStream);
+    }
+}
@@ -188,20 +188,27 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
 
         final Set<MarketplaceEntry> visiblePortletDefinitions = new HashSet<>();
 
-        for (final IPortletDefinition portletDefinition : allDisplayablePortletDefinitions) {
-
-            if (mayBrowsePortlet(principal, portletDefinition)) {
-                final MarketplacePortletDefinition marketplacePortletDefinition =
-                        getOrCreateMarketplacePortletDefinition(portletDefinition);
-                final MarketplaceEntry entry =
-                        new MarketplaceEntry(marketplacePortletDefinition, user);
-
-                // flag whether this use can add the portlet...
-                boolean canAdd = mayAddPortlet(user, portletDefinition);
-                entry.setCanAdd(canAdd);
-
-                visiblePortletDefinitions.add(entry);
-            }
+        // Evaluate browse and subscribe permissions for the whole list at once
+        final List<IPortletDefinition> browseablePortletDefinitions =
+                authorizationService.filterBrowsablePortlets(
+                        principal, allDisplayablePortletDefinitions);
+        // short-cut for guest user, they can never add portlets
+        final Set<IPortletDefinition> addablePortletDefinitions =
+                user.isGuest()
+                        ? Collections.emptySet()
+                        : new HashSet<>(
+                                authorizationService.filterSubscribablePortlets(
+                                        principal, browseablePortletDefinitions));
+
+        for (final IPortletDefinition portletDefinition : browseablePortletDefinitions) {
+            final MarketplacePortletDefinition marketplacePortletDefinition =
+                    getOrCreateMarketplacePortletDefinition(portletDefinition);
+            final MarketplaceEntry entry = new MarketplaceEntry(marketplacePortletDefinition, user);
+
+            // flag whether this use can add the portlet...
+            entry.setCanAdd(addablePortletDefinitions.contains(portletDefinition));
+
+            visiblePortletDefinitions.add(entry);
         }
 
         logger.trace(
@@ -0,0 +1,185 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the outcome and latency of the most recent executions of a portlet and decides whether
+ * new executions should be allowed.
+ *
+ * <p>The breaker starts CLOSED and lets every execution through. Once at least <code>
+ * minimumExecutions</code> of the last <code>windowSize</code> executions have been recorded and
+ * the share that failed or timed out reaches <code>failureRateThreshold</code> it OPENs and denies
+ * executions for <code>openDuration</code> milliseconds. After that a single probe execution is
+ * allowed (HALF_OPEN), if it succeeds the breaker closes again, if it fails it re-opens.
+ */
+public class PortletCircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+
+    private final int minimumExecutions;
+    private final double failureRateThreshold;
+    private final long openDuration;
+
+    private final long[] latencies;
+    private final boolean[] failures;
+    private int position = 0;
+    private int count = 0;
+
+    private State state = State.CLOSED;
+    private long stateChanged = System.currentTimeMillis();
+
+    /**
+     * @param windowSize Number of recent executions to track
+     * @param minimumExecutions Number of executions that must be recorded before the breaker can
+     *     open
+     * @param failureRateThreshold Share of failed executions, between 0 and 1, that opens the
+     *     breaker
+     * @param openDuration Time in milliseconds the breaker stays open before allowing a probe
+     */
+    public PortletCircuitBreaker(
+            int windowSize, int minimumExecutions, double failureRateThreshold, long openDuration) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be greater than 0");
+        }
+        this.minimumExecutions = Math.max(1, Math.min(minimumExecutions, windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.latencies = new long[windowSize];
+        this.failures = new boolean[windowSize];
+    }
+
+    /**
+     * @return true if an execution may be started. While HALF_OPEN only one probe is allowed
+     *     through per <code>openDuration</code>.
+     */
+    public synchronized boolean allowExecution() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+            case HALF_OPEN:
+                {
+                    // Allow a probe once the breaker has been open long enough, also covers a
+                    // probe that never reported back
+                    final long now = System.currentTimeMillis();
+                    if (now - this.stateChanged >= this.openDuration) {
+                        this.changeState(State.HALF_OPEN, now);
+                        return true;
+                    }
+                    return false;
+                }
+            default:
+                throw new IllegalStateException("Unknown state: " + this.state);
+        }
+    }
+
+    /** Record a completed execution */
+    public synchronized void recordSuccess(long latency) {
+        this.record(latency, false);
+        if (this.state == State.HALF_OPEN) {
+            this.resetWindow();
+            this.changeState(State.CLOSED, System.currentTimeMillis());
+        }
+    }
+
+    /** Record an execution that failed or timed out */
+    public synchronized void recordFailure(long latency) {
+        this.record(latency, true);
+        if (this.state == State.HALF_OPEN
+                || (this.state == State.CLOSED
+                        && this.count >= this.minimumExecutions
+                        && this.getFailureRate() >= this.failureRateThreshold)) {
+            this.changeState(State.OPEN, System.currentTimeMillis());
+        }
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /** @return Number of executions currently tracked */
+    public synchronized int getExecutionCount() {
+        return this.count;
+    }
+
+    /** @return Share of the tracked executions that failed, 0 if none are tracked */
+    public synchronized double getFailureRate() {
+        if (this.count == 0) {
+            return 0;
+        }
+        int failed = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (this.failures[i]) {
+                failed++;
+            }
+        }
+        return (double) failed / this.count;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return The latency in milliseconds at the percentile of the tracked executions, -1 if none
+     *     are tracked
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        if (this.count == 0) {
+            return -1;
+        }
+        final long[] sorted = Arrays.copyOf(this.latencies, this.count);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.state
+                + " [executions="
+                + this.count
+                + ", failureRate="
+                + String.format("%.2f", this.getFailureRate())
+                + ", p50="
+                + this.getLatencyPercentile(50)
+                + "ms, p90="
+                + this.getLatencyPercentile(90)
+                + "ms, p99="
+                + this.getLatencyPercentile(99)
+                + "ms]";
+    }
+
+    private void record(long latency, boolean failure) {
+        this.latencies[this.position] = latency;
+        this.failures[this.position] = failure;
+        this.position = (this.position + 1) % this.latencies.length;
+        if (this.count < this.latencies.length) {
+            this.count++;
+        }
+    }
+
+    private void resetWindow() {
+        this.position = 0;
+        this.count = 0;
+    }
+
+    private void changeState(State newState, long now) {
+        this.state = newState;
+        this.stateChanged = now;
+    }
+}
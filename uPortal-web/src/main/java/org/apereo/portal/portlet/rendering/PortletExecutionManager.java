@@ -16,6 +16,7 @@ package org.apereo.portal.portlet.rendering;
 
 import com.google.common.base.Function;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -23,9 +24,11 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.portlet.Event;
@@ -110,7 +113,27 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                         }
                     });
 
+    private final ConcurrentMap<IPortletDescriptorKey, PortletCircuitBreaker> circuitBreakers =
+            ConcurrentMapUtils.makeDefaultsMap(
+                    new Function<IPortletDescriptorKey, PortletCircuitBreaker>() {
+                        @Override
+                        public PortletCircuitBreaker apply(IPortletDescriptorKey key) {
+                            return new PortletCircuitBreaker(
+                                    circuitBreakerWindowSize,
+                                    circuitBreakerMinimumExecutions,
+                                    circuitBreakerFailureRateThreshold,
+                                    circuitBreakerOpenDuration);
+                        }
+                    });
+
     private boolean ignoreTimeouts = false;
+    private boolean circuitBreakerEnabled = false;
+    private int circuitBreakerWindowSize = 20;
+    private int circuitBreakerMinimumExecutions = 10;
+    private double circuitBreakerFailureRateThreshold = .5;
+    private long circuitBreakerOpenDuration = 30000;
+    private double adaptiveTimeoutMultiplier = 0;
+    private long adaptiveTimeoutMinimum = 1000;
     private int extendedTimeoutExecutions = 5;
     private long extendedTimeoutMultiplier = 20;
     private int maxEventIterations = 100;
@@ -167,6 +190,101 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return this.extendedTimeoutMultiplier;
     }
 
+    @Override
+    @Value("${org.apereo.portal.portlet.circuitBreaker.enabled:false}")
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+
+    @Override
+    public boolean isCircuitBreakerEnabled() {
+        return this.circuitBreakerEnabled;
+    }
+
+    /**
+     * @param circuitBreakerWindowSize Number of recent render executions tracked per portlet.
+     *     Defaults to 20
+     */
+    @Value("${org.apereo.portal.portlet.circuitBreaker.windowSize:20}")
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+        this.circuitBreakers.clear();
+    }
+
+    /**
+     * @param circuitBreakerMinimumExecutions Number of tracked executions required before a
+     *     portlet's circuit can open. Defaults to 10
+     */
+    @Value("${org.apereo.portal.portlet.circuitBreaker.minimumExecutions:10}")
+    public void setCircuitBreakerMinimumExecutions(int circuitBreakerMinimumExecutions) {
+        this.circuitBreakerMinimumExecutions = circuitBreakerMinimumExecutions;
+        this.circuitBreakers.clear();
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.circuitBreaker.failureRateThreshold:.5}")
+    public void setCircuitBreakerFailureRateThreshold(double circuitBreakerFailureRateThreshold) {
+        this.circuitBreakerFailureRateThreshold = circuitBreakerFailureRateThreshold;
+        this.circuitBreakers.clear();
+    }
+
+    @Override
+    public double getCircuitBreakerFailureRateThreshold() {
+        return this.circuitBreakerFailureRateThreshold;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.circuitBreaker.openDuration:30000}")
+    public void setCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+        this.circuitBreakers.clear();
+    }
+
+    @Override
+    public long getCircuitBreakerOpenDuration() {
+        return this.circuitBreakerOpenDuration;
+    }
+
+    @Override
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutMultiplier:0}")
+    public void setAdaptiveTimeoutMultiplier(double adaptiveTimeoutMultiplier) {
+        this.adaptiveTimeoutMultiplier = adaptiveTimeoutMultiplier;
+    }
+
+    @Override
+    public double getAdaptiveTimeoutMultiplier() {
+        return this.adaptiveTimeoutMultiplier;
+    }
+
+    /**
+     * @param adaptiveTimeoutMinimum Lower bound in milliseconds for adaptive render timeouts.
+     *     Defaults to 1000
+     */
+    @Value("${org.apereo.portal.portlet.adaptiveTimeoutMinimum:1000}")
+    public void setAdaptiveTimeoutMinimum(long adaptiveTimeoutMinimum) {
+        this.adaptiveTimeoutMinimum = adaptiveTimeoutMinimum;
+    }
+
+    @Override
+    public Map<String, String> getPortletCircuitBreakerStates() {
+        final Map<String, String> states = new TreeMap<String, String>();
+
+        for (final Map.Entry<IPortletDescriptorKey, PortletCircuitBreaker> entry :
+                this.circuitBreakers.entrySet()) {
+            final IPortletDescriptorKey key = entry.getKey();
+            states.put(
+                    key.getWebAppName() + "/" + key.getPortletName(),
+                    entry.getValue().toString());
+        }
+
+        return states;
+    }
+
+    @Override
+    public void resetPortletCircuitBreakers() {
+        this.circuitBreakers.clear();
+    }
+
     @Override
     public Map<String, Integer> getPortletExecutionCounts() {
         final Map<String, Integer> counts = new TreeMap<String, Integer>();
@@ -634,6 +752,79 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return tracker != null;
     }
 
+    @Override
+    public boolean isPortletRenderHeaderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletHeaderRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+        if (tracker == null) {
+            // Portlets without header output never wait on a header worker
+            return !doesPortletNeedHeaderWorker(portletWindowId, request);
+        }
+
+        // A queued worker reports complete before it has started
+        return tracker.isStarted() && tracker.isComplete();
+    }
+
+    @Override
+    public boolean isPortletRenderComplete(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+
+        // A queued worker reports complete before it has started
+        return tracker != null && tracker.isStarted() && tracker.isComplete();
+    }
+
+    @Override
+    public IPortletWindowId waitForPortletRenderComplete(
+            Collection<IPortletWindowId> portletWindowIds,
+            long timeout,
+            HttpServletRequest request,
+            HttpServletResponse response)
+            throws InterruptedException {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap =
+                this.getPortletRenderingMap(request);
+
+        final BlockingQueue<IPortletWindowId> completed =
+                new LinkedBlockingQueue<IPortletWindowId>();
+        final Map<IPortletRenderExecutionWorker, Runnable> listeners =
+                new LinkedHashMap<IPortletRenderExecutionWorker, Runnable>();
+        try {
+            for (final IPortletWindowId portletWindowId : portletWindowIds) {
+                final IPortletRenderExecutionWorker tracker =
+                        portletRenderingMap.get(portletWindowId);
+                if (tracker == null) {
+                    return portletWindowId;
+                }
+
+                final Runnable listener =
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                completed.offer(portletWindowId);
+                            }
+                        };
+                listeners.put(tracker, listener);
+                tracker.addCompletionListener(listener);
+            }
+
+            return completed.poll(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            // Workers outlive the wait, don't leave a listener behind for every wait
+            for (final Map.Entry<IPortletRenderExecutionWorker, Runnable> listenerEntry :
+                    listeners.entrySet()) {
+                listenerEntry.getKey().removeCompletionListener(listenerEntry.getValue());
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.apereo.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.apereo.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -673,8 +864,10 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
         try {
             final String output = tracker.getOutput(timeout);
+            this.recordRenderOutcome(tracker, request, false);
             return output == null ? "" : output;
         } catch (Exception e) {
+            this.recordRenderOutcome(tracker, request, true);
             final IPortletFailureExecutionWorker failureWorker =
                     this.portletWorkerFactory.createFailureWorker(
                             request, response, portletWindowId, e);
@@ -803,6 +996,74 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return timeout * extendedTimeoutMultiplier;
     }
 
+    /**
+     * Caps the render timeout of portlets with a known latency profile at {@link
+     * #setAdaptiveTimeoutMultiplier(double)} times their recent 99th percentile latency, so a
+     * portlet that normally answers quickly does not hold a worker for its full timeout when its
+     * backend hangs. Applies to the warm up and the steady state timeout alike. Never returns less
+     * than {@link #setAdaptiveTimeoutMinimum(long)} or more than the timeout passed in.
+     *
+     * @param timeout The timeout to cap, the configured timeout with any extensions applied
+     */
+    protected final long getAdaptiveTimeout(IPortletDefinition portletDefinition, long timeout) {
+        if (this.adaptiveTimeoutMultiplier <= 0) {
+            return timeout;
+        }
+
+        final PortletCircuitBreaker circuitBreaker =
+                this.circuitBreakers.get(portletDefinition.getPortletDescriptorKey());
+        if (circuitBreaker.getExecutionCount() < this.circuitBreakerMinimumExecutions) {
+            return timeout;
+        }
+
+        final long p99 = circuitBreaker.getLatencyPercentile(99);
+        final long adaptiveTimeout =
+                Math.max(
+                        this.adaptiveTimeoutMinimum, (long) (p99 * this.adaptiveTimeoutMultiplier));
+        return Math.min(timeout, adaptiveTimeout);
+    }
+
+    /**
+     * Feed the result of a render execution into the portlet's circuit breaker. Failure workers
+     * render the error portlet rather than the portlet itself so they are not counted, neither are
+     * renders replayed from the portlet output cache as their latency says nothing about how long
+     * the portlet takes to render.
+     */
+    protected void recordRenderOutcome(
+            IPortletRenderExecutionWorker tracker, HttpServletRequest request, boolean failed) {
+        if (tracker instanceof IPortletFailureExecutionWorker) {
+            return;
+        }
+
+        final IPortletDefinition portletDefinition =
+                getPortletDefinition(tracker.getPortletWindowId(), request);
+        final PortletCircuitBreaker circuitBreaker =
+                this.circuitBreakers.get(portletDefinition.getPortletDescriptorKey());
+
+        if (failed) {
+            // A worker that has not completed timed out, count the full time it was given
+            final long latency =
+                    tracker.isComplete()
+                            ? tracker.getDuration()
+                            : System.currentTimeMillis() - tracker.getSubmittedTime();
+            circuitBreaker.recordFailure(latency);
+        } else if (!isCachedRender(tracker)) {
+            circuitBreaker.recordSuccess(tracker.getDuration());
+        }
+    }
+
+    /** @return true if the completed worker replayed the portlet's output from the cache */
+    private boolean isCachedRender(IPortletRenderExecutionWorker tracker) {
+        final PortletRenderResult portletRenderResult;
+        try {
+            // The worker has completed so this returns without waiting
+            portletRenderResult = tracker.get(0);
+        } catch (Exception e) {
+            return false;
+        }
+        return portletRenderResult != null && portletRenderResult.isCached();
+    }
+
     protected long getPortletActionTimeout(
             IPortletWindowId portletWindowId, HttpServletRequest request) {
         if (this.ignoreTimeouts) {
@@ -841,11 +1102,13 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
         final IPortletDefinition portletDefinition = getPortletDefinition(portletWindowId, request);
         final Integer renderTimeout = portletDefinition.getRenderTimeout();
-        if (renderTimeout != null) {
-            return getModifiedTimeout(portletDefinition, request, renderTimeout);
-        }
+        final long timeout =
+                renderTimeout != null
+                        ? getModifiedTimeout(portletDefinition, request, renderTimeout)
+                        : getModifiedTimeout(
+                                portletDefinition, request, portletDefinition.getTimeout());
 
-        return getModifiedTimeout(portletDefinition, request, portletDefinition.getTimeout());
+        return getAdaptiveTimeout(portletDefinition, timeout);
     }
 
     protected long getPortletResourceTimeout(
@@ -973,6 +1236,25 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
                 portletRenderExecutionWorker =
                         this.portletWorkerFactory.createFailureWorker(
                                 request, response, portletWindowId, mme);
+            } else if (this.circuitBreakerEnabled
+                    && !this.circuitBreakers
+                            .get(portletDef.getPortletDescriptorKey())
+                            .allowExecution()) {
+                // Portlet keeps failing or timing out, render the error portlet without tying up
+                // a worker thread on it
+                this.logger.debug(
+                        "Circuit is open for {}, not rendering {}",
+                        portletDef.getPortletDescriptorKey(),
+                        portletWindowId);
+                portletRenderExecutionWorker =
+                        this.portletWorkerFactory.createFailureWorker(
+                                request,
+                                response,
+                                portletWindowId,
+                                new PortletCircuitOpenException(
+                                        "Portlet "
+                                                + portletDef.getFName()
+                                                + " is unavailable after repeated failures"));
             } else {
                 // Happy path
                 portletRenderExecutionWorker =
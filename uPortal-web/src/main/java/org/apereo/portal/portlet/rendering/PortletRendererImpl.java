@@ -406,6 +406,28 @@ public class PortletRendererImpl implements IPortletRenderer {
                 renderPart.getCacheState(
                         this.portletCacheControlService, httpServletRequest, portletWindowId);
 
+        try {
+            return doRender(
+                    portletWindowId,
+                    httpServletRequest,
+                    httpServletResponse,
+                    portletOutputHandler,
+                    renderPart,
+                    cacheState);
+        } finally {
+            releaseRevalidation(cacheState);
+        }
+    }
+
+    private PortletRenderResult doRender(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse,
+            PortletOutputHandler portletOutputHandler,
+            RenderPart renderPart,
+            CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState)
+            throws IOException {
+
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
 
@@ -572,7 +594,7 @@ public class PortletRendererImpl implements IPortletRenderer {
         publishRenderEvent(portletWindow, httpServletRequest, renderPart, executionTime, true);
 
         final PortletRenderResult portletResult = cachedPortletData.getPortletResult();
-        return new PortletRenderResult(portletResult, executionTime);
+        return new PortletRenderResult(portletResult, executionTime, true);
     }
 
     /** Publish the portlet render event */
@@ -641,6 +663,26 @@ public class PortletRendererImpl implements IPortletRenderer {
                 this.portletCacheControlService.getPortletResourceState(
                         httpServletRequest, portletWindowId);
 
+        try {
+            return doServeResource(
+                    portletWindowId,
+                    httpServletRequest,
+                    httpServletResponse,
+                    portletOutputHandler,
+                    cacheState);
+        } finally {
+            releaseRevalidation(cacheState);
+        }
+    }
+
+    private long doServeResource(
+            IPortletWindowId portletWindowId,
+            HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse,
+            PortletResourceOutputHandler portletOutputHandler,
+            CacheState<CachedPortletResourceData<Long>, Long> cacheState)
+            throws IOException {
+
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
 
@@ -762,6 +804,16 @@ public class PortletRendererImpl implements IPortletRenderer {
         return executionTime;
     }
 
+    /**
+     * Release a stale-while-revalidate refresh claimed by the request that did not end with new
+     * output in the cache, the portlet failed, timed out or its output was not cacheable.
+     */
+    private void releaseRevalidation(CacheState<?, ?> cacheState) {
+        if (cacheState.getRevalidationCacheKey() != null) {
+            this.portletCacheControlService.releaseRevalidation(cacheState);
+        }
+    }
+
     protected long doResourceReplayBrowserContent(
             IPortletWindow portletWindow,
             HttpServletRequest httpServletRequest,
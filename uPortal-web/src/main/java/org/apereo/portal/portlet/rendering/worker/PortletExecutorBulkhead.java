@@ -0,0 +1,293 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.apereo.portal.utils.threading.LoggingAbortHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * A dedicated thread pool for the workers of a set of portlets, selected by fname, portlet type
+ * name or category name. Isolating slow or unreliable portlets in their own bulkhead keeps them
+ * from exhausting the shared <code>portletThreadPool</code> that every other portlet on the page
+ * depends on.
+ *
+ * <p>When the bulkhead has no free thread or queue space the {@link SaturationPolicy} decides what
+ * happens to the worker. Every {@link PortletExecutorBulkhead} bean in the context is picked up by
+ * {@link PortletWorkerFactoryImpl}, the first one matching a portlet is used.
+ */
+@ManagedResource
+public class PortletExecutorBulkhead extends AbstractExecutorService
+        implements BeanNameAware, InitializingBean, DisposableBean, PortletExecutorBulkheadMXBean {
+
+    /** What to do with a worker when the bulkhead is saturated */
+    public enum SaturationPolicy {
+        /** Fail the worker, the error portlet is rendered in place of the portlet */
+        REJECT,
+        /** Run the worker on the shared portlet thread pool */
+        SHARED_POOL;
+    }
+
+    protected final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    private String name;
+    private Set<String> fnames = Collections.emptySet();
+    private Set<String> portletTypes = Collections.emptySet();
+    private Set<String> categories = Collections.emptySet();
+    private int corePoolSize = 0;
+    private int maxPoolSize = 10;
+    private int queueCapacity = 0;
+    private int keepAliveSeconds = 300;
+    private int threadPriority = Thread.NORM_PRIORITY;
+    private SaturationPolicy saturationPolicy = SaturationPolicy.REJECT;
+    private ExecutorService sharedExecutor;
+    private ThreadPoolExecutor threadPool;
+
+    @Override
+    public void setBeanName(String name) {
+        if (this.name == null) {
+            this.name = name;
+        }
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /** Portlet fnames assigned to this bulkhead */
+    public void setFnames(List<String> fnames) {
+        this.fnames = new HashSet<String>(fnames);
+    }
+
+    /** Portlet type names assigned to this bulkhead, see {@link IPortletType#getName()} */
+    public void setPortletTypes(List<String> portletTypes) {
+        this.portletTypes = new HashSet<String>(portletTypes);
+    }
+
+    /** Names of categories whose direct members are assigned to this bulkhead */
+    public void setCategories(List<String> categories) {
+        this.categories = new HashSet<String>(categories);
+    }
+
+    public void setCorePoolSize(int corePoolSize) {
+        this.corePoolSize = corePoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /** Number of workers that may wait for a thread, 0 (the default) for no queue */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setKeepAliveSeconds(int keepAliveSeconds) {
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    public void setThreadPriority(int threadPriority) {
+        this.threadPriority = threadPriority;
+    }
+
+    /** Defaults to {@link SaturationPolicy#REJECT} */
+    public void setSaturationPolicy(SaturationPolicy saturationPolicy) {
+        this.saturationPolicy = saturationPolicy;
+    }
+
+    /** Executor used by {@link SaturationPolicy#SHARED_POOL}, set by the worker factory */
+    void setSharedExecutor(ExecutorService sharedExecutor) {
+        this.sharedExecutor = sharedExecutor;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final BlockingQueue<Runnable> queue =
+                this.queueCapacity > 0
+                        ? new LinkedBlockingQueue<Runnable>(this.queueCapacity)
+                        : new SynchronousQueue<Runnable>();
+
+        final CustomizableThreadFactory threadFactory =
+                new CustomizableThreadFactory("uP-PortletExec-" + this.name + "-");
+        threadFactory.setDaemon(true);
+        threadFactory.setThreadPriority(this.threadPriority);
+
+        this.threadPool =
+                new ThreadPoolExecutor(
+                        this.corePoolSize,
+                        this.maxPoolSize,
+                        this.keepAliveSeconds,
+                        TimeUnit.SECONDS,
+                        queue,
+                        threadFactory,
+                        new LoggingAbortHandler());
+        this.threadPool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        this.threadPool.shutdown();
+    }
+
+    /**
+     * @param portletDefinition The portlet to check
+     * @param categoryNames Names of the categories the portlet is a direct member of, may be null
+     *     if {@link #hasCategories()} is false
+     * @return true if workers for the portlet should run on this bulkhead
+     */
+    public boolean matches(IPortletDefinition portletDefinition, Set<String> categoryNames) {
+        if (this.fnames.contains(portletDefinition.getFName())) {
+            return true;
+        }
+
+        final IPortletType portletType = portletDefinition.getType();
+        if (portletType != null && this.portletTypes.contains(portletType.getName())) {
+            return true;
+        }
+
+        if (categoryNames != null) {
+            for (final String categoryName : categoryNames) {
+                if (this.categories.contains(categoryName)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /** @return true if the bulkhead selects portlets by category */
+    public boolean hasCategories() {
+        return !this.categories.isEmpty();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            this.threadPool.execute(command);
+        } catch (RejectedExecutionException e) {
+            this.rejectedCount.incrementAndGet();
+            if (this.saturationPolicy != SaturationPolicy.SHARED_POOL
+                    || this.sharedExecutor == null) {
+                this.logger.warn(
+                        "Portlet bulkhead '{}' is saturated: {}", this.name, e.getMessage());
+                throw e;
+            }
+
+            this.logger.debug(
+                    "Portlet bulkhead '{}' is saturated, running worker on shared pool", this.name);
+            this.overflowCount.incrementAndGet();
+            this.sharedExecutor.execute(command);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.threadPool.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return this.threadPool.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.threadPool.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.threadPool.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.threadPool.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public int getActiveCount() {
+        return this.threadPool.getActiveCount();
+    }
+
+    @Override
+    public int getPoolSize() {
+        return this.threadPool.getPoolSize();
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return this.threadPool.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return this.threadPool.getQueue().size();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return this.threadPool.getCompletedTaskCount();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return this.overflowCount.get();
+    }
+
+    @Override
+    public String getSaturationPolicyName() {
+        return this.saturationPolicy.name();
+    }
+
+    @Override
+    public String toString() {
+        return "PortletExecutorBulkhead [name=" + this.name + "]";
+    }
+}
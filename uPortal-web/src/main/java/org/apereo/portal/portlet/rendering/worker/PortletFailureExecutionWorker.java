@@ -239,6 +239,17 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
         return this.retrieved;
     }
 
+    /** The error output is rendered in the thread asking for it, it never waits on another */
+    @Override
+    public void addCompletionListener(Runnable listener) {
+        listener.run();
+    }
+
+    @Override
+    public void removeCompletionListener(Runnable listener) {
+        // Listeners are never retained
+    }
+
     @Override
     public long getSubmittedTime() {
         return this.submitted;
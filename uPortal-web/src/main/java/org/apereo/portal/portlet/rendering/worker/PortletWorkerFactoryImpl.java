@@ -14,7 +14,10 @@
  */
 package org.apereo.portal.portlet.rendering.worker;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
@@ -23,6 +26,8 @@ import org.apereo.portal.portlet.om.IPortletDefinition;
 import org.apereo.portal.portlet.om.IPortletEntity;
 import org.apereo.portal.portlet.om.IPortletWindow;
 import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.om.PortletCategory;
+import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
 import org.apereo.portal.portlet.registry.IPortletEntityRegistry;
 import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
 import org.apereo.portal.portlet.rendering.IPortletRenderer;
@@ -41,6 +46,9 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
     public static final String DEFAULT_ERROR_PORTLET_FNAME = "error";
 
     private ExecutorService portletThreadPool;
+    private List<PortletExecutorBulkhead> bulkheads = Collections.emptyList();
+    private boolean bulkheadsUseCategories = false;
+    private IPortletCategoryRegistry portletCategoryRegistry;
     private IPortletRenderer portletRenderer;
     private List<IPortletExecutionInterceptor> executionInterceptors;
     private String errorPortletFName = DEFAULT_ERROR_PORTLET_FNAME;
@@ -71,6 +79,25 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
     public void setPortletThreadPool(
             @Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
         this.portletThreadPool = portletThreadPool;
+        for (final PortletExecutorBulkhead bulkhead : this.bulkheads) {
+            bulkhead.setSharedExecutor(portletThreadPool);
+        }
+    }
+
+    /** Dedicated thread pools for specific portlets, portlets not in any use portletThreadPool */
+    @Autowired(required = false)
+    public void setBulkheads(List<PortletExecutorBulkhead> bulkheads) {
+        this.bulkheads = bulkheads;
+        this.bulkheadsUseCategories = false;
+        for (final PortletExecutorBulkhead bulkhead : bulkheads) {
+            bulkhead.setSharedExecutor(this.portletThreadPool);
+            this.bulkheadsUseCategories |= bulkhead.hasCategories();
+        }
+    }
+
+    @Autowired
+    public void setPortletCategoryRegistry(IPortletCategoryRegistry portletCategoryRegistry) {
+        this.portletCategoryRegistry = portletCategoryRegistry;
     }
 
     @Autowired
@@ -94,7 +121,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
         return new PortletActionExecutionWorker(
-                portletThreadPool,
+                getExecutorService(portletWindow),
                 executionInterceptors,
                 portletRenderer,
                 request,
@@ -111,7 +138,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
         return new PortletEventExecutionWorker(
-                portletThreadPool,
+                getExecutorService(portletWindow),
                 executionInterceptors,
                 portletRenderer,
                 request,
@@ -131,7 +158,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
         return new PortletRenderHeaderExecutionWorker(
-                portletThreadPool,
+                getExecutorService(portletWindow),
                 executionInterceptors,
                 portletRenderer,
                 request,
@@ -151,7 +178,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
                     "Failed to retrieve the specified PortletWindow:  " + portletWindowId);
         }
         return new PortletRenderExecutionWorker(
-                portletThreadPool,
+                getExecutorService(portletWindow),
                 executionInterceptors,
                 portletRenderer,
                 request,
@@ -167,7 +194,7 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
         final IPortletWindow portletWindow =
                 this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
         return new PortletResourceExecutionWorker(
-                portletThreadPool,
+                getExecutorService(portletWindow),
                 executionInterceptors,
                 portletRenderer,
                 request,
@@ -202,6 +229,33 @@ public class PortletWorkerFactoryImpl implements IPortletWorkerFactory {
          */
     }
 
+    /** @return The bulkhead the portlet is assigned to, the shared portletThreadPool if none */
+    protected ExecutorService getExecutorService(IPortletWindow portletWindow) {
+        if (this.bulkheads.isEmpty()) {
+            return this.portletThreadPool;
+        }
+
+        final IPortletDefinition portletDefinition =
+                portletWindow.getPortletEntity().getPortletDefinition();
+
+        Set<String> categoryNames = null;
+        if (this.bulkheadsUseCategories) {
+            categoryNames = new HashSet<String>();
+            for (final PortletCategory category :
+                    this.portletCategoryRegistry.getParentCategories(portletDefinition)) {
+                categoryNames.add(category.getName());
+            }
+        }
+
+        for (final PortletExecutorBulkhead bulkhead : this.bulkheads) {
+            if (bulkhead.matches(portletDefinition, categoryNames)) {
+                return bulkhead;
+            }
+        }
+
+        return this.portletThreadPool;
+    }
+
     protected IPortletWindowId getErrorPortletWindowId(HttpServletRequest request, String fname) {
         final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
         final IPortletEntity errorPortletEntity =
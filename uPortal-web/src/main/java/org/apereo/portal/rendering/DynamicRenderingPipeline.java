@@ -14,8 +14,14 @@
  */
 package org.apereo.portal.rendering;
 
+import java.io.FilterOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.DispatcherType;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.OutputKeys;
@@ -29,17 +35,35 @@ import org.apereo.portal.url.IUrlSyntaxProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 
 /** Top level class that initiates rendering via a {@link CharacterPipelineComponent} */
 public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
     public static final String CHARACTER_SET = "UTF-8";
     public static final String DEFAULT_MEDIA_TYPE = "text/html";
 
+    /** How the rendered output is flushed to the client */
+    public enum FlushStrategy {
+        /** Flush the response after every chunk of character data */
+        EVERY_CHUNK,
+        /**
+         * Buffer output and only flush before the pipeline blocks waiting on a portlet that is
+         * still rendering, and at the end of the page
+         */
+        BEFORE_WAIT
+    }
+
+    private static final String GZIP_ENCODING = "gzip";
+    private static final String X_GZIP_ENCODING = "x-gzip";
+
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
     private CharacterPipelineComponent pipeline;
     private IPortletExecutionEventFactory portalEventFactory;
     private IUrlSyntaxProvider urlSyntaxProvider;
+    private FlushStrategy flushStrategy = FlushStrategy.EVERY_CHUNK;
+    private int outputBufferSize = 0;
+    private boolean gzipOutput = false;
 
     @Autowired
     public void setUrlSyntaxProvider(IUrlSyntaxProvider urlSyntaxProvider) {
@@ -59,8 +83,36 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         this.pipeline = pipeline;
     }
 
+    /** How output is flushed to the client, defaults to {@link FlushStrategy#EVERY_CHUNK} */
+    public void setFlushStrategy(FlushStrategy flushStrategy) {
+        this.flushStrategy = flushStrategy;
+    }
+
+    /**
+     * Size of the response buffer used to coalesce output between flushes, 0 (the default) keeps
+     * the servlet container's default buffer size.
+     */
+    public void setOutputBufferSize(int outputBufferSize) {
+        this.outputBufferSize = outputBufferSize;
+    }
+
+    /** If true the output is gzip compressed for clients that accept it, defaults to false */
+    public void setGzipOutput(boolean gzipOutput) {
+        this.gzipOutput = gzipOutput;
+    }
+
     @Override
     public void renderState(HttpServletRequest req, HttpServletResponse res) throws IOException {
+        try {
+            this.renderPipeline(req, res);
+        } finally {
+            // Stop any work still feeding the pipeline if rendering ended early
+            RenderingResourceUtils.closeResources(req);
+        }
+    }
+
+    private void renderPipeline(HttpServletRequest req, HttpServletResponse res)
+            throws IOException {
         // Disable page caching
         res.setHeader("pragma", "no-cache");
         res.setHeader("Cache-Control", "no-cache, max-age=0, must-revalidate");
@@ -76,22 +128,91 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         final String contentType = mediaType + "; charset=" + CHARACTER_SET;
         res.setContentType(contentType);
 
-        final PrintWriter writer = res.getWriter();
+        if (this.outputBufferSize > res.getBufferSize()) {
+            res.setBufferSize(this.outputBufferSize);
+        }
 
-        for (final CharacterEvent event : pipelineEventReader) {
-            if (CharacterEventTypes.CHARACTER != event.getEventType()) {
-                throw new RenderingPipelineConfigurationException(
-                        "Only "
-                                + CharacterEventTypes.CHARACTER
-                                + " events are supported in the top level renderer. "
-                                + event.getEventType()
-                                + " is not supported.");
+        final DiscardableOutputStream gzipTarget;
+        final GZIPOutputStream gzipStream;
+        final Writer writer;
+        if (this.gzipOutput
+                && req.getDispatcherType() != DispatcherType.ERROR
+                && this.acceptsGzip(req)) {
+            res.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+            res.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            gzipTarget = new DiscardableOutputStream(res.getOutputStream());
+            // Sync flush so a flush sends everything written so far to the client
+            gzipStream = new GZIPOutputStream(gzipTarget, true);
+            writer = new OutputStreamWriter(gzipStream, CHARACTER_SET);
+        } else {
+            gzipTarget = null;
+            gzipStream = null;
+            writer = res.getWriter();
+        }
+
+        final Flushable outputFlusher =
+                new Flushable() {
+                    @Override
+                    public void flush() throws IOException {
+                        writer.flush();
+                        res.flushBuffer();
+                    }
+                };
+
+        final boolean flushEveryChunk = this.flushStrategy == FlushStrategy.EVERY_CHUNK;
+        if (!flushEveryChunk) {
+            RenderingOutputFlushUtils.setOutputFlusher(req, outputFlusher);
+        }
+
+        boolean rendered = false;
+        try {
+            for (final CharacterEvent event : pipelineEventReader) {
+                if (CharacterEventTypes.CHARACTER != event.getEventType()) {
+                    throw new RenderingPipelineConfigurationException(
+                            "Only "
+                                    + CharacterEventTypes.CHARACTER
+                                    + " events are supported in the top level renderer. "
+                                    + event.getEventType()
+                                    + " is not supported.");
+                }
+
+                final String data = ((CharacterDataEvent) event).getData();
+                writer.write(data);
+                if (flushEveryChunk) {
+                    outputFlusher.flush();
+                }
             }
 
-            final String data = ((CharacterDataEvent) event).getData();
-            writer.print(data);
-            writer.flush();
-            res.flushBuffer();
+            if (gzipStream != null) {
+                writer.flush();
+                gzipStream.finish();
+            }
+            outputFlusher.flush();
+            rendered = true;
+        } finally {
+            if (!flushEveryChunk) {
+                RenderingOutputFlushUtils.clearOutputFlusher(req);
+            }
+            if (gzipStream != null) {
+                /*
+                 * If rendering failed before anything reached the client drop the gzip output and
+                 * reset the response, the error page can then use getWriter() and is not sent with
+                 * a gzip Content-Encoding. Otherwise complete the gzip stream so the client gets
+                 * a valid (if truncated) page. Closing always releases the native Deflater.
+                 */
+                final boolean discard = !rendered && !res.isCommitted();
+                if (discard) {
+                    gzipTarget.discard();
+                }
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    this.logger.debug("Failed to close gzip output for {}", req.getRequestURI(), e);
+                }
+                if (discard) {
+                    res.reset();
+                }
+            }
         }
 
         final long executionTime = System.nanoTime() - startTime;
@@ -101,6 +222,51 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
                 req, this, req.getPathInfo(), executionTime, portalRequestInfo);
     }
 
+    /**
+     * @return true if the client accepts gzip encoded responses, either explicitly or through a
+     *     <code>*</code> coding, with a quality value greater than 0
+     */
+    protected boolean acceptsGzip(HttpServletRequest req) {
+        final String acceptEncoding = req.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        Double gzipQuality = null;
+        Double wildcardQuality = null;
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] codingParts = coding.split(";");
+            final String name = codingParts[0].trim().toLowerCase();
+            if (GZIP_ENCODING.equals(name) || X_GZIP_ENCODING.equals(name)) {
+                gzipQuality = getQuality(codingParts);
+            } else if ("*".equals(name)) {
+                wildcardQuality = getQuality(codingParts);
+            }
+        }
+
+        if (gzipQuality != null) {
+            return gzipQuality > 0;
+        }
+        return wildcardQuality != null && wildcardQuality > 0;
+    }
+
+    /** @return The q parameter of an Accept-Encoding coding, 1 if missing and 0 if invalid */
+    private static double getQuality(String[] codingParts) {
+        for (int i = 1; i < codingParts.length; i++) {
+            final String parameter = codingParts[i].trim();
+            if (parameter.length() > 2
+                    && Character.toLowerCase(parameter.charAt(0)) == 'q'
+                    && parameter.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
     /** Determine the media type to use for the response */
     protected String getMediaType(
             HttpServletRequest req,
@@ -117,6 +283,50 @@ public class DynamicRenderingPipeline implements IPortalRenderingPipeline {
         return DEFAULT_MEDIA_TYPE;
     }
 
+    /**
+     * Passes output through to the response until {@link #discard()} is called, after which
+     * writes and the close are dropped so the response can still be reset.
+     */
+    private static final class DiscardableOutputStream extends FilterOutputStream {
+        private boolean discarded = false;
+
+        DiscardableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        void discard() {
+            this.discarded = true;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!this.discarded) {
+                this.out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!this.discarded) {
+                this.out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!this.discarded) {
+                this.out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!this.discarded) {
+                this.out.close();
+            }
+        }
+    }
+
     @Override
     public String toString() {
         return "DynamicRenderingPipeline using url syntax provider ["
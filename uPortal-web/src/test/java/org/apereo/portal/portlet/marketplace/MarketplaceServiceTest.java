@@ -0,0 +1,203 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.marketplace;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.PortletCategory;
+import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.rest.layout.MarketplaceEntry;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.spring.locator.AuthorizationServiceLocator;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/** Tests that MarketplaceService builds its entries from the bulk portlet permission filters. */
+public class MarketplaceServiceTest {
+
+    private static final String[] CACHE_NAMES = {
+        "marketplaceServiceTest.portletDefinitions",
+        "marketplaceServiceTest.userPortletDefinitions",
+        "marketplaceServiceTest.categories"
+    };
+
+    private static AuthorizationServiceLocator authorizationServiceLocator;
+
+    @Mock private IAuthorizationService authorizationService;
+    @Mock private IPortletDefinitionRegistry portletDefinitionRegistry;
+    @Mock private IPortletCategoryRegistry portletCategoryRegistry;
+    @Mock private IPerson user;
+
+    private CacheManager cacheManager;
+    private MarketplaceService marketplaceService;
+    private IPortletDefinition browsableAndAddable;
+    private IPortletDefinition browsableOnly;
+    private IPortletDefinition addableOnly;
+    private IPortletDefinition hidden;
+
+    /** Principals are created through AuthorizationServiceFacade */
+    @BeforeClass
+    public static void setupLocator() throws Exception {
+        final IAuthorizationService principalFactory = mock(IAuthorizationService.class);
+        when(principalFactory.newPrincipal(any(String.class), any(Class.class)))
+                .thenReturn(mock(IAuthorizationPrincipal.class));
+        authorizationServiceLocator = new AuthorizationServiceLocator(principalFactory);
+        authorizationServiceLocator.afterPropertiesSet();
+    }
+
+    @AfterClass
+    public static void teardownLocator() throws Exception {
+        authorizationServiceLocator.destroy();
+    }
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        cacheManager = CacheManager.create();
+        for (final String cacheName : CACHE_NAMES) {
+            cacheManager.addCache(new Cache(cacheName, 100, false, false, 0, 0));
+        }
+
+        browsableAndAddable = mockPortlet("browsableAndAddable");
+        browsableOnly = mockPortlet("browsableOnly");
+        addableOnly = mockPortlet("addableOnly");
+        hidden = mockPortlet("hidden");
+        when(portletDefinitionRegistry.getAllPortletDefinitions())
+                .thenReturn(Arrays.asList(browsableAndAddable, browsableOnly, addableOnly, hidden));
+
+        when(authorizationService.filterBrowsablePortlets(any(), anyCollection()))
+                .thenAnswer(
+                        invocation ->
+                                filter(
+                                        invocation.getArgument(1),
+                                        browsableAndAddable,
+                                        browsableOnly));
+        when(authorizationService.filterSubscribablePortlets(any(), anyCollection()))
+                .thenAnswer(
+                        invocation ->
+                                filter(
+                                        invocation.getArgument(1),
+                                        browsableAndAddable,
+                                        addableOnly));
+
+        when(user.getUserName()).thenReturn("jdoe");
+        when(user.getEntityIdentifier()).thenReturn(new EntityIdentifier("jdoe", IPerson.class));
+
+        marketplaceService = new MarketplaceService();
+        marketplaceService.setAuthorizationService(authorizationService);
+        marketplaceService.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        marketplaceService.setPortletCategoryRegistry(portletCategoryRegistry);
+        ReflectionTestUtils.setField(
+                marketplaceService,
+                "marketplacePortletDefinitionCache",
+                cacheManager.getCache(CACHE_NAMES[0]));
+        ReflectionTestUtils.setField(
+                marketplaceService,
+                "marketplaceUserPortletDefinitionCache",
+                cacheManager.getCache(CACHE_NAMES[1]));
+        ReflectionTestUtils.setField(
+                marketplaceService,
+                "marketplaceCategoryCache",
+                cacheManager.getCache(CACHE_NAMES[2]));
+    }
+
+    @After
+    public void teardown() {
+        for (final String cacheName : CACHE_NAMES) {
+            cacheManager.removeCache(cacheName);
+        }
+    }
+
+    @Test
+    public void testEntriesAreBrowsablePortletsFlaggedBySubscribePermission() throws Exception {
+        final Map<String, Boolean> canAddByFname = loadCanAddByFname();
+
+        final Map<String, Boolean> expected = new HashMap<>();
+        expected.put("browsableAndAddable", true);
+        expected.put("browsableOnly", false);
+        assertEquals(expected, canAddByFname);
+
+        // Only the browsable portlets are checked for subscribe
+        verify(authorizationService)
+                .filterSubscribablePortlets(
+                        any(), eq(Arrays.asList(browsableAndAddable, browsableOnly)));
+    }
+
+    @Test
+    public void testGuestsCannotAddPortlets() throws Exception {
+        when(user.isGuest()).thenReturn(true);
+
+        final Map<String, Boolean> canAddByFname = loadCanAddByFname();
+
+        final Map<String, Boolean> expected = new HashMap<>();
+        expected.put("browsableAndAddable", false);
+        expected.put("browsableOnly", false);
+        assertEquals(expected, canAddByFname);
+        verify(authorizationService, never()).filterSubscribablePortlets(any(), anyCollection());
+    }
+
+    private Map<String, Boolean> loadCanAddByFname() throws Exception {
+        final Set<PortletCategory> noCategories = Collections.emptySet();
+        final Map<String, Boolean> rslt = new HashMap<>();
+        for (final MarketplaceEntry entry :
+                marketplaceService.loadMarketplaceEntriesFor(user, noCategories).get()) {
+            rslt.put(entry.getMarketplacePortletDefinition().getFName(), entry.isCanAdd());
+        }
+        return rslt;
+    }
+
+    private static List<IPortletDefinition> filter(
+            Collection<IPortletDefinition> portlets, IPortletDefinition... permitted) {
+        final Set<IPortletDefinition> permittedSet = new HashSet<>(Arrays.asList(permitted));
+        return portlets.stream().filter(permittedSet::contains).collect(Collectors.toList());
+    }
+
+    private static IPortletDefinition mockPortlet(String fname) {
+        final IPortletDefinition portlet = mock(IPortletDefinition.class);
+        when(portlet.getFName()).thenReturn(fname);
+        when(portlet.getAlternativeMaximizedLink()).thenReturn("http://apereo.org/" + fname);
+        return portlet;
+    }
+}
@@ -67,6 +67,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 /**
  * This @Configuration class sets up (roughly) the same beans that renderingPipelineContext.xml did
@@ -135,6 +136,33 @@ public class RenderingPipelineConfiguration {
     @Value("${org.apereo.portal.layout.useTabsSize:#{null}}")
     private String useTabsSize;
 
+    @Value("${org.apereo.portal.rendering.xslt.structure.streaming:false}")
+    private boolean streamStructureTransform;
+
+    @Value("${org.apereo.portal.rendering.xslt.theme.streaming:false}")
+    private boolean streamThemeTransform;
+
+    @Value("${org.apereo.portal.rendering.xslt.streaming.threadPool.maxThreads:400}")
+    private int xsltStreamingMaxThreads;
+
+    @Value("${org.apereo.portal.rendering.output.flushStrategy:EVERY_CHUNK}")
+    private DynamicRenderingPipeline.FlushStrategy outputFlushStrategy;
+
+    @Value("${org.apereo.portal.rendering.output.bufferSize:0}")
+    private int outputBufferSize;
+
+    @Value("${org.apereo.portal.rendering.output.gzip:false}")
+    private boolean gzipOutput;
+
+    @Value("${org.apereo.portal.rendering.progressive:false}")
+    private boolean progressiveRendering;
+
+    @Value("${org.apereo.portal.rendering.progressive.completionWait:1000}")
+    private long progressiveCompletionWait;
+
+    @Value("${org.apereo.portal.portlet.worker.threadPool.aboveTheFoldPortlets:2}")
+    private int aboveTheFoldPortlets;
+
     @Resource(name = "org.apereo.portal.rendering.THEME_TRANSFORM")
     private Cache themeTransformCache;
 
@@ -212,6 +240,9 @@ public class RenderingPipelineConfiguration {
     public IPortalRenderingPipeline getStandardRenderingPipeline() {
         final DynamicRenderingPipeline rslt = new DynamicRenderingPipeline();
         rslt.setPipeline(getAnalyticsIncorporationComponent());
+        rslt.setFlushStrategy(outputFlushStrategy);
+        rslt.setOutputBufferSize(outputBufferSize);
+        rslt.setGzipOutput(gzipOutput);
         return rslt;
     }
 
@@ -337,11 +368,30 @@ public class RenderingPipelineConfiguration {
     @Resource(name = "customSkinsTransformers")
     public List<? extends SkinMappingTransformerConfigurationSource> customSkinsTransformers;
 
+    /**
+     * Runs XSLT transforms for the pipeline steps that are configured to stream their output. This
+     * bean is not an element of the rendering pipeline. It has no queue; a transform that can't
+     * get a thread falls back to buffered mode in the request thread.
+     */
+    @Bean(name = "xsltStreamingTaskExecutor")
+    public ThreadPoolTaskExecutor getXsltStreamingTaskExecutor() {
+        final ThreadPoolTaskExecutor rslt = new ThreadPoolTaskExecutor();
+        rslt.setCorePoolSize(0);
+        rslt.setMaxPoolSize(xsltStreamingMaxThreads);
+        rslt.setQueueCapacity(0);
+        rslt.setKeepAliveSeconds(300);
+        rslt.setDaemon(true);
+        rslt.setThreadNamePrefix("uP-XsltStream-");
+        return rslt;
+    }
+
     @Bean(name = "structureTransformComponent")
     public StAXPipelineComponentWrapper getStructureTransformComponent() {
         final XSLTComponent rslt = new XSLTComponent();
         rslt.setWrappedComponent(getPreStructureTransformLogger());
         rslt.setTransformerSource(getStructureTransformSource());
+        rslt.setStreaming(streamStructureTransform);
+        rslt.setTransformExecutor(getXsltStreamingTaskExecutor());
         final List<TransformerConfigurationSource> sources = new ArrayList<>();
         sources.add(getStructureStylesheetDescriptorTransformerConfigurationSource());
         if (customSkinsTransformers != null && !customSkinsTransformers.isEmpty()) {
@@ -381,6 +431,7 @@ public class RenderingPipelineConfiguration {
         final PortletRenderingInitiationStAXComponent rslt =
                 new PortletRenderingInitiationStAXComponent();
         rslt.setWrappedComponent(getStructureCachingComponent());
+        rslt.setAboveTheFoldPortlets(aboveTheFoldPortlets);
         return rslt;
     }
 
@@ -481,6 +532,8 @@ public class RenderingPipelineConfiguration {
         final XSLTComponent rslt = new XSLTComponent();
         rslt.setWrappedComponent(getPreThemeTransformLogger());
         rslt.setTransformerSource(getThemeTransformerSource());
+        rslt.setStreaming(streamThemeTransform);
+        rslt.setTransformExecutor(getXsltStreamingTaskExecutor());
         final List<TransformerConfigurationSource> sources = new ArrayList<>();
         sources.add(getThemeStylesheetDescriptorTransformerConfigurationSource());
         if (customSkinsTransformers != null && !customSkinsTransformers.isEmpty()) {
@@ -614,6 +667,8 @@ public class RenderingPipelineConfiguration {
         final PortletRenderingIncorporationComponent rslt =
                 new PortletRenderingIncorporationComponent();
         rslt.setWrappedComponent(getPortletRenderingInitiationCharacterComponent());
+        rslt.setProgressiveRendering(progressiveRendering);
+        rslt.setProgressiveCompletionWait(progressiveCompletionWait);
         return rslt;
     }
 
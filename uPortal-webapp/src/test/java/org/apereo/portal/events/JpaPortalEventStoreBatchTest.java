@@ -0,0 +1,93 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.apereo.portal.events.handlers.db.JpaPortalEventStore;
+import org.apereo.portal.events.handlers.db.PersistentPortalEvent;
+import org.apereo.portal.security.SystemPerson;
+import org.hibernate.Session;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Verifies the batching done by {@link JpaPortalEventStore#storePortalEvents(Iterable)} */
+public class JpaPortalEventStoreBatchTest {
+    private JpaPortalEventStore portalEventStore;
+    private EntityManager entityManager;
+    private Session session;
+
+    @Before
+    public void setUp() {
+        this.entityManager = mock(EntityManager.class);
+        this.session = mock(Session.class);
+        when(this.entityManager.unwrap(Session.class)).thenReturn(this.session);
+
+        this.portalEventStore = new JpaPortalEventStore();
+        this.portalEventStore.setEntityManager(this.entityManager);
+        this.portalEventStore.setMapper(new ObjectMapper());
+        this.portalEventStore.setStoreBatchSize(10);
+    }
+
+    @Test
+    public void testFlushEveryBatch() {
+        this.portalEventStore.storePortalEvents(generateEvents(25));
+
+        verify(this.entityManager, times(25)).persist(any(PersistentPortalEvent.class));
+        verify(this.session, times(3)).flush();
+        verify(this.session, times(25)).evict(any(PersistentPortalEvent.class));
+    }
+
+    @Test
+    public void testExactBatch() {
+        this.portalEventStore.storePortalEvents(generateEvents(10));
+
+        verify(this.session, times(1)).flush();
+        verify(this.session, times(10)).evict(any(PersistentPortalEvent.class));
+    }
+
+    @Test
+    public void testNoEvents() {
+        this.portalEventStore.storePortalEvents(Collections.<PortalEvent>emptyList());
+
+        verifyZeroInteractions(this.session);
+    }
+
+    private List<PortalEvent> generateEvents(int count) {
+        final PortalEvent.PortalEventBuilder eventBuilder =
+                new PortalEvent.PortalEventBuilder(
+                        this,
+                        "example.com",
+                        "1234567890123_system_AAAAAAAAAAA",
+                        SystemPerson.INSTANCE,
+                        null);
+
+        final List<PortalEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(new LogoutEvent(eventBuilder));
+        }
+        return events;
+    }
+}
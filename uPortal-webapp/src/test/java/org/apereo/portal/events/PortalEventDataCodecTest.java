@@ -0,0 +1,88 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import java.util.Map;
+import org.apereo.portal.events.handlers.db.PortalEventDataCodec;
+import org.apereo.portal.security.SystemPerson;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortalEventDataCodecTest {
+    private static final String SERVER_ID = "example.com";
+    private static final String SESSION_ID = "1234567890123_system_AAAAAAAAAAA";
+
+    private PortalEventDataCodec eventDataCodec;
+    private LoginEvent loginEvent;
+
+    @Before
+    public void setUp() {
+        this.eventDataCodec = new PortalEventDataCodec(new ObjectMapper());
+
+        final PortalEvent.PortalEventBuilder eventBuilder =
+                new PortalEvent.PortalEventBuilder(
+                        this, SERVER_ID, SESSION_ID, SystemPerson.INSTANCE, null);
+        final Map<String, List<String>> attributes =
+                ImmutableMap.<String, List<String>>of("roles", ImmutableList.of("student"));
+        this.loginEvent =
+                new LoginEvent(eventBuilder, ImmutableSet.of("Student", "Employee"), attributes);
+    }
+
+    @Test
+    public void testCompactRoundTrip() throws Exception {
+        final String eventData = this.eventDataCodec.encode(this.loginEvent);
+        assertTrue(eventData.startsWith("2{"));
+        assertFalse(eventData.contains(SESSION_ID));
+        assertTrue(eventData.length() < this.eventDataCodec.encodeFull(this.loginEvent).length());
+
+        final LoginEvent decoded =
+                this.eventDataCodec.decode(
+                        eventData,
+                        LoginEvent.class,
+                        SERVER_ID,
+                        SESSION_ID,
+                        this.loginEvent.getUserName());
+        assertEvent(decoded);
+    }
+
+    @Test
+    public void testFullJson() throws Exception {
+        final String eventData = this.eventDataCodec.encodeFull(this.loginEvent);
+        assertTrue(eventData.startsWith("{"));
+
+        // Row values are not needed to read the full format
+        final LoginEvent decoded =
+                this.eventDataCodec.decode(eventData, LoginEvent.class, null, null, null);
+        assertEvent(decoded);
+    }
+
+    private void assertEvent(LoginEvent decoded) {
+        assertEquals(SERVER_ID, decoded.getServerId());
+        assertEquals(SESSION_ID, decoded.getEventSessionId());
+        assertEquals(this.loginEvent.getUserName(), decoded.getUserName());
+        assertEquals(this.loginEvent.getTimestamp(), decoded.getTimestamp());
+        assertEquals(this.loginEvent.getGroups(), decoded.getGroups());
+        assertEquals(this.loginEvent.getAttributes(), decoded.getAttributes());
+    }
+}
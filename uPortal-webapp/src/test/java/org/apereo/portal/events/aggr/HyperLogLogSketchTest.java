@@ -0,0 +1,119 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogSketchTest {
+
+    @Test
+    public void testGetPrecision() {
+        assertEquals(12, HyperLogLogSketch.getPrecision(0.02));
+        assertEquals(14, HyperLogLogSketch.getPrecision(0.01));
+        assertEquals(HyperLogLogSketch.MIN_PRECISION, HyperLogLogSketch.getPrecision(0.9));
+        assertEquals(HyperLogLogSketch.MAX_PRECISION, HyperLogLogSketch.getPrecision(0.0001));
+    }
+
+    @Test
+    public void testEstimate() {
+        final byte[] sketch = HyperLogLogSketch.create(12);
+        assertEquals(0, HyperLogLogSketch.estimate(sketch));
+
+        final int count = 100000;
+        for (int i = 0; i < count; i++) {
+            HyperLogLogSketch.add(sketch, "user" + i);
+        }
+
+        // Three standard errors at precision 12
+        assertEquals(count, HyperLogLogSketch.estimate(sketch), count * 0.05);
+    }
+
+    @Test
+    public void testSmallEstimate() {
+        final byte[] sketch = HyperLogLogSketch.create(12);
+        for (int i = 0; i < 10; i++) {
+            HyperLogLogSketch.add(sketch, "user" + i);
+        }
+
+        assertEquals(10, HyperLogLogSketch.estimate(sketch));
+    }
+
+    @Test
+    public void testDuplicates() {
+        final byte[] sketch = HyperLogLogSketch.create(12);
+        for (int i = 0; i < 1000; i++) {
+            HyperLogLogSketch.add(sketch, "user" + i);
+        }
+        final long estimate = HyperLogLogSketch.estimate(sketch);
+
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(HyperLogLogSketch.add(sketch, "user" + i));
+        }
+        assertEquals(estimate, HyperLogLogSketch.estimate(sketch));
+    }
+
+    @Test
+    public void testMerge() {
+        final byte[] first = HyperLogLogSketch.create(12);
+        final byte[] second = HyperLogLogSketch.create(12);
+        for (int i = 0; i < 30000; i++) {
+            HyperLogLogSketch.add(first, "user" + i);
+        }
+        for (int i = 20000; i < 50000; i++) {
+            HyperLogLogSketch.add(second, "user" + i);
+        }
+
+        HyperLogLogSketch.merge(first, second);
+
+        assertEquals(50000, HyperLogLogSketch.estimate(first), 50000 * 0.05);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrecision() {
+        HyperLogLogSketch.create(HyperLogLogSketch.MAX_PRECISION + 1);
+    }
+
+    @Test
+    public void testAddChangesSketch() {
+        final byte[] sketch = HyperLogLogSketch.create(4);
+        assertTrue(HyperLogLogSketch.add(sketch, "user"));
+    }
+
+    @Test
+    public void testEstimatorMatchesEstimate() {
+        final byte[] sketch = HyperLogLogSketch.create(12);
+        for (int i = 0; i < 500; i++) {
+            HyperLogLogSketch.add(sketch, "user" + i);
+        }
+
+        final HyperLogLogSketch.Estimator estimator = new HyperLogLogSketch.Estimator(sketch);
+        assertEquals(HyperLogLogSketch.estimate(sketch), estimator.estimate());
+        for (int i = 0; i < 100000; i++) {
+            final long before = estimator.estimate();
+            if (!estimator.add("user" + i)) {
+                assertEquals(before, estimator.estimate());
+            }
+            if (i % 997 == 0) {
+                assertEquals(HyperLogLogSketch.estimate(sketch), estimator.estimate());
+            }
+        }
+        assertEquals(HyperLogLogSketch.estimate(sketch), estimator.estimate());
+        assertFalse(estimator.add("user0"));
+    }
+}
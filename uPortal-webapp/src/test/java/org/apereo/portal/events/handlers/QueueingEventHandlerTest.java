@@ -0,0 +1,114 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.events.handlers;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+
+public class QueueingEventHandlerTest {
+    private CollectingEventHandler eventHandler;
+
+    @Before
+    public void setUp() {
+        this.eventHandler = new CollectingEventHandler();
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        this.eventHandler.setCapacity(3);
+        for (int i = 0; i < 5; i++) {
+            this.eventHandler.onApplicationEvent(new ImportantEvent(this));
+        }
+
+        assertEquals(3, this.eventHandler.getQueueSize());
+        assertEquals(2, this.eventHandler.getDroppedCount());
+
+        this.eventHandler.flush();
+
+        assertEquals(3, this.eventHandler.handledEvents.size());
+        assertEquals(3, this.eventHandler.getFlushedCount());
+        assertEquals(0, this.eventHandler.getQueueSize());
+    }
+
+    @Test
+    public void testShedOverThreshold() {
+        this.eventHandler.setCapacity(10);
+        this.eventHandler.setSheddingThreshold(2);
+        this.eventHandler.setSheddingSampleRate(2);
+        this.eventHandler.setSheddableEventTypes(
+                ImmutableList.<Class<? extends ApplicationEvent>>of(HighVolumeEvent.class));
+
+        // Below the threshold everything is queued
+        this.eventHandler.onApplicationEvent(new HighVolumeEvent(this));
+        this.eventHandler.onApplicationEvent(new ImportantEvent(this));
+
+        // Over the threshold every second sheddable event is kept
+        for (int i = 0; i < 4; i++) {
+            this.eventHandler.onApplicationEvent(new HighVolumeEvent(this));
+        }
+        this.eventHandler.onApplicationEvent(new ImportantEvent(this));
+
+        assertEquals(5, this.eventHandler.getQueueSize());
+        assertEquals(2, this.eventHandler.getShedCount());
+        assertEquals(0, this.eventHandler.getDroppedCount());
+    }
+
+    @Test
+    public void testShedAllWithoutSampleRate() {
+        this.eventHandler.setSheddingThreshold(0);
+        this.eventHandler.setSheddableEventTypes(
+                ImmutableList.<Class<? extends ApplicationEvent>>of(HighVolumeEvent.class));
+
+        this.eventHandler.onApplicationEvent(new HighVolumeEvent(this));
+        this.eventHandler.onApplicationEvent(new ImportantEvent(this));
+
+        assertEquals(1, this.eventHandler.getQueueSize());
+        assertEquals(1, this.eventHandler.getShedCount());
+    }
+
+    private static final class CollectingEventHandler
+            extends QueueingEventHandler<ApplicationEvent> {
+        private final List<ApplicationEvent> handledEvents = new ArrayList<ApplicationEvent>();
+
+        @Override
+        protected void onApplicationEvents(Iterable<ApplicationEvent> events) {
+            for (final ApplicationEvent event : events) {
+                this.handledEvents.add(event);
+            }
+        }
+    }
+
+    private static final class HighVolumeEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        HighVolumeEvent(Object source) {
+            super(source);
+        }
+    }
+
+    private static final class ImportantEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        ImportantEvent(Object source) {
+            super(source);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupClosureIndexTest {
+    private CacheManager cacheManager;
+    private GroupClosureIndex index;
+
+    private IEntityGroup root;
+    private IEntityGroup staff;
+    private IEntityGroup faculty;
+    private IEntityGroup students;
+
+    @Before
+    public void setup() throws Exception {
+        cacheManager = CacheManager.create();
+        final Cache ancestorsCache = new Cache("groupClosureIndexTest", 100, false, false, 0, 0);
+        cacheManager.addCache(ancestorsCache);
+        index = new GroupClosureIndex(ancestorsCache);
+
+        root = mockGroup("local.0");
+        staff = mockGroup("local.1", root);
+        faculty = mockGroup("local.2", staff);
+        students = mockGroup("local.3", root);
+    }
+
+    @After
+    public void teardown() {
+        cacheManager.removeCache("groupClosureIndexTest");
+    }
+
+    @Test
+    public void testDeepMembership() throws Exception {
+        final IGroupMember person = mockPerson("jdoe", faculty);
+
+        assertTrue(index.isDeepMemberOf(person, faculty));
+        assertTrue(index.isDeepMemberOf(person, staff));
+        assertTrue(index.isDeepMemberOf(person, root));
+        assertFalse(index.isDeepMemberOf(person, students));
+
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.0", "local.1", "local.2")),
+                new HashSet<>(index.getAncestorKeys(person)));
+    }
+
+    @Test
+    public void testGroupEntriesAreReused() throws Exception {
+        index.getAncestorIds(mockPerson("jdoe", faculty));
+        index.getAncestorIds(mockPerson("jsmith", faculty));
+
+        // The groups were indexed for the first person, the second only needs its own parents
+        verify(faculty, times(1)).getParentGroups();
+        verify(staff, times(1)).getParentGroups();
+    }
+
+    @Test
+    public void testMemberParentGroupsChange() throws Exception {
+        final IGroupMember person = mockPerson("jdoe", faculty);
+        assertFalse(index.isDeepMemberOf(person, students));
+
+        // A rebuilt parent groups set, e.g. after login, is picked up without invalidating
+        when(person.getParentGroups()).thenReturn(Collections.singleton(students));
+        assertTrue(index.isDeepMemberOf(person, students));
+        assertFalse(index.isDeepMemberOf(person, staff));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final IGroupMember person = mockPerson("jdoe", faculty);
+        assertFalse(index.isDeepMemberOf(person, students));
+
+        // Move staff under students, group to group changes need an invalidate
+        when(staff.getParentGroups()).thenReturn(Collections.singleton(students));
+        assertFalse(index.isDeepMemberOf(person, students));
+
+        index.invalidate();
+        assertTrue(index.isDeepMemberOf(person, students));
+    }
+
+    @Test
+    public void testInvalidateMemberKeepsUnrelatedEntries() throws Exception {
+        final IGroupMember jdoe = mockPerson("jdoe", faculty);
+        final IGroupMember jsmith = mockPerson("jsmith", students);
+        assertFalse(index.isDeepMemberOf(jdoe, students));
+        assertTrue(index.isDeepMemberOf(jsmith, root));
+
+        // Move staff under students, only staff and its descendants need rebuilding
+        when(staff.getParentGroups()).thenReturn(Collections.singleton(students));
+        index.invalidate(staff);
+
+        assertTrue(index.isDeepMemberOf(jdoe, students));
+        assertTrue(index.isDeepMemberOf(jdoe, root));
+        assertTrue(index.isDeepMemberOf(jsmith, root));
+
+        // faculty and staff were rebuilt, the students and root entries survived
+        verify(faculty, times(2)).getParentGroups();
+        verify(staff, times(2)).getParentGroups();
+        verify(students, times(1)).getParentGroups();
+        verify(root, times(1)).getParentGroups();
+    }
+
+    @Test
+    public void testInvalidateRemovedMember() throws Exception {
+        final IGroupMember person = mockPerson("jdoe", faculty);
+        assertTrue(index.isDeepMemberOf(person, staff));
+
+        // Remove faculty from staff
+        when(faculty.getParentGroups()).thenReturn(Collections.<IEntityGroup>emptySet());
+        index.invalidate(faculty);
+
+        assertTrue(index.isDeepMemberOf(person, faculty));
+        assertFalse(index.isDeepMemberOf(person, staff));
+        assertFalse(index.isDeepMemberOf(person, root));
+    }
+
+    @Test
+    public void testCircularReference() throws Exception {
+        final IEntityGroup a = mockGroup("local.a");
+        final IEntityGroup b = mockGroup("local.b", a);
+        when(a.getParentGroups()).thenReturn(Collections.singleton(b));
+
+        final IGroupMember person = mockPerson("jdoe", a);
+        assertTrue(index.isDeepMemberOf(person, a));
+        assertTrue(index.isDeepMemberOf(person, b));
+    }
+
+    @Test
+    public void testCircularReferenceIsNotCachedPartially() throws Exception {
+        final IEntityGroup a = mockGroup("local.a");
+        final IEntityGroup b = mockGroup("local.b", a);
+        when(a.getParentGroups()).thenReturn(Collections.singleton(b));
+
+        assertTrue(index.isDeepMemberOf(mockPerson("jdoe", a), b));
+
+        // b was collected while a was in progress, it must not be cached with only a as ancestor
+        final Set<String> expected = new HashSet<>(Arrays.asList("local.a", "local.b"));
+        assertEquals(expected, new HashSet<>(index.getAncestorKeys(b)));
+        assertEquals(expected, new HashSet<>(index.getAncestorKeys(a)));
+    }
+
+    @Test
+    public void testInvalidateDropsInternedKeys() throws Exception {
+        final IEntityGroup removed = mockGroup("local.4", root);
+        final IGroupMember person = mockPerson("jdoe", removed);
+        assertTrue(index.isDeepMemberOf(person, removed));
+        assertEquals(2, index.getInternedKeyCount());
+
+        // Deleting the group invalidates the index, its key is no longer interned
+        when(person.getParentGroups()).thenReturn(Collections.singleton(faculty));
+        index.invalidate();
+        assertEquals(0, index.getInternedKeyCount());
+
+        assertFalse(index.isDeepMemberOf(person, removed));
+        assertTrue(index.isDeepMemberOf(person, root));
+        assertEquals(3, index.getInternedKeyCount());
+    }
+
+    @Test
+    public void testAncestorsKey() throws Exception {
+        final IGroupMember directFaculty = mockPerson("jdoe", faculty);
+        final IGroupMember alsoStaff = mockPerson("jsmith", faculty, staff);
+        final IGroupMember student = mockPerson("jroe", students);
+
+        // Same groups recursively, whether or not through the same parents
+        assertEquals(index.getAncestorsKey(directFaculty), index.getAncestorsKey(alsoStaff));
+        assertFalse(index.getAncestorsKey(directFaculty).equals(index.getAncestorsKey(student)));
+
+        // Ids may be reused once the index is invalidated
+        final GroupClosureIndex.AncestorsKey before = index.getAncestorsKey(directFaculty);
+        index.invalidate();
+        assertFalse(before.equals(index.getAncestorsKey(directFaculty)));
+    }
+
+    private IEntityGroup mockGroup(String key, IEntityGroup... parents) throws Exception {
+        final IEntityGroup group = mock(IEntityGroup.class);
+        when(group.getKey()).thenReturn(key);
+        when(group.isGroup()).thenReturn(true);
+        when(group.getUnderlyingEntityIdentifier())
+                .thenReturn(new EntityIdentifier(key, IEntityGroup.class));
+        when(group.getParentGroups()).thenReturn(toSet(parents));
+        return group;
+    }
+
+    private IGroupMember mockPerson(String username, IEntityGroup... parents) throws Exception {
+        final IGroupMember person = mock(IGroupMember.class);
+        when(person.getKey()).thenReturn(username);
+        when(person.getUnderlyingEntityIdentifier())
+                .thenReturn(new EntityIdentifier(username, IPerson.class));
+        when(person.getParentGroups()).thenReturn(toSet(parents));
+        return person;
+    }
+
+    private static Set<IEntityGroup> toSet(IEntityGroup... groups) {
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(groups)));
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apereo.portal.EntityIdentifier;
+import org.apereo.portal.groups.IGroupConstants.SearchMethod;
+import org.apereo.portal.security.IPerson;
+import org.apereo.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupNameIndexTest {
+    private static final String[] NAMES = {
+        "Staff", "Students", "All Students", "staff advisors", "Faculty", "Math Faculty", "Physics"
+    };
+    private static final String[] QUERIES = {
+        "Staff", "staff", "Stu", "ents", "ulty", "a", "FAC", "xyz", ""
+    };
+
+    private final List<GroupNameIndex.GroupName> groupNames = new ArrayList<>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private GroupNameIndex index;
+
+    @Before
+    public void setup() {
+        for (int i = 0; i < NAMES.length; i++) {
+            groupNames.add(new GroupNameIndex.GroupName("local." + i, NAMES[i], IPerson.class));
+        }
+        groupNames.add(new GroupNameIndex.GroupName("local.other", "Staff", PersonImpl.class));
+        index =
+                new GroupNameIndex(
+                        () -> {
+                            loads.incrementAndGet();
+                            return groupNames;
+                        },
+                        0);
+    }
+
+    @Test
+    public void testAllSearchMethods() throws Exception {
+        for (SearchMethod method : SearchMethod.values()) {
+            for (String query : QUERIES) {
+                final Set<String> expected = new HashSet<>();
+                for (int i = 0; i < NAMES.length; i++) {
+                    if (matches(NAMES[i], query, method)) {
+                        expected.add("local." + i);
+                    }
+                }
+                assertEquals(
+                        method + " '" + query + "'",
+                        expected,
+                        keys(index.search(query, method, IPerson.class)));
+            }
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testUpdates() throws Exception {
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.0", "local.3")),
+                keys(index.search("staff", SearchMethod.STARTS_WITH_CI, IPerson.class)));
+
+        index.groupUpdated("local.7", "Staffing", IPerson.class);
+        index.groupUpdated("local.3", "Advisors", IPerson.class);
+        index.groupDeleted("local.0");
+
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.7")),
+                keys(index.search("staff", SearchMethod.STARTS_WITH_CI, IPerson.class)));
+        assertEquals(1, loads.get());
+
+        index.invalidate();
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.0", "local.3")),
+                keys(index.search("staff", SearchMethod.STARTS_WITH_CI, IPerson.class)));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testManyUpdates() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            index.groupUpdated("new." + i, "Staff " + i, IPerson.class);
+            if (i % 3 == 0) {
+                index.groupDeleted("new." + (i / 3));
+            }
+            // Each search sees the changes, before and after they are folded into the index
+            assertEquals(
+                    i + 1 - (i / 3 + 1) + 2,
+                    index.search("staff", SearchMethod.STARTS_WITH_CI, IPerson.class).length);
+        }
+        assertEquals(
+                new HashSet<>(Arrays.asList("new.199")),
+                keys(index.search("Staff 199", SearchMethod.DISCRETE, IPerson.class)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testUpdateDuringLoad() throws Exception {
+        index =
+                new GroupNameIndex(
+                        () -> {
+                            // The store commits an update while the names are being read
+                            final List<GroupNameIndex.GroupName> snapshot =
+                                    new ArrayList<>(groupNames);
+                            index.groupUpdated("local.0", "Renamed", IPerson.class);
+                            index.groupDeleted("local.1");
+                            return snapshot;
+                        },
+                        0);
+
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.0")),
+                keys(index.search("Renamed", SearchMethod.DISCRETE, IPerson.class)));
+        assertEquals(0, index.search("Students", SearchMethod.DISCRETE, IPerson.class).length);
+        assertEquals(0, index.search("Staff", SearchMethod.DISCRETE, IPerson.class).length);
+    }
+
+    @Test
+    public void testLikeWildcards() throws Exception {
+        groupNames.add(new GroupNameIndex.GroupName("local.pct", "100% Online", IPerson.class));
+        final GroupNameIndex literal = new GroupNameIndex(() -> groupNames, 0);
+        final GroupNameIndex like = new GroupNameIndex(() -> groupNames, 0, true);
+
+        // Matched literally by default
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.pct")),
+                keys(literal.search("0%", SearchMethod.CONTAINS, IPerson.class)));
+        assertEquals(0, literal.search("St_ff", SearchMethod.STARTS_WITH, IPerson.class).length);
+
+        // As SQL LIKE wildcards when enabled
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.0", "local.3")),
+                keys(like.search("st_ff", SearchMethod.STARTS_WITH_CI, IPerson.class)));
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.1", "local.2")),
+                keys(like.search("S%ents", SearchMethod.ENDS_WITH, IPerson.class)));
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.4", "local.5")),
+                keys(like.search("f%ty", SearchMethod.CONTAINS_CI, IPerson.class)));
+        assertEquals(
+                new HashSet<>(Arrays.asList("local.pct")),
+                keys(like.search("0%", SearchMethod.CONTAINS, IPerson.class)));
+
+        // Exact searches never used LIKE
+        assertEquals(0, like.search("St_ff", SearchMethod.DISCRETE, IPerson.class).length);
+    }
+
+    private static boolean matches(String name, String query, SearchMethod method) {
+        switch (method) {
+            case DISCRETE:
+                return name.equals(query);
+            case DISCRETE_CI:
+                return name.equalsIgnoreCase(query);
+            case STARTS_WITH:
+                return name.startsWith(query);
+            case STARTS_WITH_CI:
+                return name.toUpperCase().startsWith(query.toUpperCase());
+            case ENDS_WITH:
+                return name.endsWith(query);
+            case ENDS_WITH_CI:
+                return name.toUpperCase().endsWith(query.toUpperCase());
+            case CONTAINS:
+                return name.contains(query);
+            case CONTAINS_CI:
+                return name.toUpperCase().contains(query.toUpperCase());
+            default:
+                throw new IllegalArgumentException(method.toString());
+        }
+    }
+
+    private static Set<String> keys(EntityIdentifier[] ids) {
+        final Set<String> keys = new HashSet<>();
+        for (EntityIdentifier id : ids) {
+            keys.add(id.getKey());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.mock.portlet.om.MockPortletEntityId;
+import org.apereo.portal.mock.portlet.om.MockPortletWindowId;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionParameter;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.rendering.PortletRenderResult;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for the stale-while-revalidate handling of {@link PortletCacheControlServiceImpl}. */
+public class PortletCacheControlServiceImplRevalidationTest {
+    private static final long EXPIRED = 1000;
+
+    private PortletCacheControlServiceImpl cacheControlService;
+    private IPortletWindow portletWindow;
+    private PrivatePortletCacheKey cacheKey;
+
+    @Before
+    public void setUp() {
+        cacheControlService = new PortletCacheControlServiceImpl();
+
+        final IPortletDefinitionParameter parameter = mock(IPortletDefinitionParameter.class);
+        when(parameter.getValue()).thenReturn("30");
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getParameter(
+                        PortletCacheControlServiceImpl.STALE_WHILE_REVALIDATE_PARAMETER))
+                .thenReturn(parameter);
+        final IPortletEntity portletEntity = mock(IPortletEntity.class);
+        when(portletEntity.getPortletDefinition()).thenReturn(portletDefinition);
+        portletWindow = mock(IPortletWindow.class);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+
+        cacheKey =
+                new PrivatePortletCacheKey(
+                        "session",
+                        new MockPortletWindowId("1"),
+                        new MockPortletEntityId("2"),
+                        null);
+    }
+
+    @Test
+    public void testServeStaleWhileRefreshing() {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> refresher =
+                newCacheState();
+        assertFalse(isServeStale(refresher, EXPIRED + 1));
+        assertEquals(cacheKey, refresher.getRevalidationCacheKey());
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> other =
+                newCacheState();
+        assertTrue(isServeStale(other, EXPIRED + 2));
+        assertNull(other.getRevalidationCacheKey());
+    }
+
+    @Test
+    public void testNotServedPastWindow() {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> first =
+                newCacheState();
+        assertFalse(isServeStale(first, EXPIRED + TimeUnit.SECONDS.toMillis(30)));
+        assertNull(first.getRevalidationCacheKey());
+
+        // Past the window every request renders the portlet itself, nothing is claimed
+        assertFalse(isServeStale(newCacheState(), EXPIRED + TimeUnit.SECONDS.toMillis(30)));
+    }
+
+    @Test
+    public void testSingleRefresher() throws Exception {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(
+                        executor.submit(
+                                new Callable<Boolean>() {
+                                    @Override
+                                    public Boolean call() throws Exception {
+                                        start.await();
+                                        return isServeStale(newCacheState(), EXPIRED + 1);
+                                    }
+                                }));
+            }
+            start.countDown();
+
+            int refreshers = 0;
+            for (final Future<Boolean> result : results) {
+                if (!result.get(10, TimeUnit.SECONDS)) {
+                    refreshers++;
+                }
+            }
+            assertEquals(1, refreshers);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReleaseAfterFailedRefresh() {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> failed =
+                newCacheState();
+        assertFalse(isServeStale(failed, EXPIRED + 1));
+
+        // The portlet threw or its output was not cacheable, nothing was stored
+        cacheControlService.releaseRevalidation(failed);
+        assertNull(failed.getRevalidationCacheKey());
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> retry =
+                newCacheState();
+        assertFalse(isServeStale(retry, EXPIRED + 2));
+        assertNotNull(retry.getRevalidationCacheKey());
+    }
+
+    @Test
+    public void testTimedOutRefreshTakenOver() {
+        cacheControlService.setRevalidationTimeout(10);
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> hung =
+                newCacheState();
+        assertFalse(isServeStale(hung, EXPIRED + 1));
+        assertTrue(isServeStale(newCacheState(), EXPIRED + 5));
+
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> takeover =
+                newCacheState();
+        assertFalse(isServeStale(takeover, EXPIRED + 20));
+
+        // The hung refresh finishing late must not release the claim that replaced it
+        cacheControlService.releaseRevalidation(hung);
+        assertTrue(isServeStale(newCacheState(), EXPIRED + 21));
+
+        cacheControlService.releaseRevalidation(takeover);
+        assertFalse(isServeStale(newCacheState(), EXPIRED + 22));
+    }
+
+    private boolean isServeStale(
+            CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState,
+            long now) {
+        return cacheControlService.isServeStale(cacheState, portletWindow, EXPIRED, now);
+    }
+
+    private CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>
+            newCacheState() {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState =
+                new CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>();
+        cacheState.setPrivatePortletCacheKey(cacheKey);
+        return cacheState;
+    }
+}
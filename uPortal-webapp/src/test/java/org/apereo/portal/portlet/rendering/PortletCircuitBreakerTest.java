@@ -0,0 +1,81 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PortletCircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterFailureThreshold() {
+        final PortletCircuitBreaker circuitBreaker = new PortletCircuitBreaker(10, 4, .5, 60000);
+
+        circuitBreaker.recordFailure(100);
+        circuitBreaker.recordFailure(100);
+        circuitBreaker.recordFailure(100);
+        assertEquals(PortletCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowExecution());
+
+        circuitBreaker.recordSuccess(10);
+        circuitBreaker.recordFailure(100);
+        assertEquals(PortletCircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowExecution());
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws Exception {
+        final PortletCircuitBreaker circuitBreaker = new PortletCircuitBreaker(4, 2, .5, 0);
+
+        circuitBreaker.recordFailure(100);
+        circuitBreaker.recordFailure(100);
+        assertEquals(PortletCircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        // Open duration has elapsed, one probe is allowed
+        assertTrue(circuitBreaker.allowExecution());
+        assertEquals(PortletCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+
+        // Failed probe re-opens the circuit
+        circuitBreaker.recordFailure(100);
+        assertEquals(PortletCircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        // Successful probe closes it and forgets the failures
+        assertTrue(circuitBreaker.allowExecution());
+        circuitBreaker.recordSuccess(10);
+        assertEquals(PortletCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getExecutionCount());
+    }
+
+    @Test
+    public void testLatencyPercentiles() {
+        final PortletCircuitBreaker circuitBreaker = new PortletCircuitBreaker(100, 10, .5, 60000);
+        assertEquals(-1, circuitBreaker.getLatencyPercentile(50));
+
+        for (int latency = 1; latency <= 100; latency++) {
+            circuitBreaker.recordSuccess(latency);
+        }
+        assertEquals(50, circuitBreaker.getLatencyPercentile(50));
+        assertEquals(90, circuitBreaker.getLatencyPercentile(90));
+        assertEquals(99, circuitBreaker.getLatencyPercentile(99));
+
+        // Window only keeps the most recent executions
+        circuitBreaker.recordSuccess(1000);
+        assertEquals(1000, circuitBreaker.getLatencyPercentile(100));
+        assertEquals(2, circuitBreaker.getLatencyPercentile(0));
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Map;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDescriptorKey;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+/** Tests how render outcomes feed the adaptive render timeout of PortletExecutionManager. */
+public class PortletExecutionManagerAdaptiveTimeoutTest {
+
+    private static final int CONFIGURED_TIMEOUT = 5000;
+
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private IPortletWindowId portletWindowId;
+    @Mock private IPortletWindow portletWindow;
+    @Mock private IPortletEntity portletEntity;
+    @Mock private IPortletDefinition portletDefinition;
+    @Mock private IPortletDescriptorKey portletDescriptorKey;
+
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+    private PortletExecutionManager portletExecutionManager;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+
+        when(portletWindowRegistry.getPortletWindow(request, portletWindowId))
+                .thenReturn(portletWindow);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletEntity.getPortletDefinition()).thenReturn(portletDefinition);
+        when(portletDefinition.getPortletDescriptorKey()).thenReturn(portletDescriptorKey);
+        when(portletDefinition.getTimeout()).thenReturn(CONFIGURED_TIMEOUT);
+        when(portletDescriptorKey.getWebAppName()).thenReturn("/test");
+        when(portletDescriptorKey.getPortletName()).thenReturn("portlet");
+
+        // Otherwise the default warm up and circuit breaker configuration
+        portletExecutionManager = new PortletExecutionManager();
+        portletExecutionManager.setPortletWindowRegistry(portletWindowRegistry);
+        portletExecutionManager.setAdaptiveTimeoutMultiplier(2);
+    }
+
+    /** Once warmed up the timeout follows the recent render times of the portlet. */
+    @Test
+    public void adaptiveTimeoutAppliesInSteadyState() throws Exception {
+        // Warming up, the extended timeout until more than extendedTimeoutExecutions executions
+        for (int i = 0; i < 6; i++) {
+            assertEquals(CONFIGURED_TIMEOUT * 20, this.getRenderTimeout());
+            this.render(10, false);
+        }
+        // Warmed up, but fewer than circuitBreaker.minimumExecutions renders tracked
+        for (int i = 0; i < 4; i++) {
+            assertEquals(CONFIGURED_TIMEOUT, this.getRenderTimeout());
+            this.render(10, false);
+        }
+
+        // Fast renders only shorten it down to the adaptive minimum
+        assertEquals(1000, this.getRenderTimeout());
+
+        for (int i = 0; i < 20; i++) {
+            this.render(2000, false);
+        }
+        assertEquals(4000, this.getRenderTimeout());
+
+        // Never more than the configured timeout
+        for (int i = 0; i < 20; i++) {
+            this.render(4000, false);
+        }
+        assertEquals(CONFIGURED_TIMEOUT, this.getRenderTimeout());
+    }
+
+    /**
+     * Renders replayed from the portlet output cache must not drag the adaptive timeout down, so a
+     * slow real render that completes within the timeout the real renders earned is a success.
+     */
+    @Test
+    public void cachedRendersDoNotShrinkTimeout() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            this.render(2000, false);
+        }
+        assertEquals(4000, this.getRenderTimeout());
+
+        // Followed by many renders replayed from the portlet output cache
+        for (int i = 0; i < 50; i++) {
+            this.render(2, true);
+        }
+        assertEquals(4000, this.getRenderTimeout());
+
+        // One slow real render finishing within the timeout
+        this.render(3500, false);
+
+        final Map<String, String> states = portletExecutionManager.getPortletCircuitBreakerStates();
+        final String state = states.get("/test/portlet");
+        assertTrue(state, state.startsWith("CLOSED [executions=11,"));
+        assertEquals(CONFIGURED_TIMEOUT, this.getRenderTimeout());
+    }
+
+    private long getRenderTimeout() {
+        return portletExecutionManager.getPortletRenderTimeout(portletWindowId, request);
+    }
+
+    /** Completes a render the way a worker does, then retrieves its output */
+    private void render(long duration, boolean cached) throws Exception {
+        final IPortletRenderExecutionWorker worker = mock(IPortletRenderExecutionWorker.class);
+        when(worker.getPortletWindowId()).thenReturn(portletWindowId);
+        when(worker.isComplete()).thenReturn(true);
+        when(worker.getDuration()).thenReturn(duration);
+        when(worker.get(0))
+                .thenReturn(
+                        new PortletRenderResult(
+                                new PortletRenderResult("title", null, 0, duration),
+                                duration,
+                                cached));
+
+        portletExecutionManager.postExecution(request, response, worker, null);
+        portletExecutionManager.recordRenderOutcome(worker, request, false);
+    }
+}
@@ -17,6 +17,7 @@ package org.apereo.portal.portlet.rendering;
 import static org.junit.Assert.assertArrayEquals;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -38,6 +39,7 @@ import org.apache.pluto.container.PortletContainerException;
 import org.apache.pluto.container.PortletWindow;
 import org.apereo.portal.api.portlet.PortletDelegationLocator;
 import org.apereo.portal.events.IPortletExecutionEventFactory;
+import org.apereo.portal.portlet.PortletDispatchException;
 import org.apereo.portal.portlet.container.cache.CacheState;
 import org.apereo.portal.portlet.container.cache.CachedPortletData;
 import org.apereo.portal.portlet.container.cache.CachedPortletResourceData;
@@ -988,4 +990,43 @@ public class PortletRendererImplTest {
 
         verifyNoMoreInteractions(portletContainer, portletCacheControlService);
     }
+
+    /**
+     * A stale-while-revalidate refresh claimed by the request is released when the portlet fails
+     * and nothing is cached.
+     *
+     * @throws PortletException
+     * @throws IOException
+     * @throws PortletContainerException
+     */
+    @Test
+    public void doServeResourceFailureReleasesRevalidation()
+            throws PortletException, IOException, PortletContainerException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        TestingCacheState<CachedPortletResourceData<Long>, Long> cacheState =
+                new TestingCacheState<CachedPortletResourceData<Long>, Long>();
+        cacheState.setRevalidationCacheKey("revalidationKey");
+
+        setupPortletExecutionMocks(request);
+
+        when(portletCacheControlService.getPortletResourceState(request, portletWindowId))
+                .thenReturn(cacheState);
+        doThrow(new PortletException("failed"))
+                .when(portletContainer)
+                .doServeResource(
+                        eq(plutoPortletWindow),
+                        isA(PortletHttpServletRequestWrapper.class),
+                        isA(PortletResourceHttpServletResponseWrapper.class));
+
+        ResourcePortletOutputHandler handler = new ResourcePortletOutputHandler(response);
+        try {
+            portletRenderer.doServeResource(portletWindowId, request, response, handler);
+            Assert.fail("PortletDispatchException expected");
+        } catch (PortletDispatchException e) {
+            // expected
+        }
+
+        verify(portletCacheControlService, times(1)).releaseRevalidation(cacheState);
+    }
 }
@@ -57,4 +57,9 @@ public class TestingCacheState<D extends CachedPortletResultHolder<T>, T extends
     public void setBrowserSetEtag(boolean browserSetEtag) {
         super.setBrowserSetEtag(browserSetEtag);
     }
+
+    @Override
+    public void setRevalidationCacheKey(Serializable revalidationCacheKey) {
+        super.setRevalidationCacheKey(revalidationCacheKey);
+    }
 }
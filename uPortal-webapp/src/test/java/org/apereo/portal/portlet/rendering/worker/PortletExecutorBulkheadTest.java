@@ -0,0 +1,200 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.portlet.rendering.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletEntity;
+import org.apereo.portal.portlet.om.IPortletType;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.PortletCategory;
+import org.apereo.portal.portlet.registry.IPortletCategoryRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+/** Tests for routing portlet workers to bulkheads and for bulkhead saturation behavior. */
+public class PortletExecutorBulkheadTest {
+
+    @Mock private ExecutorService sharedPool;
+    @Mock private IPortletCategoryRegistry portletCategoryRegistry;
+    @Mock private IPortletWindow portletWindow;
+    @Mock private IPortletEntity portletEntity;
+    @Mock private IPortletDefinition portletDefinition;
+    @Mock private IPortletType portletType;
+    @Mock private Runnable overflowTask;
+
+    private final CountDownLatch releaseWorkers = new CountDownLatch(1);
+    private PortletExecutorBulkhead bulkhead;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletEntity.getPortletDefinition()).thenReturn(portletDefinition);
+        when(portletDefinition.getFName()).thenReturn("other");
+        when(portletDefinition.getType()).thenReturn(portletType);
+        when(portletType.getName()).thenReturn("Portlet");
+        when(portletCategoryRegistry.getParentCategories(portletDefinition))
+                .thenReturn(Collections.<PortletCategory>emptySet());
+
+        bulkhead = new PortletExecutorBulkhead();
+        bulkhead.setName("slow");
+        bulkhead.setFnames(Arrays.asList("slow-portlet"));
+        bulkhead.setMaxPoolSize(1);
+        bulkhead.setQueueCapacity(0);
+        bulkhead.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        releaseWorkers.countDown();
+        bulkhead.destroy();
+    }
+
+    @Test
+    public void rejectPolicyFailsWorkerWhenSaturated() throws Exception {
+        bulkhead.setSaturationPolicy(PortletExecutorBulkhead.SaturationPolicy.REJECT);
+        bulkhead.setSharedExecutor(sharedPool);
+
+        this.saturate();
+
+        try {
+            bulkhead.execute(overflowTask);
+            fail("Saturated bulkhead should reject the worker");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        assertEquals(1, bulkhead.getRejectedCount());
+        assertEquals(0, bulkhead.getOverflowCount());
+        verifyNoInteractions(sharedPool);
+    }
+
+    @Test
+    public void sharedPoolPolicyRunsWorkerOnSharedPoolWhenSaturated() throws Exception {
+        bulkhead.setSaturationPolicy(PortletExecutorBulkhead.SaturationPolicy.SHARED_POOL);
+        bulkhead.setSharedExecutor(sharedPool);
+
+        this.saturate();
+        bulkhead.execute(overflowTask);
+
+        verify(sharedPool).execute(overflowTask);
+        assertEquals(1, bulkhead.getRejectedCount());
+        assertEquals(1, bulkhead.getOverflowCount());
+    }
+
+    @Test
+    public void sharedPoolPolicyRejectsWithoutSharedPool() throws Exception {
+        bulkhead.setSaturationPolicy(PortletExecutorBulkhead.SaturationPolicy.SHARED_POOL);
+
+        this.saturate();
+
+        try {
+            bulkhead.execute(overflowTask);
+            fail("Saturated bulkhead without a shared pool should reject the worker");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(0, bulkhead.getOverflowCount());
+    }
+
+    @Test
+    public void unsaturatedBulkheadRunsWorkerItself() throws Exception {
+        bulkhead.setSaturationPolicy(PortletExecutorBulkhead.SaturationPolicy.SHARED_POOL);
+        bulkhead.setSharedExecutor(sharedPool);
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        bulkhead.execute(ran::countDown);
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        verifyNoInteractions(sharedPool);
+        assertEquals(0, bulkhead.getRejectedCount());
+    }
+
+    @Test
+    public void factoryRoutesPortletsToMatchingBulkhead() throws Exception {
+        final PortletExecutorBulkhead categoryBulkhead = new PortletExecutorBulkhead();
+        categoryBulkhead.setName("news");
+        categoryBulkhead.setCategories(Arrays.asList("News"));
+        categoryBulkhead.afterPropertiesSet();
+
+        final PortletWorkerFactoryImpl workerFactory = new PortletWorkerFactoryImpl();
+        workerFactory.setPortletThreadPool(sharedPool);
+        workerFactory.setPortletCategoryRegistry(portletCategoryRegistry);
+        workerFactory.setBulkheads(Arrays.asList(bulkhead, categoryBulkhead));
+
+        try {
+            // No bulkhead configured for the portlet
+            assertSame(sharedPool, workerFactory.getExecutorService(portletWindow));
+
+            // Selected by fname
+            when(portletDefinition.getFName()).thenReturn("slow-portlet");
+            assertSame(bulkhead, workerFactory.getExecutorService(portletWindow));
+
+            // Selected by category
+            when(portletDefinition.getFName()).thenReturn("campus-news");
+            final PortletCategory newsCategory = new PortletCategory("local.1");
+            newsCategory.setName("News");
+            when(portletCategoryRegistry.getParentCategories(portletDefinition))
+                    .thenReturn(Collections.singleton(newsCategory));
+            assertSame(categoryBulkhead, workerFactory.getExecutorService(portletWindow));
+        } finally {
+            categoryBulkhead.destroy();
+        }
+    }
+
+    @Test
+    public void factoryUsesSharedPoolWithoutBulkheads() {
+        final PortletWorkerFactoryImpl workerFactory = new PortletWorkerFactoryImpl();
+        workerFactory.setPortletThreadPool(sharedPool);
+        workerFactory.setPortletCategoryRegistry(portletCategoryRegistry);
+
+        when(portletDefinition.getFName()).thenReturn("slow-portlet");
+        assertSame(sharedPool, workerFactory.getExecutorService(portletWindow));
+        verifyNoInteractions(portletCategoryRegistry);
+    }
+
+    /** Occupy the bulkhead's only thread until the test ends */
+    private void saturate() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        bulkhead.execute(
+                () -> {
+                    started.countDown();
+                    try {
+                        releaseWorkers.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -15,13 +15,30 @@
 package org.apereo.portal.rendering;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.DispatcherType;
+import javax.xml.transform.OutputKeys;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.events.IPortletExecutionEventFactory;
 import org.apereo.portal.url.IUrlSyntaxProvider;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 /** Unit tests for DynamicRenderingPipeline. */
 public class DynamicRenderingPipelineTest {
@@ -30,6 +47,12 @@ public class DynamicRenderingPipelineTest {
 
     @Mock CharacterPipelineComponent characterPipelineComponent;
 
+    @Mock Closeable renderingResource;
+
+    @Mock IPortletExecutionEventFactory portalEventFactory;
+
+    @Mock PipelineEventReader<CharacterEventReader, CharacterEvent> pipelineEventReader;
+
     @Before
     public void beforeTests() {
         initMocks(this);
@@ -54,4 +77,197 @@ public class DynamicRenderingPipelineTest {
 
         assertEquals(friendlyToString, dynamicRenderingPipeline.toString());
     }
+
+    /** Test that resources registered during rendering are closed when the pipeline fails. */
+    @Test
+    public void closesRenderingResourcesOnFailure() throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        when(characterPipelineComponent.getEventReader(any(), any()))
+                .thenAnswer(
+                        invocation -> {
+                            RenderingResourceUtils.registerResource(request, renderingResource);
+                            throw new IllegalStateException("pipeline failed");
+                        });
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+        dynamicRenderingPipeline.setPipeline(characterPipelineComponent);
+
+        try {
+            dynamicRenderingPipeline.renderState(request, response);
+            fail("Pipeline failure should have been thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        verify(renderingResource).close();
+    }
+
+    @Test
+    public void acceptsGzipHonorsQualityValues() {
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+
+        assertFalse(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting(null)));
+        assertTrue(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("gzip, deflate")));
+        assertTrue(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("GZIP;q=0.5")));
+        assertTrue(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("x-gzip")));
+        assertTrue(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("br, *;q=0.1")));
+        assertFalse(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("gzip;q=0")));
+        assertFalse(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("gzip; q=0.0")));
+        assertFalse(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("*, gzip;q=0")));
+        assertFalse(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("deflate, br")));
+        assertFalse(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("*;q=0")));
+        assertFalse(dynamicRenderingPipeline.acceptsGzip(this.requestAccepting("gzip;q=x")));
+    }
+
+    /** Test that a failed render still produces a complete gzip stream. */
+    @Test
+    public void finishesGzipOutputOnFailure() throws Exception {
+        final MockHttpServletRequest request = this.requestAccepting("gzip");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        final Iterator<CharacterEvent> events =
+                Arrays.<CharacterEvent>asList(
+                                CharacterDataEventImpl.create("<html>"),
+                                CharacterDataEventImpl.create("</html>"))
+                        .iterator();
+        final Iterator<CharacterEvent> failingEvents =
+                new Iterator<CharacterEvent>() {
+                    private int count = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (this.count++ == 1) {
+                            throw new IllegalStateException("render failed");
+                        }
+                        return events.hasNext();
+                    }
+
+                    @Override
+                    public CharacterEvent next() {
+                        return events.next();
+                    }
+                };
+        when(pipelineEventReader.getOutputProperty(OutputKeys.MEDIA_TYPE)).thenReturn("text/html");
+        when(pipelineEventReader.iterator()).thenReturn(failingEvents);
+        when(characterPipelineComponent.getEventReader(any(), any()))
+                .thenReturn(pipelineEventReader);
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+        dynamicRenderingPipeline.setPipeline(characterPipelineComponent);
+        dynamicRenderingPipeline.setGzipOutput(true);
+
+        try {
+            dynamicRenderingPipeline.renderState(request, response);
+            fail("Render failure should have been thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("<html>", this.gunzip(response.getContentAsByteArray()));
+    }
+
+    /**
+     * Test that a render failing before anything was sent resets the response, so the error page
+     * can use getWriter() and is not sent gzip encoded.
+     */
+    @Test
+    public void resetsUncommittedGzipOutputOnFailure() throws Exception {
+        final MockHttpServletRequest request = this.requestAccepting("gzip");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        final Iterator<CharacterEvent> failingEvents =
+                new Iterator<CharacterEvent>() {
+                    private boolean first = true;
+
+                    @Override
+                    public boolean hasNext() {
+                        if (!this.first) {
+                            throw new IllegalStateException("render failed");
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public CharacterEvent next() {
+                        this.first = false;
+                        return CharacterDataEventImpl.create("<html>");
+                    }
+                };
+        when(pipelineEventReader.getOutputProperty(OutputKeys.MEDIA_TYPE)).thenReturn("text/html");
+        when(pipelineEventReader.iterator()).thenReturn(failingEvents);
+        when(characterPipelineComponent.getEventReader(any(), any()))
+                .thenReturn(pipelineEventReader);
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+        dynamicRenderingPipeline.setPipeline(characterPipelineComponent);
+        dynamicRenderingPipeline.setGzipOutput(true);
+        dynamicRenderingPipeline.setFlushStrategy(
+                DynamicRenderingPipeline.FlushStrategy.BEFORE_WAIT);
+
+        try {
+            dynamicRenderingPipeline.renderState(request, response);
+            fail("Render failure should have been thrown");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertFalse(response.isCommitted());
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        response.getWriter().write("error page");
+        response.flushBuffer();
+        assertEquals("error page", response.getContentAsString());
+    }
+
+    /** Test that error dispatches are never gzip encoded. */
+    @Test
+    public void skipsGzipForErrorDispatch() throws Exception {
+        final MockHttpServletRequest request = this.requestAccepting("gzip");
+        request.setDispatcherType(DispatcherType.ERROR);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        when(pipelineEventReader.getOutputProperty(OutputKeys.MEDIA_TYPE)).thenReturn("text/html");
+        when(pipelineEventReader.iterator())
+                .thenReturn(
+                        Arrays.<CharacterEvent>asList(CharacterDataEventImpl.create("<html/>"))
+                                .iterator());
+        when(characterPipelineComponent.getEventReader(any(), any()))
+                .thenReturn(pipelineEventReader);
+        when(urlSyntaxProvider.getPortalRequestInfo(any())).thenReturn(null);
+
+        final DynamicRenderingPipeline dynamicRenderingPipeline = new DynamicRenderingPipeline();
+        dynamicRenderingPipeline.setPipeline(characterPipelineComponent);
+        dynamicRenderingPipeline.setUrlSyntaxProvider(urlSyntaxProvider);
+        dynamicRenderingPipeline.setPortalEventFactory(portalEventFactory);
+        dynamicRenderingPipeline.setGzipOutput(true);
+
+        dynamicRenderingPipeline.renderState(request, response);
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("<html/>", response.getContentAsString());
+    }
+
+    private MockHttpServletRequest requestAccepting(String acceptEncoding) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        return request;
+    }
+
+    private String gunzip(byte[] data) throws Exception {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+    }
 }
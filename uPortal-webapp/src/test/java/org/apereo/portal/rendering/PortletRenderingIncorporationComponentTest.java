@@ -0,0 +1,245 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apereo.portal.character.stream.CharacterEventBufferReader;
+import org.apereo.portal.character.stream.CharacterEventReader;
+import org.apereo.portal.character.stream.events.CharacterDataEvent;
+import org.apereo.portal.character.stream.events.CharacterDataEventImpl;
+import org.apereo.portal.character.stream.events.CharacterEvent;
+import org.apereo.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.apereo.portal.character.stream.events.PortletLinkPlaceholderEventImpl;
+import org.apereo.portal.character.stream.events.PortletNewItemCountPlaceholderEventImpl;
+import org.apereo.portal.character.stream.events.PortletTitlePlaceholderEventImpl;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class PortletRenderingIncorporationComponentTest {
+    private static final String FILL_IN_SCRIPT =
+            "<script>(function(){var c=document.getElementById('up-progressive-content-slow'),"
+                    + "p=document.getElementById('up-progressive-slow');if(c&&p){"
+                    + "while(c.firstChild){p.parentNode.insertBefore(c.firstChild,p);}"
+                    + "p.parentNode.removeChild(p);c.parentNode.removeChild(c);}})();</script>";
+
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private CharacterPipelineComponent wrappedComponent;
+    @Mock private IPortletWindowId slowPortletWindowId;
+    @Mock private IPortletWindowId unstartedPortletWindowId;
+
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private PortletRenderingIncorporationComponent component;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        this.request = new MockHttpServletRequest();
+        this.response = new MockHttpServletResponse();
+
+        when(slowPortletWindowId.getStringId()).thenReturn("slow");
+        when(unstartedPortletWindowId.getStringId()).thenReturn("unstarted");
+
+        // The slow portlet is rendering in a worker, the other one was never started
+        when(portletExecutionManager.isPortletRenderRequested(
+                        slowPortletWindowId, this.request, this.response))
+                .thenReturn(true);
+        when(portletExecutionManager.isPortletRenderComplete(
+                        slowPortletWindowId, this.request, this.response))
+                .thenReturn(false);
+        when(portletExecutionManager.getPortletOutput(
+                        slowPortletWindowId, this.request, this.response))
+                .thenReturn("slow output");
+        when(portletExecutionManager.getPortletOutput(
+                        unstartedPortletWindowId, this.request, this.response))
+                .thenReturn("unstarted output");
+
+        this.component = new PortletRenderingIncorporationComponent();
+        this.component.setWrappedComponent(wrappedComponent);
+        this.component.setPortletExecutionManager(portletExecutionManager);
+        this.component.setProgressiveRendering(true);
+        this.component.setProgressiveCompletionWait(500);
+    }
+
+    @Test
+    public void testFillInsBeforeBodyEnd() throws Exception {
+        when(portletExecutionManager.waitForPortletRenderComplete(
+                        anyCollection(), eq(0L), any(), any()))
+                .thenReturn(null);
+        when(portletExecutionManager.waitForPortletRenderComplete(
+                        anyCollection(), eq(500L), any(), any()))
+                .thenReturn(slowPortletWindowId);
+
+        final String output =
+                this.render(
+                        CharacterDataEventImpl.create("<html><body>"),
+                        new PortletContentPlaceholderEventImpl(slowPortletWindowId),
+                        new PortletContentPlaceholderEventImpl(unstartedPortletWindowId),
+                        CharacterDataEventImpl.create("<p>after</p></BODY></html>"));
+
+        assertEquals(
+                "<html><body>"
+                        + "<div id=\"up-progressive-slow\" class=\"up-progressive-placeholder\">"
+                        + "</div>"
+                        + "unstarted output"
+                        + "<p>after</p>"
+                        + "<div id=\"up-progressive-content-slow\" hidden=\"hidden\">"
+                        + "slow output</div>"
+                        + FILL_IN_SCRIPT
+                        + "</BODY></html>",
+                output);
+
+        // Waited on the worker after flushing instead of polling
+        verify(portletExecutionManager)
+                .waitForPortletRenderComplete(
+                        anyCollection(), eq(500L), eq(this.request), eq(this.response));
+    }
+
+    @Test
+    public void testFillInsAppendedWithoutBody() throws Exception {
+        when(portletExecutionManager.waitForPortletRenderComplete(
+                        anyCollection(), eq(0L), any(), any()))
+                .thenReturn(slowPortletWindowId);
+
+        final String output =
+                this.render(
+                        new PortletContentPlaceholderEventImpl(slowPortletWindowId),
+                        CharacterDataEventImpl.create("<p>after</p>"));
+
+        assertEquals(
+                "<div id=\"up-progressive-slow\" class=\"up-progressive-placeholder\"></div>"
+                        + "<p>after</p>"
+                        + "<div id=\"up-progressive-content-slow\" hidden=\"hidden\">"
+                        + "slow output</div>"
+                        + FILL_IN_SCRIPT,
+                output);
+    }
+
+    @Test
+    public void testOldestDeferredPortletUsedAfterWait() throws Exception {
+        final String output =
+                this.render(
+                        CharacterDataEventImpl.create("<body>"),
+                        new PortletContentPlaceholderEventImpl(slowPortletWindowId),
+                        CharacterDataEventImpl.create("</body>"));
+
+        assertEquals(
+                "<body>"
+                        + "<div id=\"up-progressive-slow\" class=\"up-progressive-placeholder\">"
+                        + "</div>"
+                        + "<div id=\"up-progressive-content-slow\" hidden=\"hidden\">"
+                        + "slow output</div>"
+                        + FILL_IN_SCRIPT
+                        + "</body>",
+                output);
+    }
+
+    @Test
+    public void testValuesDeferred() throws Exception {
+        when(portletExecutionManager.getPortletTitle(
+                        slowPortletWindowId, this.request, this.response))
+                .thenReturn("Slow's title");
+        when(portletExecutionManager.getPortletLink(
+                        slowPortletWindowId, "/p/slow", this.request, this.response))
+                .thenReturn("http://example.org/slow");
+        when(portletExecutionManager.getPortletNewItemCount(
+                        slowPortletWindowId, this.request, this.response))
+                .thenReturn(3);
+
+        final String output =
+                this.render(
+                        CharacterDataEventImpl.create("<html><head><title>"),
+                        new PortletTitlePlaceholderEventImpl(slowPortletWindowId),
+                        CharacterDataEventImpl.create("</title></head><body><a href=\""),
+                        new PortletLinkPlaceholderEventImpl(slowPortletWindowId, "/p/slow"),
+                        CharacterDataEventImpl.create("\">"),
+                        new PortletNewItemCountPlaceholderEventImpl(slowPortletWindowId),
+                        CharacterDataEventImpl.create("</a></body></html>"));
+
+        // Tokens in place of the values, replaced by a script once the portlet completes
+        assertTrue(
+                output,
+                output.startsWith(
+                        "<html><head><title>{up-progressive-value-0}</title></head>"
+                                + "<body><a href=\"{up-progressive-value-1}\">"
+                                + "{up-progressive-value-2}</a><script>"));
+        assertTrue(
+                output,
+                output.endsWith(
+                        "})({'{up-progressive-value-0}':'Slow\\'s title',"
+                                + "'{up-progressive-value-1}':'http:\\/\\/example.org\\/slow',"
+                                + "'{up-progressive-value-2}':'3'});</script></body></html>"));
+    }
+
+    @Test
+    public void testBodyEndInPortletOutputIgnored() throws Exception {
+        when(portletExecutionManager.getPortletOutput(
+                        unstartedPortletWindowId, this.request, this.response))
+                .thenReturn("<pre>&lt;/body&gt;</body></pre>");
+
+        final String output =
+                this.render(
+                        CharacterDataEventImpl.create("<body>"),
+                        new PortletContentPlaceholderEventImpl(slowPortletWindowId),
+                        new PortletContentPlaceholderEventImpl(unstartedPortletWindowId),
+                        CharacterDataEventImpl.create("</body>"));
+
+        assertEquals(
+                "<body>"
+                        + "<div id=\"up-progressive-slow\" class=\"up-progressive-placeholder\">"
+                        + "</div>"
+                        + "<pre>&lt;/body&gt;</body></pre>"
+                        + "<div id=\"up-progressive-content-slow\" hidden=\"hidden\">"
+                        + "slow output</div>"
+                        + FILL_IN_SCRIPT
+                        + "</body>",
+                output);
+    }
+
+    private String render(CharacterEvent... events) {
+        final List<CharacterEvent> eventBuffer = new ArrayList<>(Arrays.asList(events));
+        final CharacterEventReader eventReader =
+                new CharacterEventBufferReader(eventBuffer.listIterator());
+        when(wrappedComponent.getEventReader(this.request, this.response))
+                .thenReturn(
+                        new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(
+                                eventReader, Collections.<String, String>emptyMap()));
+
+        final StringBuilder output = new StringBuilder();
+        for (final CharacterEvent event :
+                this.component.getEventReader(this.request, this.response)) {
+            output.append(((CharacterDataEvent) event).getData());
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import org.apereo.portal.portlet.om.IPortletWindow;
+import org.apereo.portal.portlet.om.IPortletWindowId;
+import org.apereo.portal.portlet.registry.IPortletWindowRegistry;
+import org.apereo.portal.portlet.rendering.IPortletExecutionManager;
+import org.apereo.portal.portlet.rendering.worker.PortletExecutionPriority;
+import org.apereo.portal.utils.Tuple;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class PortletRenderingInitiationStAXComponentTest {
+    private static final String STRUCTURE =
+            "<layout><header><channel-header ID=\"n1\"/></header>"
+                    + "<regions>"
+                    + "<region name=\"header-left\"><channel ID=\"n1\"/></region>"
+                    + "<region name=\"footer-first\"><channel ID=\"n2\"/></region>"
+                    + "</regions>"
+                    + "<content>"
+                    + "<column><channel ID=\"n3\"/><channel ID=\"n4\"/>"
+                    + "<channel ID=\"n5\"/></column>"
+                    + "<column><channel ID=\"n6\"/></column>"
+                    + "</content>"
+                    + "<channel ID=\"n7\"/>"
+                    + "</layout>";
+
+    @Mock private IPortletExecutionManager portletExecutionManager;
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private StAXPipelineComponent wrappedComponent;
+
+    private final Map<String, IPortletWindowId> portletWindowIds = new HashMap<>();
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private PortletRenderingInitiationStAXComponent component;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        this.request = new MockHttpServletRequest();
+        this.response = new MockHttpServletResponse();
+
+        when(portletWindowRegistry.getPortletWindow(eq(this.request), any(StartElement.class)))
+                .thenAnswer(
+                        invocation -> {
+                            final StartElement element = invocation.getArgument(1);
+                            final IPortletWindowId portletWindowId =
+                                    this.getPortletWindowId(
+                                            element.getAttributeByName(new QName("ID"))
+                                                    .getValue());
+                            final IPortletWindow portletWindow = mock(IPortletWindow.class);
+                            when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+                            return new Tuple<>(portletWindow, element);
+                        });
+
+        this.component = new PortletRenderingInitiationStAXComponent();
+        this.component.setWrappedComponent(wrappedComponent);
+        this.component.setPortletExecutionManager(portletExecutionManager);
+        this.component.setPortletWindowRegistry(portletWindowRegistry);
+    }
+
+    @Test
+    public void testAboveTheFold() throws Exception {
+        this.render();
+
+        // The top of each column and of the header regions, not the footer or outside of both
+        assertEquals(
+                new HashSet<>(
+                        Arrays.asList(
+                                this.getPortletWindowId("n1"),
+                                this.getPortletWindowId("n3"),
+                                this.getPortletWindowId("n4"),
+                                this.getPortletWindowId("n6"))),
+                this.request.getAttribute(PortletExecutionPriority.ABOVE_FOLD_ATTRIBUTE));
+
+        // Every portlet is still rendered
+        for (final IPortletWindowId portletWindowId : this.portletWindowIds.values()) {
+            verify(portletExecutionManager, times(1))
+                    .startPortletRender(portletWindowId, this.request, this.response);
+        }
+    }
+
+    @Test
+    public void testAboveTheFoldDisabled() throws Exception {
+        this.component.setAboveTheFoldPortlets(0);
+        this.render();
+
+        assertNull(this.request.getAttribute(PortletExecutionPriority.ABOVE_FOLD_ATTRIBUTE));
+        assertEquals(7, this.portletWindowIds.size());
+    }
+
+    private void render() throws Exception {
+        final XMLEventReader eventReader =
+                XMLInputFactory.newInstance().createXMLEventReader(new StringReader(STRUCTURE));
+        when(wrappedComponent.getEventReader(this.request, this.response))
+                .thenReturn(
+                        new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(
+                                eventReader, Collections.<String, String>emptyMap()));
+
+        final XMLEventReader filteredReader =
+                this.component.getEventReader(this.request, this.response).getEventReader();
+        while (filteredReader.hasNext()) {
+            filteredReader.nextEvent();
+        }
+    }
+
+    private IPortletWindowId getPortletWindowId(String id) {
+        return this.portletWindowIds.computeIfAbsent(
+                id,
+                key -> {
+                    final IPortletWindowId portletWindowId = mock(IPortletWindowId.class);
+                    when(portletWindowId.getStringId()).thenReturn(key);
+                    return portletWindowId;
+                });
+    }
+}
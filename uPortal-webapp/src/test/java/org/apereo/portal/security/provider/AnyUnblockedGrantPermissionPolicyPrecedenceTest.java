@@ -0,0 +1,399 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.groups.IEntityGroup;
+import org.apereo.portal.groups.IGroupMember;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.dao.IPermissionOwnerDao;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.permission.target.IPermissionTarget.TargetType;
+import org.apereo.portal.permission.target.IPermissionTargetProvider;
+import org.apereo.portal.permission.target.IPermissionTargetProviderRegistry;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks grant, deny and block precedence of {@link AnyUnblockedGrantPermissionPolicy} through its
+ * per-principal permission matrices. The groups are:
+ *
+ * <pre>
+ * jdoe -- small -- bigger
+ *      -- other -- biggerOther
+ * </pre>
+ */
+public class AnyUnblockedGrantPermissionPolicyPrecedenceTest {
+    private static final String OWNER = "UP_PORTLET_SUBSCRIBE";
+    private static final String ACTIVITY = "BROWSE";
+    private static final String TARGET = "PORTLET_ID.42";
+
+    private CacheManager cacheManager;
+    private AnyUnblockedGrantPermissionPolicy policy;
+    private IAuthorizationService service;
+    private IPermissionTargetProvider targetProvider;
+
+    private IPermissionOwner owner;
+    private IPermissionActivity activity;
+    private IPermissionTarget target;
+
+    private IAuthorizationPrincipal jdoe;
+    private IAuthorizationPrincipal small;
+    private IAuthorizationPrincipal bigger;
+    private IAuthorizationPrincipal other;
+    private IAuthorizationPrincipal biggerOther;
+
+    @Before
+    public void setup() throws Exception {
+        cacheManager = CacheManager.create();
+        final Cache cache =
+                new Cache(
+                        "anyUnblockedGrantPermissionPolicyPrecedenceTest", 100, false, false, 0, 0);
+        cacheManager.addCache(cache);
+
+        final IPermissionActivity allPermissions =
+                mockActivity(IPermission.ALL_PERMISSIONS_ACTIVITY);
+        final IPermissionOwnerDao permissionOwnerDao = mock(IPermissionOwnerDao.class);
+        when(permissionOwnerDao.getPermissionActivity(
+                        IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY))
+                .thenReturn(allPermissions);
+        final IPermissionOwner system = mockOwner(IPermission.PORTAL_SYSTEM);
+        when(permissionOwnerDao.getPermissionOwner(IPermission.PORTAL_SYSTEM)).thenReturn(system);
+
+        targetProvider = mock(IPermissionTargetProvider.class);
+        when(targetProvider.getTarget(anyString()))
+                .thenAnswer(invocation -> newTarget(invocation.getArgument(0)));
+        final IPermissionTargetProviderRegistry targetProviderRegistry =
+                mock(IPermissionTargetProviderRegistry.class);
+        when(targetProviderRegistry.getTargetProvider(anyString())).thenReturn(targetProvider);
+
+        policy = new AnyUnblockedGrantPermissionPolicy();
+        policy.setPermissionOwnerDao(permissionOwnerDao);
+        policy.setTargetProviderRegistry(targetProviderRegistry);
+        policy.setHasUnblockedGrantCache(cache);
+
+        service = mock(IAuthorizationService.class);
+        when(service.getPermissionsForPrincipal(
+                        any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString()))
+                .thenReturn(new IPermission[0]);
+
+        owner = mockOwner(OWNER);
+        activity = mockActivity(ACTIVITY);
+        target = newTarget(TARGET);
+
+        bigger = mockPrincipal("local.2", true);
+        small = mockPrincipal("local.1", true, bigger);
+        biggerOther = mockPrincipal("local.4", true);
+        other = mockPrincipal("local.3", true, biggerOther);
+        jdoe = mockPrincipal("jdoe", false, small, other);
+    }
+
+    @After
+    public void teardown() {
+        cacheManager.removeCache("anyUnblockedGrantPermissionPolicyPrecedenceTest");
+    }
+
+    @Test
+    public void testNoGrantIsDenied() throws Exception {
+        assertFalse(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+    }
+
+    @Test
+    public void testInheritedGrant() throws Exception {
+        addPermission(bigger, TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertTrue(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+    }
+
+    @Test
+    public void testDenyTrumpsGrantOfTheSamePrincipal() throws Exception {
+        addPermission(
+                jdoe, TARGET, IPermission.PERMISSION_TYPE_GRANT, IPermission.PERMISSION_TYPE_DENY);
+        assertFalse(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+    }
+
+    @Test
+    public void testExplicitGrantTrumpsInheritedDeny() throws Exception {
+        addPermission(jdoe, TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        addPermission(small, TARGET, IPermission.PERMISSION_TYPE_DENY);
+        assertTrue(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+    }
+
+    @Test
+    public void testDenyBlocksInheritedGrant() throws Exception {
+        addPermission(small, TARGET, IPermission.PERMISSION_TYPE_DENY);
+        addPermission(bigger, TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertFalse(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+
+        // The blocked answer of small is kept in its own matrix and isn't a grant for bigger
+        assertTrue(policy.doesPrincipalHavePermission(service, bigger, owner, activity, target));
+    }
+
+    @Test
+    public void testUnblockedPathToGrant() throws Exception {
+        addPermission(small, TARGET, IPermission.PERMISSION_TYPE_DENY);
+        addPermission(bigger, TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        addPermission(biggerOther, TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertTrue(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+    }
+
+    @Test
+    public void testCollectiveTargetGrant() throws Exception {
+        addPermission(bigger, IPermission.ALL_PORTLETS_TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        final IPermissionTarget portlet = newTarget(TARGET, TargetType.PORTLET);
+        assertTrue(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, portlet));
+    }
+
+    @Test
+    public void testSuperUser() throws Exception {
+        addPermission(
+                jdoe,
+                IPermission.PORTAL_SYSTEM,
+                IPermission.ALL_PERMISSIONS_ACTIVITY,
+                IPermission.ALL_TARGET,
+                IPermission.PERMISSION_TYPE_GRANT);
+        addPermission(jdoe, TARGET, IPermission.PERMISSION_TYPE_DENY);
+        assertTrue(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+    }
+
+    @Test
+    public void testAnswersAreKeptInTheMatrix() throws Exception {
+        addPermission(bigger, TARGET, IPermission.PERMISSION_TYPE_GRANT);
+        assertTrue(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+        assertTrue(policy.doesPrincipalHavePermission(service, jdoe, owner, activity, target));
+
+        // Another member of small reuses the answers of small and bigger
+        final IAuthorizationPrincipal jsmith = mockPrincipal("jsmith", false, small);
+        assertTrue(policy.doesPrincipalHavePermission(service, jsmith, owner, activity, target));
+
+        verify(service, times(1)).getPermissionsForPrincipal(jdoe, OWNER, ACTIVITY, TARGET);
+        verify(service, times(1)).getPermissionsForPrincipal(small, OWNER, ACTIVITY, TARGET);
+        verify(service, times(1)).getPermissionsForPrincipal(bigger, OWNER, ACTIVITY, TARGET);
+    }
+
+    @Test
+    public void testDoesPrincipalHavePermissions() throws Exception {
+        addPermission(bigger, "PORTLET_ID.1", IPermission.PERMISSION_TYPE_GRANT);
+        addPermission(small, "PORTLET_ID.2", IPermission.PERMISSION_TYPE_DENY);
+        addPermission(bigger, "PORTLET_ID.2", IPermission.PERMISSION_TYPE_GRANT);
+        addPermission(biggerOther, "PORTLET_ID.3", IPermission.PERMISSION_TYPE_GRANT);
+
+        final BitSet rslt =
+                policy.doesPrincipalHavePermissions(
+                        service,
+                        jdoe,
+                        owner,
+                        activity,
+                        Arrays.asList(
+                                newTarget("PORTLET_ID.1"),
+                                newTarget("PORTLET_ID.2"),
+                                null,
+                                newTarget("PORTLET_ID.3")));
+
+        final BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(3);
+        assertEquals(expected, rslt);
+    }
+
+    @Test
+    public void testSuperUserIsNotPermittedNullTargets() throws Exception {
+        addPermission(
+                jdoe,
+                IPermission.PORTAL_SYSTEM,
+                IPermission.ALL_PERMISSIONS_ACTIVITY,
+                IPermission.ALL_TARGET,
+                IPermission.PERMISSION_TYPE_GRANT);
+
+        final BitSet rslt =
+                policy.doesPrincipalHavePermissions(
+                        service,
+                        jdoe,
+                        owner,
+                        activity,
+                        Arrays.asList(newTarget("PORTLET_ID.1"), null, newTarget("PORTLET_ID.3")));
+
+        final BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(2);
+        assertEquals(expected, rslt);
+    }
+
+    @Test
+    public void testManyTargetsStayCached() throws Exception {
+        final int targetCount = 10000;
+        for (int i = 0; i < targetCount; i += 7) {
+            addPermission(bigger, "PORTLET_ID.x" + i, IPermission.PERMISSION_TYPE_GRANT);
+        }
+
+        checkTargets(0, targetCount);
+        assertEquals(targetCount + 1, policy.getTargetIdCount());
+
+        // Every answer of the second pass comes from the matrices
+        clearInvocations(service);
+        checkTargets(0, targetCount);
+        verify(service, never())
+                .getPermissionsForPrincipal(
+                        any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void testTargetsPastMaxTargetIdsAreNotCached() throws Exception {
+        policy.setMaxTargetIds(100);
+        for (int i = 0; i < 150; i += 7) {
+            addPermission(bigger, "PORTLET_ID.x" + i, IPermission.PERMISSION_TYPE_GRANT);
+        }
+
+        checkTargets(0, 150);
+        assertEquals(100, policy.getTargetIdCount());
+
+        clearInvocations(service);
+        checkTargets(0, 150);
+
+        // Targets that got an id stay cached, the others are answered again
+        verify(service, never()).getPermissionsForPrincipal(jdoe, OWNER, ACTIVITY, "PORTLET_ID.x0");
+        verify(service, never())
+                .getPermissionsForPrincipal(jdoe, OWNER, ACTIVITY, "PORTLET_ID.x98");
+        verify(service, times(1))
+                .getPermissionsForPrincipal(jdoe, OWNER, ACTIVITY, "PORTLET_ID.x99");
+        verify(service, times(1))
+                .getPermissionsForPrincipal(bigger, OWNER, ACTIVITY, "PORTLET_ID.x147");
+    }
+
+    /** Checks jdoe's permission on targets x[from] to x[to - 1], every 7th is granted to bigger */
+    private void checkTargets(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            assertEquals(
+                    "PORTLET_ID.x" + i,
+                    i % 7 == 0,
+                    policy.doesPrincipalHavePermission(
+                            service, jdoe, owner, activity, newTarget("PORTLET_ID.x" + i)));
+        }
+    }
+
+    private void addPermission(IAuthorizationPrincipal principal, String targetKey, String... types)
+            throws Exception {
+        final IPermission[] permissions = new IPermission[types.length];
+        for (int i = 0; i < types.length; i++) {
+            permissions[i] = newPermission(principal, OWNER, ACTIVITY, targetKey, types[i]);
+        }
+        when(service.getPermissionsForPrincipal(principal, OWNER, ACTIVITY, targetKey))
+                .thenReturn(permissions);
+    }
+
+    private void addPermission(
+            IAuthorizationPrincipal principal,
+            String ownerFname,
+            String activityFname,
+            String targetKey,
+            String type)
+            throws Exception {
+        when(service.getPermissionsForPrincipal(principal, ownerFname, activityFname, targetKey))
+                .thenReturn(
+                        new IPermission[] {
+                            newPermission(principal, ownerFname, activityFname, targetKey, type)
+                        });
+    }
+
+    private IPermission newPermission(
+            IAuthorizationPrincipal principal,
+            String ownerFname,
+            String activityFname,
+            String targetKey,
+            String type) {
+        final IPermission rslt = new PermissionImpl(ownerFname);
+        rslt.setPrincipal(principal.getPrincipalString());
+        rslt.setActivity(activityFname);
+        rslt.setTarget(targetKey);
+        rslt.setType(type);
+        return rslt;
+    }
+
+    private IAuthorizationPrincipal mockPrincipal(
+            String key, boolean isGroup, IAuthorizationPrincipal... parents) throws Exception {
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        when(principal.getKey()).thenReturn(key);
+        when(principal.isGroup()).thenReturn(isGroup);
+        when(principal.getPrincipalString()).thenReturn((isGroup ? "2." : "3.") + key);
+
+        final IGroupMember member = isGroup ? mock(IEntityGroup.class) : mock(IGroupMember.class);
+        final HashSet<IEntityGroup> parentGroups = new HashSet<>();
+        for (IAuthorizationPrincipal parent : parents) {
+            parentGroups.add((IEntityGroup) service.getGroupMember(parent));
+        }
+        when(member.getParentGroups()).thenReturn(parentGroups);
+        when(service.getGroupMember(principal)).thenReturn(member);
+        if (isGroup) {
+            when(service.newPrincipal(member)).thenReturn(principal);
+        }
+        return principal;
+    }
+
+    private IPermissionOwner mockOwner(String fname) {
+        final IPermissionOwner rslt = mock(IPermissionOwner.class);
+        when(rslt.getFname()).thenReturn(fname);
+        return rslt;
+    }
+
+    private IPermissionActivity mockActivity(String fname) {
+        final IPermissionActivity rslt = mock(IPermissionActivity.class);
+        when(rslt.getFname()).thenReturn(fname);
+        when(rslt.getTargetProviderKey()).thenReturn("targetProvider");
+        return rslt;
+    }
+
+    private IPermissionTarget newTarget(String key) {
+        return newTarget(key, TargetType.OTHER);
+    }
+
+    private IPermissionTarget newTarget(final String key, final TargetType targetType) {
+        return new IPermissionTarget() {
+            @Override
+            public String getKey() {
+                return key;
+            }
+
+            @Override
+            public String getName() {
+                return key;
+            }
+
+            @Override
+            public TargetType getTargetType() {
+                return targetType;
+            }
+        };
+    }
+}
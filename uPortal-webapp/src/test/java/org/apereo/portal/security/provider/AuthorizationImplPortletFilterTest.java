@@ -0,0 +1,259 @@
+/**
+ * Licensed to Apereo under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright ownership. Apereo
+ * licenses this file to you under the Apache License, Version 2.0 (the "License"); you may not use
+ * this file except in compliance with the License. You may obtain a copy of the License at the
+ * following location:
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apereo.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import org.apereo.portal.permission.IPermissionActivity;
+import org.apereo.portal.permission.IPermissionOwner;
+import org.apereo.portal.permission.dao.IPermissionOwnerDao;
+import org.apereo.portal.permission.target.IPermissionTarget;
+import org.apereo.portal.permission.target.IPermissionTargetProvider;
+import org.apereo.portal.permission.target.IPermissionTargetProviderRegistry;
+import org.apereo.portal.portlet.om.IPortletDefinition;
+import org.apereo.portal.portlet.om.IPortletDefinitionId;
+import org.apereo.portal.portlet.om.PortletLifecycleState;
+import org.apereo.portal.portlet.registry.IPortletDefinitionRegistry;
+import org.apereo.portal.security.IAuthorizationPrincipal;
+import org.apereo.portal.security.IAuthorizationService;
+import org.apereo.portal.security.IPermission;
+import org.apereo.portal.security.IPermissionPolicy;
+import org.apereo.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Checks that the bulk portlet filters of {@link AuthorizationImpl} answer the same as the per
+ * portlet checks for portlets in every lifecycle state.
+ */
+public class AuthorizationImplPortletFilterTest {
+    private static final String CACHE_NAME = "authorizationImplPortletFilterTest";
+
+    private CacheManager cacheManager;
+    private AuthorizationImpl authorizationService;
+    private GrantSetPermissionPolicy policy;
+    private IAuthorizationPrincipal principal;
+    private List<IPortletDefinition> portlets;
+
+    @Before
+    public void setup() {
+        cacheManager = CacheManager.create();
+        final Cache cache = new Cache(CACHE_NAME, 1000, false, false, 0, 0);
+        cacheManager.addCache(cache);
+
+        final IPermissionOwnerDao permissionOwnerDao = mock(IPermissionOwnerDao.class);
+        final IPermissionOwner owner = mock(IPermissionOwner.class);
+        when(owner.getFname()).thenReturn(IPermission.PORTAL_SUBSCRIBE);
+        when(permissionOwnerDao.getPermissionOwner(IPermission.PORTAL_SUBSCRIBE)).thenReturn(owner);
+        when(permissionOwnerDao.getPermissionActivity(
+                        eq(IPermission.PORTAL_SUBSCRIBE), anyString()))
+                .thenAnswer(invocation -> mockActivity(invocation.getArgument(1)));
+
+        final IPermissionTargetProvider targetProvider = mock(IPermissionTargetProvider.class);
+        when(targetProvider.getTarget(anyString()))
+                .thenAnswer(invocation -> mockTarget(invocation.getArgument(0)));
+        final IPermissionTargetProviderRegistry targetProviderRegistry =
+                mock(IPermissionTargetProviderRegistry.class);
+        when(targetProviderRegistry.getTargetProvider(anyString())).thenReturn(targetProvider);
+
+        final IPortletDefinitionRegistry portletDefinitionRegistry =
+                mock(IPortletDefinitionRegistry.class);
+        portlets = new ArrayList<>();
+        final PortletLifecycleState[] states = PortletLifecycleState.values();
+        for (int i = 0; i < 15; i++) {
+            final IPortletDefinition portlet = mockPortlet(i, states[i % states.length]);
+            when(portletDefinitionRegistry.getPortletDefinition(String.valueOf(i)))
+                    .thenReturn(portlet);
+            portlets.add(portlet);
+        }
+
+        policy = new GrantSetPermissionPolicy();
+        for (int i = 0; i < portlets.size(); i++) {
+            final IPortletDefinition portlet = portlets.get(i);
+            final String target = IPermission.PORTLET_PREFIX + i;
+            switch (i % 3) {
+                case 0:
+                    // Granted for the portlet's lifecycle state
+                    policy.grants.add(browseActivity(portlet) + "|" + target);
+                    policy.grants.add(subscribeActivity(portlet) + "|" + target);
+                    break;
+                case 1:
+                    // Granted for published portlets only, whatever the portlet's state
+                    policy.grants.add(IPermission.PORTLET_BROWSE_ACTIVITY + "|" + target);
+                    policy.grants.add(IPermission.PORTLET_SUBSCRIBER_ACTIVITY + "|" + target);
+                    break;
+                default:
+                    // Browsable, but not subscribable
+                    policy.grants.add(browseActivity(portlet) + "|" + target);
+            }
+        }
+
+        authorizationService = new AuthorizationImpl();
+        authorizationService.setDefaultPermissionPolicy(policy);
+        authorizationService.setDoesPrincipalHavePermissionCache(cache);
+        authorizationService.setPortletDefinitionRegistry(portletDefinitionRegistry);
+        ReflectionTestUtils.setField(
+                authorizationService, "permissionOwnerDao", permissionOwnerDao);
+        ReflectionTestUtils.setField(
+                authorizationService, "targetProviderRegistry", targetProviderRegistry);
+
+        principal = mock(IAuthorizationPrincipal.class);
+        when(principal.getKey()).thenReturn("jdoe");
+        when(principal.getType()).thenReturn(IPerson.class);
+    }
+
+    @After
+    public void teardown() {
+        cacheManager.removeCache(CACHE_NAME);
+    }
+
+    @Test
+    public void testFilterBrowsablePortletsMatchesCanPrincipalBrowse() {
+        final List<IPortletDefinition> filtered =
+                authorizationService.filterBrowsablePortlets(principal, portlets);
+
+        // One bulk check per browse activity, PUBLISHED and MAINTENANCE share theirs
+        assertEquals(4, policy.bulkChecks);
+
+        final List<IPortletDefinition> expected = new ArrayList<>();
+        for (final IPortletDefinition portlet : portlets) {
+            if (authorizationService.canPrincipalBrowse(principal, portlet)) {
+                expected.add(portlet);
+            }
+        }
+        assertEquals(expected, filtered);
+        assertFalse(filtered.isEmpty());
+        assertTrue(filtered.size() < portlets.size());
+    }
+
+    @Test
+    public void testFilterSubscribablePortletsMatchesCanPrincipalSubscribe() {
+        final List<IPortletDefinition> filtered =
+                authorizationService.filterSubscribablePortlets(principal, portlets);
+
+        assertEquals(4, policy.bulkChecks);
+
+        final List<IPortletDefinition> expected = new ArrayList<>();
+        for (final IPortletDefinition portlet : portlets) {
+            if (authorizationService.canPrincipalSubscribe(
+                    principal, portlet.getPortletDefinitionId().getStringId())) {
+                expected.add(portlet);
+            }
+        }
+        assertEquals(expected, filtered);
+        assertFalse(filtered.isEmpty());
+        assertTrue(filtered.size() < portlets.size());
+    }
+
+    @Test
+    public void testFilterEmptyCollection() {
+        assertTrue(
+                authorizationService
+                        .filterBrowsablePortlets(principal, new ArrayList<>())
+                        .isEmpty());
+        assertEquals(0, policy.bulkChecks);
+    }
+
+    private static String browseActivity(IPortletDefinition portlet) {
+        switch (portlet.getLifecycleState()) {
+            case CREATED:
+                return IPermission.PORTLET_BROWSE_CREATED_ACTIVITY;
+            case APPROVED:
+                return IPermission.PORTLET_BROWSE_APPROVED_ACTIVITY;
+            case EXPIRED:
+                return IPermission.PORTLET_BROWSE_EXPIRED_ACTIVITY;
+            default:
+                return IPermission.PORTLET_BROWSE_ACTIVITY;
+        }
+    }
+
+    private static String subscribeActivity(IPortletDefinition portlet) {
+        switch (portlet.getLifecycleState()) {
+            case CREATED:
+                return IPermission.PORTLET_SUBSCRIBER_CREATED_ACTIVITY;
+            case APPROVED:
+                return IPermission.PORTLET_SUBSCRIBER_APPROVED_ACTIVITY;
+            case EXPIRED:
+                return IPermission.PORTLET_SUBSCRIBER_EXPIRED_ACTIVITY;
+            default:
+                return IPermission.PORTLET_SUBSCRIBER_ACTIVITY;
+        }
+    }
+
+    private static IPortletDefinition mockPortlet(int id, PortletLifecycleState state) {
+        final IPortletDefinitionId portletDefinitionId = mock(IPortletDefinitionId.class);
+        when(portletDefinitionId.getStringId()).thenReturn(String.valueOf(id));
+        final IPortletDefinition portlet = mock(IPortletDefinition.class);
+        when(portlet.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        when(portlet.getLifecycleState()).thenReturn(state);
+        return portlet;
+    }
+
+    private static IPermissionActivity mockActivity(String fname) {
+        final IPermissionActivity activity = mock(IPermissionActivity.class);
+        when(activity.getFname()).thenReturn(fname);
+        when(activity.getTargetProviderKey()).thenReturn("targetProvider");
+        return activity;
+    }
+
+    private static IPermissionTarget mockTarget(String key) {
+        final IPermissionTarget target = mock(IPermissionTarget.class);
+        when(target.getKey()).thenReturn(key);
+        return target;
+    }
+
+    /** Grants the activity and target pairs in {@link #grants}, counts the bulk checks */
+    private static final class GrantSetPermissionPolicy implements IPermissionPolicy {
+        private final Set<String> grants = new HashSet<>();
+        private int bulkChecks;
+
+        @Override
+        public boolean doesPrincipalHavePermission(
+                IAuthorizationService service,
+                IAuthorizationPrincipal principal,
+                IPermissionOwner owner,
+                IPermissionActivity activity,
+                IPermissionTarget target) {
+            return grants.contains(activity.getFname() + "|" + target.getKey());
+        }
+
+        @Override
+        public BitSet doesPrincipalHavePermissions(
+                IAuthorizationService service,
+                IAuthorizationPrincipal principal,
+                IPermissionOwner owner,
+                IPermissionActivity activity,
+                List<IPermissionTarget> targets) {
+            bulkChecks++;
+            return IPermissionPolicy.super.doesPrincipalHavePermissions(
+                    service, principal, owner, activity, targets);
+        }
+    }
+}